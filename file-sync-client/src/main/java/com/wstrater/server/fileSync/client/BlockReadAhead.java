@@ -0,0 +1,179 @@
+package com.wstrater.server.fileSync.client;
+
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.wstrater.server.fileSync.common.data.ChunkInfo;
+import com.wstrater.server.fileSync.common.data.ReadRequest;
+import com.wstrater.server.fileSync.common.data.ReadResponse;
+import com.wstrater.server.fileSync.common.exceptions.ErrorReadingBlockException;
+import com.wstrater.server.fileSync.common.exceptions.FileSyncException;
+import com.wstrater.server.fileSync.common.file.BlockReader;
+
+/**
+ * Reads the blocks of the chunks not yet flagged in a {@link ChunkInfo} on a background thread into
+ * a bounded queue. This lets the next blocks be read while the {@link Syncer} is writing and
+ * verifying the previous ones. The queue depth limits how many blocks are in flight.
+ *
+ * @author wstrater
+ *
+ */
+class BlockReadAhead implements Runnable {
+
+  private final static AtomicInteger threadCount = new AtomicInteger();
+
+  protected final Logger             logger      = LoggerFactory.getLogger(getClass());
+
+  private final ChunkInfo            chunkInfo;
+  private final String               fileName;
+  private final BlockingQueue<Block> queue;
+  private final File                 readBaseDir;
+  private final BlockReader          reader;
+  private volatile boolean           cancelled;
+  private Thread                     thread;
+
+  BlockReadAhead(BlockReader reader, File readBaseDir, String fileName, ChunkInfo chunkInfo, int queueDepth) {
+    this.reader = reader;
+    this.readBaseDir = readBaseDir;
+    this.fileName = fileName;
+    this.chunkInfo = chunkInfo;
+    this.queue = new ArrayBlockingQueue<>(Math.max(1, queueDepth));
+  }
+
+  /**
+   * Stop reading. Any blocks already queued are discarded.
+   */
+  void cancel() {
+    cancelled = true;
+    queue.clear();
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  /**
+   * Wait for the next block read. The last block returned is {@link Block#isEnd()}.
+   *
+   * @return
+   * @throws FileSyncException If the read failed.
+   */
+  Block next() {
+    Block ret = null;
+
+    try {
+      ret = queue.take();
+    } catch (InterruptedException ee) {
+      Thread.currentThread().interrupt();
+      throw new ErrorReadingBlockException(String.format("Interrupted waiting for a block of %s", fileName));
+    }
+
+    if (ret.error != null) {
+      if (ret.error instanceof FileSyncException) {
+        throw (FileSyncException) ret.error;
+      } else {
+        throw new ErrorReadingBlockException(String.format("Error reading a block of %s: %s", fileName, ret.error));
+      }
+    }
+
+    return ret;
+  }
+
+  private void put(Block block) throws InterruptedException {
+    while (!cancelled && !queue.offer(block, 100L, TimeUnit.MILLISECONDS)) {
+      // Keep waiting for room unless cancelled
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      try {
+        for (int chunkIndex = 0; chunkIndex < chunkInfo.getNumChunks() && !cancelled; chunkIndex++) {
+          if (!chunkInfo.isFlag(chunkIndex)) {
+            long offset = (long) chunkIndex * chunkInfo.getChunkSize() * chunkInfo.getBlockSize();
+            for (int blockIndex = 0; blockIndex < chunkInfo.getChunkSize() && !cancelled; blockIndex++) {
+              // A new request for every block since the response keeps a reference to it.
+              ReadRequest readRequest = new ReadRequest();
+              readRequest.setBaseDir(readBaseDir);
+              readRequest.setFileName(fileName);
+              readRequest.setBlockSize(chunkInfo.getBlockSize());
+              readRequest.setOffset(offset);
+              ReadResponse readResponse = reader.readBlock(readRequest);
+
+              put(new Block(chunkIndex, offset, blockIndex == chunkInfo.getChunkSize() - 1, readResponse, null));
+
+              offset += chunkInfo.getBlockSize();
+            }
+          }
+        }
+        put(new Block(-1, -1L, false, null, null));
+      } catch (RuntimeException ee) {
+        logger.debug(String.format("Error reading ahead %s: %s", fileName, ee));
+        put(new Block(-1, -1L, false, null, ee));
+      }
+    } catch (InterruptedException ee) {
+      // Cancelled
+    }
+  }
+
+  /**
+   * Start reading ahead on a daemon thread.
+   *
+   * @return
+   */
+  BlockReadAhead start() {
+    thread = new Thread(this, String.format("%s-%d", getClass().getSimpleName(), threadCount.incrementAndGet()));
+    thread.setDaemon(true);
+    thread.start();
+
+    return this;
+  }
+
+  /**
+   * A block read ahead of being written.
+   */
+  static class Block {
+
+    private final int          chunkIndex;
+    private final Throwable    error;
+    private final boolean      lastInChunk;
+    private final long         offset;
+    private final ReadResponse readResponse;
+
+    private Block(int chunkIndex, long offset, boolean lastInChunk, ReadResponse readResponse, Throwable error) {
+      this.chunkIndex = chunkIndex;
+      this.offset = offset;
+      this.lastInChunk = lastInChunk;
+      this.readResponse = readResponse;
+      this.error = error;
+    }
+
+    int getChunkIndex() {
+      return chunkIndex;
+    }
+
+    long getOffset() {
+      return offset;
+    }
+
+    ReadResponse getReadResponse() {
+      return readResponse;
+    }
+
+    boolean isEnd() {
+      return readResponse == null;
+    }
+
+    boolean isLastInChunk() {
+      return lastInChunk;
+    }
+
+  }
+
+}
\ No newline at end of file
@@ -1,9 +1,12 @@
 package com.wstrater.server.fileSync.client;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.ws.rs.core.MediaType;
 
@@ -14,13 +17,25 @@ import org.slf4j.LoggerFactory;
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import com.sun.jersey.api.client.WebResource.Builder;
+import com.wstrater.server.fileSync.common.codec.Codec;
+import com.wstrater.server.fileSync.common.codec.Codecs;
+import com.wstrater.server.fileSync.common.data.DeltaRequest;
+import com.wstrater.server.fileSync.common.data.FileSignature;
+import com.wstrater.server.fileSync.common.data.HashTree;
 import com.wstrater.server.fileSync.common.data.ReadRequest;
 import com.wstrater.server.fileSync.common.data.ReadResponse;
+import com.wstrater.server.fileSync.common.data.SignatureRequest;
+import com.wstrater.server.fileSync.common.data.SignatureResponse;
+import com.wstrater.server.fileSync.common.data.StreamRequest;
+import com.wstrater.server.fileSync.common.data.TreeRequest;
+import com.wstrater.server.fileSync.common.data.TreeResponse;
 import com.wstrater.server.fileSync.common.exceptions.ErrorInflatingBlockException;
 import com.wstrater.server.fileSync.common.exceptions.ErrorReadingBlockException;
 import com.wstrater.server.fileSync.common.exceptions.ErrorReadingResponse;
 import com.wstrater.server.fileSync.common.file.BlockReader;
-import com.wstrater.server.fileSync.common.utils.CompressionUtils;
+import com.wstrater.server.fileSync.common.utils.BatchUtils;
+import com.wstrater.server.fileSync.common.utils.Compare;
+import com.wstrater.server.fileSync.common.utils.CompressionTuner;
 import com.wstrater.server.fileSync.common.utils.CompressionUtils.Inflated;
 import com.wstrater.server.fileSync.common.utils.Constants;
 import com.wstrater.server.fileSync.common.utils.FileUtils;
@@ -43,22 +58,42 @@ public class BlockReaderRemoteImpl implements BlockReader, RequiresRemoteClient
     this.remoteClient = remoteClient;
   }
 
+  /**
+   * The codec the server compressed the response with. Servers that do not name one deflate.
+   * 
+   * @param clientResponse
+   * @return
+   */
+  private Codec getCodec(ClientResponse clientResponse) {
+    return Codecs.getCodec(clientResponse.getHeaders().getFirst(Constants.CODEC_HEADER));
+  }
+
   private byte[] getDataByEntity(ClientResponse clientResponse, int length) {
     return clientResponse.getEntity(byte[].class);
   }
 
+  /**
+   * Read the data into an array from the buffer pool. Release it once written.
+   * 
+   * @param clientResponse
+   * @param length
+   * @return
+   */
   private byte[] getDataByChannel(ClientResponse clientResponse, int length) {
-    byte[] ret = null;
+    byte[] ret = FileUtils.getBufferPool().acquire(length);
 
     try {
-      ByteBuffer buffer = ByteBuffer.allocate(length);
+      ByteBuffer buffer = ByteBuffer.wrap(ret);
       ReadableByteChannel channel = Channels.newChannel(clientResponse.getEntityInputStream());
       int count = 0;
       do {
         count = channel.read(buffer);
       } while (count >= 0 && buffer.hasRemaining());
-      ret = buffer.array();
+      if (buffer.hasRemaining()) {
+        throw new IOException("Short response");
+      }
     } catch (IOException ee) {
+      FileUtils.getBufferPool().release(ret);
       throw new ErrorReadingResponse(String.format("Unable to read %d bytes from response", length));
     }
 
@@ -83,9 +118,13 @@ public class BlockReaderRemoteImpl implements BlockReader, RequiresRemoteClient
         .queryParam(Constants.BLOCK_SIZE_PARAM, String.valueOf(request.getBlockSize()));
     logger.debug(webResource.toString());
     Builder builder = webResource.accept(MediaType.APPLICATION_OCTET_STREAM);
-    if (FileUtils.isCompress()) {
-      builder = builder.header(Constants.CONTENT_ENCODED_HEADER, Constants.DEFLATE);
+    CompressionTuner tuner = remoteClient.getReadTuner();
+    int level = FileUtils.isCompress() ? tuner.nextLevel() : 0;
+    if (level > 0) {
+      builder = builder.header(Constants.CONTENT_ENCODED_HEADER, Constants.DEFLATE).header(Constants.DEFLATE_LEVEL_HEADER,
+          String.valueOf(level)).header(Constants.CODEC_HEADER, FileUtils.getCodec().getName());
     }
+    long start = System.nanoTime();
 
     ClientResponse clientResponse = builder.get(ClientResponse.class);
     try {
@@ -103,6 +142,7 @@ public class BlockReaderRemoteImpl implements BlockReader, RequiresRemoteClient
 
       byte[] block = null;
       int compressed = -1;
+      long codecNanos = 0L;
       if (clientResponse.getHeaders().containsKey(Constants.COMPRESSED_HEADER)) {
         compressed = Integer.parseInt(clientResponse.getHeaders().getFirst(Constants.COMPRESSED_HEADER));
         if (contentLength != compressed) {
@@ -110,25 +150,296 @@ public class BlockReaderRemoteImpl implements BlockReader, RequiresRemoteClient
               compressed));
         }
 
-        Inflated inflated = CompressionUtils.inflate(getDataByEntity(clientResponse, compressed), ret.getLength());
-        if (inflated == null || inflated.getLength() != ret.getLength()) {
+        byte[] data = getDataByEntity(clientResponse, compressed);
+        long inflating = System.nanoTime();
+        Inflated inflated = getCodec(clientResponse).decompress(data, 0, data.length, ret.getLength(),
+            FileUtils.getBufferPool());
+        if (inflated.getLength() != ret.getLength()) {
+          FileUtils.getBufferPool().release(inflated.getData());
           throw new ErrorInflatingBlockException("Error inflating compressed read response");
         }
 
         block = inflated.getData();
+        codecNanos = System.nanoTime() - inflating;
       } else {
         if (contentLength != ret.getLength()) {
           throw new ErrorReadingBlockException(String.format("Failed GET %s: Content-Length: %d/%s", uri, contentLength,
               ret.getLength()));
         }
 
-        block = getDataByEntity(clientResponse, ret.getLength());
+        block = getDataByChannel(clientResponse, ret.getLength());
       }
 
       ret.setCrc32(Long.parseLong(clientResponse.getHeaders().getFirst(Constants.CRC_HEADER)));
       ret.setEof(Boolean.parseBoolean(clientResponse.getHeaders().getFirst(Constants.EOF_HEADER)));
       ret.setSuccess(Boolean.parseBoolean(clientResponse.getHeaders().getFirst(Constants.SUCCESS_HEADER)));
+      ret.setHash(clientResponse.getHeaders().getFirst(Constants.HASH_HEADER));
+      ret.setHashType(clientResponse.getHeaders().getFirst(Constants.HASH_TYPE_HEADER));
       ret.setData(block);
+      ret.setPooled(true);
+
+      // Blocks the server would not try to deflate tell nothing about the level.
+      if (FileUtils.isCompress() && (level == 0 || compressed >= 0 || clientResponse.getHeaders().containsKey(
+          Constants.DEFLATE_LEVEL_HEADER))) {
+        tuner.record(level, ret.getLength(), contentLength, codecNanos, System.nanoTime() - start);
+      }
+    } finally {
+      clientResponse.close();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Read as many blocks as the server accepts in one batch with a single request. All the blocks
+   * are read with the block size of the first request.
+   * 
+   * @param requests
+   * @return
+   */
+  @Override
+  public List<ReadResponse> readBlocks(List<ReadRequest> requests) {
+    List<ReadResponse> ret = null;
+
+    if (remoteClient == null) {
+      throw new IllegalStateException(
+          String.format("%s missing %s", getClass().getSimpleName(), RemoteClient.class.getSimpleName()));
+    }
+
+    ReadRequest first = requests.get(0);
+
+    String uri = remoteClient.getURI(String.format("%s/%s", Constants.FILE_PATH, first.getFileName()));
+
+    // Only ask for what the server said it would return.
+    List<ReadRequest> batch = new ArrayList<>();
+    long batchSize = 0L;
+    for (ReadRequest request : requests) {
+      batchSize += first.getBlockSize();
+      if (!batch.isEmpty() && batchSize > remoteClient.getMaxBatchSize()) {
+        break;
+      }
+      batch.add(request);
+    }
+
+    WebResource webResource = remoteClient.getClient().resource(uri)
+        .queryParam(Constants.BLOCK_SIZE_PARAM, String.valueOf(first.getBlockSize()));
+    for (ReadRequest request : batch) {
+      webResource = webResource.queryParam(Constants.OFFSET_PARAM, String.valueOf(request.getOffset()));
+    }
+    logger.debug(webResource.toString());
+    Builder builder = webResource.accept(Constants.BATCH_MEDIA_TYPE);
+    CompressionTuner tuner = remoteClient.getReadTuner();
+    int level = FileUtils.isCompress() ? tuner.nextLevel() : 0;
+    if (level > 0) {
+      builder = builder.header(Constants.CONTENT_ENCODED_HEADER, Constants.DEFLATE).header(Constants.DEFLATE_LEVEL_HEADER,
+          String.valueOf(level)).header(Constants.CODEC_HEADER, FileUtils.getCodec().getName());
+    }
+    long start = System.nanoTime();
+
+    ClientResponse clientResponse = builder.get(ClientResponse.class);
+    try {
+      remoteClient.checkForException(clientResponse);
+
+      if (clientResponse.getStatus() != HttpStatus.OK_200) {
+        throw new ErrorReadingBlockException(String.format("Failed GET %s: HttpStatus: %d/%s", uri, clientResponse.getStatus(),
+            clientResponse.getStatusInfo()));
+      }
+
+      remoteClient.checkForMaxBatch(clientResponse);
+
+      ret = BatchUtils.readReadResponses(clientResponse.getEntityInputStream(), batch, getCodec(clientResponse));
+
+      if (FileUtils.isCompress() && (level == 0 || clientResponse.getHeaders().containsKey(Constants.DEFLATE_LEVEL_HEADER))) {
+        long length = 0L;
+        for (ReadResponse response : ret) {
+          length += response.getLength();
+        }
+        tuner.record(level, length, clientResponse.getLength(), 0L, System.nanoTime() - start);
+      }
+    } finally {
+      clientResponse.close();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Start reading the delta of a remote file. The signature is posted so the server can find the
+   * blocks it already has. The response stays open until the stream returned is closed.
+   * 
+   * @param request
+   * @return
+   */
+  @Override
+  public InputStream readDelta(DeltaRequest request) {
+    InputStream ret = null;
+
+    if (remoteClient == null) {
+      throw new IllegalStateException(
+          String.format("%s missing %s", getClass().getSimpleName(), RemoteClient.class.getSimpleName()));
+    }
+
+    String uri = remoteClient.getURI(String.format("%s/%s", Constants.FILE_PATH, request.getFileName()));
+
+    WebResource webResource = remoteClient.getClient().resource(uri);
+    logger.debug(webResource.toString());
+
+    ClientResponse clientResponse = webResource.type(MediaType.APPLICATION_JSON).accept(Constants.DELTA_MEDIA_TYPE)
+        .post(ClientResponse.class, request.getSignature());
+    try {
+      remoteClient.checkForException(clientResponse);
+
+      if (clientResponse.getStatus() != HttpStatus.OK_200) {
+        throw new ErrorReadingBlockException(String.format("Failed POST %s: HttpStatus: %d/%s", uri, clientResponse.getStatus(),
+            clientResponse.getStatusInfo()));
+      }
+
+      ret = clientResponse.getEntityInputStream();
+    } finally {
+      if (ret == null) {
+        clientResponse.close();
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Read the signature of a remote file. The blocks are hashed by the server so only their
+   * signatures are sent.
+   * 
+   * @param request
+   * @return
+   */
+  @Override
+  public SignatureResponse readSignature(SignatureRequest request) {
+    SignatureResponse ret = new SignatureResponse();
+
+    if (remoteClient == null) {
+      throw new IllegalStateException(
+          String.format("%s missing %s", getClass().getSimpleName(), RemoteClient.class.getSimpleName()));
+    }
+
+    ret.setRequest(request);
+
+    String uri = remoteClient.getURI(String.format("%s/%s", Constants.FILE_PATH, request.getFileName()));
+
+    WebResource webResource = remoteClient.getClient().resource(uri)
+        .queryParam(Constants.BLOCK_SIZE_PARAM, String.valueOf(request.getBlockSize()))
+        .queryParam(Constants.HASH_ONLY_PARAM, String.valueOf(request.isHashOnly()));
+    if (!Compare.isBlank(request.getHashType())) {
+      webResource = webResource.queryParam(Constants.HASH_TYPE_PARAM, request.getHashType());
+    }
+    logger.debug(webResource.toString());
+
+    ClientResponse clientResponse = webResource.accept(MediaType.APPLICATION_JSON).get(ClientResponse.class);
+    try {
+      remoteClient.checkForException(clientResponse);
+
+      if (clientResponse.getStatus() != HttpStatus.OK_200) {
+        throw new ErrorReadingBlockException(String.format("Failed GET %s: HttpStatus: %d/%s", uri, clientResponse.getStatus(),
+            clientResponse.getStatusInfo()));
+      }
+
+      ret.setSignature(clientResponse.getEntity(FileSignature.class));
+      ret.setSuccess(Boolean.parseBoolean(clientResponse.getHeaders().getFirst(Constants.SUCCESS_HEADER)));
+    } finally {
+      clientResponse.close();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Start streaming the blocks of a remote file. The response stays open until the stream returned
+   * is closed. The server deflates the blocks as one stream if the request has a level.
+   * 
+   * @param request
+   * @return
+   */
+  @Override
+  public InputStream readStream(StreamRequest request) {
+    InputStream ret = null;
+
+    if (remoteClient == null) {
+      throw new IllegalStateException(
+          String.format("%s missing %s", getClass().getSimpleName(), RemoteClient.class.getSimpleName()));
+    }
+
+    String uri = remoteClient.getURI(String.format("%s/%s", Constants.FILE_PATH, request.getFileName()));
+
+    WebResource webResource = remoteClient.getClient().resource(uri)
+        .queryParam(Constants.OFFSET_PARAM, String.valueOf(request.getOffset()))
+        .queryParam(Constants.LENGTH_PARAM, String.valueOf(request.getLength()))
+        .queryParam(Constants.BLOCK_SIZE_PARAM, String.valueOf(request.getBlockSize()))
+        .queryParam(Constants.CHUNK_SIZE_PARAM, String.valueOf(request.getChunkSize()));
+    logger.debug(webResource.toString());
+    Builder builder = webResource.accept(Constants.STREAM_MEDIA_TYPE);
+    if (request.getLevel() > 0) {
+      builder = builder.header(Constants.CONTENT_ENCODED_HEADER, Constants.DEFLATE).header(Constants.DEFLATE_LEVEL_HEADER,
+          String.valueOf(request.getLevel()));
+    }
+
+    ClientResponse clientResponse = builder.get(ClientResponse.class);
+    try {
+      remoteClient.checkForException(clientResponse);
+
+      if (clientResponse.getStatus() != HttpStatus.OK_200) {
+        throw new ErrorReadingBlockException(String.format("Failed GET %s: HttpStatus: %d/%s", uri, clientResponse.getStatus(),
+            clientResponse.getStatusInfo()));
+      }
+
+      ret = clientResponse.getEntityInputStream();
+    } finally {
+      if (ret == null) {
+        clientResponse.close();
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Read the hashes of the chunks of a remote file. Only the leaves are sent and the tree is
+   * compared by the client.
+   * 
+   * @param request
+   * @return
+   */
+  @Override
+  public TreeResponse readTree(TreeRequest request) {
+    TreeResponse ret = new TreeResponse();
+
+    if (remoteClient == null) {
+      throw new IllegalStateException(
+          String.format("%s missing %s", getClass().getSimpleName(), RemoteClient.class.getSimpleName()));
+    }
+
+    ret.setRequest(request);
+
+    String uri = remoteClient.getURI(String.format("%s/%s", Constants.FILE_PATH, request.getFileName()));
+
+    WebResource webResource = remoteClient.getClient().resource(uri)
+        .queryParam(Constants.BLOCK_SIZE_PARAM, String.valueOf(request.getBlockSize()))
+        .queryParam(Constants.CHUNK_SIZE_PARAM, String.valueOf(request.getChunkSize()))
+        .queryParam(Constants.FIRST_PARAM, String.valueOf(request.getFirst()))
+        .queryParam(Constants.COUNT_PARAM, String.valueOf(request.getCount()));
+    if (!Compare.isBlank(request.getHashType())) {
+      webResource = webResource.queryParam(Constants.HASH_TYPE_PARAM, request.getHashType());
+    }
+    logger.debug(webResource.toString());
+
+    ClientResponse clientResponse = webResource.accept(Constants.TREE_MEDIA_TYPE).get(ClientResponse.class);
+    try {
+      remoteClient.checkForException(clientResponse);
+
+      if (clientResponse.getStatus() != HttpStatus.OK_200) {
+        throw new ErrorReadingBlockException(String.format("Failed GET %s: HttpStatus: %d/%s", uri, clientResponse.getStatus(),
+            clientResponse.getStatusInfo()));
+      }
+
+      ret.setTree(clientResponse.getEntity(HashTree.class));
+      ret.setSuccess(Boolean.parseBoolean(clientResponse.getHeaders().getFirst(Constants.SUCCESS_HEADER)));
     } finally {
       clientResponse.close();
     }
@@ -1,5 +1,10 @@
 package com.wstrater.server.fileSync.client;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import javax.ws.rs.core.MediaType;
 
 import org.eclipse.jetty.http.HttpStatus;
@@ -8,16 +13,30 @@ import org.slf4j.LoggerFactory;
 
 import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.wstrater.server.fileSync.common.codec.Codec;
+import com.wstrater.server.fileSync.common.codec.Codecs;
+import com.wstrater.server.fileSync.common.codec.Dictionary;
+import com.wstrater.server.fileSync.common.codec.DictionaryCodec;
 import com.wstrater.server.fileSync.common.data.DeleteRequest;
 import com.wstrater.server.fileSync.common.data.DeleteResponse;
+import com.wstrater.server.fileSync.common.data.DeltaRequest;
+import com.wstrater.server.fileSync.common.data.DeltaResponse;
+import com.wstrater.server.fileSync.common.data.StreamRequest;
+import com.wstrater.server.fileSync.common.data.StreamResponse;
 import com.wstrater.server.fileSync.common.data.WriteRequest;
 import com.wstrater.server.fileSync.common.data.WriteResponse;
-import com.wstrater.server.fileSync.common.exceptions.ErrorDeflatingBlockException;
+import com.wstrater.server.fileSync.common.exceptions.DictionaryNotFoundException;
 import com.wstrater.server.fileSync.common.exceptions.ErrorWritingBlockException;
 import com.wstrater.server.fileSync.common.file.BlockReader;
 import com.wstrater.server.fileSync.common.file.BlockWriter;
-import com.wstrater.server.fileSync.common.utils.CompressionUtils;
+import com.wstrater.server.fileSync.common.file.StreamListener;
+import com.wstrater.server.fileSync.common.utils.BatchUtils;
+import com.wstrater.server.fileSync.common.utils.Compare;
+import com.wstrater.server.fileSync.common.utils.CompressionAdvisor;
+import com.wstrater.server.fileSync.common.utils.CompressionTuner;
 import com.wstrater.server.fileSync.common.utils.Constants;
+import com.wstrater.server.fileSync.common.utils.DirectoryUtils;
 import com.wstrater.server.fileSync.common.utils.FileUtils;
 import com.wstrater.server.fileSync.common.utils.TimeUtils;
 import com.wstrater.server.fileSync.common.utils.CompressionUtils.Deflated;
@@ -73,7 +92,28 @@ public class BlockWriterRemoteImpl implements BlockWriter, RequiresRemoteClient
   }
 
   /**
-   * The timeStamp is adjusted to UTC.
+   * The codec blocks up to <code>length</code> bytes long are compressed with. Small blocks are
+   * deflated with the preset dictionary of the server if there is one.
+   * 
+   * @param length
+   * @return
+   */
+  private Codec getCodec(int length) {
+    Codec ret = FileUtils.getCodec();
+
+    if (length < Constants.MINIMUM_FOR_COMPRESSION && Codecs.DEFLATE.equals(ret.getName())) {
+      Dictionary dictionary = remoteClient.getDictionary();
+      if (dictionary != null) {
+        ret = new DictionaryCodec(dictionary);
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * The timeStamp is adjusted to UTC. A block deflated with a dictionary the server no longer knows
+   * is sent again once the dictionary has been.
    * 
    * @param request
    * @return
@@ -93,18 +133,29 @@ public class BlockWriterRemoteImpl implements BlockWriter, RequiresRemoteClient
 
     byte[] block = request.getData();
 
+    CompressionTuner tuner = remoteClient.getWriteTuner();
+    int level = FileUtils.isCompress() ? tuner.nextLevel() : 0;
+    // Blocks the advisor will not compress tell nothing about the level.
+    boolean tuned = level == 0;
+    long start = System.nanoTime();
+
+    Codec codec = level > 0 ? getCodec(request.getLength()) : FileUtils.getCodec();
     Deflated deflated = null;
-    if (FileUtils.isCompress() && request.getLength() >= Constants.MINIMUM_FOR_COMPRESSION) {
-      deflated = CompressionUtils.deflate(block);
-      if (deflated == null) {
-        throw new ErrorDeflatingBlockException("Error deflating write request");
+    if (level > 0) {
+      // The block came from the local file of the same name so its index may know if it compresses.
+      CompressionAdvisor advisor = FileUtils.getCompressionAdvisor();
+      if (advisor.shouldCompress(DirectoryUtils.getBaseDir(), request.getFileName(), block, 0, request.getLength(),
+          CompressionAdvisor.minimumLength(codec))) {
+        tuned = true;
+        deflated = advisor.compress(request.getFileName(), block, 0, request.getLength(), codec, level,
+            FileUtils.getBufferPool());
       }
-      if (deflated.getLength() >= request.getLength()) {
-        deflated = null;
-      } else {
-        block = deflated.getData();
+      if (deflated != null) {
+        block = Arrays.copyOf(deflated.getData(), deflated.getLength());
+        FileUtils.getBufferPool().release(deflated.getData());
       }
     }
+    long codecNanos = System.nanoTime() - start;
 
     WebResource webResource = remoteClient.getClient().resource(uri)
         .queryParam(Constants.OFFSET_PARAM, String.valueOf(request.getOffset()))
@@ -114,11 +165,31 @@ public class BlockWriterRemoteImpl implements BlockWriter, RequiresRemoteClient
     if (deflated != null) {
       webResource = webResource.queryParam(Constants.COMPRESSED_PARAM, String.valueOf(deflated.getLength()));
     }
+    if (request.getHash() != null) {
+      webResource = webResource.queryParam(Constants.HASH_PARAM, request.getHash());
+      if (request.getHashType() != null) {
+        webResource = webResource.queryParam(Constants.HASH_TYPE_PARAM, request.getHashType());
+      }
+    }
     logger.debug(webResource.toString());
-    ClientResponse clientResponse = webResource.accept(MediaType.APPLICATION_OCTET_STREAM).put(ClientResponse.class,
-        block);
+    WebResource.Builder builder = webResource.accept(MediaType.APPLICATION_OCTET_STREAM);
+    if (deflated != null) {
+      builder = builder.header(Constants.CODEC_HEADER, codec.getName());
+      if (codec instanceof DictionaryCodec) {
+        builder = builder.header(Constants.DICTIONARY_HEADER, ((DictionaryCodec) codec).getDictionary().getKey());
+      }
+    }
+    ClientResponse clientResponse = builder.put(ClientResponse.class, block);
     try {
-      remoteClient.checkForException(clientResponse);
+      try {
+        remoteClient.checkForException(clientResponse);
+      } catch (DictionaryNotFoundException ee) {
+        if (deflated == null || !(codec instanceof DictionaryCodec)) {
+          throw ee;
+        }
+        remoteClient.dictionaryNotFound(((DictionaryCodec) codec).getDictionary().getKey());
+        return writeBlock(request);
+      }
 
       if (clientResponse.getStatus() != HttpStatus.OK_200 && clientResponse.getStatus() != HttpStatus.NO_CONTENT_204) {
         throw new ErrorWritingBlockException(String.format("Failed PUT %s: %d/%s", uri, clientResponse.getStatus(),
@@ -128,6 +199,201 @@ public class BlockWriterRemoteImpl implements BlockWriter, RequiresRemoteClient
       ret.setLength(Integer.parseInt(clientResponse.getHeaders().getFirst(Constants.LENGTH_HEADER)));
       ret.setCrc32(Long.parseLong(clientResponse.getHeaders().getFirst(Constants.CRC_HEADER)));
       ret.setSuccess(Boolean.parseBoolean(clientResponse.getHeaders().getFirst(Constants.SUCCESS_HEADER)));
+      ret.setHash(clientResponse.getHeaders().getFirst(Constants.HASH_HEADER));
+      ret.setHashType(clientResponse.getHeaders().getFirst(Constants.HASH_TYPE_HEADER));
+
+      if (FileUtils.isCompress() && tuned) {
+        tuner.record(level, request.getLength(), deflated == null ? request.getLength() : block.length, codecNanos,
+            System.nanoTime() - start);
+      }
+    } finally {
+      clientResponse.close();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Write as many blocks as the server accepts in one batch with a single request.
+   * 
+   * @param requests
+   * @return
+   */
+  @Override
+  public List<WriteResponse> writeBlocks(List<WriteRequest> requests) {
+    List<WriteResponse> ret = null;
+
+    if (remoteClient == null) {
+      throw new IllegalStateException(
+          String.format("%s missing %s", getClass().getSimpleName(), RemoteClient.class.getSimpleName()));
+    }
+
+    String uri = remoteClient.getURI(String.format("%s/%s", Constants.FILE_PATH, requests.get(0).getFileName()));
+
+    // Only send what the server said it would accept.
+    List<WriteRequest> batch = new ArrayList<>();
+    long batchSize = 0L;
+    for (WriteRequest request : requests) {
+      batchSize += request.getLength();
+      if (!batch.isEmpty() && batchSize > remoteClient.getMaxBatchSize()) {
+        break;
+      }
+      batch.add(request);
+    }
+
+    CompressionTuner tuner = remoteClient.getWriteTuner();
+    int level = FileUtils.isCompress() ? tuner.nextLevel() : 0;
+    long start = System.nanoTime();
+    int maxLength = 0;
+    for (WriteRequest request : batch) {
+      maxLength = Math.max(maxLength, request.getLength());
+    }
+    Codec codec = level > 0 ? getCodec(maxLength) : FileUtils.getCodec();
+    byte[] body = BatchUtils.writeWriteRequests(batch, codec, level);
+    long codecNanos = System.nanoTime() - start;
+
+    WebResource webResource = remoteClient.getClient().resource(uri);
+    logger.debug(webResource.toString());
+    WebResource.Builder builder = webResource.type(Constants.BATCH_MEDIA_TYPE).accept(Constants.BATCH_MEDIA_TYPE)
+        .header(Constants.CODEC_HEADER, codec.getName());
+    if (codec instanceof DictionaryCodec) {
+      builder = builder.header(Constants.DICTIONARY_HEADER, ((DictionaryCodec) codec).getDictionary().getKey());
+    }
+    ClientResponse clientResponse = builder.put(ClientResponse.class, body);
+    try {
+      try {
+        remoteClient.checkForException(clientResponse);
+      } catch (DictionaryNotFoundException ee) {
+        if (!(codec instanceof DictionaryCodec)) {
+          throw ee;
+        }
+        remoteClient.dictionaryNotFound(((DictionaryCodec) codec).getDictionary().getKey());
+        return writeBlocks(requests);
+      }
+
+      if (clientResponse.getStatus() != HttpStatus.OK_200) {
+        throw new ErrorWritingBlockException(String.format("Failed PUT %s: %d/%s", uri, clientResponse.getStatus(),
+            clientResponse.getStatusInfo()));
+      }
+
+      remoteClient.checkForMaxBatch(clientResponse);
+
+      ret = BatchUtils.readWriteResponses(clientResponse.getEntityInputStream(), batch);
+
+      if (FileUtils.isCompress()) {
+        long length = 0L;
+        for (WriteRequest request : batch) {
+          length += request.getLength();
+        }
+        tuner.record(level, length, body.length, codecNanos, System.nanoTime() - start);
+      }
+    } finally {
+      clientResponse.close();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Send the delta as the chunked body of one request. The file is rebuilt by the server from the
+   * blocks it already has.
+   * 
+   * @param request
+   * @param in
+   * @return
+   */
+  @Override
+  public DeltaResponse writeDelta(DeltaRequest request, InputStream in) {
+    DeltaResponse ret = new DeltaResponse();
+
+    if (remoteClient == null) {
+      throw new IllegalStateException(
+          String.format("%s missing %s", getClass().getSimpleName(), RemoteClient.class.getSimpleName()));
+    }
+
+    ret.setRequest(request);
+
+    String uri = remoteClient.getURI(String.format("%s/%s", Constants.FILE_PATH, request.getFileName()));
+
+    WebResource webResource = remoteClient.getClient().resource(uri)
+        .queryParam(Constants.BLOCK_SIZE_PARAM, String.valueOf(request.getBlockSize()))
+        .queryParam(Constants.TIME_STAMP_PARAM, String.valueOf(TimeUtils.toUTC(request.getTimeStamp())));
+    if (!Compare.isBlank(request.getHashType())) {
+      webResource = webResource.queryParam(Constants.HASH_TYPE_PARAM, request.getHashType());
+    }
+    // Chunked so the whole delta is not buffered to find its length.
+    webResource.setProperty(ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE, request.getBlockSize());
+    logger.debug(webResource.toString());
+    ClientResponse clientResponse = webResource.type(Constants.DELTA_MEDIA_TYPE).put(ClientResponse.class, in);
+    try {
+      remoteClient.checkForException(clientResponse);
+
+      if (clientResponse.getStatus() != HttpStatus.OK_200 && clientResponse.getStatus() != HttpStatus.NO_CONTENT_204) {
+        throw new ErrorWritingBlockException(String.format("Failed PUT %s: %d/%s", uri, clientResponse.getStatus(),
+            clientResponse.getStatusInfo()));
+      }
+
+      ret.setLength(Long.parseLong(clientResponse.getHeaders().getFirst(Constants.LENGTH_HEADER)));
+      ret.setLiteral(Long.parseLong(clientResponse.getHeaders().getFirst(Constants.LITERAL_HEADER)));
+      ret.setMatched(Long.parseLong(clientResponse.getHeaders().getFirst(Constants.MATCHED_HEADER)));
+      ret.setSuccess(Boolean.parseBoolean(clientResponse.getHeaders().getFirst(Constants.SUCCESS_HEADER)));
+    } finally {
+      clientResponse.close();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Send the stream as the chunked body of one request. The server only reports the last
+   * checkpoint it verified once the request is done, even if it failed, so the listener is notified
+   * once.
+   * 
+   * @param request
+   * @param in
+   * @param listener Optional
+   * @return
+   */
+  @Override
+  public StreamResponse writeStream(StreamRequest request, InputStream in, StreamListener listener) {
+    StreamResponse ret = new StreamResponse();
+
+    if (remoteClient == null) {
+      throw new IllegalStateException(
+          String.format("%s missing %s", getClass().getSimpleName(), RemoteClient.class.getSimpleName()));
+    }
+
+    ret.setRequest(request);
+
+    String uri = remoteClient.getURI(String.format("%s/%s", Constants.FILE_PATH, request.getFileName()));
+
+    WebResource webResource = remoteClient.getClient().resource(uri)
+        .queryParam(Constants.OFFSET_PARAM, String.valueOf(request.getOffset()))
+        .queryParam(Constants.BLOCK_SIZE_PARAM, String.valueOf(request.getBlockSize()))
+        .queryParam(Constants.TIME_STAMP_PARAM, String.valueOf(TimeUtils.toUTC(request.getTimeStamp())))
+        .queryParam(Constants.EOF_PARAM, String.valueOf(request.isEof()));
+    // Chunked so the whole file is not buffered to find its length.
+    webResource.setProperty(ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE, request.getBlockSize());
+    logger.debug(webResource.toString());
+    ClientResponse clientResponse = webResource.type(Constants.STREAM_MEDIA_TYPE).put(ClientResponse.class, in);
+    try {
+      String checkpoint = clientResponse.getHeaders().getFirst(Constants.CHECKPOINT_HEADER);
+      if (checkpoint != null) {
+        ret.setCheckpoint(Long.parseLong(checkpoint));
+        if (listener != null && ret.getCheckpoint() > request.getOffset()) {
+          listener.checkpoint(ret.getCheckpoint());
+        }
+      }
+
+      remoteClient.checkForException(clientResponse);
+
+      if (clientResponse.getStatus() != HttpStatus.OK_200 && clientResponse.getStatus() != HttpStatus.NO_CONTENT_204) {
+        throw new ErrorWritingBlockException(String.format("Failed PUT %s: %d/%s", uri, clientResponse.getStatus(),
+            clientResponse.getStatusInfo()));
+      }
+
+      ret.setLength(Long.parseLong(clientResponse.getHeaders().getFirst(Constants.LENGTH_HEADER)));
+      ret.setSuccess(Boolean.parseBoolean(clientResponse.getHeaders().getFirst(Constants.SUCCESS_HEADER)));
     } finally {
       clientResponse.close();
     }
@@ -10,6 +10,9 @@ import com.sun.jersey.api.client.ClientResponse;
 import com.sun.jersey.api.client.WebResource;
 import com.wstrater.server.fileSync.common.data.DirectoryDeleteRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryDeleteResponse;
+import com.wstrater.server.fileSync.common.data.DirectoryDigest;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestRequest;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestResponse;
 import com.wstrater.server.fileSync.common.data.DirectoryInfo;
 import com.wstrater.server.fileSync.common.data.DirectoryListRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryListResponse;
@@ -77,6 +80,42 @@ public class DirectoryListerRemoteImpl implements DirectoryLister, RequiresRemot
     return ret;
   }
 
+  @Override
+  public DirectoryDigestResponse digestDirectory(DirectoryDigestRequest request) {
+    DirectoryDigestResponse ret = new DirectoryDigestResponse();
+
+    if (remoteClient == null) {
+      throw new IllegalStateException(
+          String.format("%s missing %s", getClass().getSimpleName(), RemoteClient.class.getSimpleName()));
+    }
+
+    ret.setRequest(request);
+
+    String uri = remoteClient.getURI(String.format("%s/%s", Constants.DIRECTORY_PATH, request.getPath()));
+
+    WebResource webResource = remoteClient.getClient().resource(uri)
+        .queryParam(Constants.HIDDEN_DIRS_PARAM, String.valueOf(request.isHiddenDirectories()))
+        .queryParam(Constants.HIDDEN_FILES_PARAM, String.valueOf(request.isHiddenFiles()))
+        .queryParam(Constants.LEVELS_PARAM, String.valueOf(request.getLevels()));
+    logger.debug(webResource.toString());
+    ClientResponse clientResponse = webResource.accept(Constants.DIGEST_MEDIA_TYPE).get(ClientResponse.class);
+    try {
+      remoteClient.checkForException(clientResponse);
+
+      if (clientResponse.getStatus() != HttpStatus.OK_200 && clientResponse.getStatus() != HttpStatus.NO_CONTENT_204) {
+        throw new ErrorListingDirectoryException(String.format("Failed GET %s: %d/%s", uri, clientResponse.getStatus(),
+            clientResponse.getStatusInfo()));
+      }
+
+      ret.setDirectoryDigest(clientResponse.getEntity(DirectoryDigest.class));
+      ret.setSuccess(Boolean.parseBoolean(clientResponse.getHeaders().getFirst(Constants.SUCCESS_HEADER)));
+    } finally {
+      clientResponse.close();
+    }
+
+    return ret;
+  }
+
   @Override
   public DirectoryPermissionsResponse getPermissions(DirectoryPermissionsRequest request) {
     DirectoryPermissionsResponse ret = new DirectoryPermissionsResponse();
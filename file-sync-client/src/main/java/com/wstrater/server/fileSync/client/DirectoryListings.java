@@ -0,0 +1,275 @@
+package com.wstrater.server.fileSync.client;
+
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+
+import com.wstrater.server.fileSync.common.data.DirectoryDigest;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestRequest;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestResponse;
+import com.wstrater.server.fileSync.common.data.DirectoryInfo;
+import com.wstrater.server.fileSync.common.data.DirectoryListRequest;
+import com.wstrater.server.fileSync.common.data.DirectoryListResponse;
+import com.wstrater.server.fileSync.common.data.DirectoryPermissionsRequest;
+import com.wstrater.server.fileSync.common.data.DirectoryPermissionsResponse;
+import com.wstrater.server.fileSync.common.exceptions.ErrorListingDirectoryException;
+import com.wstrater.server.fileSync.common.exceptions.NotValidDirectoryException;
+import com.wstrater.server.fileSync.common.file.DirectoryLister;
+import com.wstrater.server.fileSync.common.utils.AccessUtils;
+import com.wstrater.server.fileSync.common.utils.Compare;
+import com.wstrater.server.fileSync.common.utils.Constants;
+
+/**
+ * Lists the same path in the local and remote file systems at the same time for the directory
+ * walks of {@link Syncer} and {@link Planner}. A {@link Semaphore} caps the number of listings
+ * outstanding across all the directories being walked. {@link #list(String)} must be called from a
+ * task running in a {@link ForkJoinPool}.
+ * <p/>
+ * The rollup digests of a path and the sub-directories below it can be fetched the same way with
+ * {@link #digest(String)} so directories that are the same on both sides can be skipped
+ * without listing them.
+ *
+ * @author wstrater
+ *
+ */
+class DirectoryListings {
+
+  public final static int       DEFAULT_LISTINGS = Constants.DEFAULT_LISTINGS;
+
+  private final boolean         hiddenDirectories;
+  private final boolean         hiddenFiles;
+  private final File            localBaseDir;
+  private final DirectoryLister localLister;
+  private final Semaphore       permits;
+  private final File            remoteBaseDir;
+  private final DirectoryLister remoteLister;
+
+  DirectoryListings(DirectoryLister localLister, File localBaseDir, DirectoryLister remoteLister, File remoteBaseDir,
+      boolean hiddenDirectories, boolean hiddenFiles, int maxListings) {
+    this.localLister = localLister;
+    this.localBaseDir = localBaseDir;
+    this.remoteLister = remoteLister;
+    this.remoteBaseDir = remoteBaseDir;
+    this.hiddenDirectories = hiddenDirectories;
+    this.hiddenFiles = hiddenFiles;
+    this.permits = new Semaphore(Math.max(1, maxListings));
+  }
+
+  /**
+   * Get the local and remote digests of a path and every sub-directory below it. Each side walks
+   * its tree once and the digests of the sub-directories are kept for the rest of the walk. The
+   * remote digest is forked so it runs while the local directory is digested.
+   * 
+   * @param path
+   * @return
+   */
+  Digests digest(String path) {
+    RemoteDigestTask remoteTask = new RemoteDigestTask(path, DirectoryDigestRequest.ALL_LEVELS);
+    remoteTask.fork();
+
+    DirectoryDigest localDigest = getDirectoryDigest(localLister, localBaseDir, path, DirectoryDigestRequest.ALL_LEVELS);
+
+    return new Digests(localDigest, remoteTask.join());
+  }
+
+  /**
+   * @return Null if the directory does not exist.
+   */
+  private DirectoryDigest getDirectoryDigest(DirectoryLister lister, File baseDir, String path, int levels) {
+    DirectoryDigest ret = null;
+
+    DirectoryDigestRequest request = new DirectoryDigestRequest();
+    request.setBaseDir(baseDir);
+    request.setPath(path);
+    request.setHiddenDirectories(hiddenDirectories);
+    request.setHiddenFiles(hiddenFiles);
+    request.setLevels(levels);
+
+    try {
+      permits.acquire();
+    } catch (InterruptedException ee) {
+      Thread.currentThread().interrupt();
+      throw new ErrorListingDirectoryException(String.format("Interrupted digesting directory: %s", request));
+    }
+    try {
+      DirectoryDigestResponse response = lister.digestDirectory(request);
+      if (response != null && response.isSuccess()) {
+        ret = response.getDirectoryDigest();
+      } else {
+        throw new ErrorListingDirectoryException(String.format("Unable to digest directory: %s", request));
+      }
+    } catch (NotValidDirectoryException ee) {
+      // It does not exist so there is nothing to compare.
+    } finally {
+      permits.release();
+    }
+
+    return ret;
+  }
+
+  private DirectoryInfo getDirectoryInfo(DirectoryLister lister, File baseDir, String path) {
+    DirectoryInfo ret = null;
+
+    DirectoryListRequest request = new DirectoryListRequest();
+    request.setBaseDir(baseDir);
+    request.setPath(path);
+    request.setHiddenDirectories(hiddenDirectories);
+    request.setHiddenFiles(hiddenFiles);
+    request.setRecursive(false);
+
+    try {
+      permits.acquire();
+    } catch (InterruptedException ee) {
+      Thread.currentThread().interrupt();
+      throw new ErrorListingDirectoryException(String.format("Interrupted listing directory: %s", request));
+    }
+    try {
+      DirectoryListResponse response = lister.listDirectory(request);
+      if (response != null && response.isSuccess()) {
+        ret = response.getDirectoryInfo();
+      } else {
+        throw new ErrorListingDirectoryException(String.format("Unable to list directory: %s", request));
+      }
+    } catch (NotValidDirectoryException ee) {
+      // It does not exist so create an empty structure.
+      ret = new DirectoryInfo();
+      DirectoryPermissionsResponse response = lister.getPermissions(new DirectoryPermissionsRequest());
+      ret.setAccess(AccessUtils.NewDirectory().permissions(response.isAllowDelete(), response.isAllowWrite()).get());
+    } finally {
+      permits.release();
+    }
+
+    return ret;
+  }
+
+  /**
+   * List the local and remote directory. The remote listing is forked so it runs while the local
+   * directory is listed.
+   *
+   * @param path
+   * @return
+   */
+  Listing list(String path) {
+    RemoteListTask remoteTask = new RemoteListTask(path);
+    remoteTask.fork();
+
+    DirectoryInfo localDirectory = getDirectoryInfo(localLister, localBaseDir, path);
+
+    return new Listing(localDirectory, remoteTask.join());
+  }
+
+  /**
+   * The local and remote digests of the same path.
+   */
+  static class Digests {
+
+    private final DirectoryDigest localDigest;
+    private final DirectoryDigest remoteDigest;
+
+    private Digests(DirectoryDigest localDigest, DirectoryDigest remoteDigest) {
+      this.localDigest = localDigest;
+      this.remoteDigest = remoteDigest;
+    }
+
+    /**
+     * Get the digests of a sub-directory.
+     * 
+     * @param name
+     * @return Never the same if the sub-directory was not digested on both sides.
+     */
+    Digests getDirectory(String name) {
+      Digests ret = this;
+
+      // Nothing below a directory missing from either side can be the same.
+      if (localDigest != null && remoteDigest != null) {
+        if (localDigest.getDirectories() == null || remoteDigest.getDirectories() == null) {
+          ret = new Digests(null, null);
+        } else {
+          ret = new Digests(localDigest.getDirectory(name), remoteDigest.getDirectory(name));
+        }
+      }
+
+      return ret;
+    }
+
+    DirectoryDigest getLocalDigest() {
+      return localDigest;
+    }
+
+    DirectoryDigest getRemoteDigest() {
+      return remoteDigest;
+    }
+
+    /**
+     * Do both sides hold the same files all the way down?
+     * 
+     * @return
+     */
+    boolean isSame() {
+      return localDigest != null && remoteDigest != null && localDigest.getDigest() != null
+          && Compare.equals(localDigest.getDigest(), remoteDigest.getDigest());
+    }
+
+  }
+
+  /**
+   * The local and remote listing of the same path.
+   */
+  static class Listing {
+
+    private final DirectoryInfo localDirectory;
+    private final DirectoryInfo remoteDirectory;
+
+    private Listing(DirectoryInfo localDirectory, DirectoryInfo remoteDirectory) {
+      this.localDirectory = localDirectory;
+      this.remoteDirectory = remoteDirectory;
+    }
+
+    DirectoryInfo getLocalDirectory() {
+      return localDirectory;
+    }
+
+    DirectoryInfo getRemoteDirectory() {
+      return remoteDirectory;
+    }
+
+  }
+
+  private class RemoteDigestTask extends RecursiveTask<DirectoryDigest> {
+
+    private static final long serialVersionUID = 20150704L;
+
+    private final int         levels;
+    private final String      path;
+
+    private RemoteDigestTask(String path, int levels) {
+      this.path = path;
+      this.levels = levels;
+    }
+
+    @Override
+    protected DirectoryDigest compute() {
+      return getDirectoryDigest(remoteLister, remoteBaseDir, path, levels);
+    }
+
+  }
+
+  private class RemoteListTask extends RecursiveTask<DirectoryInfo> {
+
+    private static final long serialVersionUID = 20150704L;
+
+    private final String      path;
+
+    private RemoteListTask(String path) {
+      this.path = path;
+    }
+
+    @Override
+    protected DirectoryInfo compute() {
+      return getDirectoryInfo(remoteLister, remoteBaseDir, path);
+    }
+
+  }
+
+}
\ No newline at end of file
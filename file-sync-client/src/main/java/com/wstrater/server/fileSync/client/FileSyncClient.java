@@ -3,6 +3,7 @@ package com.wstrater.server.fileSync.client;
 import org.eclipse.jetty.util.security.Credential;
 import org.eclipse.jetty.util.security.Password;
 
+import com.wstrater.server.fileSync.common.codec.DictionaryTrainer;
 import com.wstrater.server.fileSync.common.exceptions.FileSyncException;
 import com.wstrater.server.fileSync.common.hash.HashProcessor;
 import com.wstrater.server.fileSync.common.utils.ChunkUtils;
@@ -37,14 +38,25 @@ public class FileSyncClient {
       } else {
         ChunkUtils.setBlockSize(cli.getBlockSize());
         DirectoryUtils.setBaseDir(cli.getBaseDir());
+        FileUtils.setChecksumType(cli.getChecksumType());
+        FileUtils.setCodec(cli.getCodec());
         FileUtils.setCompress(cli.isCompress());
         FileUtils.getPermissions().setLocalDelete(cli.isAllowDelete());
         FileUtils.getPermissions().setLocalWrite(cli.isAllowWrite());
         FileUtils.getPermissions().setRemoteDelete(cli.isRemoteDelete());
         FileUtils.getPermissions().setRemoteWrite(cli.isRemoteWrite());
+        FileUtils.setMapSize(cli.getMapSize());
+        FileUtils.setMaxBatchSize(cli.getMaxBatch());
         FileUtils.setMaxBlockSize(cli.getMaxBlock());
         FileUtils.setMaxOffset(cli.getMaxOffset());
+        FileUtils.setMaxOpenFiles(cli.getMaxOpen());
+        FileUtils.setBufferPoolSize(cli.getMaxPool());
+        HashProcessor.setBudget(cli.getHashBudget());
+        HashProcessor.setBusyBudget(cli.getHashBusy());
         HashProcessor.setHashType(cli.getHashType());
+        HashProcessor.setProgressBytes(cli.getHashBytes());
+        HashProcessor.setProgressMillis(cli.getHashProgress());
+        HashProcessor.setThreads(cli.getHashThreads());
         TimeUtils.setTimeZone(cli.getTimeZone());
 
         RemoteClient.Builder remoteBuilder = RemoteClient.builder().ssl(cli.hasSsl()).host(cli.getHost()).port(cli.getPort())
@@ -62,14 +74,24 @@ public class FileSyncClient {
         } else if (cli.hasPlan()) {
           Planner planner = Planner.builder().localBaseDir(DirectoryUtils.getBaseDir()).remoteClient(remoteClient)
               .permissions(FileUtils.getPermissions()).recursive(cli.isRecursive()).hiddenDirectories(cli.isHiddenDirectories())
-              .hiddenFiles(cli.isHiddenFiles()).eol(cli.getPlanEol()).reportFile(cli.getPlanFile())
-              .templateName(cli.getPlanTemplate()).build();
+              .hiddenFiles(cli.isHiddenFiles()).listings(cli.getListings()).eol(cli.getPlanEol()).reportFile(cli.getPlanFile())
+              .templateName(cli.getPlanTemplate()).rollup(cli.isRollup()).build();
 
           planner.plan(cli.getPlan(), cli.getPath());
         } else if (cli.hasSync()) {
+          if (FileUtils.isCompress() && cli.isDictionary()) {
+            // The dictionary is named after the sync root. Its version tells the trainings apart.
+            String id = DirectoryUtils.getBaseDir().getName();
+            remoteClient.setDictionary(DictionaryTrainer.train(id.isEmpty() ? "root" : id, DirectoryUtils.getBaseDir()));
+          }
+
           Syncer syncer = Syncer.builder().localBaseDir(DirectoryUtils.getBaseDir()).remoteClient(remoteClient)
               .permissions(FileUtils.getPermissions()).recursive(cli.isRecursive()).hiddenDirectories(cli.isHiddenDirectories())
-              .hiddenFiles(cli.isHiddenFiles()).build();
+              .hiddenFiles(cli.isHiddenFiles()).queueDepth(cli.getQueueDepth())
+              .threads(cli.getThreads()).listings(cli.getListings()).stripes(cli.getStripes())
+              .stripeSize(cli.getStripeSize()).streamSize(cli.getStreamSize()).batchSize(cli.getBatchSize())
+              .delta(cli.isDelta()).rollingSize(cli.getRollingSize()).tree(cli.isTree())
+              .rollup(cli.isRollup()).build();
 
           syncer.sync(cli.getSync(), cli.getPath());
         } else {
@@ -33,8 +33,17 @@ public class HashRequesterRemoteImpl implements HashRequester, RequiresRemoteCli
     this.remoteClient = remoteClient;
   }
 
+  @Override
+  public HashStatus awaitHashStatus(String id, long version, long waitMillis) {
+    return getHashStatus(id, version, waitMillis);
+  }
+
   @Override
   public HashStatus getHashStatus(String id) {
+    return getHashStatus(id, -1L, 0L);
+  }
+
+  private HashStatus getHashStatus(String id, long version, long waitMillis) {
     HashStatus ret = null;
 
     if (remoteClient == null) {
@@ -45,6 +54,10 @@ public class HashRequesterRemoteImpl implements HashRequester, RequiresRemoteCli
     String uri = remoteClient.getURI(String.format("%s/%s", Constants.HASH_PATH, id));
 
     WebResource webResource = remoteClient.getClient().resource(uri);
+    if (version >= 0L && waitMillis > 0L) {
+      webResource = webResource.queryParam(Constants.VERSION_PARAM, String.valueOf(version)).queryParam(
+          Constants.WAIT_PARAM, String.valueOf(waitMillis));
+    }
     logger.debug(webResource.toString());
     ClientResponse clientResponse = webResource.accept(MediaType.APPLICATION_JSON).get(ClientResponse.class);
     try {
@@ -80,6 +93,7 @@ public class HashRequesterRemoteImpl implements HashRequester, RequiresRemoteCli
         .queryParam(Constants.HIDDEN_DIRS_PARAM, String.valueOf(request.isHiddenDirectories()))
         .queryParam(Constants.HIDDEN_FILES_PARAM, String.valueOf(request.isHiddenFiles()))
         .queryParam(Constants.ID_PARAM, request.getId())
+        .queryParam(Constants.PRIORITY_PARAM, String.valueOf(request.getPriority()))
         .queryParam(Constants.RECURSIVE_PARAM, String.valueOf(request.isRecursive()))
         .queryParam(Constants.REHASH_PARAM, String.valueOf(request.isReHashExisting()));
     if (request.getHashType() != null) {
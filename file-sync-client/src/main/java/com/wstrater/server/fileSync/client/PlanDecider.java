@@ -78,8 +78,7 @@ public abstract class PlanDecider {
         } else {
           if (!Compare.equals(local.getLength(), remote.getLength())) {
             ret = NewerEnum.Different;
-          } else if (Compare.isNotBlank(local.getHash()) && Compare.isNotBlank(remote.getHash())
-              && !Compare.equals(local.getHash(), remote.getHash())) {
+          } else if (isDifferentHash(local, remote)) {
             ret = NewerEnum.Different;
           } else {
             ret = NewerEnum.Same;
@@ -203,4 +202,26 @@ public abstract class PlanDecider {
     return ret;
   }
 
+  /**
+   * Compare the hashes of two files made with the same hash type. Files without a hash type in
+   * common are not known to be different.
+   * 
+   * @param local
+   * @param remote
+   * @return
+   */
+  private static boolean isDifferentHash(IndexInfo local, IndexInfo remote) {
+    boolean ret = false;
+
+    for (String hashType : local.getHashTypes()) {
+      String remoteHash = remote.getHash(hashType);
+      if (Compare.isNotBlank(remoteHash)) {
+        ret = !Compare.equals(local.getHash(hashType), remoteHash);
+        break;
+      }
+    }
+
+    return ret;
+  }
+
 }
\ No newline at end of file
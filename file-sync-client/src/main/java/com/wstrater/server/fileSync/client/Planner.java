@@ -14,6 +14,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,12 +23,7 @@ import org.slf4j.LoggerFactory;
 import com.floreysoft.jmte.Engine;
 import com.floreysoft.jmte.Renderer;
 import com.wstrater.server.fileSync.common.data.DirectoryInfo;
-import com.wstrater.server.fileSync.common.data.DirectoryListRequest;
-import com.wstrater.server.fileSync.common.data.DirectoryListResponse;
-import com.wstrater.server.fileSync.common.data.DirectoryPermissionsRequest;
-import com.wstrater.server.fileSync.common.data.DirectoryPermissionsResponse;
 import com.wstrater.server.fileSync.common.data.IndexFile;
-import com.wstrater.server.fileSync.common.exceptions.ErrorListingDirectoryException;
 import com.wstrater.server.fileSync.common.exceptions.ErrorLoadingPlanTemplateException;
 import com.wstrater.server.fileSync.common.exceptions.ErrorWritingReportException;
 import com.wstrater.server.fileSync.common.exceptions.InvalidFileLocationException;
@@ -38,7 +35,6 @@ import com.wstrater.server.fileSync.common.file.DirectoryListerLocalAsRemoteImpl
 import com.wstrater.server.fileSync.common.file.DirectoryListerLocalImpl;
 import com.wstrater.server.fileSync.common.utils.Compare;
 import com.wstrater.server.fileSync.common.utils.Constants.SyncEnum;
-import com.wstrater.server.fileSync.common.utils.AccessUtils;
 import com.wstrater.server.fileSync.common.utils.DirectoryUtils;
 import com.wstrater.server.fileSync.common.utils.FilePermissions;
 import com.wstrater.server.fileSync.common.utils.FileUtils;
@@ -49,26 +45,37 @@ import com.wstrater.server.fileSync.common.utils.IndexManager;
  * {@link DirectoryLister} to list the directories and {@link PlanMapper} to produce a plan. Once
  * all the plans have been generated, it produces are port using {@link Engine} templating engine to
  * produce the report.
+ * <p/>
+ * The directories are walked in parallel using a {@link ForkJoinPool}. The plans of the
+ * sub-directories are joined in the order they appear in their parent's plan so the report is the
+ * same as a sequential walk.
+ * <p/>
+ * With <code>rollup</code> a recursive plan compares the rollup digests of each directory first and
+ * leaves out any directory that holds the same files on both sides, along with everything below it.
+ * The digests of the whole tree are fetched once from each side before the walk.
  * 
  * @author wstrater
  *
  */
 public class Planner {
 
-  protected final Logger  logger = LoggerFactory.getLogger(getClass());
-
-  private String          eol;
-  private boolean         hiddenDirectories;
-  private boolean         hiddenFiles;
-  private File            localBaseDir;
-  private DirectoryLister localLister;
-  private FilePermissions permissions;
-  private boolean         recursive;
-  private File            remoteBaseDir;
-  private RemoteClient    remoteClient;
-  private DirectoryLister remoteLister;
-  private String          reportFile;
-  private String          templateName;
+  protected final Logger    logger   = LoggerFactory.getLogger(getClass());
+
+  private DirectoryListings directoryListings;
+  private String            eol;
+  private boolean           hiddenDirectories;
+  private boolean           hiddenFiles;
+  private int               listings = DirectoryListings.DEFAULT_LISTINGS;
+  private File              localBaseDir;
+  private DirectoryLister   localLister;
+  private FilePermissions   permissions;
+  private boolean           recursive;
+  private File              remoteBaseDir;
+  private RemoteClient      remoteClient;
+  private DirectoryLister   remoteLister;
+  private String            reportFile;
+  private boolean           rollup;
+  private String            templateName;
 
   private Planner() {}
 
@@ -76,33 +83,6 @@ public class Planner {
     return new Builder();
   }
 
-  private DirectoryInfo getDirectoryInfo(DirectoryLister lister, File baseDir, String path) {
-    DirectoryInfo ret = null;
-
-    DirectoryListRequest request = new DirectoryListRequest();
-    request.setBaseDir(baseDir);
-    request.setPath(path);
-    request.setHiddenDirectories(hiddenDirectories);
-    request.setHiddenFiles(hiddenFiles);
-    request.setRecursive(false);
-
-    try {
-      DirectoryListResponse response = lister.listDirectory(request);
-      if (response != null && response.isSuccess()) {
-        ret = response.getDirectoryInfo();
-      } else {
-        throw new ErrorListingDirectoryException(String.format("Unable to list directory: %s", request));
-      }
-    } catch (NotValidDirectoryException ee) {
-      // It does not exist so create an empty structure.
-      ret = new DirectoryInfo();
-      DirectoryPermissionsResponse response = lister.getPermissions(new DirectoryPermissionsRequest());
-      ret.setAccess(AccessUtils.NewDirectory().permissions(response.isAllowDelete(), response.isAllowWrite()).get());
-    }
-
-    return ret;
-  }
-
   /**
    * Set up the local and remote workers.
    * 
@@ -123,6 +103,9 @@ public class Planner {
         remoteLister = new DirectoryListerRemoteImpl(remoteClient);
       }
     }
+
+    directoryListings = new DirectoryListings(localLister, localBaseDir, remoteLister, remoteBaseDir, hiddenDirectories,
+        hiddenFiles, listings);
   }
 
   private String loadTemplate(String templateName) {
@@ -196,25 +179,52 @@ public class Planner {
       throw new InvalidFileLocationException(String.format("Not a valid directory '%s'", dir.getAbsolutePath()));
     }
 
-    List<DirectoryPlan> plans = new ArrayList<>();
-    planContents(plans, plan, path, recursive, hiddenDirectories, hiddenFiles);
+    List<DirectoryPlan> plans = null;
+    ForkJoinPool walker = new ForkJoinPool(Math.max(1, listings));
+    try {
+      plans = walker.invoke(new PlanTask(plan, path, null));
+    } finally {
+      walker.shutdownNow();
+    }
 
     produceReport(plan, plans, templateName, eol, reportFile);
   }
 
-  private void planContents(List<DirectoryPlan> plans, SyncEnum plan, String path, boolean recursive, boolean hiddenDirectories,
-      boolean hiddenFiles) {
+  /**
+   * Plan one directory and its sub-directories. The sub-directories are forked so they are planned
+   * in parallel but their plans are added in order.
+   * 
+   * @param plan
+   * @param path
+   * @param digests The digests of the path if already fetched with its parent.
+   * @return The plan for this directory followed by the plans of the sub-directories.
+   */
+  private List<DirectoryPlan> planContents(SyncEnum plan, String path, DirectoryListings.Digests digests) {
+    List<DirectoryPlan> ret = new ArrayList<>();
+
     File dir = FileUtils.canonicalFile(new File(localBaseDir, path));
     if (!DirectoryUtils.isChild(localBaseDir, dir)) {
       throw new InvalidFileLocationException(String.format("Invalid directory '%s'", dir.getAbsolutePath()));
     }
 
-    DirectoryInfo localDirectory = getDirectoryInfo(localLister, localBaseDir, path);
+    if (recursive && rollup) {
+      if (digests == null) {
+        digests = directoryListings.digest(path);
+      }
+      if (digests.isSame()) {
+        logger.info(String.format("Skipping %s, digests match: %s", path, digests.getLocalDigest().getDigest()));
+        return ret;
+      }
+    }
+
+    DirectoryListings.Listing listing = directoryListings.list(path);
+
+    DirectoryInfo localDirectory = listing.getLocalDirectory();
     logger.debug(String.format("Local Directory: %s", localDirectory));
     IndexFile localIndex = IndexManager.loadIndex(dir);
     IndexManager.updateIndexInfo(localIndex, localDirectory);
 
-    DirectoryInfo remoteDirectory = getDirectoryInfo(remoteLister, remoteBaseDir, path);
+    DirectoryInfo remoteDirectory = listing.getRemoteDirectory();
     logger.debug(String.format("Remote Directory: %s", remoteDirectory));
     IndexFile remoteIndex = new IndexFile();
     IndexManager.updateIndexInfo(remoteIndex, remoteDirectory);
@@ -222,21 +232,24 @@ public class Planner {
     PlanMapper planMap = new PlanMapper(plan, localDirectory, localIndex, remoteDirectory, remoteIndex, recursive, permissions);
     Collections.sort(planMap.getPlanItems(), PlanItem.compareByType());
     DirectoryPlan directoryPlan = new DirectoryPlan(path, planMap.getPlanItems());
-    plans.add(directoryPlan);
+    ret.add(directoryPlan);
 
     logger.debug(directoryPlan.toString());
 
+    List<PlanTask> dirTasks = new ArrayList<>();
     for (PlanItem planItem : directoryPlan.getPlanItems()) {
       switch (planItem.getAction()) {
         case SyncLocalDirToRemote: {
           if (recursive) {
-            planContents(plans, plan, newPath(path, planItem.getLocal().getName()), recursive, hiddenDirectories, hiddenFiles);
+            dirTasks.add(new PlanTask(plan, newPath(path, planItem.getLocal().getName()),
+                digests == null ? null : digests.getDirectory(planItem.getLocal().getName())));
           }
           break;
         }
         case SyncRemoteDirToLocal: {
           if (recursive) {
-            planContents(plans, plan, newPath(path, planItem.getRemote().getName()), recursive, hiddenDirectories, hiddenFiles);
+            dirTasks.add(new PlanTask(plan, newPath(path, planItem.getRemote().getName()),
+                digests == null ? null : digests.getDirectory(planItem.getRemote().getName())));
           }
           break;
         }
@@ -245,6 +258,15 @@ public class Planner {
         }
       }
     }
+
+    for (PlanTask dirTask : dirTasks) {
+      dirTask.fork();
+    }
+    for (PlanTask dirTask : dirTasks) {
+      ret.addAll(dirTask.join());
+    }
+
+    return ret;
   }
 
   private void produceReport(SyncEnum plan, List<DirectoryPlan> plans, String templateName, String eol, String reportFile) {
@@ -345,6 +367,17 @@ public class Planner {
       return this;
     }
 
+    /**
+     * The maximum number of directory listings outstanding while walking the directories.
+     * 
+     * @param listings
+     * @return
+     */
+    public Builder listings(int listings) {
+      built.listings = listings;
+      return this;
+    }
+
     public Builder localBaseDir(File localBaseDir) {
       built.localBaseDir = localBaseDir;
       return this;
@@ -391,6 +424,17 @@ public class Planner {
       return this;
     }
 
+    /**
+     * Leave out directories whose rollup digests match on both sides.
+     * 
+     * @param rollup
+     * @return
+     */
+    public Builder rollup(boolean rollup) {
+      built.rollup = rollup;
+      return this;
+    }
+
     public Builder templateName(String templateName) {
       built.templateName = templateName;
       return this;
@@ -398,4 +442,28 @@ public class Planner {
 
   }
 
+  /**
+   * Plans one directory and its sub-directories.
+   */
+  private class PlanTask extends RecursiveTask<List<DirectoryPlan>> {
+
+    private static final long               serialVersionUID = 20150704L;
+
+    private final DirectoryListings.Digests digests;
+    private final String                    path;
+    private final SyncEnum                  plan;
+
+    private PlanTask(SyncEnum plan, String path, DirectoryListings.Digests digests) {
+      this.plan = plan;
+      this.path = path;
+      this.digests = digests;
+    }
+
+    @Override
+    protected List<DirectoryPlan> compute() {
+      return planContents(plan, path, digests);
+    }
+
+  }
+
 }
\ No newline at end of file
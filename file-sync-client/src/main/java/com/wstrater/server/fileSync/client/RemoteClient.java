@@ -16,7 +16,9 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
+import javax.ws.rs.core.MediaType;
 
+import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.util.security.Credential;
 import org.eclipse.jetty.util.security.Password;
 import org.slf4j.Logger;
@@ -32,12 +34,18 @@ import com.sun.jersey.api.client.config.DefaultClientConfig;
 import com.sun.jersey.api.client.filter.ClientFilter;
 import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
 import com.sun.jersey.client.urlconnection.HTTPSProperties;
+import com.wstrater.server.fileSync.common.codec.Dictionaries;
+import com.wstrater.server.fileSync.common.codec.Dictionary;
 import com.wstrater.server.fileSync.common.exceptions.FileSyncException;
+import com.wstrater.server.fileSync.common.exceptions.InvalidChecksumTypeException;
 import com.wstrater.server.fileSync.common.exceptions.UnableToConfigureSSLException;
 import com.wstrater.server.fileSync.common.exceptions.UnableToLoadKeyStoreException;
 import com.wstrater.server.fileSync.common.exceptions.UnableToLoadTrustStoreException;
+import com.wstrater.server.fileSync.common.hash.Checksums;
 import com.wstrater.server.fileSync.common.utils.Compare;
+import com.wstrater.server.fileSync.common.utils.CompressionTuner;
 import com.wstrater.server.fileSync.common.utils.Constants;
+import com.wstrater.server.fileSync.common.utils.FileUtils;
 
 /**
  * This is used to configure `Jersey` for accessing the remote server.
@@ -47,18 +55,25 @@ import com.wstrater.server.fileSync.common.utils.Constants;
  */
 public class RemoteClient {
 
-  protected final static Logger logger          = LoggerFactory.getLogger(RemoteClient.class);
+  public final static int       MAX_DICTIONARY_MISSES = 3;
+
+  protected final static Logger logger                = LoggerFactory.getLogger(RemoteClient.class);
 
   private boolean               basicAuth;
   private Client                client;
-  private boolean               closeConnection = true;
+  private boolean               closeConnection       = true;
+  private Dictionary            dictionary;
+  private int                   dictionaryMisses;
+  private boolean               dictionarySent;
   private String                host;
   private HostnameVerifier      hostNameVerifier;
   private KeyManager[]          keyManagers;
   private File                  keyStoreFile;
   private transient String      keyStorePassword;
+  private volatile int          maxBatchSize          = Integer.MAX_VALUE;
   private int                   port;
   private transient String      privateKeyPassword;
+  private CompressionTuner      readTuner             = new CompressionTuner(CompressionTuner.DEFAULT_EVALUATE_BLOCKS);
   private boolean               ssl;
   private SSLContext            sslContext;
   private TrustManager[]        trustManagers;
@@ -66,6 +81,7 @@ public class RemoteClient {
   private transient String      trustStorePassword;
   private String                userName;
   private transient String      userPassword;
+  private CompressionTuner      writeTuner            = new CompressionTuner(CompressionTuner.DEFAULT_EVALUATE_BLOCKS);
 
   protected RemoteClient() {}
 
@@ -93,6 +109,34 @@ public class RemoteClient {
     }
   }
 
+  /**
+   * Remember the maximum batch size reported by the server.
+   * 
+   * @param clientResponse
+   */
+  public void checkForMaxBatch(ClientResponse clientResponse) {
+    String maxBatch = clientResponse.getHeaders().getFirst(Constants.MAX_BATCH_HEADER);
+    if (Compare.isNotBlank(maxBatch)) {
+      maxBatchSize = Integer.parseInt(maxBatch);
+    }
+  }
+
+  /**
+   * The server no longer knows the dictionary, most likely restarted, so send it again before it is
+   * used next. A server that keeps forgetting it is not sent blocks deflated with it any more.
+   * 
+   * @param key Of the dictionary the server did not find.
+   */
+  public synchronized void dictionaryNotFound(String key) {
+    if (dictionary != null && dictionary.getKey().equals(key)) {
+      dictionarySent = false;
+      if (++dictionaryMisses >= MAX_DICTIONARY_MISSES) {
+        logger.warn(String.format("Not using %s: Server keeps forgetting it", dictionary));
+        dictionary = null;
+      }
+    }
+  }
+
   public void finished() {
     if (client != null) {
       client.destroy();
@@ -136,6 +180,33 @@ public class RemoteClient {
           }
         });
       }
+
+      client.addFilter(new ClientFilter() {
+
+        /**
+         * Ask for the block checksum type of this client and make sure the server used it. A server
+         * that does not send the type back only knows the default.
+         */
+        @Override
+        public ClientResponse handle(ClientRequest clientRequest) throws ClientHandlerException {
+          String checksumType = FileUtils.getChecksumType();
+          clientRequest.getHeaders().putSingle(Constants.CHECKSUM_TYPE_HEADER, checksumType);
+
+          ClientResponse ret = getNext().handle(clientRequest);
+
+          if (ret.getStatus() >= 200 && ret.getStatus() < 300) {
+            String serverType = ret.getHeaders().getFirst(Constants.CHECKSUM_TYPE_HEADER);
+            if (serverType == null ? !Checksums.DEFAULT_CHECKSUM_TYPE.equalsIgnoreCase(checksumType)
+                : !serverType.equalsIgnoreCase(checksumType)) {
+              ret.close();
+              throw new InvalidChecksumTypeException(String.format("Server does not support checksum type: %s",
+                  checksumType));
+            }
+          }
+
+          return ret;
+        }
+      });
     }
 
     return client;
@@ -221,6 +292,46 @@ public class RemoteClient {
     return trustManagers;
   }
 
+  /**
+   * The most bytes the server accepts in one batch of blocks as reported by its last batch
+   * response. Unlimited until the server has reported it.
+   * 
+   * @return
+   */
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /**
+   * The preset dictionary small blocks written to the server are deflated with. It is sent to the
+   * server the first time it is asked for. A server that does not accept it, such as an older one,
+   * is not sent blocks deflated with it.
+   * 
+   * @return Null if there is none.
+   */
+  public synchronized Dictionary getDictionary() {
+    if (dictionary != null && !dictionarySent) {
+      try {
+        sendDictionary();
+        dictionarySent = true;
+      } catch (FileSyncException ee) {
+        logger.warn(String.format("Not using %s: %s", dictionary, ee.getMessage()));
+        dictionary = null;
+      }
+    }
+
+    return dictionary;
+  }
+
+  /**
+   * Picks the level the server deflates blocks read from it at.
+   * 
+   * @return
+   */
+  public CompressionTuner getReadTuner() {
+    return readTuner;
+  }
+
   public String getURI(String path) {
     String ret = String.format("%s://%s:%d%s", ssl ? "https" : "http", host, port, path);
 
@@ -229,6 +340,58 @@ public class RemoteClient {
     return ret;
   }
 
+  /**
+   * Register the dictionary with the server and make sure it arrived intact.
+   */
+  private void sendDictionary() {
+    String uri = getURI(String.format("%s/%s", Constants.DICTIONARY_PATH, dictionary.getId()));
+
+    WebResource webResource = getClient().resource(uri);
+    logger.debug(webResource.toString());
+    ClientResponse clientResponse = webResource.type(MediaType.APPLICATION_OCTET_STREAM).put(ClientResponse.class,
+        dictionary.getData());
+    try {
+      checkForException(clientResponse);
+
+      if (clientResponse.getStatus() != HttpStatus.OK_200 && clientResponse.getStatus() != HttpStatus.NO_CONTENT_204) {
+        throw new FileSyncException(String.format("Failed PUT %s: %d/%s", uri, clientResponse.getStatus(),
+            clientResponse.getStatusInfo()));
+      }
+
+      String key = clientResponse.getHeaders().getFirst(Constants.DICTIONARY_HEADER);
+      if (!dictionary.getKey().equals(key)) {
+        throw new FileSyncException(String.format("Server registered %s as %s", dictionary.getKey(), key));
+      }
+    } finally {
+      clientResponse.close();
+    }
+
+    logger.info(String.format("Sent %s", dictionary));
+  }
+
+  /**
+   * Use a preset dictionary for deflating small blocks written to the server.
+   * 
+   * @param dictionary Null to stop using one.
+   */
+  public synchronized void setDictionary(Dictionary dictionary) {
+    this.dictionary = dictionary;
+    this.dictionaryMisses = 0;
+    this.dictionarySent = false;
+    if (dictionary != null) {
+      Dictionaries.register(dictionary);
+    }
+  }
+
+  /**
+   * Picks the level blocks written to the server are deflated at.
+   * 
+   * @return
+   */
+  public CompressionTuner getWriteTuner() {
+    return writeTuner;
+  }
+
   /**
    * Allow building a {@link RemoteClient} with a flexible list of arguments that are easily
    * readable.
@@ -0,0 +1,93 @@
+package com.wstrater.server.fileSync.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Counters shared by the workers of a {@link Syncer} to track the progress of a sync. The first
+ * error is kept so it can be reported once the other workers are done.
+ *
+ * @author wstrater
+ *
+ */
+public class SyncProgress {
+
+  private final AtomicLong                        bytesCopied        = new AtomicLong();
+  private final AtomicLong                        bytesMatched       = new AtomicLong();
+  private final AtomicInteger                     directoriesDeleted = new AtomicInteger();
+  private final AtomicInteger                     failures           = new AtomicInteger();
+  private final AtomicInteger                     filesCopied        = new AtomicInteger();
+  private final AtomicInteger                     filesDeleted       = new AtomicInteger();
+  private final AtomicReference<RuntimeException> firstError         = new AtomicReference<>();
+
+  void addBytesCopied(long bytes) {
+    bytesCopied.addAndGet(bytes);
+  }
+
+  void addBytesMatched(long bytes) {
+    bytesMatched.addAndGet(bytes);
+  }
+
+  void directoryDeleted() {
+    directoriesDeleted.incrementAndGet();
+  }
+
+  void failed(RuntimeException error) {
+    failures.incrementAndGet();
+    firstError.compareAndSet(null, error);
+  }
+
+  void fileCopied() {
+    filesCopied.incrementAndGet();
+  }
+
+  void fileDeleted() {
+    filesDeleted.incrementAndGet();
+  }
+
+  public long getBytesCopied() {
+    return bytesCopied.get();
+  }
+
+  /**
+   * The bytes already at the destination that did not need to be copied.
+   * 
+   * @return
+   */
+  public long getBytesMatched() {
+    return bytesMatched.get();
+  }
+
+  public int getDirectoriesDeleted() {
+    return directoriesDeleted.get();
+  }
+
+  public int getFailures() {
+    return failures.get();
+  }
+
+  public int getFilesCopied() {
+    return filesCopied.get();
+  }
+
+  public int getFilesDeleted() {
+    return filesDeleted.get();
+  }
+
+  public RuntimeException getFirstError() {
+    return firstError.get();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("SyncProgress [filesCopied=").append(filesCopied).append(", bytesCopied=").append(bytesCopied)
+        .append(", bytesMatched=").append(bytesMatched).append(", filesDeleted=").append(filesDeleted).append(", directoriesDeleted=").append(directoriesDeleted)
+        .append(", failures=").append(failures).append("]");
+
+    return builder.toString();
+  }
+
+}
\ No newline at end of file
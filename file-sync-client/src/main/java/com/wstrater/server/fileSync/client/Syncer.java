@@ -1,31 +1,61 @@
 package com.wstrater.server.fileSync.client;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.wstrater.server.fileSync.common.data.BlockSignature;
 import com.wstrater.server.fileSync.common.data.ChunkInfo;
 import com.wstrater.server.fileSync.common.data.DeleteRequest;
 import com.wstrater.server.fileSync.common.data.DeleteResponse;
+import com.wstrater.server.fileSync.common.data.DeltaRequest;
+import com.wstrater.server.fileSync.common.data.DeltaResponse;
 import com.wstrater.server.fileSync.common.data.DirectoryDeleteRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryDeleteResponse;
 import com.wstrater.server.fileSync.common.data.DirectoryInfo;
-import com.wstrater.server.fileSync.common.data.DirectoryListRequest;
-import com.wstrater.server.fileSync.common.data.DirectoryListResponse;
 import com.wstrater.server.fileSync.common.data.DirectoryMakeRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryMakeResponse;
-import com.wstrater.server.fileSync.common.data.DirectoryPermissionsRequest;
-import com.wstrater.server.fileSync.common.data.DirectoryPermissionsResponse;
+import com.wstrater.server.fileSync.common.data.FileSignature;
+import com.wstrater.server.fileSync.common.data.HashTree;
 import com.wstrater.server.fileSync.common.data.IndexFile;
 import com.wstrater.server.fileSync.common.data.IndexInfo;
 import com.wstrater.server.fileSync.common.data.ReadRequest;
 import com.wstrater.server.fileSync.common.data.ReadResponse;
+import com.wstrater.server.fileSync.common.data.SignatureRequest;
+import com.wstrater.server.fileSync.common.data.SignatureResponse;
+import com.wstrater.server.fileSync.common.data.StreamRequest;
+import com.wstrater.server.fileSync.common.data.TreeRequest;
+import com.wstrater.server.fileSync.common.data.TreeResponse;
 import com.wstrater.server.fileSync.common.data.WriteRequest;
 import com.wstrater.server.fileSync.common.data.WriteResponse;
-import com.wstrater.server.fileSync.common.exceptions.ErrorListingDirectoryException;
+import com.wstrater.server.fileSync.common.exceptions.ErrorReadingBlockException;
+import com.wstrater.server.fileSync.common.exceptions.ErrorWritingBlockException;
+import com.wstrater.server.fileSync.common.exceptions.FileSyncException;
 import com.wstrater.server.fileSync.common.exceptions.InvalidBlockHashException;
+import com.wstrater.server.fileSync.common.exceptions.InvalidFileHashException;
 import com.wstrater.server.fileSync.common.exceptions.InvalidFileLocationException;
 import com.wstrater.server.fileSync.common.exceptions.NotValidDirectoryException;
 import com.wstrater.server.fileSync.common.file.BlockReader;
@@ -36,13 +66,17 @@ import com.wstrater.server.fileSync.common.file.BlockWriterLocalImpl;
 import com.wstrater.server.fileSync.common.file.DirectoryLister;
 import com.wstrater.server.fileSync.common.file.DirectoryListerLocalAsRemoteImpl;
 import com.wstrater.server.fileSync.common.file.DirectoryListerLocalImpl;
-import com.wstrater.server.fileSync.common.utils.AccessUtils;
+import com.wstrater.server.fileSync.common.file.StreamListener;
 import com.wstrater.server.fileSync.common.utils.Compare;
+import com.wstrater.server.fileSync.common.utils.CompressionTuner;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils;
+import com.wstrater.server.fileSync.common.utils.Constants;
 import com.wstrater.server.fileSync.common.utils.Constants.ActionEnum;
 import com.wstrater.server.fileSync.common.utils.Constants.SyncEnum;
 import com.wstrater.server.fileSync.common.utils.DirectoryUtils;
 import com.wstrater.server.fileSync.common.utils.FilePermissions;
 import com.wstrater.server.fileSync.common.utils.FileUtils;
+import com.wstrater.server.fileSync.common.utils.HashTreeUtils;
 import com.wstrater.server.fileSync.common.utils.IndexManager;
 
 /**
@@ -50,34 +84,188 @@ import com.wstrater.server.fileSync.common.utils.IndexManager;
  * {@link DirectoryLister} to list the directories and {@link PlanMapper} to produce a plan. Once a
  * plan is generated, it steps through the plan and executes the {@link ActionEnum} for the
  * {@link PlanItem}.
+ * <p/>
+ * The directories are walked in parallel using a {@link ForkJoinPool}. The local and remote
+ * directories are listed at the same time by {@link DirectoryListings}. File actions are handed to
+ * a pool of workers so several files are transferred at once. A directory is only deleted once the
+ * file actions already queued for its parent have finished. An error in one worker does not stop
+ * the others. The first error is thrown once every queued action has finished.
+ * <p/>
+ * Files of at least <code>streamSize</code> bytes are copied as one stream instead of a request per
+ * block. Smaller files can be copied <code>batchSize</code> blocks per request.
+ * <p/>
+ * In <code>delta</code> mode a file that already exists at the destination is compared block by
+ * block using the signatures of both copies and only the blocks that differ are copied. The hash of
+ * the whole file is checked once it has been written.
+ * <p/>
+ * A destination file of at least <code>rollingSize</code> bytes is rebuilt from a delta instead so
+ * blocks that have moved, such as after bytes were inserted near the start, are still reused. The
+ * destination publishes the signature of its copy and the source sends the blocks it found in it
+ * along with the bytes it did not.
+ * <p/>
+ * In <code>tree</code> mode the {@link HashTree} of the chunks of both copies are compared from the
+ * root down and the chunks that already match are flagged so only the others are copied. The
+ * chunks flagged by an interrupted copy are checked the same way before it is resumed.
+ * <p/>
+ * A file read or written from start to end in order is hashed on the way through. The hash of the
+ * read is sent with the last write so the writer can check the whole file without reading it again
+ * and the hash of the write is kept in the index.
+ * <p/>
+ * With <code>rollup</code> a recursive sync compares the rollup digests of each directory first and
+ * skips any directory that holds the same files on both sides, along with everything below it. The
+ * digests of the whole tree are fetched once from each side before the walk.
  * 
  * @author wstrater
  *
  */
 public class Syncer {
 
-  protected final Logger  logger = LoggerFactory.getLogger(getClass());
-
-  private File            localBaseDir;
-  private DirectoryLister localLister;
-  private BlockReader     localReader;
-  private BlockWriter     localWriter;
-  private boolean         hiddenDirectories;
-  private boolean         hiddenFiles;
-  private FilePermissions permissions;
-  private boolean         recursive;
-  private File            remoteBaseDir;
-  private RemoteClient    remoteClient;
-  private DirectoryLister remoteLister;
-  private BlockReader     remoteReader;
-  private BlockWriter     remoteWriter;
+  public final static int            DEFAULT_BATCH_SIZE   = Constants.DEFAULT_BATCH_SIZE;
+  public final static int            DEFAULT_QUEUE_DEPTH  = Constants.DEFAULT_QUEUE_DEPTH;
+  public final static long           DEFAULT_ROLLING_SIZE = Constants.DEFAULT_ROLLING_SIZE;
+  public final static long           DEFAULT_STREAM_SIZE  = Constants.DEFAULT_STREAM_SIZE;
+  public final static int            DEFAULT_STRIPES      = Constants.DEFAULT_STRIPES;
+  public final static long           DEFAULT_STRIPE_SIZE  = Constants.DEFAULT_STRIPE_SIZE;
+  public final static int            DEFAULT_THREADS      = Constants.DEFAULT_SYNC_THREADS;
+
+  private final static AtomicInteger threadCount          = new AtomicInteger();
+
+  protected final Logger             logger               = LoggerFactory.getLogger(getClass());
+
+  private int                        batchSize            = DEFAULT_BATCH_SIZE;
+  private boolean                    delta;
+  private ExecutorService            executor;
+  private File                       localBaseDir;
+  private DirectoryListings          directoryListings;
+  private int                        listings             = DirectoryListings.DEFAULT_LISTINGS;
+  private DirectoryLister            localLister;
+  private BlockReader                localReader;
+  private BlockWriter                localWriter;
+  private boolean                    hiddenDirectories;
+  private boolean                    hiddenFiles;
+  private SyncProgress               nextProgress;
+  private Queue<Future<?>>           pendingTasks         = new ConcurrentLinkedQueue<>();
+  private FilePermissions            permissions;
+  private SyncProgress               progress             = new SyncProgress();
+  private int                        queueDepth           = DEFAULT_QUEUE_DEPTH;
+  private boolean                    recursive;
+  private File                       remoteBaseDir;
+  private RemoteClient               remoteClient;
+  private DirectoryLister            remoteLister;
+  private BlockReader                remoteReader;
+  private BlockWriter                remoteWriter;
+  private long                       rollingSize          = DEFAULT_ROLLING_SIZE;
+  private boolean                    rollup;
+  private long                       streamSize           = DEFAULT_STREAM_SIZE;
+  private ExecutorService            stripeExecutor;
+  private int                        stripes              = DEFAULT_STRIPES;
+  private long                       stripeSize           = DEFAULT_STRIPE_SIZE;
+  private int                        threads              = DEFAULT_THREADS;
+  private boolean                    tree;
+  private ExecutorService            writeExecutor;
 
   private Syncer() {}
 
+  /**
+   * Wait for the writes still in flight after a failure so none of them land once the copy has
+   * given up, then return their buffers.
+   * 
+   * @param pendingWrites
+   */
+  private void abandonWrites(Queue<PendingWrite> pendingWrites) {
+    for (PendingWrite pendingWrite : pendingWrites) {
+      try {
+        pendingWrite.getWrite().get();
+      } catch (InterruptedException ee) {
+        // The buffers still being written are left to the garbage collector.
+        Thread.currentThread().interrupt();
+        break;
+      } catch (ExecutionException ee) {
+        // Only the first error is reported
+      }
+      FileUtils.releaseBlock(pendingWrite.getBlock().getReadResponse());
+    }
+    pendingWrites.clear();
+  }
+
+  /**
+   * Wait for a block written behind the reads and verify its CRC. The writes are acknowledged in
+   * the order they were queued so a chunk is only flagged once every block in it has been written.
+   * 
+   * @param path
+   * @param indexInfo
+   * @param pendingWrite
+   */
+  private void acknowledgeWrite(String path, IndexInfo indexInfo, PendingWrite pendingWrite) {
+    BlockReadAhead.Block block = pendingWrite.getBlock();
+    ReadResponse readResponse = block.getReadResponse();
+
+    WriteResponse writeResponse = null;
+    try {
+      writeResponse = pendingWrite.getWrite().get();
+    } catch (InterruptedException ee) {
+      Thread.currentThread().interrupt();
+      throw new FileSyncException(String.format("Interrupted writing %s/%s", path, indexInfo.getName()));
+    } catch (ExecutionException ee) {
+      FileUtils.releaseBlock(readResponse);
+      throw ee.getCause() instanceof RuntimeException ? (RuntimeException) ee.getCause() : new FileSyncException(
+          String.format("Error writing %s/%s: %s", path, indexInfo.getName(), ee.getCause()));
+    }
+    FileUtils.releaseBlock(readResponse);
+
+    if (readResponse.getCrc32() != writeResponse.getCrc32()) {
+      throw new InvalidBlockHashException(String.format("Block hash after write of %s/%s at offset %d did not match read.",
+          path, indexInfo.getName(), block.getOffset()));
+    }
+    progress.addBytesCopied(readResponse.getLength());
+
+    if (block.isLastInChunk()) {
+      indexInfo.getChunkInfo().setFlag(block.getChunkIndex());
+      writeLocalIndex(localBaseDir, indexInfo);
+    }
+  }
+
+  /**
+   * Wait for queued file actions to finish.
+   * 
+   * @param tasks
+   */
+  private void awaitTasks(Collection<Future<?>> tasks) {
+    for (Future<?> task : tasks) {
+      try {
+        task.get();
+      } catch (InterruptedException ee) {
+        Thread.currentThread().interrupt();
+        throw new FileSyncException("Interrupted waiting for file actions");
+      } catch (ExecutionException ee) {
+        // The task records its own errors
+        logger.error("Unexpected error in file action", ee.getCause());
+      }
+    }
+  }
+
   public static Builder builder() {
     return new Builder();
   }
 
+  /**
+   * Name the worker threads and do not let them keep the JVM running.
+   * 
+   * @param name
+   * @return
+   */
+  private static ThreadFactory daemonThreads(final String name) {
+    return new ThreadFactory() {
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread ret = new Thread(runnable, String.format("%s-%d", name, threadCount.incrementAndGet()));
+        ret.setDaemon(true);
+        return ret;
+      }
+    };
+  }
+
   /**
    * Delete a directory from either file systems.
    * 
@@ -94,6 +282,8 @@ public class Syncer {
     request.setFiles(true);
     request.setRecursive(true);
     DirectoryDeleteResponse response = lister.deleteDirectory(request);
+
+    progress.directoryDeleted();
   }
 
   /**
@@ -118,6 +308,8 @@ public class Syncer {
 
     indexInfo.getChunkInfo().setAction(ActionEnum.Done);
     deleteLocalIndex(localBaseDir, indexInfo);
+
+    progress.fileDeleted();
   }
 
   /**
@@ -131,31 +323,8 @@ public class Syncer {
     IndexManager.deleteIndexItem(baseDir, indexInfo);
   }
 
-  private DirectoryInfo getDirectoryInfo(DirectoryLister lister, File baseDir, String path) {
-    DirectoryInfo ret = null;
-
-    DirectoryListRequest request = new DirectoryListRequest();
-    request.setBaseDir(baseDir);
-    request.setPath(path);
-    request.setHiddenDirectories(hiddenDirectories);
-    request.setHiddenFiles(hiddenFiles);
-    request.setRecursive(false);
-
-    try {
-      DirectoryListResponse response = lister.listDirectory(request);
-      if (response != null && response.isSuccess()) {
-        ret = response.getDirectoryInfo();
-      } else {
-        throw new ErrorListingDirectoryException(String.format("Unable to list directory: %s", request));
-      }
-    } catch (NotValidDirectoryException ee) {
-      // It does not exist so create an empty structure.
-      ret = new DirectoryInfo();
-      DirectoryPermissionsResponse response = lister.getPermissions(new DirectoryPermissionsRequest());
-      ret.setAccess(AccessUtils.NewDirectory().permissions(response.isAllowDelete(), response.isAllowWrite()).get());
-    }
-
-    return ret;
+  public SyncProgress getProgress() {
+    return progress;
   }
 
   /**
@@ -185,6 +354,9 @@ public class Syncer {
       remoteReader = new BlockReaderRemoteImpl(remoteClient);
       remoteWriter = new BlockWriterRemoteImpl(remoteClient);
     }
+
+    directoryListings = new DirectoryListings(localLister, localBaseDir, remoteLister, remoteBaseDir, hiddenDirectories,
+        hiddenFiles, listings);
   }
 
   /**
@@ -234,21 +406,105 @@ public class Syncer {
       throw new InvalidFileLocationException(String.format("Not a valid directory '%s'", dir.getAbsolutePath()));
     }
 
-    syncContents(sync, path);
+    progress = nextProgress == null ? new SyncProgress() : nextProgress;
+    nextProgress = null;
+    if (threads > 1) {
+      executor = Executors.newFixedThreadPool(threads, daemonThreads(Syncer.class.getSimpleName()));
+    }
+    if (stripes > 1) {
+      stripeExecutor = Executors.newFixedThreadPool(stripes, daemonThreads("Stripe"));
+    }
+    if (queueDepth > 1) {
+      writeExecutor = Executors.newFixedThreadPool(Math.max(1, threads) * queueDepth, daemonThreads("WriteBehind"));
+    }
+    ForkJoinPool walker = new ForkJoinPool(Math.max(1, listings));
+    try {
+      walker.invoke(new SyncTask(sync, path, null));
+      awaitTasks(pendingTasks);
+    } finally {
+      walker.shutdownNow();
+      if (executor != null) {
+        executor.shutdownNow();
+        executor = null;
+      }
+      if (stripeExecutor != null) {
+        stripeExecutor.shutdownNow();
+        stripeExecutor = null;
+      }
+      if (writeExecutor != null) {
+        writeExecutor.shutdownNow();
+        writeExecutor = null;
+      }
+      pendingTasks.clear();
+    }
+
+    logger.info(String.format("Synced %s", progress));
+    logger.info(String.format("Buffers %s", FileUtils.getBufferPool()));
+    if (FileUtils.isCompress()) {
+      logger.info(String.format("Compression %s", FileUtils.getCompressionAdvisor()));
+      if (remoteClient != null) {
+        logger.info(String.format("Read level %s", remoteClient.getReadTuner()));
+        logger.info(String.format("Write level %s", remoteClient.getWriteTuner()));
+      }
+    }
+
+    if (progress.getFirstError() != null) {
+      throw progress.getFirstError();
+    }
+  }
+
+  /**
+   * Run a file action on a worker, or in line when there is only one thread.
+   * 
+   * @param path
+   * @param planItem
+   * @return The queued action or null if it has already run.
+   */
+  private Future<?> submitFileTask(String path, PlanItem planItem) {
+    Future<?> ret = null;
+
+    FileTask task = new FileTask(path, planItem);
+    if (executor == null) {
+      task.run();
+    } else {
+      ret = executor.submit(task);
+      pendingTasks.add(ret);
+    }
+
+    return ret;
   }
 
-  private void syncContents(SyncEnum sync, String path) {
+  /**
+   * Sync one directory and fork its sub-directories.
+   * 
+   * @param sync
+   * @param path
+   * @param digests The digests of the path if already fetched with its parent.
+   */
+  private void syncContents(SyncEnum sync, String path, DirectoryListings.Digests digests) {
     File dir = FileUtils.canonicalFile(new File(localBaseDir, path));
     if (!DirectoryUtils.isChild(localBaseDir, dir)) {
       throw new InvalidFileLocationException(String.format("Invalid directory '%s'", dir.getAbsolutePath()));
     }
 
-    DirectoryInfo localDirectory = getDirectoryInfo(localLister, localBaseDir, path);
+    if (recursive && rollup) {
+      if (digests == null) {
+        digests = directoryListings.digest(path);
+      }
+      if (digests.isSame()) {
+        logger.info(String.format("Skipping %s, digests match: %s", path, digests.getLocalDigest().getDigest()));
+        return;
+      }
+    }
+
+    DirectoryListings.Listing listing = directoryListings.list(path);
+
+    DirectoryInfo localDirectory = listing.getLocalDirectory();
     logger.debug(String.format("Local Directory: %s", localDirectory));
     IndexFile localIndex = IndexManager.loadIndex(dir);
     IndexManager.updateIndexInfo(localIndex, localDirectory);
 
-    DirectoryInfo remoteDirectory = getDirectoryInfo(remoteLister, remoteBaseDir, path);
+    DirectoryInfo remoteDirectory = listing.getRemoteDirectory();
     logger.debug(String.format("Remote Directory: %s", remoteDirectory));
     IndexFile remoteIndex = new IndexFile();
     IndexManager.updateIndexInfo(remoteIndex, remoteDirectory);
@@ -261,43 +517,45 @@ public class Syncer {
      * (permissions.isRemoteWrite()) { makeDirectory(remoteLister, remoteBaseDir, path); }
      */
 
+    List<Future<?>> fileTasks = new ArrayList<>();
+    List<SyncTask> dirTasks = new ArrayList<>();
     for (PlanItem planItem : planMap.getPlanItems()) {
       switch (planItem.getAction()) {
-        case DeleteFileFromRemote: {
-          deleteFile(remoteWriter, remoteBaseDir, path, (IndexInfo) planItem.getRemote(), planItem.getAction());
-          break;
-        }
-        case CopyFileToRemote: {
-          syncFile(localReader, localBaseDir, remoteWriter, remoteBaseDir, path, (IndexInfo) planItem.getLocal(),
-              planItem.getAction());
-          break;
-        }
-        case DeleteFileFromLocal: {
-          deleteFile(localWriter, localBaseDir, path, (IndexInfo) planItem.getLocal(), planItem.getAction());
-          break;
-        }
+        case DeleteFileFromRemote:
+        case CopyFileToRemote:
+        case DeleteFileFromLocal:
         case CopyFileToLocal: {
-          syncFile(remoteReader, remoteBaseDir, localWriter, localBaseDir, path, (IndexInfo) planItem.getRemote(),
-              planItem.getAction());
+          Future<?> fileTask = submitFileTask(path, planItem);
+          if (fileTask != null) {
+            fileTasks.add(fileTask);
+          }
           break;
         }
         case DeleteDirFromRemote: {
+          awaitTasks(fileTasks);
           deleteDirectory(remoteLister, remoteBaseDir, newPath(path, planItem.getRemote().getName()));
           break;
         }
         case SyncLocalDirToRemote: {
           if (recursive) {
-            syncContents(sync, newPath(path, planItem.getLocal().getName()));
+            SyncTask dirTask = new SyncTask(sync, newPath(path, planItem.getLocal().getName()),
+                digests == null ? null : digests.getDirectory(planItem.getLocal().getName()));
+            dirTask.fork();
+            dirTasks.add(dirTask);
           }
           break;
         }
         case DeleteDirFromLocal: {
+          awaitTasks(fileTasks);
           deleteDirectory(localLister, localBaseDir, newPath(path, planItem.getLocal().getName()));
           break;
         }
         case SyncRemoteDirToLocal: {
           if (recursive) {
-            syncContents(sync, newPath(path, planItem.getRemote().getName()));
+            SyncTask dirTask = new SyncTask(sync, newPath(path, planItem.getRemote().getName()),
+                digests == null ? null : digests.getDirectory(planItem.getRemote().getName()));
+            dirTask.fork();
+            dirTasks.add(dirTask);
           }
           break;
         }
@@ -306,6 +564,42 @@ public class Syncer {
         }
       }
     }
+
+    for (SyncTask dirTask : dirTasks) {
+      dirTask.join();
+    }
+  }
+
+  /**
+   * Execute one of the file actions of a {@link PlanItem}.
+   * 
+   * @param path
+   * @param planItem
+   */
+  private void syncFileItem(String path, PlanItem planItem) {
+    switch (planItem.getAction()) {
+      case DeleteFileFromRemote: {
+        deleteFile(remoteWriter, remoteBaseDir, path, (IndexInfo) planItem.getRemote(), planItem.getAction());
+        break;
+      }
+      case CopyFileToRemote: {
+        syncFile(localReader, localBaseDir, remoteWriter, remoteBaseDir, path, (IndexInfo) planItem.getLocal(),
+            (IndexInfo) planItem.getRemote(), planItem.getAction());
+        break;
+      }
+      case DeleteFileFromLocal: {
+        deleteFile(localWriter, localBaseDir, path, (IndexInfo) planItem.getLocal(), planItem.getAction());
+        break;
+      }
+      case CopyFileToLocal: {
+        syncFile(remoteReader, remoteBaseDir, localWriter, localBaseDir, path, (IndexInfo) planItem.getRemote(),
+            (IndexInfo) planItem.getLocal(), planItem.getAction());
+        break;
+      }
+      default: {
+        break;
+      }
+    }
   }
 
   /**
@@ -315,10 +609,11 @@ public class Syncer {
    * @param writeBaseDir Used for writing. Could be local or remote.
    * @param path
    * @param indexInfo
+   * @param writeInfo The file being replaced. Null if there is not one.
    * @param action
    */
   private void syncFile(BlockReader reader, File readBaseDir, BlockWriter writer, File writeBaseDir, String path,
-      IndexInfo indexInfo, ActionEnum action) {
+      IndexInfo indexInfo, IndexInfo writeInfo, ActionEnum action) {
     String fileName = newPath(path, indexInfo.getName());
 
     logger.info(String.format("Syncing File %s in %s from %s to %s", indexInfo.getName(), path, readBaseDir, writeBaseDir));
@@ -338,43 +633,586 @@ public class Syncer {
     localChunk.setAction(action);
     writeLocalIndex(localBaseDir, indexInfo);
 
-    readRequest.setBlockSize(localChunk.getBlockSize());
+    // The file being replaced is read with the reader on the same side as the writer.
+    BlockReader writeReader = writer == localWriter ? localReader : remoteReader;
+
+    boolean rolling = rollingSize > 0L && writeInfo != null && writeInfo.getLength() != null
+        && writeInfo.getLength() >= rollingSize;
+    boolean deltaFile = delta && writeInfo != null && writeInfo.getLength() != null && writeInfo.getLength() > 0L;
+    if (tree && !rolling && !deltaFile) {
+      verifyChunks(reader, readBaseDir, writeReader, writeBaseDir, path, indexInfo, writeInfo);
+    }
+
+    FileSignature readSignature = null;
+    if (rolling) {
+      syncBlocksRolling(reader, readBaseDir, writeReader, writer, writeBaseDir, path, indexInfo);
+    } else if (deltaFile) {
+      readSignature = syncBlocksDelta(reader, readBaseDir, writeReader, writer, path, indexInfo, writeRequest);
+    } else if (stripeExecutor != null && indexInfo.getLength() >= stripeSize && localChunk.getNumChunks() > 1) {
+      syncBlocksStriped(reader, readBaseDir, writer, writeBaseDir, path, indexInfo);
+    } else if (streamSize > 0L && indexInfo.getLength() >= streamSize) {
+      syncBlocksStreamed(reader, readBaseDir, writer, writeBaseDir, path, indexInfo);
+    } else if (batchSize > 1) {
+      syncBlocksBatched(reader, readBaseDir, writer, writeBaseDir, path, indexInfo);
+    } else if (queueDepth > 1) {
+      syncBlocksPipelined(reader, readBaseDir, writer, path, indexInfo, writeRequest);
+    } else {
+      readRequest.setBlockSize(localChunk.getBlockSize());
+      for (int chunkIndex = 0; chunkIndex < localChunk.getNumChunks(); chunkIndex++) {
+        if (!localChunk.isFlag(chunkIndex)) {
+          long offset = (long) chunkIndex * localChunk.getChunkSize() * localChunk.getBlockSize();
+          for (int blockIndex = 0; blockIndex < localChunk.getChunkSize(); blockIndex++) {
+            readRequest.setOffset(offset);
+            ReadResponse readResponse = reader.readBlock(readRequest);
+            indexInfo.putHash(readResponse.getHashType(), readResponse.getHash());
+
+            writeRequest.setOffset(offset);
+            writeRequest.setData(readResponse.getData());
+            writeRequest.setLength(readResponse.getLength());
+            WriteResponse writeResponse = writer.writeBlock(writeRequest);
+            FileUtils.releaseBlock(readResponse);
+
+            if (readResponse.getCrc32() != writeResponse.getCrc32()) {
+              throw new InvalidBlockHashException(String.format("Block hash after write of %s/%s at offset %d did not match read.",
+                  path, indexInfo.getName(), offset));
+            }
+            progress.addBytesCopied(readResponse.getLength());
+
+            offset += localChunk.getBlockSize();
+          }
+
+          localChunk.setFlag(chunkIndex);
+          writeLocalIndex(localBaseDir, indexInfo);
+        }
+      }
+    }
+
+    writeRequest.setOffset(indexInfo.getLength());
+    writeRequest.setData(new byte[0]);
+    writeRequest.setLength(0);
+    writeRequest.setEof(true);
+    writeRequest.setTimeStamp(indexInfo.getLastModified());
+    // Checked by the writer if it hashed the file as it was written.
+    writeRequest.setHash(indexInfo.getHash());
+    writeRequest.setHashType(indexInfo.getHashType());
+    WriteResponse writeResponse = writer.writeBlock(writeRequest);
+    indexInfo.putHash(writeResponse.getHashType(), writeResponse.getHash());
+
+    if (readSignature != null) {
+      FileSignature writeSignature = readSignature(writeReader, writeBaseDir, fileName, localChunk.getBlockSize(), true);
+      if (readSignature.getHash() == null || !readSignature.getHash().equals(writeSignature.getHash())) {
+        throw new InvalidFileHashException(String.format("File hash after write of %s/%s did not match read.", path,
+            indexInfo.getName()));
+      }
+    }
+
+    localChunk.setAction(ActionEnum.Done); // Skip ??
+    writeLocalIndex(localBaseDir, indexInfo);
+
+    progress.fileCopied();
+  }
+
+  /**
+   * Copy the blocks of the chunks not yet flagged <code>batchSize</code> blocks per request. The
+   * reader or writer may handle fewer blocks than asked for so the rest of the batch is sent again
+   * until every block is done. A chunk is flagged once all its blocks have been written and their
+   * CRCs matched.
+   * 
+   * @param reader
+   * @param readBaseDir Used for reading. Could be local or remote.
+   * @param writer
+   * @param writeBaseDir Used for writing. Could be local or remote.
+   * @param path
+   * @param indexInfo
+   */
+  private void syncBlocksBatched(BlockReader reader, File readBaseDir, BlockWriter writer, File writeBaseDir, String path,
+      IndexInfo indexInfo) {
+    ChunkInfo localChunk = indexInfo.getChunkInfo();
+    String fileName = newPath(path, indexInfo.getName());
+
     for (int chunkIndex = 0; chunkIndex < localChunk.getNumChunks(); chunkIndex++) {
       if (!localChunk.isFlag(chunkIndex)) {
         long offset = (long) chunkIndex * localChunk.getChunkSize() * localChunk.getBlockSize();
-        for (int blockIndex = 0; blockIndex < localChunk.getChunkSize(); blockIndex++) {
-          readRequest.setOffset(offset);
-          ReadResponse readResponse = reader.readBlock(readRequest);
+        long chunkEnd = Math.min(offset + (long) localChunk.getChunkSize() * localChunk.getBlockSize(), indexInfo.getLength());
 
-          writeRequest.setOffset(offset);
-          writeRequest.setData(readResponse.getData());
-          writeRequest.setLength(readResponse.getLength());
-          WriteResponse writeResponse = writer.writeBlock(writeRequest);
+        List<ReadRequest> readRequests = new ArrayList<>();
+        while (offset < chunkEnd) {
+          ReadRequest readRequest = new ReadRequest();
+          readRequest.setBaseDir(readBaseDir);
+          readRequest.setFileName(fileName);
+          readRequest.setBlockSize(localChunk.getBlockSize());
+          readRequest.setOffset(offset);
+          readRequests.add(readRequest);
 
-          if (readResponse.getCrc32() != writeResponse.getCrc32()) {
-            throw new InvalidBlockHashException(String.format("Block hash after write of %s/%s at offset %d did not match read.",
-                path, indexInfo.getName(), offset));
+          if (readRequests.size() >= batchSize) {
+            syncBatch(reader, writer, writeBaseDir, path, indexInfo, readRequests);
+            readRequests.clear();
           }
 
           offset += localChunk.getBlockSize();
         }
+        if (!readRequests.isEmpty()) {
+          syncBatch(reader, writer, writeBaseDir, path, indexInfo, readRequests);
+        }
 
         localChunk.setFlag(chunkIndex);
         writeLocalIndex(localBaseDir, indexInfo);
       }
     }
+  }
 
-    writeRequest.setOffset(indexInfo.getLength());
-    writeRequest.setData(new byte[0]);
-    writeRequest.setLength(0);
-    writeRequest.setEof(true);
+  /**
+   * Copy the blocks of one batch. Reads until every block has been read and then writes until every
+   * block has been written.
+   * 
+   * @param reader
+   * @param writer
+   * @param writeBaseDir Used for writing. Could be local or remote.
+   * @param path
+   * @param indexInfo
+   * @param readRequests
+   */
+  private void syncBatch(BlockReader reader, BlockWriter writer, File writeBaseDir, String path, IndexInfo indexInfo,
+      List<ReadRequest> readRequests) {
+    List<ReadResponse> readResponses = new ArrayList<>();
+    while (readResponses.size() < readRequests.size()) {
+      List<ReadResponse> responses = reader.readBlocks(readRequests.subList(readResponses.size(), readRequests.size()));
+      if (responses == null || responses.isEmpty()) {
+        throw new ErrorReadingBlockException(String.format("No blocks read from %s/%s at offset %d", path, indexInfo.getName(),
+            readRequests.get(readResponses.size()).getOffset()));
+      }
+      readResponses.addAll(responses);
+    }
+
+    List<WriteRequest> writeRequests = new ArrayList<>();
+    for (ReadResponse readResponse : readResponses) {
+      WriteRequest writeRequest = new WriteRequest();
+      writeRequest.setBaseDir(writeBaseDir);
+      writeRequest.setFileName(readResponse.getRequest().getFileName());
+      writeRequest.setOffset(readResponse.getRequest().getOffset());
+      writeRequest.setData(readResponse.getData());
+      writeRequest.setLength(readResponse.getLength());
+      writeRequest.setEof(false);
+      // In the past until done writing.
+      writeRequest.setTimeStamp(indexInfo.getLastModified() - TimeUnit.DAYS.toMillis(2L));
+      writeRequests.add(writeRequest);
+    }
+
+    List<WriteResponse> writeResponses = new ArrayList<>();
+    while (writeResponses.size() < writeRequests.size()) {
+      List<WriteResponse> responses = writer.writeBlocks(writeRequests.subList(writeResponses.size(), writeRequests.size()));
+      if (responses == null || responses.isEmpty()) {
+        throw new ErrorWritingBlockException(String.format("No blocks written to %s/%s at offset %d", path,
+            indexInfo.getName(), writeRequests.get(writeResponses.size()).getOffset()));
+      }
+      writeResponses.addAll(responses);
+    }
+
+    for (ReadResponse readResponse : readResponses) {
+      FileUtils.releaseBlock(readResponse);
+    }
+
+    for (int xx = 0; xx < readResponses.size(); xx++) {
+      ReadResponse readResponse = readResponses.get(xx);
+      if (readResponse.getCrc32() != writeResponses.get(xx).getCrc32()) {
+        throw new InvalidBlockHashException(String.format("Block hash after write of %s/%s at offset %d did not match read.",
+            path, indexInfo.getName(), readResponse.getRequest().getOffset()));
+      }
+      progress.addBytesCopied(readResponse.getLength());
+    }
+  }
+
+  /**
+   * Copy only the blocks of the chunks not yet flagged whose signatures differ from the file being
+   * replaced. The blocks that match are left in place. A block is checked against its signature
+   * when read in case the file changed since it was hashed.
+   * 
+   * @param reader
+   * @param readBaseDir Used for reading. Could be local or remote.
+   * @param writeReader Used for reading the file being replaced.
+   * @param writer
+   * @param path
+   * @param indexInfo
+   * @param writeRequest Already set up for writing the file.
+   * @return The signature of the file read so the hash can be checked once written.
+   */
+  private FileSignature syncBlocksDelta(BlockReader reader, File readBaseDir, BlockReader writeReader, BlockWriter writer,
+      String path, IndexInfo indexInfo, WriteRequest writeRequest) {
+    ChunkInfo localChunk = indexInfo.getChunkInfo();
+    String fileName = writeRequest.getFileName();
+
+    FileSignature ret = readSignature(reader, readBaseDir, fileName, localChunk.getBlockSize(), false);
+    List<BlockSignature> readBlocks = ret.getBlocks();
+    List<BlockSignature> writeBlocks = readSignature(writeReader, writeRequest.getBaseDir(), fileName,
+        localChunk.getBlockSize(), false).getBlocks();
+
+    ReadRequest readRequest = new ReadRequest();
+    readRequest.setBaseDir(readBaseDir);
+    readRequest.setFileName(fileName);
+    readRequest.setBlockSize(localChunk.getBlockSize());
+
+    for (int chunkIndex = 0; chunkIndex < localChunk.getNumChunks(); chunkIndex++) {
+      if (!localChunk.isFlag(chunkIndex)) {
+        int blockIndex = chunkIndex * localChunk.getChunkSize();
+        int lastIndex = Math.min(blockIndex + localChunk.getChunkSize(), readBlocks.size());
+        for (; blockIndex < lastIndex; blockIndex++) {
+          BlockSignature readBlock = readBlocks.get(blockIndex);
+          if (blockIndex < writeBlocks.size() && readBlock.matches(writeBlocks.get(blockIndex))) {
+            progress.addBytesMatched(readBlock.getLength());
+          } else {
+            readRequest.setOffset(readBlock.getOffset());
+            ReadResponse readResponse = reader.readBlock(readRequest);
+            if (readResponse.getCrc32() != readBlock.getCrc32()) {
+              throw new InvalidBlockHashException(String.format("Block hash of %s/%s at offset %d changed since signed.", path,
+                  indexInfo.getName(), readBlock.getOffset()));
+            }
+
+            writeRequest.setOffset(readBlock.getOffset());
+            writeRequest.setData(readResponse.getData());
+            writeRequest.setLength(readResponse.getLength());
+            WriteResponse writeResponse = writer.writeBlock(writeRequest);
+            FileUtils.releaseBlock(readResponse);
+
+            if (readResponse.getCrc32() != writeResponse.getCrc32()) {
+              throw new InvalidBlockHashException(String.format("Block hash after write of %s/%s at offset %d did not match read.",
+                  path, indexInfo.getName(), readBlock.getOffset()));
+            }
+            progress.addBytesCopied(readResponse.getLength());
+          }
+        }
+
+        localChunk.setFlag(chunkIndex);
+        writeLocalIndex(localBaseDir, indexInfo);
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Copy the blocks of the chunks not yet flagged while reading ahead of the writes and writing
+   * behind the reads. Up to the queue depth of writes are queued at once but each one waits for the
+   * write before it, so the blocks reach the writer in order and it can still hash the file as it is
+   * written. They are verified in the order they were queued so a chunk is only flagged once every
+   * block in it has been written and its CRC matched.
+   * 
+   * @param reader
+   * @param readBaseDir Used for reading. Could be local or remote.
+   * @param writer
+   * @param path
+   * @param indexInfo
+   * @param writeRequest Already set up for writing the file.
+   */
+  private void syncBlocksPipelined(BlockReader reader, File readBaseDir, final BlockWriter writer, String path,
+      IndexInfo indexInfo, WriteRequest writeRequest) {
+    ChunkInfo localChunk = indexInfo.getChunkInfo();
+
+    Deque<PendingWrite> pendingWrites = new ArrayDeque<>();
+    BlockReadAhead readAhead = new BlockReadAhead(reader, readBaseDir, writeRequest.getFileName(), localChunk, queueDepth).start();
+    try {
+      BlockReadAhead.Block block = readAhead.next();
+      while (!block.isEnd()) {
+        ReadResponse readResponse = block.getReadResponse();
+        indexInfo.putHash(readResponse.getHashType(), readResponse.getHash());
+
+        // A new request for every block since the write is still in flight when the next is read.
+        final WriteRequest blockRequest = new WriteRequest();
+        blockRequest.setBaseDir(writeRequest.getBaseDir());
+        blockRequest.setFileName(writeRequest.getFileName());
+        blockRequest.setEof(false);
+        blockRequest.setTimeStamp(writeRequest.getTimeStamp());
+        blockRequest.setOffset(block.getOffset());
+        blockRequest.setData(readResponse.getData());
+        blockRequest.setLength(readResponse.getLength());
+        // The pool is first in first out so the previous write has already been started.
+        final Future<WriteResponse> previous = pendingWrites.isEmpty() ? null : pendingWrites.getLast().getWrite();
+        pendingWrites.add(new PendingWrite(block, writeExecutor.submit(new Callable<WriteResponse>() {
+          @Override
+          public WriteResponse call() throws Exception {
+            if (previous != null) {
+              previous.get();
+            }
+            return writer.writeBlock(blockRequest);
+          }
+        })));
+
+        while (pendingWrites.size() >= queueDepth) {
+          acknowledgeWrite(path, indexInfo, pendingWrites.remove());
+        }
+
+        block = readAhead.next();
+      }
+
+      while (!pendingWrites.isEmpty()) {
+        acknowledgeWrite(path, indexInfo, pendingWrites.remove());
+      }
+    } finally {
+      readAhead.cancel();
+      abandonWrites(pendingWrites);
+    }
+  }
+
+  /**
+   * Copy the file from the first chunk not yet flagged to the end as one stream. The chunks are
+   * flagged as the checkpoints in the stream are verified so the transfer can still be resumed.
+   * When compressing, the stream is deflated at the level the tuner for its direction prefers.
+   * 
+   * @param reader
+   * @param readBaseDir Used for reading. Could be local or remote.
+   * @param writer
+   * @param writeBaseDir Used for writing. Could be local or remote.
+   * @param path
+   * @param indexInfo
+   */
+  private void syncBlocksStreamed(BlockReader reader, File readBaseDir, BlockWriter writer, File writeBaseDir, String path,
+      IndexInfo indexInfo) {
+    ChunkInfo localChunk = indexInfo.getChunkInfo();
+
+    int firstChunk = 0;
+    while (firstChunk < localChunk.getNumChunks() && localChunk.isFlag(firstChunk)) {
+      firstChunk++;
+    }
+
+    if (firstChunk < localChunk.getNumChunks()) {
+      String fileName = newPath(path, indexInfo.getName());
+      long offset = (long) firstChunk * localChunk.getChunkSize() * localChunk.getBlockSize();
+
+      StreamRequest readRequest = new StreamRequest();
+      readRequest.setBaseDir(readBaseDir);
+      readRequest.setFileName(fileName);
+      readRequest.setBlockSize(localChunk.getBlockSize());
+      readRequest.setChunkSize(localChunk.getChunkSize());
+      readRequest.setOffset(offset);
+      if (FileUtils.isCompress()) {
+        if (remoteClient != null) {
+          CompressionTuner tuner = reader == localReader ? remoteClient.getWriteTuner() : remoteClient.getReadTuner();
+          readRequest.setLevel(tuner.getLevel());
+        } else {
+          readRequest.setLevel(CompressionUtils.DEFAULT_LEVEL);
+        }
+      }
+
+      StreamRequest writeRequest = new StreamRequest();
+      writeRequest.setBaseDir(writeBaseDir);
+      writeRequest.setFileName(fileName);
+      writeRequest.setBlockSize(localChunk.getBlockSize());
+      writeRequest.setChunkSize(localChunk.getChunkSize());
+      writeRequest.setOffset(offset);
+      writeRequest.setEof(false);
+      // In the past until done writing.
+      writeRequest.setTimeStamp(indexInfo.getLastModified() - TimeUnit.DAYS.toMillis(2L));
+
+      InputStream in = reader.readStream(readRequest);
+      try {
+        writer.writeStream(writeRequest, in, new ChunkCheckpoints(indexInfo, offset));
+      } finally {
+        try {
+          in.close();
+        } catch (IOException ee) {
+          logger.debug(String.format("Error closing stream of %s: %s", fileName, ee.getMessage()));
+        }
+      }
+    }
+  }
+
+  /**
+   * Rebuild the file being replaced from a delta of the file read. The signature of the file being
+   * replaced is sent to the reader which finds its blocks anywhere in the file read, not just at the
+   * same offset. The writer checks the length and hash of the whole file at the end of the delta
+   * before replacing the file.
+   * 
+   * @param reader
+   * @param readBaseDir Used for reading. Could be local or remote.
+   * @param writeReader Used for reading the file being replaced.
+   * @param writer
+   * @param writeBaseDir Used for writing. Could be local or remote.
+   * @param path
+   * @param indexInfo
+   */
+  private void syncBlocksRolling(BlockReader reader, File readBaseDir, BlockReader writeReader, BlockWriter writer,
+      File writeBaseDir, String path, IndexInfo indexInfo) {
+    ChunkInfo localChunk = indexInfo.getChunkInfo();
+    String fileName = newPath(path, indexInfo.getName());
+
+    FileSignature writeSignature = readSignature(writeReader, writeBaseDir, fileName, localChunk.getBlockSize(), false);
+
+    DeltaRequest readRequest = new DeltaRequest();
+    readRequest.setBaseDir(readBaseDir);
+    readRequest.setFileName(fileName);
+    readRequest.setBlockSize(writeSignature.getBlockSize());
+    readRequest.setHashType(writeSignature.getHashType());
+    readRequest.setSignature(writeSignature);
+
+    DeltaRequest writeRequest = new DeltaRequest();
+    writeRequest.setBaseDir(writeBaseDir);
+    writeRequest.setFileName(fileName);
+    writeRequest.setBlockSize(writeSignature.getBlockSize());
+    writeRequest.setHashType(writeSignature.getHashType());
     writeRequest.setTimeStamp(indexInfo.getLastModified());
-    WriteResponse writeResponse = writer.writeBlock(writeRequest);
 
-    localChunk.setAction(ActionEnum.Done); // Skip ??
+    InputStream in = reader.readDelta(readRequest);
+    try {
+      DeltaResponse response = writer.writeDelta(writeRequest, in);
+      if (response == null || !response.isSuccess()) {
+        throw new ErrorWritingBlockException(String.format("Unable to write the delta of %s/%s", path, indexInfo.getName()));
+      }
+
+      progress.addBytesCopied(response.getLiteral());
+      progress.addBytesMatched(response.getMatched());
+    } finally {
+      try {
+        in.close();
+      } catch (IOException ee) {
+        logger.debug(String.format("Error closing delta of %s: %s", fileName, ee.getMessage()));
+      }
+    }
+
+    for (int chunkIndex = 0; chunkIndex < localChunk.getNumChunks(); chunkIndex++) {
+      localChunk.setFlag(chunkIndex);
+    }
     writeLocalIndex(localBaseDir, indexInfo);
   }
 
+  /**
+   * Copy the chunks not yet flagged over several connections at once. Each stripe owns every
+   * <code>stripes</code>th chunk so no two stripes write the same blocks. A chunk is flagged and the
+   * local index saved as soon as the stripe finishes it so the transfer can be resumed. The first
+   * error stops the other stripes and is thrown once they have all stopped.
+   * 
+   * @param reader
+   * @param readBaseDir Used for reading. Could be local or remote.
+   * @param writer
+   * @param writeBaseDir Used for writing. Could be local or remote.
+   * @param path
+   * @param indexInfo
+   */
+  private void syncBlocksStriped(BlockReader reader, File readBaseDir, BlockWriter writer, File writeBaseDir, String path,
+      IndexInfo indexInfo) {
+    ChunkInfo localChunk = indexInfo.getChunkInfo();
+
+    List<Integer> chunkIndexes = new ArrayList<>();
+    for (int chunkIndex = 0; chunkIndex < localChunk.getNumChunks(); chunkIndex++) {
+      if (!localChunk.isFlag(chunkIndex)) {
+        chunkIndexes.add(chunkIndex);
+      }
+    }
+
+    AtomicBoolean failed = new AtomicBoolean();
+    List<Future<?>> stripeTasks = new ArrayList<>();
+    for (int stripe = 0; stripe < stripes && stripe < chunkIndexes.size(); stripe++) {
+      List<Integer> owned = new ArrayList<>();
+      for (int xx = stripe; xx < chunkIndexes.size(); xx += stripes) {
+        owned.add(chunkIndexes.get(xx));
+      }
+      stripeTasks.add(stripeExecutor.submit(new StripeTask(reader, readBaseDir, writer, writeBaseDir, path, indexInfo, owned,
+          failed)));
+    }
+
+    RuntimeException error = null;
+    for (Future<?> stripeTask : stripeTasks) {
+      try {
+        stripeTask.get();
+      } catch (InterruptedException ee) {
+        Thread.currentThread().interrupt();
+        failed.set(true);
+        error = new FileSyncException(String.format("Interrupted syncing %s/%s", path, indexInfo.getName()));
+      } catch (ExecutionException ee) {
+        if (error == null) {
+          error = ee.getCause() instanceof RuntimeException ? (RuntimeException) ee.getCause() : new FileSyncException(
+              String.format("Error syncing %s/%s: %s", path, indexInfo.getName(), ee.getCause()));
+        }
+      }
+    }
+
+    if (error != null) {
+      throw error;
+    }
+  }
+
+  private FileSignature readSignature(BlockReader reader, File baseDir, String fileName, int blockSize, boolean hashOnly) {
+    SignatureRequest request = new SignatureRequest();
+    request.setBaseDir(baseDir);
+    request.setFileName(fileName);
+    request.setBlockSize(blockSize);
+    request.setHashOnly(hashOnly);
+
+    SignatureResponse response = reader.readSignature(request);
+    if (response == null || !response.isSuccess() || response.getSignature() == null) {
+      throw new FileSyncException(String.format("Unable to read the signature of %s", fileName));
+    }
+
+    return response.getSignature();
+  }
+
+  private HashTree readTree(BlockReader reader, File baseDir, String fileName, ChunkInfo chunkInfo, int first, int count) {
+    TreeRequest request = new TreeRequest();
+    request.setBaseDir(baseDir);
+    request.setFileName(fileName);
+    request.setBlockSize(chunkInfo.getBlockSize());
+    request.setChunkSize(chunkInfo.getChunkSize());
+    request.setFirst(first);
+    request.setCount(count);
+
+    TreeResponse response = reader.readTree(request);
+    if (response == null || !response.isSuccess() || response.getTree() == null) {
+      throw new FileSyncException(String.format("Unable to read the tree of %s", fileName));
+    }
+
+    return response.getTree();
+  }
+
+  /**
+   * Flag the chunks that are the same in the file being replaced and clear the flags of those that
+   * are not, including chunks flagged by an earlier attempt. Only the flagged chunks are compared
+   * when there is no file being replaced.
+   * 
+   * @param reader
+   * @param readBaseDir Used for reading. Could be local or remote.
+   * @param writeReader Used for reading the file being replaced.
+   * @param writeBaseDir Used for writing. Could be local or remote.
+   * @param path
+   * @param indexInfo
+   * @param writeInfo The file being replaced. Null if there is not one.
+   */
+  private void verifyChunks(BlockReader reader, File readBaseDir, BlockReader writeReader, File writeBaseDir, String path,
+      IndexInfo indexInfo, IndexInfo writeInfo) {
+    ChunkInfo localChunk = indexInfo.getChunkInfo();
+    String fileName = newPath(path, indexInfo.getName());
+
+    int first = 0;
+    int count = localChunk.getNumChunks();
+    if (writeInfo == null || writeInfo.getLength() == null || writeInfo.getLength() <= 0L) {
+      first = Long.numberOfTrailingZeros(localChunk.getFlag());
+      count = Long.SIZE - Long.numberOfLeadingZeros(localChunk.getFlag()) - first;
+    }
+
+    if (count > 0) {
+      HashTree readTree = readTree(reader, readBaseDir, fileName, localChunk, first, count);
+      HashTree writeTree = null;
+      try {
+        writeTree = readTree(writeReader, writeBaseDir, fileName, localChunk, first, count);
+      } catch (FileSyncException ee) {
+        logger.debug(String.format("Unable to read the tree of the file being replaced %s: %s", fileName, ee.getMessage()));
+      }
+
+      Set<Integer> different = new HashSet<>(HashTreeUtils.diff(readTree, writeTree));
+      boolean sameFile = readTree.getNumChunks() == localChunk.getNumChunks();
+
+      int matched = 0;
+      for (int chunkIndex = first; chunkIndex < first + count; chunkIndex++) {
+        if (sameFile && readTree.getLeaf(chunkIndex) != null && !different.contains(chunkIndex)) {
+          localChunk.setFlag(chunkIndex);
+          matched++;
+        } else {
+          localChunk.clearFlag(chunkIndex);
+        }
+      }
+      writeLocalIndex(localBaseDir, indexInfo);
+
+      logger.info(String.format("Chunks of %s already the same: %d of %d", fileName, matched, count));
+    }
+  }
+
   private void writeLocalIndex(File baseDir, IndexInfo indexInfo) {
     IndexManager.saveIndexItem(baseDir, indexInfo);
   }
@@ -405,6 +1243,28 @@ public class Syncer {
       return built;
     }
 
+    /**
+     * The number of blocks read or written per request. One or less sends a request per block.
+     * 
+     * @param batchSize
+     * @return
+     */
+    public Builder batchSize(int batchSize) {
+      built.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Only copy the blocks that differ from a file already at the destination.
+     * 
+     * @param delta
+     * @return
+     */
+    public Builder delta(boolean delta) {
+      built.delta = delta;
+      return this;
+    }
+
     public Builder hiddenDirectories(boolean hiddenDirectories) {
       built.hiddenDirectories = hiddenDirectories;
       return this;
@@ -415,6 +1275,17 @@ public class Syncer {
       return this;
     }
 
+    /**
+     * The maximum number of directory listings outstanding while walking the directories.
+     * 
+     * @param listings
+     * @return
+     */
+    public Builder listings(int listings) {
+      built.listings = listings;
+      return this;
+    }
+
     public Builder localBaseDir(File localBaseDir) {
       built.localBaseDir = localBaseDir;
       return this;
@@ -425,6 +1296,30 @@ public class Syncer {
       return this;
     }
 
+    /**
+     * Count the next sync with this progress instead of a new one so the tests can watch the
+     * workers.
+     * 
+     * @param progress
+     * @return
+     */
+    Builder progress(SyncProgress progress) {
+      built.nextProgress = progress;
+      return this;
+    }
+
+    /**
+     * The number of blocks read ahead of the writes and written behind the reads. One or less
+     * reads and writes each block in turn.
+     * 
+     * @param queueDepth
+     * @return
+     */
+    public Builder queueDepth(int queueDepth) {
+      built.queueDepth = queueDepth;
+      return this;
+    }
+
     public Builder recursive(boolean recursive) {
       built.recursive = recursive;
       return this;
@@ -456,6 +1351,286 @@ public class Syncer {
       return this;
     }
 
+    /**
+     * A file replacing one at least this long is rebuilt from a delta of the blocks already there,
+     * wherever they moved to. Zero disables rolling deltas.
+     * 
+     * @param rollingSize
+     * @return
+     */
+    public Builder rollingSize(long rollingSize) {
+      built.rollingSize = rollingSize;
+      return this;
+    }
+
+    /**
+     * Skip directories whose rollup digests match on both sides.
+     * 
+     * @param rollup
+     * @return
+     */
+    public Builder rollup(boolean rollup) {
+      built.rollup = rollup;
+      return this;
+    }
+
+    /**
+     * Files at least this long are copied as one stream rather than a request per block. Zero
+     * disables streaming.
+     * 
+     * @param streamSize
+     * @return
+     */
+    public Builder streamSize(long streamSize) {
+      built.streamSize = streamSize;
+      return this;
+    }
+
+    /**
+     * The number of connections used to copy the chunks of one large file. One or less copies them
+     * in turn.
+     * 
+     * @param stripes
+     * @return
+     */
+    public Builder stripes(int stripes) {
+      built.stripes = stripes;
+      return this;
+    }
+
+    /**
+     * Files at least this long are striped when {@link #stripes(int)} is more than one.
+     * 
+     * @param stripeSize
+     * @return
+     */
+    public Builder stripeSize(long stripeSize) {
+      built.stripeSize = stripeSize;
+      return this;
+    }
+
+    /**
+     * The number of workers executing file actions. One or less executes them in turn.
+     * 
+     * @param threads
+     * @return
+     */
+    public Builder threads(int threads) {
+      built.threads = threads;
+      return this;
+    }
+
+    /**
+     * Only copy the chunks whose hashes differ from a file already at the destination and check the
+     * chunks of an interrupted copy before resuming it.
+     * 
+     * @param tree
+     * @return
+     */
+    public Builder tree(boolean tree) {
+      built.tree = tree;
+      return this;
+    }
+
+  }
+
+  /**
+   * Flags the chunks of a file as the checkpoints of a stream pass their ends.
+   */
+  private class ChunkCheckpoints implements StreamListener {
+
+    private final IndexInfo indexInfo;
+    private long            offset;
+
+    private ChunkCheckpoints(IndexInfo indexInfo, long offset) {
+      this.indexInfo = indexInfo;
+      this.offset = offset;
+    }
+
+    @Override
+    public void checkpoint(long offset) {
+      ChunkInfo localChunk = indexInfo.getChunkInfo();
+      long chunkBytes = (long) localChunk.getChunkSize() * localChunk.getBlockSize();
+
+      boolean flagged = false;
+      for (int chunkIndex = (int) (this.offset / chunkBytes); chunkIndex < localChunk.getNumChunks(); chunkIndex++) {
+        if (Math.min((chunkIndex + 1) * chunkBytes, indexInfo.getLength()) > offset) {
+          break;
+        } else if (!localChunk.isFlag(chunkIndex)) {
+          localChunk.setFlag(chunkIndex);
+          flagged = true;
+        }
+      }
+
+      progress.addBytesCopied(offset - this.offset);
+      this.offset = offset;
+
+      if (flagged) {
+        writeLocalIndex(localBaseDir, indexInfo);
+      }
+    }
+
+  }
+
+  /**
+   * Executes one file action and records the outcome without letting an error reach the other
+   * workers.
+   */
+  private class FileTask implements Runnable {
+
+    private final String   path;
+    private final PlanItem planItem;
+
+    private FileTask(String path, PlanItem planItem) {
+      this.path = path;
+      this.planItem = planItem;
+    }
+
+    @Override
+    public void run() {
+      try {
+        syncFileItem(path, planItem);
+      } catch (RuntimeException ee) {
+        logger.error(String.format("Error processing %s in %s: %s", planItem.getAction(), path, ee.getMessage()));
+        progress.failed(ee);
+      }
+    }
+
+  }
+
+  /**
+   * A block being written behind the reads.
+   */
+  private static class PendingWrite {
+
+    private final BlockReadAhead.Block  block;
+    private final Future<WriteResponse> write;
+
+    private PendingWrite(BlockReadAhead.Block block, Future<WriteResponse> write) {
+      this.block = block;
+      this.write = write;
+    }
+
+    private BlockReadAhead.Block getBlock() {
+      return block;
+    }
+
+    private Future<WriteResponse> getWrite() {
+      return write;
+    }
+
+  }
+
+  /**
+   * Copies the chunks owned by one stripe of a file. Stops early once another stripe has failed.
+   */
+  private class StripeTask implements Runnable {
+
+    private final List<Integer> chunkIndexes;
+    private final AtomicBoolean failed;
+    private final IndexInfo     indexInfo;
+    private final String        path;
+    private final File          readBaseDir;
+    private final BlockReader   reader;
+    private final File          writeBaseDir;
+    private final BlockWriter   writer;
+
+    private StripeTask(BlockReader reader, File readBaseDir, BlockWriter writer, File writeBaseDir, String path,
+        IndexInfo indexInfo, List<Integer> chunkIndexes, AtomicBoolean failed) {
+      this.reader = reader;
+      this.readBaseDir = readBaseDir;
+      this.writer = writer;
+      this.writeBaseDir = writeBaseDir;
+      this.path = path;
+      this.indexInfo = indexInfo;
+      this.chunkIndexes = chunkIndexes;
+      this.failed = failed;
+    }
+
+    @Override
+    public void run() {
+      try {
+        ChunkInfo localChunk = indexInfo.getChunkInfo();
+        String fileName = newPath(path, indexInfo.getName());
+
+        ReadRequest readRequest = new ReadRequest();
+        readRequest.setBaseDir(readBaseDir);
+        readRequest.setFileName(fileName);
+        readRequest.setBlockSize(localChunk.getBlockSize());
+
+        WriteRequest writeRequest = new WriteRequest();
+        writeRequest.setBaseDir(writeBaseDir);
+        writeRequest.setFileName(fileName);
+        writeRequest.setEof(false);
+        // In the past until done writing.
+        writeRequest.setTimeStamp(indexInfo.getLastModified() - TimeUnit.DAYS.toMillis(2L));
+
+        for (int chunkIndex : chunkIndexes) {
+          long offset = (long) chunkIndex * localChunk.getChunkSize() * localChunk.getBlockSize();
+          for (int blockIndex = 0; blockIndex < localChunk.getChunkSize() && offset <= indexInfo.getLength(); blockIndex++) {
+            if (failed.get()) {
+              return;
+            }
+
+            readRequest.setOffset(offset);
+            ReadResponse readResponse = reader.readBlock(readRequest);
+
+            writeRequest.setOffset(offset);
+            writeRequest.setData(readResponse.getData());
+            writeRequest.setLength(readResponse.getLength());
+            WriteResponse writeResponse = writer.writeBlock(writeRequest);
+            FileUtils.releaseBlock(readResponse);
+
+            if (readResponse.getCrc32() != writeResponse.getCrc32()) {
+              throw new InvalidBlockHashException(String.format("Block hash after write of %s/%s at offset %d did not match read.",
+                  path, indexInfo.getName(), offset));
+            }
+            progress.addBytesCopied(readResponse.getLength());
+
+            offset += localChunk.getBlockSize();
+          }
+
+          synchronized (localChunk) {
+            localChunk.setFlag(chunkIndex);
+            writeLocalIndex(localBaseDir, indexInfo);
+          }
+        }
+      } catch (RuntimeException ee) {
+        failed.set(true);
+        throw ee;
+      }
+    }
+
+  }
+
+  /**
+   * Syncs one directory. The sub-directories are forked as new tasks. An error is recorded rather
+   * than stopping the other directories.
+   */
+  private class SyncTask extends RecursiveAction {
+
+    private static final long               serialVersionUID = 20150704L;
+
+    private final DirectoryListings.Digests digests;
+    private final String                    path;
+    private final SyncEnum                  sync;
+
+    private SyncTask(SyncEnum sync, String path, DirectoryListings.Digests digests) {
+      this.sync = sync;
+      this.path = path;
+      this.digests = digests;
+    }
+
+    @Override
+    protected void compute() {
+      try {
+        syncContents(sync, path, digests);
+      } catch (RuntimeException ee) {
+        logger.error(String.format("Error syncing %s: %s", path, ee.getMessage()));
+        progress.failed(ee);
+      }
+    }
+
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,175 @@
+package com.wstrater.server.fileSync.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.wstrater.server.fileSync.common.data.ChunkInfo;
+import com.wstrater.server.fileSync.common.data.DeltaRequest;
+import com.wstrater.server.fileSync.common.data.ReadRequest;
+import com.wstrater.server.fileSync.common.data.ReadResponse;
+import com.wstrater.server.fileSync.common.data.SignatureRequest;
+import com.wstrater.server.fileSync.common.data.SignatureResponse;
+import com.wstrater.server.fileSync.common.data.StreamRequest;
+import com.wstrater.server.fileSync.common.data.TreeRequest;
+import com.wstrater.server.fileSync.common.data.TreeResponse;
+import com.wstrater.server.fileSync.common.exceptions.ErrorReadingBlockException;
+import com.wstrater.server.fileSync.common.file.BlockReader;
+
+public class BlockReadAheadTest {
+
+  private final static int BLOCK_SIZE = 16;
+  private final static int CHUNK_SIZE = 4;
+
+  private ChunkInfo newChunkInfo(int numChunks) {
+    ChunkInfo ret = new ChunkInfo();
+    ret.setBlockSize(BLOCK_SIZE);
+    ret.setChunkSize(CHUNK_SIZE);
+    ret.setNumChunks(numChunks);
+
+    return ret;
+  }
+
+  /**
+   * Stop reading once cancelled even though the queue is full.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testCancel() throws Exception {
+    TestReader reader = new TestReader(-1L);
+    BlockReadAhead readAhead = new BlockReadAhead(reader, null, "cancel.dat", newChunkInfo(10), 2).start();
+
+    readAhead.next();
+    readAhead.cancel();
+
+    Thread.sleep(200L);
+    int reads = reader.getReads();
+    Thread.sleep(200L);
+    assertEquals("Still reading after cancel", reads, reader.getReads());
+    assertTrue(String.format("Read too far ahead: %d", reads), reads < 10 * CHUNK_SIZE);
+  }
+
+  /**
+   * The blocks come back in file order, skipping the chunks already flagged, followed by the end.
+   */
+  @Test
+  public void testOrder() {
+    ChunkInfo chunkInfo = newChunkInfo(3);
+    chunkInfo.setFlag(1);
+
+    TestReader reader = new TestReader(-1L);
+    BlockReadAhead readAhead = new BlockReadAhead(reader, null, "order.dat", chunkInfo, 2).start();
+    try {
+      for (int chunkIndex : new int[] { 0, 2 }) {
+        for (int blockIndex = 0; blockIndex < CHUNK_SIZE; blockIndex++) {
+          long offset = (long) (chunkIndex * CHUNK_SIZE + blockIndex) * BLOCK_SIZE;
+
+          BlockReadAhead.Block block = readAhead.next();
+          assertFalse("Ended early", block.isEnd());
+          assertEquals(chunkIndex, block.getChunkIndex());
+          assertEquals(offset, block.getOffset());
+          assertEquals(offset, block.getReadResponse().getRequest().getOffset());
+          assertEquals(blockIndex == CHUNK_SIZE - 1, block.isLastInChunk());
+        }
+      }
+
+      assertTrue("Missing end", readAhead.next().isEnd());
+      assertEquals(2 * CHUNK_SIZE, reader.getReads());
+    } finally {
+      readAhead.cancel();
+    }
+  }
+
+  /**
+   * A failed read is thrown from next once the blocks before it have been taken.
+   */
+  @Test
+  public void testReadError() {
+    long failAt = 5L * BLOCK_SIZE;
+
+    TestReader reader = new TestReader(failAt);
+    BlockReadAhead readAhead = new BlockReadAhead(reader, null, "error.dat", newChunkInfo(3), 2).start();
+    try {
+      for (long offset = 0L; offset < failAt; offset += BLOCK_SIZE) {
+        assertEquals(offset, readAhead.next().getOffset());
+      }
+
+      try {
+        readAhead.next();
+        fail("Expected the read error");
+      } catch (ErrorReadingBlockException ee) {
+        assertEquals("Failed reading 80", ee.getMessage());
+      }
+    } finally {
+      readAhead.cancel();
+    }
+  }
+
+  /**
+   * Answers every block read with an empty block and fails the read at one offset.
+   */
+  private static class TestReader implements BlockReader {
+
+    private final long          failAt;
+    private final AtomicInteger reads = new AtomicInteger();
+
+    private TestReader(long failAt) {
+      this.failAt = failAt;
+    }
+
+    private int getReads() {
+      return reads.get();
+    }
+
+    @Override
+    public ReadResponse readBlock(ReadRequest request) {
+      if (request.getOffset() == failAt) {
+        throw new ErrorReadingBlockException(String.format("Failed reading %d", failAt));
+      }
+      reads.incrementAndGet();
+
+      ReadResponse ret = new ReadResponse();
+      ret.setRequest(request);
+      ret.setData(new byte[request.getBlockSize()]);
+      ret.setLength(request.getBlockSize());
+      ret.setSuccess(true);
+
+      return ret;
+    }
+
+    @Override
+    public List<ReadResponse> readBlocks(List<ReadRequest> requests) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public InputStream readDelta(DeltaRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SignatureResponse readSignature(SignatureRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public InputStream readStream(StreamRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public TreeResponse readTree(TreeRequest request) {
+      throw new UnsupportedOperationException();
+    }
+
+  }
+
+}
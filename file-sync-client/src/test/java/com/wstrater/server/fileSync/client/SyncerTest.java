@@ -7,13 +7,16 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.CRC32;
 
 import org.junit.Before;
@@ -25,13 +28,16 @@ import com.wstrater.server.fileSync.common.data.DirectoryListResponse;
 import com.wstrater.server.fileSync.common.data.FileInfo;
 import com.wstrater.server.fileSync.common.data.HashRequest;
 import com.wstrater.server.fileSync.common.data.HashStatus;
+import com.wstrater.server.fileSync.common.data.IndexInfo;
 import com.wstrater.server.fileSync.common.file.DirectoryLister;
 import com.wstrater.server.fileSync.common.hash.HashProcessor;
 import com.wstrater.server.fileSync.common.utils.Compare;
+import com.wstrater.server.fileSync.common.utils.ChunkUtils;
 import com.wstrater.server.fileSync.common.utils.Constants.SyncEnum;
 import com.wstrater.server.fileSync.common.utils.DirectoryUtils;
 import com.wstrater.server.fileSync.common.utils.FilePermissions;
 import com.wstrater.server.fileSync.common.utils.FileUtils;
+import com.wstrater.server.fileSync.common.utils.IndexManager;
 
 public class SyncerTest extends AbstractPlanMapTest {
 
@@ -90,6 +96,199 @@ public class SyncerTest extends AbstractPlanMapTest {
         .build();
   }
 
+  /**
+   * Copy a file several blocks per request with a batch limit small enough that the batches have to
+   * be sent in parts and verify the copy.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testBatchedFile() throws Exception {
+    try {
+      cleanUpTest();
+
+      byte[] data = writeRandomFile(localBaseDir, "batched.dat", ChunkUtils.getBlockSize() * 100 + 1234);
+
+      FilePermissions permissions = new FilePermissions(false, false, false, true);
+      FileUtils.setPermissions(permissions);
+      FileUtils.setMaxBatchSize(0);
+
+      Syncer syncer = Syncer.builder().localBaseDir(localBaseDir).remoteBaseDir(remoteBaseDir).permissions(permissions)
+          .recursive(true).streamSize(0L).batchSize(64).build();
+      syncer.sync(SyncEnum.Remote, ".");
+
+      assertSameFile(new File(localBaseDir, "batched.dat"), new File(remoteBaseDir, "batched.dat"));
+      assertEquals(data.length, syncer.getProgress().getBytesCopied());
+    } finally {
+      FileUtils.setMaxBatchSize(FileUtils.MAX_BATCH_SIZE);
+      cleanUpTest();
+    }
+  }
+
+  /**
+   * Copy several files on the workers while deleting a directory in the same path. The directory
+   * should not be deleted until every file has been copied.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testDirectoryDeleteWaits() throws Exception {
+    try {
+      cleanUpTest();
+
+      int files = 8;
+      for (int xx = 0; xx < files; xx++) {
+        writeRandomFile(localBaseDir, String.format("copy%d.dat", xx), ChunkUtils.getBlockSize() * 20 + xx);
+      }
+
+      File remoteDir = new File(remoteBaseDir, "deleted");
+      remoteDir.mkdirs();
+      writeRandomFile(remoteDir, "deleted.dat", 1234);
+
+      FilePermissions permissions = new FilePermissions(false, false, true, true);
+      FileUtils.setPermissions(permissions);
+
+      final AtomicInteger copiedAtDelete = new AtomicInteger(-1);
+      SyncProgress progress = new SyncProgress() {
+        @Override
+        void directoryDeleted() {
+          copiedAtDelete.set(getFilesCopied());
+          super.directoryDeleted();
+        }
+      };
+
+      Syncer syncer = Syncer.builder().localBaseDir(localBaseDir).remoteBaseDir(remoteBaseDir).permissions(permissions)
+          .recursive(true).threads(4).progress(progress).build();
+      syncer.sync(SyncEnum.Remote, ".");
+
+      assertFalse(String.format("Directory not deleted: %s", remoteDir.getAbsolutePath()), remoteDir.exists());
+      assertEquals(1, syncer.getProgress().getDirectoriesDeleted());
+      assertEquals(files, syncer.getProgress().getFilesCopied());
+      assertEquals("Files copied before the delete", files, copiedAtDelete.get());
+    } finally {
+      cleanUpTest();
+    }
+  }
+
+  /**
+   * Copy a file, change a few blocks and copy it again in delta mode. Only the changed blocks should
+   * be copied.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testDeltaFile() throws Exception {
+    try {
+      cleanUpTest();
+
+      int blockSize = ChunkUtils.getBlockSize();
+      File localFile = new File(localBaseDir, "delta.dat");
+      byte[] data = writeRandomFile(localBaseDir, "delta.dat", blockSize * 100 + 1234);
+      localFile.setLastModified(System.currentTimeMillis() - 60000L);
+
+      FilePermissions permissions = new FilePermissions(false, false, false, true);
+      FileUtils.setPermissions(permissions);
+
+      Syncer syncer = Syncer.builder().localBaseDir(localBaseDir).remoteBaseDir(remoteBaseDir).permissions(permissions)
+          .recursive(true).build();
+      syncer.sync(SyncEnum.Remote, ".");
+
+      // Change two blocks and shorten the file.
+      data[blockSize * 3 + 17]++;
+      data[blockSize * 70]++;
+      byte[] changed = new byte[data.length - 1000];
+      System.arraycopy(data, 0, changed, 0, changed.length);
+      try (OutputStream out = new FileOutputStream(localFile)) {
+        out.write(changed);
+      }
+
+      syncer = Syncer.builder().localBaseDir(localBaseDir).remoteBaseDir(remoteBaseDir).permissions(permissions)
+          .recursive(true).delta(true).build();
+      syncer.sync(SyncEnum.Remote, ".");
+
+      assertSameFile(localFile, new File(remoteBaseDir, "delta.dat"));
+      // The two changed blocks plus the shortened last block.
+      assertEquals(blockSize * 2 + 234, syncer.getProgress().getBytesCopied());
+      assertEquals(changed.length - syncer.getProgress().getBytesCopied(), syncer.getProgress().getBytesMatched());
+    } finally {
+      cleanUpTest();
+    }
+  }
+
+  /**
+   * Copy a file of several blocks with the writes behind the reads. The blocks should reach the
+   * writer in order so it hashes the file as it is written instead of deferring the hash.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testPipelinedFile() throws Exception {
+    try {
+      cleanUpTest();
+
+      byte[] data = writeRandomFile(localBaseDir, "pipelined.dat", ChunkUtils.getBlockSize() * 20 + 1234);
+
+      FilePermissions permissions = new FilePermissions(false, false, false, true);
+      FileUtils.setPermissions(permissions);
+
+      Syncer syncer = Syncer.builder().localBaseDir(localBaseDir).remoteBaseDir(remoteBaseDir).permissions(permissions)
+          .recursive(true).streamSize(0L).batchSize(1).queueDepth(4).build();
+      syncer.sync(SyncEnum.Remote, ".");
+
+      assertSameFile(new File(localBaseDir, "pipelined.dat"), new File(remoteBaseDir, "pipelined.dat"));
+      assertEquals(data.length, syncer.getProgress().getBytesCopied());
+
+      String hashType = HashProcessor.getHashType();
+      IndexInfo localInfo = IndexManager.loadIndex(localBaseDir).getIndexInfo("pipelined.dat");
+      IndexInfo remoteInfo = IndexManager.loadIndex(remoteBaseDir).getIndexInfo("pipelined.dat");
+      assertNotNull("Missing written hash", remoteInfo == null ? null : remoteInfo.getHash(hashType));
+      assertEquals("Written hash", localInfo.getHash(hashType), remoteInfo.getHash(hashType));
+    } finally {
+      cleanUpTest();
+    }
+  }
+
+  /**
+   * Sync a file then insert bytes at its start so none of its blocks are at the same offset. Only
+   * the bytes inserted should be copied.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testRollingFile() throws Exception {
+    try {
+      cleanUpTest();
+
+      File localFile = new File(localBaseDir, "rolling.dat");
+      byte[] data = writeRandomFile(localBaseDir, "rolling.dat", ChunkUtils.getBlockSize() * 50 + 1234);
+      localFile.setLastModified(System.currentTimeMillis() - 60000L);
+
+      FilePermissions permissions = new FilePermissions(false, false, false, true);
+      FileUtils.setPermissions(permissions);
+
+      Syncer syncer = Syncer.builder().localBaseDir(localBaseDir).remoteBaseDir(remoteBaseDir).permissions(permissions)
+          .recursive(true).build();
+      syncer.sync(SyncEnum.Remote, ".");
+
+      byte[] inserted = new byte[999];
+      rand.nextBytes(inserted);
+      try (OutputStream out = new FileOutputStream(localFile)) {
+        out.write(inserted);
+        out.write(data);
+      }
+
+      syncer = Syncer.builder().localBaseDir(localBaseDir).remoteBaseDir(remoteBaseDir).permissions(permissions)
+          .recursive(true).rollingSize(1L).build();
+      syncer.sync(SyncEnum.Remote, ".");
+
+      assertSameFile(localFile, new File(remoteBaseDir, "rolling.dat"));
+      assertEquals(inserted.length, syncer.getProgress().getBytesCopied());
+      assertEquals(data.length, syncer.getProgress().getBytesMatched());
+    } finally {
+      cleanUpTest();
+    }
+  }
+
   /**
    * Run through the unique permutations of {@link TestKey} and {@link TestSetup}. There are
    * currently 288.
@@ -129,6 +328,70 @@ public class SyncerTest extends AbstractPlanMapTest {
     }
   }
 
+  /**
+   * Copy a file large enough for several chunks as one stream and verify the copy.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testStreamedFile() throws Exception {
+    try {
+      cleanUpTest();
+
+      byte[] data = writeRandomFile(remoteBaseDir, "streamed.dat", ChunkUtils.getBlockSize() * 100 + 1234);
+
+      FilePermissions permissions = new FilePermissions(false, true, false, false);
+      FileUtils.setPermissions(permissions);
+
+      Syncer syncer = Syncer.builder().localBaseDir(localBaseDir).remoteBaseDir(remoteBaseDir).permissions(permissions)
+          .recursive(true).streamSize(1L).build();
+      syncer.sync(SyncEnum.Local, ".");
+
+      assertSameFile(new File(remoteBaseDir, "streamed.dat"), new File(localBaseDir, "streamed.dat"));
+      assertEquals(data.length, syncer.getProgress().getBytesCopied());
+    } finally {
+      cleanUpTest();
+    }
+  }
+
+  /**
+   * Copy a file large enough for several chunks using several stripes and verify the copy.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testStripedFile() throws Exception {
+    try {
+      cleanUpTest();
+
+      writeRandomFile(localBaseDir, "striped.dat", ChunkUtils.getBlockSize() * 100 + 1234);
+
+      FilePermissions permissions = new FilePermissions(false, false, false, true);
+      FileUtils.setPermissions(permissions);
+
+      Syncer syncer = Syncer.builder().localBaseDir(localBaseDir).remoteBaseDir(remoteBaseDir).permissions(permissions)
+          .recursive(true).stripes(4).stripeSize(0L).build();
+      syncer.sync(SyncEnum.Remote, ".");
+
+      assertSameFile(new File(localBaseDir, "striped.dat"), new File(remoteBaseDir, "striped.dat"));
+    } finally {
+      cleanUpTest();
+    }
+  }
+
+  /**
+   * Verify the copy exists and matches the file it was copied from, including the last modified.
+   * 
+   * @param from
+   * @param to
+   * @throws IOException
+   */
+  private void assertSameFile(File from, File to) throws IOException {
+    assertTrue(String.format("Missing copied file: %s", to.getAbsolutePath()), to.isFile());
+    assertTrue(String.format("Copied file differs: %s", to.getAbsolutePath()), FileUtils.compareFiles(from, to));
+    assertEquals(from.lastModified(), to.lastModified());
+  }
+
   /**
    * Verify that every file in the {@link DirectoryInfo} is expected. It is removed from
    * expectedFiles once verified.
@@ -305,4 +568,23 @@ public class SyncerTest extends AbstractPlanMapTest {
     }
   }
 
-}
\ No newline at end of file
+  /**
+   * Fill a new file with random bytes.
+   * 
+   * @param dir
+   * @param name
+   * @param length
+   * @return The bytes written.
+   * @throws IOException
+   */
+  private byte[] writeRandomFile(File dir, String name, int length) throws IOException {
+    byte[] ret = new byte[length];
+    rand.nextBytes(ret);
+    try (OutputStream out = new FileOutputStream(new File(dir, name))) {
+      out.write(ret);
+    }
+
+    return ret;
+  }
+
+}
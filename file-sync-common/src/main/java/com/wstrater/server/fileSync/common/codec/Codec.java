@@ -0,0 +1,45 @@
+package com.wstrater.server.fileSync.common.codec;
+
+import com.wstrater.server.fileSync.common.utils.BufferPool;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Deflated;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Inflated;
+
+/**
+ * Compresses blocks sent between the client and server. Register it with {@link Codecs} so it can
+ * be chosen by name. Both ends must know the codec so its name is sent along with the compressed
+ * data.
+ * 
+ * @author wstrater
+ *
+ */
+public interface Codec {
+
+  /**
+   * Compress data into an array from the pool. The array may be larger than the compressed length
+   * so only {@link Deflated#getLength()} bytes are used. Release the array once it has been sent.
+   * 
+   * @param data
+   * @param offset
+   * @param length
+   * @param level Ignored by codecs without levels.
+   * @param pool
+   * @return
+   */
+  public Deflated compress(byte[] data, int offset, int length, int level, BufferPool pool);
+
+  /**
+   * Decompress data into an array from the pool of exactly <code>decompressedLength</code> bytes.
+   * Release the array once it has been written.
+   * 
+   * @param data
+   * @param offset
+   * @param length
+   * @param decompressedLength Data that decompresses to more is an error.
+   * @param pool
+   * @return
+   */
+  public Inflated decompress(byte[] data, int offset, int length, int decompressedLength, BufferPool pool);
+
+  public String getName();
+
+}
@@ -0,0 +1,98 @@
+package com.wstrater.server.fileSync.common.codec;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.wstrater.server.fileSync.common.exceptions.InvalidCodecException;
+
+/**
+ * The registry of codecs used to compress blocks. A codec is chosen by name.
+ * <p/>
+ * <code>deflate</code> is the default since it is what older clients and servers use. The codec
+ * used is sent with compressed data so the other end knows how to decompress it. Data without a
+ * codec is deflated.
+ * 
+ * @author wstrater
+ *
+ */
+public abstract class Codecs {
+
+  public final static String              DEFAULT_CODEC = "deflate";
+  public final static String              DEFLATE       = "deflate";
+  public final static String              LZ4           = "lz4";
+
+  private final static Map<String, Codec> codecs        = new LinkedHashMap<>();
+
+  static {
+    register(new DeflateCodec());
+    register(new LZ4Codec());
+  }
+
+  /**
+   * Get a codec by name.
+   * 
+   * @param name Case insensitive. The default codec if <code>null</code>.
+   * @return
+   * @throws InvalidCodecException If the codec is not registered.
+   */
+  public static Codec getCodec(String name) {
+    Codec ret = null;
+
+    String key = name == null ? DEFAULT_CODEC : name.toLowerCase();
+    synchronized (codecs) {
+      ret = codecs.get(key);
+    }
+
+    if (ret == null) {
+      throw new InvalidCodecException(String.format("Unknown codec: %s", name));
+    }
+
+    return ret;
+  }
+
+  /**
+   * The registered codec names in the order registered.
+   * 
+   * @return
+   */
+  public static Set<String> getCodecNames() {
+    Set<String> ret;
+
+    synchronized (codecs) {
+      ret = Collections.unmodifiableSet(new LinkedHashSet<>(codecs.keySet()));
+    }
+
+    return ret;
+  }
+
+  public static boolean isCodec(String name) {
+    boolean ret = false;
+
+    if (name != null) {
+      synchronized (codecs) {
+        ret = codecs.containsKey(name.toLowerCase());
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Add or replace a codec.
+   * 
+   * @param codec
+   */
+  public static void register(Codec codec) {
+    if (codec == null || codec.getName() == null) {
+      throw new IllegalArgumentException("Codec and name are required");
+    }
+
+    synchronized (codecs) {
+      codecs.put(codec.getName().toLowerCase(), codec);
+    }
+  }
+
+}
@@ -0,0 +1,31 @@
+package com.wstrater.server.fileSync.common.codec;
+
+import com.wstrater.server.fileSync.common.utils.BufferPool;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Deflated;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Inflated;
+
+/**
+ * The ZLib deflate used since the beginning. Compresses well but is slow on a small CPU.
+ * 
+ * @author wstrater
+ *
+ */
+public class DeflateCodec implements Codec {
+
+  @Override
+  public Deflated compress(byte[] data, int offset, int length, int level, BufferPool pool) {
+    return CompressionUtils.deflate(data, offset, length, level, pool);
+  }
+
+  @Override
+  public Inflated decompress(byte[] data, int offset, int length, int decompressedLength, BufferPool pool) {
+    return CompressionUtils.inflate(data, offset, length, decompressedLength, pool);
+  }
+
+  @Override
+  public String getName() {
+    return Codecs.DEFLATE;
+  }
+
+}
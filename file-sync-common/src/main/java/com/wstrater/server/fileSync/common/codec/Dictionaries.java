@@ -0,0 +1,89 @@
+package com.wstrater.server.fileSync.common.codec;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.wstrater.server.fileSync.common.exceptions.DictionaryNotFoundException;
+
+/**
+ * The cache of preset dictionaries by key. The client registers the dictionary it trained and sends
+ * it to the server which registers it too. Only the most recently used {@link #MAX_DICTIONARIES}
+ * are kept so the client sends its dictionary again if the server has forgotten it.
+ *
+ * @author wstrater
+ *
+ */
+public abstract class Dictionaries {
+
+  public final static int                      MAX_DICTIONARIES = 32;
+  public final static int                      MAX_SIZE         = 32 * 1024;
+
+  private final static Map<String, Dictionary> dictionaries     = new LinkedHashMap<>(16, 0.75F, true);
+
+  /**
+   * Forget every dictionary.
+   */
+  public static void clear() {
+    synchronized (dictionaries) {
+      dictionaries.clear();
+    }
+  }
+
+  /**
+   * Get a dictionary by key.
+   *
+   * @param key
+   * @return
+   * @throws DictionaryNotFoundException If the dictionary is not registered.
+   */
+  public static Dictionary getDictionary(String key) {
+    Dictionary ret = null;
+
+    if (key != null) {
+      synchronized (dictionaries) {
+        ret = dictionaries.get(key);
+      }
+    }
+
+    if (ret == null) {
+      throw new DictionaryNotFoundException(String.format("Unknown dictionary: %s", key));
+    }
+
+    return ret;
+  }
+
+  public static boolean isDictionary(String key) {
+    boolean ret = false;
+
+    if (key != null) {
+      synchronized (dictionaries) {
+        ret = dictionaries.containsKey(key);
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Add a dictionary. A dictionary with the same id but a different version does not replace it.
+   *
+   * @param dictionary
+   */
+  public static void register(Dictionary dictionary) {
+    if (dictionary == null) {
+      throw new IllegalArgumentException("Dictionary is required");
+    }
+
+    synchronized (dictionaries) {
+      dictionaries.put(dictionary.getKey(), dictionary);
+
+      Iterator<Dictionary> iter = dictionaries.values().iterator();
+      while (dictionaries.size() > MAX_DICTIONARIES && iter.hasNext()) {
+        iter.next();
+        iter.remove();
+      }
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,83 @@
+package com.wstrater.server.fileSync.common.codec;
+
+import java.util.zip.Adler32;
+
+/**
+ * A preset dictionary that small blocks are deflated with so they can refer to content common to
+ * many files rather than only to themselves. The version is the Adler-32 of the content, the same
+ * checksum deflate puts in the header of a block compressed with the dictionary, so a block can
+ * never be inflated with a different dictionary than it was deflated with.
+ *
+ * @author wstrater
+ *
+ */
+public class Dictionary {
+
+  private final byte[] data;
+  private final String id;
+  private final long   version;
+
+  public Dictionary(String id, byte[] data) {
+    if (id == null || data == null) {
+      throw new IllegalArgumentException("Dictionary id and data are required");
+    }
+
+    this.data = data;
+    this.id = id;
+    this.version = checksum(data);
+  }
+
+  /**
+   * The Adler-32 of the content as used by deflate to identify a dictionary.
+   *
+   * @param data
+   * @return
+   */
+  public static long checksum(byte[] data) {
+    Adler32 adler = new Adler32();
+    adler.update(data, 0, data.length);
+
+    return adler.getValue();
+  }
+
+  /**
+   * Do not change the content.
+   *
+   * @return
+   */
+  public byte[] getData() {
+    return data;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * The id and version. This is how the dictionary is registered and named in requests.
+   *
+   * @return
+   */
+  public String getKey() {
+    return String.format("%s-%08x", id, version);
+  }
+
+  public int getLength() {
+    return data.length;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("Dictionary [id=").append(id).append(", version=").append(String.format("%08x", version))
+        .append(", length=").append(data.length).append("]");
+
+    return builder.toString();
+  }
+
+}
\ No newline at end of file
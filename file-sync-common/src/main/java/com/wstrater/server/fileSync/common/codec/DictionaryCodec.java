@@ -0,0 +1,47 @@
+package com.wstrater.server.fileSync.common.codec;
+
+import com.wstrater.server.fileSync.common.utils.BufferPool;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Deflated;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Inflated;
+
+/**
+ * Deflate with a preset {@link Dictionary}. It is named deflate since the blocks are deflated but
+ * it is not registered with {@link Codecs}. The key of the dictionary is sent with the blocks
+ * instead.
+ *
+ * @author wstrater
+ *
+ */
+public class DictionaryCodec implements Codec {
+
+  private final Dictionary dictionary;
+
+  public DictionaryCodec(Dictionary dictionary) {
+    if (dictionary == null) {
+      throw new IllegalArgumentException("Dictionary is required");
+    }
+
+    this.dictionary = dictionary;
+  }
+
+  @Override
+  public Deflated compress(byte[] data, int offset, int length, int level, BufferPool pool) {
+    return CompressionUtils.deflate(data, offset, length, level, dictionary.getData(), pool);
+  }
+
+  @Override
+  public Inflated decompress(byte[] data, int offset, int length, int decompressedLength, BufferPool pool) {
+    return CompressionUtils.inflate(data, offset, length, decompressedLength, dictionary.getData(), pool);
+  }
+
+  public Dictionary getDictionary() {
+    return dictionary;
+  }
+
+  @Override
+  public String getName() {
+    return Codecs.DEFLATE;
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,246 @@
+package com.wstrater.server.fileSync.common.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.wstrater.server.fileSync.common.utils.Constants;
+
+/**
+ * Trains a preset {@link Dictionary} from a sample of the small files of a sync root. Deflate can
+ * only refer to what it has already seen so a small file has little to refer to on its own. Files
+ * of the same kind, such as JSON, XML or CSV, share field names, tags and headers. The dictionary
+ * is made of the pieces of the samples with the most content found in the most files.
+ * <p/>
+ * Every run of {@link #GRAM_SIZE} bytes of every sample is counted once per sample it is found in.
+ * Each {@link #SEGMENT_SIZE} piece of a sample is scored by the counts of its runs that are found
+ * in more than one sample and not yet in the dictionary. The best pieces are taken until the
+ * dictionary is full. Deflate finds nearer matches cheaper so the best pieces go at the end.
+ *
+ * @author wstrater
+ *
+ */
+public abstract class DictionaryTrainer {
+
+  protected final static Logger logger           = LoggerFactory.getLogger(DictionaryTrainer.class);
+
+  public final static int       DEFAULT_SIZE     = Dictionaries.MAX_SIZE;
+  public final static int       GRAM_SIZE        = 8;
+  public final static int       MAX_FILE_SIZE    = 4 * Constants.MINIMUM_FOR_COMPRESSION;
+  public final static int       MAX_SAMPLE_BYTES = 1024 * 1024;
+  public final static int       MAX_SAMPLES      = 1024;
+  public final static int       SEGMENT_SIZE     = 64;
+
+  private final static int      TABLE_BITS       = 20;
+
+  /**
+   * The slot of the run of bytes in the count tables. Runs sharing a slot are counted together
+   * which only makes the scores a little less exact.
+   */
+  private static int slot(byte[] data, int offset) {
+    long gram = 0L;
+    for (int xx = 0; xx < GRAM_SIZE; xx++) {
+      gram = (gram << 8) | (data[offset + xx] & 0xFF);
+    }
+
+    return (int) ((gram * 0x9E3779B97F4A7C15L) >>> (64 - TABLE_BITS));
+  }
+
+  /**
+   * Read the small files under a directory. Hidden files and directories are skipped.
+   *
+   * @param baseDir
+   * @param maxSamples
+   * @param maxBytes The most bytes read from all of the files.
+   * @return
+   */
+  public static List<byte[]> sample(File baseDir, int maxSamples, int maxBytes) {
+    List<byte[]> ret = new ArrayList<>();
+
+    LinkedList<File> dirs = new LinkedList<>();
+    dirs.add(baseDir);
+    int bytes = 0;
+    while (!dirs.isEmpty() && ret.size() < maxSamples && bytes < maxBytes) {
+      File[] files = dirs.removeFirst().listFiles();
+      if (files == null) {
+        continue;
+      }
+      Arrays.sort(files);
+      for (File file : files) {
+        if (file.getName().startsWith(".") || file.isHidden()) {
+          continue;
+        } else if (file.isDirectory()) {
+          dirs.add(file);
+        } else if (file.isFile() && file.length() >= GRAM_SIZE && file.length() <= MAX_FILE_SIZE
+            && ret.size() < maxSamples && bytes + file.length() <= maxBytes) {
+          byte[] data = readFile(file);
+          if (data != null) {
+            ret.add(data);
+            bytes += data.length;
+          }
+        }
+      }
+    }
+
+    return ret;
+  }
+
+  private static byte[] readFile(File file) {
+    byte[] ret = null;
+
+    try {
+      InputStream in = new FileInputStream(file);
+      try {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+        byte[] buf = new byte[4096];
+        int len;
+        while (out.size() <= MAX_FILE_SIZE && (len = in.read(buf)) >= 0) {
+          out.write(buf, 0, len);
+        }
+        ret = out.toByteArray();
+      } finally {
+        in.close();
+      }
+    } catch (IOException ee) {
+      logger.debug(String.format("Unable to sample %s: %s", file.getAbsolutePath(), ee.getMessage()));
+    }
+
+    return ret;
+  }
+
+  /**
+   * Score a segment by the runs found in more than one sample that are not covered yet.
+   */
+  private static int score(Segment segment, int[] counts, boolean[] covered) {
+    int ret = 0;
+
+    for (int xx = segment.offset; xx + GRAM_SIZE <= segment.offset + segment.length; xx++) {
+      int slot = slot(segment.data, xx);
+      if (counts[slot] > 1 && !covered[slot]) {
+        ret += counts[slot] - 1;
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Train a dictionary from the small files under a directory.
+   *
+   * @param id The dictionary is registered under. The version comes from the content.
+   * @param baseDir
+   * @return Null if there is nothing common to the files.
+   */
+  public static Dictionary train(String id, File baseDir) {
+    Dictionary ret = null;
+
+    long start = System.currentTimeMillis();
+    List<byte[]> samples = sample(baseDir, MAX_SAMPLES, MAX_SAMPLE_BYTES);
+    byte[] data = train(samples, DEFAULT_SIZE);
+    if (data.length > 0) {
+      ret = new Dictionary(id, data);
+    }
+
+    logger.info(String.format("Trained %s from %d files in %d ms", ret, samples.size(), System.currentTimeMillis() - start));
+
+    return ret;
+  }
+
+  /**
+   * Train a dictionary from samples of the content it is for.
+   *
+   * @param samples
+   * @param size The most bytes in the dictionary.
+   * @return Empty if there is nothing common to the samples.
+   */
+  public static byte[] train(List<byte[]> samples, int size) {
+    int[] counts = new int[1 << TABLE_BITS];
+    int[] seen = new int[1 << TABLE_BITS];
+
+    // Count each run once for every sample it is found in.
+    for (int xx = 0; xx < samples.size(); xx++) {
+      byte[] sample = samples.get(xx);
+      for (int yy = 0; yy + GRAM_SIZE <= sample.length; yy++) {
+        int slot = slot(sample, yy);
+        if (seen[slot] != xx + 1) {
+          seen[slot] = xx + 1;
+          counts[slot]++;
+        }
+      }
+    }
+
+    boolean[] covered = new boolean[1 << TABLE_BITS];
+    PriorityQueue<Segment> queue = new PriorityQueue<>();
+    for (byte[] sample : samples) {
+      for (int offset = 0; offset + GRAM_SIZE <= sample.length; offset += SEGMENT_SIZE / 2) {
+        Segment segment = new Segment(sample, offset, Math.min(SEGMENT_SIZE, sample.length - offset));
+        segment.score = score(segment, counts, covered);
+        if (segment.score > 0) {
+          queue.add(segment);
+        }
+      }
+    }
+
+    // Scores only go down as the dictionary covers more so a segment is taken once its new score is
+    // still the best.
+    List<Segment> chosen = new ArrayList<>();
+    int length = 0;
+    while (length < size && !queue.isEmpty()) {
+      Segment segment = queue.poll();
+      segment.score = score(segment, counts, covered);
+      if (segment.score <= 0) {
+        continue;
+      } else if (!queue.isEmpty() && segment.score < queue.peek().score) {
+        queue.add(segment);
+        continue;
+      }
+
+      for (int xx = segment.offset; xx + GRAM_SIZE <= segment.offset + segment.length; xx++) {
+        covered[slot(segment.data, xx)] = true;
+      }
+      chosen.add(segment);
+      length += segment.length;
+    }
+
+    byte[] ret = new byte[Math.min(size, length)];
+    int offset = ret.length;
+    for (Segment segment : chosen) {
+      int len = Math.min(segment.length, offset);
+      offset -= len;
+      System.arraycopy(segment.data, segment.offset, ret, offset, len);
+    }
+
+    return ret;
+  }
+
+  private static class Segment implements Comparable<Segment> {
+
+    private final byte[] data;
+    private final int    length;
+    private final int    offset;
+    private int          score;
+
+    private Segment(byte[] data, int offset, int length) {
+      this.data = data;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    @Override
+    public int compareTo(Segment other) {
+      return Integer.compare(other.score, score);
+    }
+
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,268 @@
+package com.wstrater.server.fileSync.common.codec;
+
+import java.util.Arrays;
+
+import com.wstrater.server.fileSync.common.exceptions.ErrorInflatingBlockException;
+import com.wstrater.server.fileSync.common.utils.BufferPool;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Deflated;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Inflated;
+
+/**
+ * A pure Java codec for the LZ4 block format. It finds matches with a single hash lookup so it
+ * compresses less than deflate but many times faster, and it decompresses with little more than
+ * array copies. The format is compatible with other LZ4 block implementations.
+ * <p/>
+ * A block is a series of sequences. Each sequence is a token, the literal length, the literals, a
+ * two byte offset back to the match and the match length. The last sequence only has literals.
+ * 
+ * @author wstrater
+ *
+ */
+public class LZ4Codec implements Codec {
+
+  private final static int HASH_LOG      = 12;
+  private final static int LAST_LITERALS = 5;
+  private final static int MAX_OFFSET    = 65535;
+  private final static int MF_LIMIT      = 12;
+  private final static int MIN_MATCH     = 4;
+  private final static int ML_MASK       = 15;
+  private final static int RUN_MASK      = 15;
+  private final static int SKIP_TRIGGER  = 6;
+
+  /**
+   * The hash table is kept by each thread since it is larger than many blocks are worth allocating.
+   */
+  private final static ThreadLocal<int[]> tables = new ThreadLocal<int[]>() {
+
+    @Override
+    protected int[] initialValue() {
+      return new int[1 << HASH_LOG];
+    }
+  };
+
+  @Override
+  public Deflated compress(byte[] data, int offset, int length, int level, BufferPool pool) {
+    Deflated ret = new Deflated();
+
+    validate(data, offset, length);
+
+    byte[] buf = pool.acquire(maxCompressedLength(length));
+    ret.setLength(compress(data, offset, length, buf, tables.get()));
+    ret.setData(buf);
+
+    return ret;
+  }
+
+  /**
+   * Compress data into an array of at least {@link #maxCompressedLength(int)} bytes.
+   * 
+   * @return The compressed length.
+   */
+  static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int[] table) {
+    int end = srcOff + srcLen;
+    int anchor = srcOff;
+    int op = 0;
+
+    if (srcLen >= MF_LIMIT + 1) {
+      int matchLimit = end - LAST_LITERALS;
+      int mfLimit = end - MF_LIMIT;
+
+      // Positions are stored one higher so zero is an empty slot.
+      Arrays.fill(table, 0);
+      table[hash(src, srcOff)] = 1;
+      int ip = srcOff + 1;
+      int searches = 1 << SKIP_TRIGGER;
+
+      while (ip < mfLimit) {
+        int hash = hash(src, ip);
+        int ref = srcOff + table[hash] - 1;
+        table[hash] = ip - srcOff + 1;
+
+        if (ref < srcOff || ip - ref > MAX_OFFSET || readInt(src, ref) != readInt(src, ip)) {
+          // Move faster through data that does not match.
+          ip += searches++ >>> SKIP_TRIGGER;
+        } else {
+          searches = 1 << SKIP_TRIGGER;
+
+          while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+            ip--;
+            ref--;
+          }
+
+          int matchLength = MIN_MATCH;
+          while (ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+            matchLength++;
+          }
+
+          int literals = ip - anchor;
+          int token = op++;
+          op = writeLength(dst, op, literals, RUN_MASK);
+          System.arraycopy(src, anchor, dst, op, literals);
+          op += literals;
+
+          int distance = ip - ref;
+          dst[op++] = (byte) distance;
+          dst[op++] = (byte) (distance >>> 8);
+
+          int tokenMatch = matchLength - MIN_MATCH;
+          op = writeLength(dst, op, tokenMatch, ML_MASK);
+          dst[token] = (byte) ((Math.min(literals, RUN_MASK) << 4) | Math.min(tokenMatch, ML_MASK));
+
+          ip += matchLength;
+          anchor = ip;
+          if (ip < mfLimit) {
+            table[hash(src, ip - 2)] = ip - 2 - srcOff + 1;
+          }
+        }
+      }
+    }
+
+    int literals = end - anchor;
+    int token = op++;
+    op = writeLength(dst, op, literals, RUN_MASK);
+    System.arraycopy(src, anchor, dst, op, literals);
+    op += literals;
+    dst[token] = (byte) (Math.min(literals, RUN_MASK) << 4);
+
+    return op;
+  }
+
+  @Override
+  public Inflated decompress(byte[] data, int offset, int length, int decompressedLength, BufferPool pool) {
+    Inflated ret = new Inflated();
+
+    validate(data, offset, length);
+
+    byte[] buf = pool.acquire(decompressedLength);
+    try {
+      ret.setLength(decompress(data, offset, length, buf, decompressedLength));
+      ret.setData(buf);
+    } catch (ArrayIndexOutOfBoundsException ee) {
+      throw new ErrorInflatingBlockException("Error decompressing block", ee);
+    } finally {
+      if (ret.getData() == null) {
+        pool.release(buf);
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Decompress into the first <code>dstLen</code> bytes of an array.
+   * 
+   * @return The decompressed length.
+   * @throws ErrorInflatingBlockException If the data is corrupt or decompresses to more than
+   *           <code>dstLen</code>.
+   */
+  static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstLen) {
+    int ip = srcOff;
+    int end = srcOff + srcLen;
+    int op = 0;
+
+    boolean done = false;
+    while (!done && ip < end) {
+      int token = src[ip++] & 0xFF;
+
+      int literals = token >>> 4;
+      if (literals == RUN_MASK) {
+        int len;
+        do {
+          len = src[ip++] & 0xFF;
+          literals += len;
+        } while (len == 255);
+      }
+      if (op + literals > dstLen || ip + literals > end) {
+        throw new ErrorInflatingBlockException("Block literals past the end");
+      }
+      System.arraycopy(src, ip, dst, op, literals);
+      ip += literals;
+      op += literals;
+
+      if (ip >= end) {
+        done = true;
+      } else if (ip + 2 > end) {
+        throw new ErrorInflatingBlockException("Block offset past the end");
+      } else {
+        int distance = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+        ip += 2;
+        if (distance == 0 || distance > op) {
+          throw new ErrorInflatingBlockException(String.format("Invalid block offset: %d", distance));
+        }
+
+        int matchLength = token & ML_MASK;
+        if (matchLength == ML_MASK) {
+          int len;
+          do {
+            len = src[ip++] & 0xFF;
+            matchLength += len;
+          } while (len == 255);
+        }
+        matchLength += MIN_MATCH;
+        if (op + matchLength > dstLen) {
+          throw new ErrorInflatingBlockException("Block match past the end");
+        }
+
+        // A match that overlaps what it is copying repeats the bytes between it and the output so
+        // copy that pattern, doubling it each time.
+        int ref = op - distance;
+        int remaining = matchLength;
+        while (remaining > 0) {
+          int count = Math.min(op - ref, remaining);
+          System.arraycopy(dst, ref, dst, op, count);
+          op += count;
+          remaining -= count;
+        }
+      }
+    }
+
+    return op;
+  }
+
+  @Override
+  public String getName() {
+    return Codecs.LZ4;
+  }
+
+  private static int hash(byte[] data, int offset) {
+    return (readInt(data, offset) * -1640531535) >>> (32 - HASH_LOG);
+  }
+
+  /**
+   * The most an incompressible block can grow.
+   * 
+   * @param length
+   * @return
+   */
+  public static int maxCompressedLength(int length) {
+    return length + length / 255 + 16;
+  }
+
+  private static int readInt(byte[] data, int offset) {
+    return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF) << 16
+        | (data[offset + 3] & 0xFF) << 24;
+  }
+
+  private static void validate(byte[] data, int offset, int length) {
+    if (data == null || offset < 0 || length < 0 || offset + length > data.length) {
+      throw new IndexOutOfBoundsException();
+    }
+  }
+
+  /**
+   * Write the part of a length that does not fit in the token.
+   */
+  private static int writeLength(byte[] dst, int op, int length, int mask) {
+    if (length >= mask) {
+      int remaining = length - mask;
+      while (remaining >= 255) {
+        dst[op++] = (byte) 255;
+        remaining -= 255;
+      }
+      dst[op++] = (byte) remaining;
+    }
+
+    return op;
+  }
+
+}
@@ -0,0 +1,103 @@
+package com.wstrater.server.fileSync.common.data;
+
+import com.wstrater.server.fileSync.common.utils.DeltaUtils;
+
+/**
+ * The CRC32 and strong hash of one block of a file. Two blocks are considered the same when both
+ * match. The rolling checksum is used to find a block that has moved.
+ * 
+ * @author wstrater
+ *
+ */
+public class BlockSignature {
+
+  private long   crc32;
+  private String hash;
+  private int    length;
+  private long   offset;
+  private long   rolling;
+
+  public BlockSignature() {}
+
+  public BlockSignature(long offset, int length, long crc32, long rolling, String hash) {
+    this.offset = offset;
+    this.length = length;
+    this.crc32 = crc32;
+    this.rolling = rolling;
+    this.hash = hash;
+  }
+
+  public long getCrc32() {
+    return crc32;
+  }
+
+  /**
+   * Base64 encoded.
+   * 
+   * @return
+   */
+  public String getHash() {
+    return hash;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  /**
+   * {@see DeltaUtils#rolling(byte[], int, int)}
+   * 
+   * @return
+   */
+  public long getRolling() {
+    return rolling;
+  }
+
+  /**
+   * Does this block have the same length, CRC32 and hash as the other one.
+   * 
+   * @param other
+   * @return
+   */
+  public boolean matches(BlockSignature other) {
+    return other != null && length == other.length && crc32 == other.crc32 && hash != null && hash.equals(other.hash);
+  }
+
+  public void setCrc32(long crc32) {
+    this.crc32 = crc32;
+  }
+
+  public void setHash(String hash) {
+    this.hash = hash;
+  }
+
+  public void setLength(int length) {
+    this.length = length;
+  }
+
+  public void setOffset(long offset) {
+    this.offset = offset;
+  }
+
+  public void setRolling(long rolling) {
+    this.rolling = rolling;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("BlockSignature [offset=").append(offset).append(", length=").append(length).append(", crc32=")
+        .append(crc32).append(", rolling=").append(rolling).append(", ");
+    if (hash != null)
+      builder.append("hash=").append(hash);
+    builder.append("]");
+
+    return builder.toString();
+  }
+
+}
\ No newline at end of file
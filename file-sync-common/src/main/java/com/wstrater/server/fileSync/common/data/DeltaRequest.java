@@ -0,0 +1,91 @@
+package com.wstrater.server.fileSync.common.data;
+
+import java.io.File;
+
+import com.wstrater.server.fileSync.common.utils.DeltaUtils;
+
+/**
+ * A request to read or write a file as a delta described in {@link DeltaUtils}. Reading needs the
+ * {@link FileSignature} of the older copy being rebuilt. Writing rebuilds the file from the blocks
+ * of the copy already there at <code>blockSize</code>.
+ * 
+ * @author wstrater
+ *
+ */
+public class DeltaRequest {
+
+  private File          baseDir;
+  private int           blockSize;
+  private String        fileName;
+  private String        hashType;
+  private FileSignature signature;
+  private long          timeStamp;
+
+  public File getBaseDir() {
+    return baseDir;
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  public String getHashType() {
+    return hashType;
+  }
+
+  public FileSignature getSignature() {
+    return signature;
+  }
+
+  public long getTimeStamp() {
+    return timeStamp;
+  }
+
+  public void setBaseDir(File baseDir) {
+    this.baseDir = baseDir;
+  }
+
+  public void setBlockSize(int blockSize) {
+    this.blockSize = blockSize;
+  }
+
+  public void setFileName(String fileName) {
+    this.fileName = fileName;
+  }
+
+  public void setHashType(String hashType) {
+    this.hashType = hashType;
+  }
+
+  public void setSignature(FileSignature signature) {
+    this.signature = signature;
+  }
+
+  public void setTimeStamp(long timeStamp) {
+    this.timeStamp = timeStamp;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("DeltaRequest [");
+    if (baseDir != null)
+      builder.append("baseDir=").append(baseDir).append(", ");
+    if (fileName != null)
+      builder.append("fileName=").append(fileName).append(", ");
+    builder.append("blockSize=").append(blockSize).append(", ");
+    if (hashType != null)
+      builder.append("hashType=").append(hashType).append(", ");
+    if (signature != null)
+      builder.append("signature=").append(signature).append(", ");
+    builder.append("timeStamp=").append(timeStamp).append("]");
+
+    return builder.toString();
+  }
+
+}
\ No newline at end of file
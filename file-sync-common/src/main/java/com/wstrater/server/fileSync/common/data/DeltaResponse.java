@@ -0,0 +1,80 @@
+package com.wstrater.server.fileSync.common.data;
+
+/**
+ * The response of a {@see DeltaRequest}
+ * 
+ * @author wstrater
+ *
+ */
+public class DeltaResponse {
+
+  private long         length;
+  private long         literal;
+  private long         matched;
+  private DeltaRequest request;
+  private boolean      success;
+
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * The bytes sent because they were not found in the older copy.
+   * 
+   * @return
+   */
+  public long getLiteral() {
+    return literal;
+  }
+
+  /**
+   * The bytes copied from the older copy.
+   * 
+   * @return
+   */
+  public long getMatched() {
+    return matched;
+  }
+
+  public DeltaRequest getRequest() {
+    return request;
+  }
+
+  public boolean isSuccess() {
+    return success;
+  }
+
+  public void setLength(long length) {
+    this.length = length;
+  }
+
+  public void setLiteral(long literal) {
+    this.literal = literal;
+  }
+
+  public void setMatched(long matched) {
+    this.matched = matched;
+  }
+
+  public void setRequest(DeltaRequest request) {
+    this.request = request;
+  }
+
+  public void setSuccess(boolean success) {
+    this.success = success;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("DeltaResponse [length=").append(length).append(", literal=").append(literal).append(", matched=")
+        .append(matched).append(", success=").append(success).append(", ");
+    if (request != null)
+      builder.append("request=").append(request);
+    builder.append("]");
+
+    return builder.toString();
+  }
+
+}
\ No newline at end of file
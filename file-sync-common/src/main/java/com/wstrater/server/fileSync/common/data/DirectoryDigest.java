@@ -0,0 +1,102 @@
+package com.wstrater.server.fileSync.common.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * The rollup digest of a directory. The digest covers the name, length and lastModified of every
+ * file in the directory and the name and digest of every child directory so two directories with
+ * the same digest hold the same files all the way down. Only the child directories within the
+ * levels requested are included.
+ *
+ * @author wstrater
+ *
+ */
+public class DirectoryDigest {
+
+  private String                digest;
+  private List<DirectoryDigest> directories;
+  private String                name;
+
+  public void addDirectory(DirectoryDigest directory) {
+    if (directories == null) {
+      directories = new ArrayList<>();
+    }
+    directories.add(directory);
+  }
+
+  /**
+   * The Base64 encoded digest.
+   *
+   * @return
+   */
+  public String getDigest() {
+    return digest;
+  }
+
+  /**
+   * Get the digest of a child directory.
+   *
+   * @param name
+   * @return Null if the child was not included.
+   */
+  @JsonIgnore
+  public DirectoryDigest getDirectory(String name) {
+    DirectoryDigest ret = null;
+
+    if (directories != null && name != null) {
+      for (DirectoryDigest directory : directories) {
+        if (name.equals(directory.getName())) {
+          ret = directory;
+          break;
+        }
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * The child directories. Null if they are below the levels requested.
+   *
+   * @return
+   */
+  public List<DirectoryDigest> getDirectories() {
+    return directories;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setDigest(String digest) {
+    this.digest = digest;
+  }
+
+  public void setDirectories(List<DirectoryDigest> directories) {
+    this.directories = directories;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("DirectoryDigest [");
+    if (name != null)
+      builder.append("name=").append(name).append(", ");
+    if (digest != null)
+      builder.append("digest=").append(digest).append(", ");
+    if (directories != null)
+      builder.append("directories=").append(directories);
+    builder.append("]");
+
+    return builder.toString();
+  }
+
+}
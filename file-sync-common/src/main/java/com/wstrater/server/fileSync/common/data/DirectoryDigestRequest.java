@@ -0,0 +1,76 @@
+package com.wstrater.server.fileSync.common.data;
+
+import java.io.File;
+
+public class DirectoryDigestRequest {
+
+  public final static int ALL_LEVELS = -1;
+
+  private File    baseDir;
+  private boolean hiddenDirectories;
+  private boolean hiddenFiles;
+  private int     levels;
+  private String  path;
+
+  public File getBaseDir() {
+    return baseDir;
+  }
+
+  public boolean isHiddenDirectories() {
+    return hiddenDirectories;
+  }
+
+  public boolean isHiddenFiles() {
+    return hiddenFiles;
+  }
+
+  /**
+   * The number of levels of child directories to return digests for. {@link #ALL_LEVELS}, or any
+   * negative, for every level.
+   *
+   * @return
+   */
+  public int getLevels() {
+    return levels;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public void setBaseDir(File baseDir) {
+    this.baseDir = baseDir;
+  }
+
+  public void setHiddenDirectories(boolean hiddenDirectories) {
+    this.hiddenDirectories = hiddenDirectories;
+  }
+
+  public void setHiddenFiles(boolean hiddenFiles) {
+    this.hiddenFiles = hiddenFiles;
+  }
+
+  public void setLevels(int levels) {
+    this.levels = levels;
+  }
+
+  public void setPath(String path) {
+    this.path = path;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("DirectoryDigestRequest [");
+    if (baseDir != null)
+      builder.append("baseDir=").append(baseDir).append(", ");
+    if (path != null)
+      builder.append("path=").append(path).append(", ");
+    builder.append("hiddenDirectories=").append(hiddenDirectories).append(", hiddenFiles=").append(hiddenFiles)
+        .append(", levels=").append(levels).append("]");
+
+    return builder.toString();
+  }
+
+}
@@ -0,0 +1,47 @@
+package com.wstrater.server.fileSync.common.data;
+
+public class DirectoryDigestResponse {
+
+  private DirectoryDigest        directoryDigest;
+  private DirectoryDigestRequest request;
+  private boolean                success;
+
+  public DirectoryDigest getDirectoryDigest() {
+    return directoryDigest;
+  }
+
+  public DirectoryDigestRequest getRequest() {
+    return request;
+  }
+
+  public boolean isSuccess() {
+    return success;
+  }
+
+  public void setDirectoryDigest(DirectoryDigest directoryDigest) {
+    this.directoryDigest = directoryDigest;
+  }
+
+  public void setRequest(DirectoryDigestRequest request) {
+    this.request = request;
+  }
+
+  public void setSuccess(boolean success) {
+    this.success = success;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("DirectoryDigestResponse [success=").append(success).append(", ");
+    if (directoryDigest != null)
+      builder.append("directoryDigest=").append(directoryDigest).append(", ");
+    if (request != null)
+      builder.append("request=").append(request);
+    builder.append("]");
+
+    return builder.toString();
+  }
+
+}
@@ -0,0 +1,82 @@
+package com.wstrater.server.fileSync.common.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link BlockSignature} of every block of a file along with the hash of the whole file. This
+ * is used to find the blocks that need to be copied when only part of a file has changed.
+ * 
+ * @author wstrater
+ *
+ */
+public class FileSignature {
+
+  private List<BlockSignature> blocks = new ArrayList<>();
+  private int                  blockSize;
+  private String               hash;
+  private String               hashType;
+  private long                 length;
+
+  public List<BlockSignature> getBlocks() {
+    return blocks;
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * The Base64 encoded hash of the whole file.
+   * 
+   * @return
+   */
+  public String getHash() {
+    return hash;
+  }
+
+  public String getHashType() {
+    return hashType;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  public void setBlocks(List<BlockSignature> blocks) {
+    this.blocks = blocks;
+  }
+
+  public void setBlockSize(int blockSize) {
+    this.blockSize = blockSize;
+  }
+
+  public void setHash(String hash) {
+    this.hash = hash;
+  }
+
+  public void setHashType(String hashType) {
+    this.hashType = hashType;
+  }
+
+  public void setLength(long length) {
+    this.length = length;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("FileSignature [length=").append(length).append(", blockSize=").append(blockSize).append(", ");
+    if (blocks != null)
+      builder.append("blocks=").append(blocks.size()).append(", ");
+    if (hashType != null)
+      builder.append("hashType=").append(hashType).append(", ");
+    if (hash != null)
+      builder.append("hash=").append(hash);
+    builder.append("]");
+
+    return builder.toString();
+  }
+
+}
\ No newline at end of file
@@ -17,6 +17,7 @@ public class HashRequest {
   private boolean hiddenFiles;
   private String  id;
   private String  path;
+  private int     priority;
   private boolean recursive;
   private boolean reHashExisting;
 
@@ -48,6 +49,15 @@ public class HashRequest {
     return path;
   }
 
+  /**
+   * Requests with a higher priority are processed first.
+   * 
+   * @return
+   */
+  public int getPriority() {
+    return priority;
+  }
+
   public boolean isRecursive() {
     return recursive;
   }
@@ -80,6 +90,10 @@ public class HashRequest {
     this.path = path;
   }
 
+  public void setPriority(int priority) {
+    this.priority = priority;
+  }
+
   public void setRecursive(boolean recursive) {
     this.recursive = recursive;
   }
@@ -102,7 +116,7 @@ public class HashRequest {
     if (hashType != null)
       builder.append("hashType=").append(hashType).append(", ");
     builder.append("hiddenDirectories=").append(hiddenDirectories).append(", hiddenFiles=").append(hiddenFiles)
-        .append(", recursive=").append(recursive).append(", reHashExisting=").append(reHashExisting).append("]");
+        .append(", priority=").append(priority).append(", recursive=").append(recursive).append(", reHashExisting=").append(reHashExisting).append("]");
 
     return builder.toString();
   }
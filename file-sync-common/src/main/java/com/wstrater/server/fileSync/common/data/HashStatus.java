@@ -1,12 +1,31 @@
 package com.wstrater.server.fileSync.common.data;
 
+/**
+ * The state of a {@link HashRequest}. The progress is sampled as the files are hashed rather than
+ * kept up to date with every read. The version goes up every time the status changes so a caller
+ * waiting for a change can tell if it has missed one. The rate shows how hashing is being throttled
+ * when the progress was sampled.
+ * 
+ * @author wstrater
+ *
+ */
 public class HashStatus {
 
+  private long        bytesHashed;
   private boolean     done;
   private boolean     failed;
   private String      failureMessage;
+  private String      fileName;
+  private int         filesHashed;
+  private long        rate;
   private HashRequest request;
   private boolean     started;
+  private boolean     throttled;
+  private long        version;
+
+  public long getBytesHashed() {
+    return bytesHashed;
+  }
 
   public boolean isDone() {
     return done;
@@ -20,6 +39,28 @@ public class HashStatus {
     return failureMessage;
   }
 
+  /**
+   * The file being hashed when the progress was last sampled.
+   * 
+   * @return
+   */
+  public String getFileName() {
+    return fileName;
+  }
+
+  public int getFilesHashed() {
+    return filesHashed;
+  }
+
+  /**
+   * The bytes per second hashing was held to.
+   * 
+   * @return Zero for no limit.
+   */
+  public long getRate() {
+    return rate;
+  }
+
   public HashRequest getRequest() {
     return request;
   }
@@ -28,6 +69,23 @@ public class HashStatus {
     return started;
   }
 
+  /**
+   * Was hashing backing off for blocks being read or written?
+   * 
+   * @return
+   */
+  public boolean isThrottled() {
+    return throttled;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  public void setBytesHashed(long bytesHashed) {
+    this.bytesHashed = bytesHashed;
+  }
+
   public void setDone(boolean done) {
     this.done = done;
   }
@@ -40,6 +98,18 @@ public class HashStatus {
     this.failureMessage = failureMessage;
   }
 
+  public void setFileName(String fileName) {
+    this.fileName = fileName;
+  }
+
+  public void setFilesHashed(int filesHashed) {
+    this.filesHashed = filesHashed;
+  }
+
+  public void setRate(long rate) {
+    this.rate = rate;
+  }
+
   public void setRequest(HashRequest request) {
     this.request = request;
   }
@@ -48,6 +118,14 @@ public class HashStatus {
     this.started = started;
   }
 
+  public void setThrottled(boolean throttled) {
+    this.throttled = throttled;
+  }
+
+  public void setVersion(long version) {
+    this.version = version;
+  }
+
   @Override
   public String toString() {
     StringBuilder builder = new StringBuilder();
@@ -55,7 +133,11 @@ public class HashStatus {
     builder.append("HashStatus [started=").append(started).append(", failed=").append(failed).append(", ");
     if (failureMessage != null)
       builder.append("failureMessage=").append(failureMessage).append(", ");
-    builder.append("done=").append(done).append(", ");
+    builder.append("done=").append(done).append(", filesHashed=").append(filesHashed).append(", bytesHashed=")
+        .append(bytesHashed).append(", version=").append(version).append(", rate=").append(rate).append(", throttled=")
+        .append(throttled).append(", ");
+    if (fileName != null)
+      builder.append("fileName=").append(fileName).append(", ");
     if (request != null)
       builder.append("request=").append(request);
     builder.append("]");
@@ -0,0 +1,207 @@
+package com.wstrater.server.fileSync.common.data;
+
+import java.util.Arrays;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * The leaves of a Merkle tree over the chunks of a file as laid out by {@link ChunkInfo}. Each leaf
+ * is the hash of one chunk. The nodes above the leaves are calculated by
+ * {@link com.wstrater.server.fileSync.common.utils.HashTreeUtils} as needed. A tree may only hold
+ * the leaves of some of the chunks starting at <code>first</code>.
+ *
+ * @author wstrater
+ *
+ */
+public class HashTree {
+
+  private int    blockSize;
+  private int    chunkSize;
+  private int    count;
+  private int    first;
+  private String hashType;
+  private byte[] leaves;
+  private long   length;
+  private int    numChunks;
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * The number of leaves in the tree.
+   *
+   * @return
+   */
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * The length of each leaf.
+   *
+   * @return
+   */
+  @JsonIgnore
+  public int getDigestLength() {
+    return count > 0 && leaves != null ? leaves.length / count : 0;
+  }
+
+  /**
+   * The index of the chunk of the first leaf.
+   *
+   * @return
+   */
+  public int getFirst() {
+    return first;
+  }
+
+  public String getHashType() {
+    return hashType;
+  }
+
+  /**
+   * Get the leaf of a chunk.
+   *
+   * @param chunkIndex
+   * @return Null if the chunk is not in the tree.
+   */
+  @JsonIgnore
+  public byte[] getLeaf(int chunkIndex) {
+    byte[] ret = null;
+
+    if (chunkIndex >= first && chunkIndex < first + count && leaves != null) {
+      int digestLength = getDigestLength();
+      int offset = (chunkIndex - first) * digestLength;
+      ret = Arrays.copyOfRange(leaves, offset, offset + digestLength);
+    }
+
+    return ret;
+  }
+
+  /**
+   * The leaves one after the other.
+   *
+   * @return
+   */
+  public byte[] getLeaves() {
+    return leaves;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * The number of chunks in the whole file.
+   *
+   * @return
+   */
+  public int getNumChunks() {
+    return numChunks;
+  }
+
+  /**
+   * Can the leaves be compared with the leaves of another tree? The chunks must be hashed the same
+   * way and be the same size.
+   *
+   * @param other
+   * @return
+   */
+  @JsonIgnore
+  public boolean isComparable(HashTree other) {
+    return other != null && hashType != null && hashType.equals(other.hashType) && blockSize == other.blockSize
+        && chunkSize == other.chunkSize;
+  }
+
+  /**
+   * Does the tree hold a leaf for every chunk of the file?
+   *
+   * @return
+   */
+  @JsonIgnore
+  public boolean isComplete() {
+    return first == 0 && count == numChunks;
+  }
+
+  public void setBlockSize(int blockSize) {
+    this.blockSize = blockSize;
+  }
+
+  public void setChunkSize(int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  public void setCount(int count) {
+    this.count = count;
+  }
+
+  public void setFirst(int first) {
+    this.first = first;
+  }
+
+  public void setHashType(String hashType) {
+    this.hashType = hashType;
+  }
+
+  public void setLeaves(byte[] leaves) {
+    this.leaves = leaves;
+  }
+
+  public void setLength(long length) {
+    this.length = length;
+  }
+
+  public void setNumChunks(int numChunks) {
+    this.numChunks = numChunks;
+  }
+
+  /**
+   * The leaves of some of the chunks.
+   *
+   * @param first
+   * @param count
+   * @return
+   */
+  public HashTree subtree(int first, int count) {
+    HashTree ret = new HashTree();
+
+    int start = Math.max(first, this.first);
+    int end = Math.min(first + count, this.first + this.count);
+
+    ret.setBlockSize(blockSize);
+    ret.setChunkSize(chunkSize);
+    ret.setFirst(start);
+    ret.setCount(Math.max(end - start, 0));
+    ret.setHashType(hashType);
+    ret.setLength(length);
+    ret.setNumChunks(numChunks);
+    if (leaves != null && end > start) {
+      int digestLength = getDigestLength();
+      ret.setLeaves(Arrays.copyOfRange(leaves, (start - this.first) * digestLength, (end - this.first) * digestLength));
+    } else {
+      ret.setLeaves(new byte[0]);
+    }
+
+    return ret;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("HashTree [");
+    if (hashType != null)
+      builder.append("hashType=").append(hashType).append(", ");
+    builder.append("length=").append(length).append(", blockSize=").append(blockSize).append(", chunkSize=").append(chunkSize)
+        .append(", numChunks=").append(numChunks).append(", first=").append(first).append(", count=").append(count);
+    builder.append("]");
+
+    return builder.toString();
+  }
+
+}
@@ -1,6 +1,12 @@
 package com.wstrater.server.fileSync.common.data;
 
+import java.util.Collections;
 import java.util.Date;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import com.wstrater.server.fileSync.common.utils.Compare;
 import com.wstrater.server.fileSync.common.utils.AccessUtils.Access;
@@ -13,13 +19,26 @@ import com.wstrater.server.fileSync.common.utils.AccessUtils.Access;
  */
 public class IndexInfo implements Comparable<IndexInfo>, InfoItem {
 
-  private byte      access;
-  private ChunkInfo chunkInfo;
-  private String    hash;
-  private String    hashType;
-  private Long      lastModified;
-  private Long      length;
-  private String    name;
+  private byte                access;
+  private ChunkInfo           chunkInfo;
+  private Boolean             compressible;
+  private String              hash;
+  private Map<String, String> hashes;
+  private HashTree            hashTree;
+  private String              hashType;
+  private Long                lastModified;
+  private Long                length;
+  private String              name;
+
+  /**
+   * Forget every hash of the file including the {@link HashTree}.
+   */
+  public void clearHashes() {
+    hash = null;
+    hashType = null;
+    hashes = null;
+    hashTree = null;
+  }
 
   @Override
   public int compareTo(IndexInfo that) {
@@ -42,14 +61,79 @@ public class IndexInfo implements Comparable<IndexInfo>, InfoItem {
     return chunkInfo;
   }
 
+  /**
+   * Whether the start of the file looked compressible when it was hashed.
+   * 
+   * @return Null if not known.
+   */
+  public Boolean getCompressible() {
+    return compressible;
+  }
+
   public String getHash() {
     return hash;
   }
 
+  /**
+   * Get the hash of the file made with a hash type.
+   * 
+   * @param hashType
+   * @return Null if the file has not been hashed with the hash type.
+   */
+  public String getHash(String hashType) {
+    String ret = null;
+
+    if (hashType != null) {
+      if (hashType.equals(this.hashType)) {
+        ret = hash;
+      } else if (hashes != null) {
+        ret = hashes.get(hashType);
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Get the hashes other than the one from {@link #getHash()}.
+   * 
+   * @return The hashes keyed by hash type.
+   */
+  public Map<String, String> getHashes() {
+    return hashes == null ? Collections.<String, String> emptyMap() : Collections.unmodifiableMap(hashes);
+  }
+
+  /**
+   * The hashes of the chunks of the file when it was last hashed.
+   * 
+   * @return Null if not known.
+   */
+  public HashTree getHashTree() {
+    return hashTree;
+  }
+
   public String getHashType() {
     return hashType;
   }
 
+  /**
+   * Get every hash type the file has a hash for.
+   * 
+   * @return
+   */
+  public Set<String> getHashTypes() {
+    Set<String> ret = new TreeSet<>();
+
+    if (hashType != null && hash != null) {
+      ret.add(hashType);
+    }
+    if (hashes != null) {
+      ret.addAll(hashes.keySet());
+    }
+
+    return ret;
+  }
+
   public Long getLastModified() {
     return lastModified;
   }
@@ -72,6 +156,43 @@ public class IndexInfo implements Comparable<IndexInfo>, InfoItem {
     return name;
   }
 
+  /**
+   * Add or replace the hash for a hash type. The first hash becomes the one from
+   * {@link #getHash()}.
+   * 
+   * @param hashType
+   * @param hash
+   */
+  public void putHash(String hashType, String hash) {
+    if (hashType != null && hash != null) {
+      if (this.hash == null || this.hashType == null || hashType.equals(this.hashType)) {
+        this.hashType = hashType;
+        this.hash = hash;
+        if (hashes != null) {
+          hashes.remove(hashType);
+        }
+      } else {
+        if (hashes == null) {
+          hashes = new TreeMap<>();
+        }
+        hashes.put(hashType, hash);
+      }
+    }
+  }
+
+  /**
+   * Add or replace several hashes.
+   * 
+   * @param hashes Keyed by hash type.
+   */
+  public void putHashes(Map<String, String> hashes) {
+    if (hashes != null) {
+      for (Entry<String, String> entry : hashes.entrySet()) {
+        putHash(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
   public void setAccess(byte access) {
     this.access = access;
   }
@@ -80,10 +201,18 @@ public class IndexInfo implements Comparable<IndexInfo>, InfoItem {
     this.chunkInfo = chunkInfo;
   }
 
+  public void setCompressible(Boolean compressible) {
+    this.compressible = compressible;
+  }
+
   public void setHash(String hash) {
     this.hash = hash;
   }
 
+  public void setHashTree(HashTree hashTree) {
+    this.hashTree = hashTree;
+  }
+
   public void setHashType(String hashType) {
     this.hashType = hashType;
   }
@@ -116,6 +245,12 @@ public class IndexInfo implements Comparable<IndexInfo>, InfoItem {
       builder.append("hashType=").append(hashType).append(", ");
     if (hash != null)
       builder.append("hash=").append(hash).append(", ");
+    if (hashes != null)
+      builder.append("hashes=").append(hashes).append(", ");
+    if (hashTree != null)
+      builder.append("hashTree=").append(hashTree).append(", ");
+    if (compressible != null)
+      builder.append("compressible=").append(compressible).append(", ");
     if (chunkInfo != null)
       builder.append("chunkInfo=").append(chunkInfo);
     builder.append("]");
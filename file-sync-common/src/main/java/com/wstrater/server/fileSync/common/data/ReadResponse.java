@@ -12,7 +12,10 @@ public class ReadResponse {
   private long        crc32;
   private byte[]      data;
   private boolean     eof;
+  private String      hash;
+  private String      hashType;
   private int         length;
+  private boolean     pooled;
   private ReadRequest request;
   private boolean     success;
 
@@ -28,10 +31,32 @@ public class ReadResponse {
     return eof;
   }
 
+  /**
+   * The hash of the whole file if every block was read in order. Only set for the last block.
+   * 
+   * @return Null if the file was not hashed as it was read.
+   */
+  public String getHash() {
+    return hash;
+  }
+
+  public String getHashType() {
+    return hashType;
+  }
+
   public int getLength() {
     return length;
   }
 
+  /**
+   * The data was taken from the buffer pool and should be released once it has been written.
+   * 
+   * @return
+   */
+  public boolean isPooled() {
+    return pooled;
+  }
+
   public ReadRequest getRequest() {
     return request;
   }
@@ -52,10 +77,22 @@ public class ReadResponse {
     this.eof = eof;
   }
 
+  public void setHash(String hash) {
+    this.hash = hash;
+  }
+
+  public void setHashType(String hashType) {
+    this.hashType = hashType;
+  }
+
   public void setLength(int length) {
     this.length = length;
   }
 
+  public void setPooled(boolean pooled) {
+    this.pooled = pooled;
+  }
+
   public void setRequest(ReadRequest request) {
     this.request = request;
   }
@@ -71,7 +108,13 @@ public class ReadResponse {
     builder.append("ReadResponse [crc32=").append(crc32).append(", ");
     if (data != null)
       builder.append("data=").append(data.length).append(", ");
-    builder.append("eof=").append(eof).append(", length=").append(length).append(", success=").append(success).append(", ");
+    builder.append("eof=").append(eof).append(", ");
+    if (hash != null)
+      builder.append("hash=").append(hash).append(", ");
+    if (hashType != null)
+      builder.append("hashType=").append(hashType).append(", ");
+    builder.append("length=").append(length).append(", pooled=").append(pooled).append(", success=")
+        .append(success).append(", ");
     if (request != null)
       builder.append("request=").append(request);
     builder.append("]");
@@ -0,0 +1,77 @@
+package com.wstrater.server.fileSync.common.data;
+
+import java.io.File;
+
+/**
+ * A request for the {@link FileSignature} of a file. The blocks are hashed at
+ * <code>blockSize</code>. Only the hash of the whole file is returned when <code>hashOnly</code>.
+ * 
+ * @author wstrater
+ *
+ */
+public class SignatureRequest {
+
+  private File    baseDir;
+  private int     blockSize;
+  private String  fileName;
+  private boolean hashOnly;
+  private String  hashType;
+
+  public File getBaseDir() {
+    return baseDir;
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  public String getHashType() {
+    return hashType;
+  }
+
+  public boolean isHashOnly() {
+    return hashOnly;
+  }
+
+  public void setBaseDir(File baseDir) {
+    this.baseDir = baseDir;
+  }
+
+  public void setBlockSize(int blockSize) {
+    this.blockSize = blockSize;
+  }
+
+  public void setFileName(String fileName) {
+    this.fileName = fileName;
+  }
+
+  public void setHashOnly(boolean hashOnly) {
+    this.hashOnly = hashOnly;
+  }
+
+  public void setHashType(String hashType) {
+    this.hashType = hashType;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("SignatureRequest [");
+    if (baseDir != null)
+      builder.append("baseDir=").append(baseDir).append(", ");
+    if (fileName != null)
+      builder.append("fileName=").append(fileName).append(", ");
+    builder.append("blockSize=").append(blockSize).append(", hashOnly=").append(hashOnly).append(", ");
+    if (hashType != null)
+      builder.append("hashType=").append(hashType);
+    builder.append("]");
+
+    return builder.toString();
+  }
+
+}
\ No newline at end of file
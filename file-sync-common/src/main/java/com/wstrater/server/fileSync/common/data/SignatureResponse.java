@@ -0,0 +1,53 @@
+package com.wstrater.server.fileSync.common.data;
+
+/**
+ * The response of a {@see SignatureRequest}
+ * 
+ * @author wstrater
+ *
+ */
+public class SignatureResponse {
+
+  private SignatureRequest request;
+  private FileSignature    signature;
+  private boolean          success;
+
+  public SignatureRequest getRequest() {
+    return request;
+  }
+
+  public FileSignature getSignature() {
+    return signature;
+  }
+
+  public boolean isSuccess() {
+    return success;
+  }
+
+  public void setRequest(SignatureRequest request) {
+    this.request = request;
+  }
+
+  public void setSignature(FileSignature signature) {
+    this.signature = signature;
+  }
+
+  public void setSuccess(boolean success) {
+    this.success = success;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("SignatureResponse [success=").append(success).append(", ");
+    if (signature != null)
+      builder.append("signature=").append(signature).append(", ");
+    if (request != null)
+      builder.append("request=").append(request);
+    builder.append("]");
+
+    return builder.toString();
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,129 @@
+package com.wstrater.server.fileSync.common.data;
+
+import java.io.File;
+
+/**
+ * A request to stream a file, or the part of a file starting at an offset, as a series of blocks.
+ * A checkpoint is sent after every <code>chunkSize</code> blocks so progress can be recorded in the
+ * {@link ChunkInfo}.
+ * 
+ * @author wstrater
+ *
+ */
+public class StreamRequest {
+
+  private File    baseDir;
+  private int     blockSize;
+  private int     chunkSize;
+  private boolean eof;
+  private String  fileName;
+  private long    length = -1L;
+  private int     level;
+  private long    offset;
+  private long    timeStamp;
+
+  public File getBaseDir() {
+    return baseDir;
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  /**
+   * The number of bytes to read. Negative reads to the end of the file.
+   * 
+   * @return
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * The level the blocks are deflated at when reading. Zero to not deflate. The blocks are deflated
+   * as one stream so each block can use the blocks before it as a dictionary.
+   * 
+   * @return
+   */
+  public int getLevel() {
+    return level;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public long getTimeStamp() {
+    return timeStamp;
+  }
+
+  /**
+   * Truncate the file at the end of the stream when writing.
+   * 
+   * @return
+   */
+  public boolean isEof() {
+    return eof;
+  }
+
+  public void setBaseDir(File baseDir) {
+    this.baseDir = baseDir;
+  }
+
+  public void setBlockSize(int blockSize) {
+    this.blockSize = blockSize;
+  }
+
+  public void setChunkSize(int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  public void setEof(boolean eof) {
+    this.eof = eof;
+  }
+
+  public void setFileName(String fileName) {
+    this.fileName = fileName;
+  }
+
+  public void setLength(long length) {
+    this.length = length;
+  }
+
+  public void setLevel(int level) {
+    this.level = level;
+  }
+
+  public void setOffset(long offset) {
+    this.offset = offset;
+  }
+
+  public void setTimeStamp(long timeStamp) {
+    this.timeStamp = timeStamp;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("StreamRequest [");
+    if (baseDir != null)
+      builder.append("baseDir=").append(baseDir).append(", ");
+    if (fileName != null)
+      builder.append("fileName=").append(fileName).append(", ");
+    builder.append("offset=").append(offset).append(", length=").append(length).append(", blockSize=").append(blockSize)
+        .append(", chunkSize=").append(chunkSize).append(", level=").append(level).append(", eof=").append(eof).append(", timeStamp=").append(timeStamp)
+        .append("]");
+
+    return builder.toString();
+  }
+
+}
\ No newline at end of file
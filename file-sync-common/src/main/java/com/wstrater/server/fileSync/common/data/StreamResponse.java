@@ -0,0 +1,66 @@
+package com.wstrater.server.fileSync.common.data;
+
+/**
+ * The response to writing a {@see StreamRequest}.
+ * 
+ * @author wstrater
+ *
+ */
+public class StreamResponse {
+
+  private long          checkpoint;
+  private long          length;
+  private StreamRequest request;
+  private boolean       success;
+
+  /**
+   * The offset of the end of the last block verified by a checkpoint.
+   * 
+   * @return
+   */
+  public long getCheckpoint() {
+    return checkpoint;
+  }
+
+  public long getLength() {
+    return length;
+  }
+
+  public StreamRequest getRequest() {
+    return request;
+  }
+
+  public boolean isSuccess() {
+    return success;
+  }
+
+  public void setCheckpoint(long checkpoint) {
+    this.checkpoint = checkpoint;
+  }
+
+  public void setLength(long length) {
+    this.length = length;
+  }
+
+  public void setRequest(StreamRequest request) {
+    this.request = request;
+  }
+
+  public void setSuccess(boolean success) {
+    this.success = success;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("StreamResponse [checkpoint=").append(checkpoint).append(", length=").append(length).append(", success=")
+        .append(success).append(", ");
+    if (request != null)
+      builder.append("request=").append(request);
+    builder.append("]");
+
+    return builder.toString();
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,98 @@
+package com.wstrater.server.fileSync.common.data;
+
+import java.io.File;
+
+/**
+ * A request for the {@link HashTree} of a file. The chunks are laid out by <code>blockSize</code>
+ * and <code>chunkSize</code> so the trees of two copies of different lengths can be compared. The
+ * chunk size of the file's own {@link ChunkInfo} is used if it is not given. Only the leaves from
+ * <code>first</code> are returned when <code>count</code> is given.
+ * 
+ * @author wstrater
+ *
+ */
+public class TreeRequest {
+
+  private File   baseDir;
+  private int    blockSize;
+  private int    chunkSize;
+  private int    count;
+  private String fileName;
+  private int    first;
+  private String hashType;
+
+  public File getBaseDir() {
+    return baseDir;
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  public int getFirst() {
+    return first;
+  }
+
+  public String getHashType() {
+    return hashType;
+  }
+
+  public void setBaseDir(File baseDir) {
+    this.baseDir = baseDir;
+  }
+
+  public void setBlockSize(int blockSize) {
+    this.blockSize = blockSize;
+  }
+
+  public void setChunkSize(int chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  public void setCount(int count) {
+    this.count = count;
+  }
+
+  public void setFileName(String fileName) {
+    this.fileName = fileName;
+  }
+
+  public void setFirst(int first) {
+    this.first = first;
+  }
+
+  public void setHashType(String hashType) {
+    this.hashType = hashType;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("TreeRequest [");
+    if (baseDir != null)
+      builder.append("baseDir=").append(baseDir).append(", ");
+    if (fileName != null)
+      builder.append("fileName=").append(fileName).append(", ");
+    builder.append("blockSize=").append(blockSize).append(", chunkSize=").append(chunkSize).append(", first=").append(first)
+        .append(", count=").append(count).append(", ");
+    if (hashType != null)
+      builder.append("hashType=").append(hashType);
+    builder.append("]");
+
+    return builder.toString();
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,53 @@
+package com.wstrater.server.fileSync.common.data;
+
+/**
+ * The response of a {@see TreeRequest}
+ * 
+ * @author wstrater
+ *
+ */
+public class TreeResponse {
+
+  private TreeRequest request;
+  private boolean     success;
+  private HashTree    tree;
+
+  public TreeRequest getRequest() {
+    return request;
+  }
+
+  public HashTree getTree() {
+    return tree;
+  }
+
+  public boolean isSuccess() {
+    return success;
+  }
+
+  public void setRequest(TreeRequest request) {
+    this.request = request;
+  }
+
+  public void setSuccess(boolean success) {
+    this.success = success;
+  }
+
+  public void setTree(HashTree tree) {
+    this.tree = tree;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("TreeResponse [success=").append(success).append(", ");
+    if (tree != null)
+      builder.append("tree=").append(tree).append(", ");
+    if (request != null)
+      builder.append("request=").append(request);
+    builder.append("]");
+
+    return builder.toString();
+  }
+
+}
\ No newline at end of file
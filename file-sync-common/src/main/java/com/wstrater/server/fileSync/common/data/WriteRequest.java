@@ -14,8 +14,11 @@ public class WriteRequest {
   private byte[]  data;
   private boolean eof;
   private String  fileName;
+  private String  hash;
+  private String  hashType;
   private int     length;
   private long    offset;
+  private boolean pooled;
   private long    timeStamp;
 
   public File getBaseDir() {
@@ -34,6 +37,20 @@ public class WriteRequest {
     return fileName;
   }
 
+  /**
+   * The hash of the whole file as it was read. Only sent with the EOF request so the file written can
+   * be checked against it.
+   * 
+   * @return
+   */
+  public String getHash() {
+    return hash;
+  }
+
+  public String getHashType() {
+    return hashType;
+  }
+
   public int getLength() {
     return length;
   }
@@ -42,6 +59,15 @@ public class WriteRequest {
     return offset;
   }
 
+  /**
+   * The data was taken from the buffer pool and should be released once it has been written.
+   * 
+   * @return
+   */
+  public boolean isPooled() {
+    return pooled;
+  }
+
   public long getTimeStamp() {
     return timeStamp;
   }
@@ -62,6 +88,14 @@ public class WriteRequest {
     this.fileName = fileName;
   }
 
+  public void setHash(String hash) {
+    this.hash = hash;
+  }
+
+  public void setHashType(String hashType) {
+    this.hashType = hashType;
+  }
+
   public void setLength(int length) {
     this.length = length;
   }
@@ -70,6 +104,10 @@ public class WriteRequest {
     this.offset = offset;
   }
 
+  public void setPooled(boolean pooled) {
+    this.pooled = pooled;
+  }
+
   public void setTimeStamp(long timeStamp) {
     this.timeStamp = timeStamp;
   }
@@ -85,8 +123,12 @@ public class WriteRequest {
       builder.append("fileName=").append(fileName).append(", ");
     if (data != null)
       builder.append("data=").append(data.length).append(", ");
-    builder.append("eof=").append(eof).append(", length=").append(length).append(", offset=").append(offset).append(", timeStamp=")
-        .append(timeStamp).append("]");
+    if (hash != null)
+      builder.append("hash=").append(hash).append(", ");
+    if (hashType != null)
+      builder.append("hashType=").append(hashType).append(", ");
+    builder.append("eof=").append(eof).append(", length=").append(length).append(", offset=").append(offset).append(", pooled=")
+        .append(pooled).append(", timeStamp=").append(timeStamp).append("]");
 
     return builder.toString();
   }
@@ -9,6 +9,8 @@ package com.wstrater.server.fileSync.common.data;
 public class WriteResponse {
 
   private long         crc32;
+  private String       hash;
+  private String       hashType;
   private int          length;
   private WriteRequest request;
   private boolean      success;
@@ -17,6 +19,19 @@ public class WriteResponse {
     return crc32;
   }
 
+  /**
+   * The hash of the whole file if every block was written in order. Only set for the EOF request.
+   * 
+   * @return Null if the file was not hashed as it was written.
+   */
+  public String getHash() {
+    return hash;
+  }
+
+  public String getHashType() {
+    return hashType;
+  }
+
   public int getLength() {
     return length;
   }
@@ -33,6 +48,14 @@ public class WriteResponse {
     this.crc32 = crc32;
   }
 
+  public void setHash(String hash) {
+    this.hash = hash;
+  }
+
+  public void setHashType(String hashType) {
+    this.hashType = hashType;
+  }
+
   public void setLength(int length) {
     this.length = length;
   }
@@ -49,8 +72,12 @@ public class WriteResponse {
   public String toString() {
     StringBuilder builder = new StringBuilder();
 
-    builder.append("WriteResponse [crc32=").append(crc32).append(", length=").append(length).append(", success=").append(success)
-        .append(", ");
+    builder.append("WriteResponse [crc32=").append(crc32).append(", ");
+    if (hash != null)
+      builder.append("hash=").append(hash).append(", ");
+    if (hashType != null)
+      builder.append("hashType=").append(hashType).append(", ");
+    builder.append("length=").append(length).append(", success=").append(success).append(", ");
     if (request != null)
       builder.append("request=").append(request);
     builder.append("]");
@@ -0,0 +1,11 @@
+package com.wstrater.server.fileSync.common.exceptions;
+
+public class DictionaryNotFoundException extends FileSyncException {
+
+  private static final long serialVersionUID = 20150704L;
+
+  public DictionaryNotFoundException(String message) {
+    super(message);
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,11 @@
+package com.wstrater.server.fileSync.common.exceptions;
+
+public class InvalidChecksumTypeException extends FileSyncException {
+
+  private static final long serialVersionUID = 20150704L;
+
+  public InvalidChecksumTypeException(String message) {
+    super(message);
+  }
+
+}
\ No newline at end of file
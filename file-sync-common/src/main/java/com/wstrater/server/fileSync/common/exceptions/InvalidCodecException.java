@@ -0,0 +1,11 @@
+package com.wstrater.server.fileSync.common.exceptions;
+
+public class InvalidCodecException extends FileSyncException {
+
+  private static final long serialVersionUID = 20150704L;
+
+  public InvalidCodecException(String message) {
+    super(message);
+  }
+
+}
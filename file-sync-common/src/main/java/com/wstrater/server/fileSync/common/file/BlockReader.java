@@ -1,7 +1,16 @@
 package com.wstrater.server.fileSync.common.file;
 
+import java.io.InputStream;
+import java.util.List;
+
+import com.wstrater.server.fileSync.common.data.DeltaRequest;
 import com.wstrater.server.fileSync.common.data.ReadRequest;
 import com.wstrater.server.fileSync.common.data.ReadResponse;
+import com.wstrater.server.fileSync.common.data.SignatureRequest;
+import com.wstrater.server.fileSync.common.data.SignatureResponse;
+import com.wstrater.server.fileSync.common.data.StreamRequest;
+import com.wstrater.server.fileSync.common.data.TreeRequest;
+import com.wstrater.server.fileSync.common.data.TreeResponse;
 
 /**
  * This interface represents reading a block from a file. It either encapsulates a local
@@ -14,4 +23,47 @@ public interface BlockReader {
 
   public ReadResponse readBlock(ReadRequest request);
 
+  /**
+   * Read several blocks of one file at once. There may be fewer responses than requests if the
+   * batch was too large. The rest need to be requested again.
+   * 
+   * @param requests
+   * @return
+   */
+  public List<ReadResponse> readBlocks(List<ReadRequest> requests);
+
+  /**
+   * Read a file as the instructions that rebuild it from the blocks of the older copy described by
+   * the signature of the request. Be sure to close the stream.
+   * 
+   * @param request
+   * @return
+   */
+  public InputStream readDelta(DeltaRequest request);
+
+  /**
+   * Read the CRC32 and hash of every block of a file along with the hash of the whole file.
+   * 
+   * @param request
+   * @return
+   */
+  public SignatureResponse readSignature(SignatureRequest request);
+
+  /**
+   * Read the blocks of a file starting at an offset as one stream of frames with checkpoints. Be
+   * sure to close the stream.
+   * 
+   * @param request
+   * @return
+   */
+  public InputStream readStream(StreamRequest request);
+
+  /**
+   * Read the hashes of some or all of the chunks of a file.
+   * 
+   * @param request
+   * @return
+   */
+  public TreeResponse readTree(TreeRequest request);
+
 }
\ No newline at end of file
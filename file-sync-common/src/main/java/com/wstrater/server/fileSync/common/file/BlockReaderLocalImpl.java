@@ -1,7 +1,16 @@
 package com.wstrater.server.fileSync.common.file;
 
+import java.io.InputStream;
+import java.util.List;
+
+import com.wstrater.server.fileSync.common.data.DeltaRequest;
 import com.wstrater.server.fileSync.common.data.ReadRequest;
 import com.wstrater.server.fileSync.common.data.ReadResponse;
+import com.wstrater.server.fileSync.common.data.SignatureRequest;
+import com.wstrater.server.fileSync.common.data.SignatureResponse;
+import com.wstrater.server.fileSync.common.data.StreamRequest;
+import com.wstrater.server.fileSync.common.data.TreeRequest;
+import com.wstrater.server.fileSync.common.data.TreeResponse;
 import com.wstrater.server.fileSync.common.utils.FileUtils;
 
 public class BlockReaderLocalImpl implements BlockReader {
@@ -11,4 +20,29 @@ public class BlockReaderLocalImpl implements BlockReader {
     return FileUtils.readBlock(request);
   }
 
+  @Override
+  public List<ReadResponse> readBlocks(List<ReadRequest> requests) {
+    return FileUtils.readBlocks(requests);
+  }
+
+  @Override
+  public InputStream readDelta(DeltaRequest request) {
+    return FileUtils.readDelta(request);
+  }
+
+  @Override
+  public SignatureResponse readSignature(SignatureRequest request) {
+    return FileUtils.readSignature(request);
+  }
+
+  @Override
+  public InputStream readStream(StreamRequest request) {
+    return FileUtils.readStream(request);
+  }
+
+  @Override
+  public TreeResponse readTree(TreeRequest request) {
+    return FileUtils.readTree(request);
+  }
+
 }
\ No newline at end of file
@@ -1,7 +1,14 @@
 package com.wstrater.server.fileSync.common.file;
 
+import java.io.InputStream;
+import java.util.List;
+
 import com.wstrater.server.fileSync.common.data.DeleteRequest;
 import com.wstrater.server.fileSync.common.data.DeleteResponse;
+import com.wstrater.server.fileSync.common.data.DeltaRequest;
+import com.wstrater.server.fileSync.common.data.DeltaResponse;
+import com.wstrater.server.fileSync.common.data.StreamRequest;
+import com.wstrater.server.fileSync.common.data.StreamResponse;
 import com.wstrater.server.fileSync.common.data.WriteRequest;
 import com.wstrater.server.fileSync.common.data.WriteResponse;
 
@@ -18,4 +25,34 @@ public interface BlockWriter {
 
   public WriteResponse writeBlock(WriteRequest request);
 
+  /**
+   * Write several blocks of one file at once. There may be fewer responses than requests if the
+   * batch was too large. The rest need to be sent again.
+   * 
+   * @param requests
+   * @return
+   */
+  public List<WriteResponse> writeBlocks(List<WriteRequest> requests);
+
+  /**
+   * Rebuild a file from a stream read by {@link BlockReader#readDelta(DeltaRequest)}. The file is
+   * only replaced once the whole delta is written and verified.
+   * 
+   * @param request
+   * @param in
+   * @return
+   */
+  public DeltaResponse writeDelta(DeltaRequest request, InputStream in);
+
+  /**
+   * Write a stream read by {@link BlockReader#readStream(StreamRequest)}. The listener is notified
+   * at each checkpoint once the blocks before it are written and verified.
+   * 
+   * @param request
+   * @param in
+   * @param listener Optional
+   * @return
+   */
+  public StreamResponse writeStream(StreamRequest request, InputStream in, StreamListener listener);
+
 }
\ No newline at end of file
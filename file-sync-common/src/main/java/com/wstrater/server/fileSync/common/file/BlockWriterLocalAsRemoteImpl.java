@@ -1,7 +1,14 @@
 package com.wstrater.server.fileSync.common.file;
 
+import java.io.InputStream;
+import java.util.List;
+
 import com.wstrater.server.fileSync.common.data.DeleteRequest;
 import com.wstrater.server.fileSync.common.data.DeleteResponse;
+import com.wstrater.server.fileSync.common.data.DeltaRequest;
+import com.wstrater.server.fileSync.common.data.DeltaResponse;
+import com.wstrater.server.fileSync.common.data.StreamRequest;
+import com.wstrater.server.fileSync.common.data.StreamResponse;
 import com.wstrater.server.fileSync.common.data.WriteRequest;
 import com.wstrater.server.fileSync.common.data.WriteResponse;
 import com.wstrater.server.fileSync.common.utils.FilePermissions;
@@ -26,7 +33,7 @@ public class BlockWriterLocalAsRemoteImpl extends BlockWriterLocalImpl {
 
       ret = super.deleteFile(request);
     } finally {
-      FileUtils.setPermissions(permissions);
+      FileUtils.setThreadPermissions(null);
     }
 
     return ret;
@@ -38,7 +45,7 @@ public class BlockWriterLocalAsRemoteImpl extends BlockWriterLocalImpl {
    * @param permissions
    */
   private void swapPermissions(FilePermissions permissions) {
-    FileUtils.setPermissions(new FilePermissions(permissions.isRemoteDelete(), permissions.isRemoteWrite(), permissions
+    FileUtils.setThreadPermissions(new FilePermissions(permissions.isRemoteDelete(), permissions.isRemoteWrite(), permissions
         .isLocalDelete(), permissions.isLocalWrite()));
   }
 
@@ -52,7 +59,55 @@ public class BlockWriterLocalAsRemoteImpl extends BlockWriterLocalImpl {
 
       ret = super.writeBlock(request);
     } finally {
-      FileUtils.setPermissions(permissions);
+      FileUtils.setThreadPermissions(null);
+    }
+
+    return ret;
+  }
+
+  @Override
+  public List<WriteResponse> writeBlocks(List<WriteRequest> requests) {
+    List<WriteResponse> ret;
+
+    FilePermissions permissions = FileUtils.getPermissions();
+    try {
+      swapPermissions(permissions);
+
+      ret = super.writeBlocks(requests);
+    } finally {
+      FileUtils.setThreadPermissions(null);
+    }
+
+    return ret;
+  }
+
+  @Override
+  public DeltaResponse writeDelta(DeltaRequest request, InputStream in) {
+    DeltaResponse ret;
+
+    FilePermissions permissions = FileUtils.getPermissions();
+    try {
+      swapPermissions(permissions);
+
+      ret = super.writeDelta(request, in);
+    } finally {
+      FileUtils.setThreadPermissions(null);
+    }
+
+    return ret;
+  }
+
+  @Override
+  public StreamResponse writeStream(StreamRequest request, InputStream in, StreamListener listener) {
+    StreamResponse ret;
+
+    FilePermissions permissions = FileUtils.getPermissions();
+    try {
+      swapPermissions(permissions);
+
+      ret = super.writeStream(request, in, listener);
+    } finally {
+      FileUtils.setThreadPermissions(null);
     }
 
     return ret;
@@ -1,7 +1,14 @@
 package com.wstrater.server.fileSync.common.file;
 
+import java.io.InputStream;
+import java.util.List;
+
 import com.wstrater.server.fileSync.common.data.DeleteRequest;
 import com.wstrater.server.fileSync.common.data.DeleteResponse;
+import com.wstrater.server.fileSync.common.data.DeltaRequest;
+import com.wstrater.server.fileSync.common.data.DeltaResponse;
+import com.wstrater.server.fileSync.common.data.StreamRequest;
+import com.wstrater.server.fileSync.common.data.StreamResponse;
 import com.wstrater.server.fileSync.common.data.WriteRequest;
 import com.wstrater.server.fileSync.common.data.WriteResponse;
 import com.wstrater.server.fileSync.common.utils.FileUtils;
@@ -18,4 +25,19 @@ public class BlockWriterLocalImpl implements BlockWriter {
     return FileUtils.writeBlock(request);
   }
 
+  @Override
+  public List<WriteResponse> writeBlocks(List<WriteRequest> requests) {
+    return FileUtils.writeBlocks(requests);
+  }
+
+  @Override
+  public DeltaResponse writeDelta(DeltaRequest request, InputStream in) {
+    return FileUtils.writeDelta(request, in);
+  }
+
+  @Override
+  public StreamResponse writeStream(StreamRequest request, InputStream in, StreamListener listener) {
+    return FileUtils.writeStream(request, in, listener);
+  }
+
 }
\ No newline at end of file
@@ -2,6 +2,8 @@ package com.wstrater.server.fileSync.common.file;
 
 import com.wstrater.server.fileSync.common.data.DirectoryDeleteRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryDeleteResponse;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestRequest;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestResponse;
 import com.wstrater.server.fileSync.common.data.DirectoryListRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryListResponse;
 import com.wstrater.server.fileSync.common.data.DirectoryMakeRequest;
@@ -13,6 +15,15 @@ public interface DirectoryLister {
 
   public DirectoryDeleteResponse deleteDirectory(DirectoryDeleteRequest request);
 
+  /**
+   * Get the rollup digest of a directory and the sub-directories within the levels requested, or
+   * every sub-directory if the levels are negative.
+   * 
+   * @param request
+   * @return
+   */
+  public DirectoryDigestResponse digestDirectory(DirectoryDigestRequest request);
+
   public DirectoryPermissionsResponse getPermissions(DirectoryPermissionsRequest request);
 
   public DirectoryListResponse listDirectory(DirectoryListRequest request);
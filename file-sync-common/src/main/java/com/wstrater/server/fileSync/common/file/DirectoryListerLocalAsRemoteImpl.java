@@ -2,6 +2,8 @@ package com.wstrater.server.fileSync.common.file;
 
 import com.wstrater.server.fileSync.common.data.DirectoryDeleteRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryDeleteResponse;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestRequest;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestResponse;
 import com.wstrater.server.fileSync.common.data.DirectoryListRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryListResponse;
 import com.wstrater.server.fileSync.common.data.DirectoryMakeRequest;
@@ -30,7 +32,23 @@ public class DirectoryListerLocalAsRemoteImpl extends DirectoryListerLocalImpl {
 
       ret = super.deleteDirectory(request);
     } finally {
-      FileUtils.setPermissions(permissions);
+      FileUtils.setThreadPermissions(null);
+    }
+
+    return ret;
+  }
+
+  @Override
+  public DirectoryDigestResponse digestDirectory(DirectoryDigestRequest request) {
+    DirectoryDigestResponse ret;
+
+    FilePermissions permissions = FileUtils.getPermissions();
+    try {
+      swapPermissions(permissions);
+
+      ret = super.digestDirectory(request);
+    } finally {
+      FileUtils.setThreadPermissions(null);
     }
 
     return ret;
@@ -46,7 +64,7 @@ public class DirectoryListerLocalAsRemoteImpl extends DirectoryListerLocalImpl {
 
       ret = super.getPermissions(request);
     } finally {
-      FileUtils.setPermissions(permissions);
+      FileUtils.setThreadPermissions(null);
     }
 
     return ret;
@@ -62,7 +80,7 @@ public class DirectoryListerLocalAsRemoteImpl extends DirectoryListerLocalImpl {
 
       ret = super.listDirectory(request);
     } finally {
-      FileUtils.setPermissions(permissions);
+      FileUtils.setThreadPermissions(null);
     }
 
     return ret;
@@ -78,7 +96,7 @@ public class DirectoryListerLocalAsRemoteImpl extends DirectoryListerLocalImpl {
 
       ret = super.makeDirectory(request);
     } finally {
-      FileUtils.setPermissions(permissions);
+      FileUtils.setThreadPermissions(null);
     }
 
     return ret;
@@ -90,7 +108,7 @@ public class DirectoryListerLocalAsRemoteImpl extends DirectoryListerLocalImpl {
    * @param permissions
    */
   private void swapPermissions(FilePermissions permissions) {
-    FileUtils.setPermissions(new FilePermissions(permissions.isRemoteDelete(), permissions.isRemoteWrite(), permissions
+    FileUtils.setThreadPermissions(new FilePermissions(permissions.isRemoteDelete(), permissions.isRemoteWrite(), permissions
         .isLocalDelete(), permissions.isLocalWrite()));
   }
 
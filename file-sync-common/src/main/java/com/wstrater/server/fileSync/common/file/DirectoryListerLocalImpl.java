@@ -2,6 +2,8 @@ package com.wstrater.server.fileSync.common.file;
 
 import com.wstrater.server.fileSync.common.data.DirectoryDeleteRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryDeleteResponse;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestRequest;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestResponse;
 import com.wstrater.server.fileSync.common.data.DirectoryListRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryListResponse;
 import com.wstrater.server.fileSync.common.data.DirectoryMakeRequest;
@@ -17,6 +19,11 @@ public class DirectoryListerLocalImpl implements DirectoryLister {
     return DirectoryUtils.deleteDirectory(request);
   }
 
+  @Override
+  public DirectoryDigestResponse digestDirectory(DirectoryDigestRequest request) {
+    return DirectoryUtils.digestDirectory(request);
+  }
+
   @Override
   public DirectoryPermissionsResponse getPermissions(DirectoryPermissionsRequest request) {
     return DirectoryUtils.getPermissions(request);
@@ -6,6 +6,17 @@ import com.wstrater.server.fileSync.common.data.HashStatus;
 
 public interface HashRequester {
 
+  /**
+   * Wait for the status of a request to be newer than the version already seen, for it to finish
+   * or for the wait to run out.
+   * 
+   * @param id
+   * @param version The {@link HashStatus#getVersion()} already seen. Negative to not wait.
+   * @param waitMillis
+   * @return
+   */
+  public HashStatus awaitHashStatus(String id, long version, long waitMillis);
+
   public HashStatus getHashStatus(String id);
 
   public HashResponse hashDirectory(HashRequest request);
@@ -3,10 +3,21 @@ package com.wstrater.server.fileSync.common.file;
 import com.wstrater.server.fileSync.common.data.HashRequest;
 import com.wstrater.server.fileSync.common.data.HashResponse;
 import com.wstrater.server.fileSync.common.data.HashStatus;
+import com.wstrater.server.fileSync.common.exceptions.ErrorHashingDirectoryException;
 import com.wstrater.server.fileSync.common.hash.HashProcessor;
 
 public class HashRequesterLocalImpl implements HashRequester {
 
+  @Override
+  public HashStatus awaitHashStatus(String id, long version, long waitMillis) {
+    try {
+      return HashProcessor.awaitHashStatus(id, version, waitMillis);
+    } catch (InterruptedException ee) {
+      Thread.currentThread().interrupt();
+      throw new ErrorHashingDirectoryException(String.format("Interrupted waiting for HashRequest %s", id));
+    }
+  }
+
   @Override
   public HashStatus getHashStatus(String id) {
     return HashProcessor.getHashStatus(id);
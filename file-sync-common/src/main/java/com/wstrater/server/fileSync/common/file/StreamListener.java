@@ -0,0 +1,18 @@
+package com.wstrater.server.fileSync.common.file;
+
+/**
+ * Notified as the blocks of a stream are written and verified against a checkpoint.
+ * 
+ * @author wstrater
+ *
+ */
+public interface StreamListener {
+
+  /**
+   * Every block before the offset has been written and verified.
+   * 
+   * @param offset
+   */
+  public void checkpoint(long offset);
+
+}
\ No newline at end of file
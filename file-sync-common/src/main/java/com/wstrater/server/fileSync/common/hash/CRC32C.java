@@ -0,0 +1,52 @@
+package com.wstrater.server.fileSync.common.hash;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC-32C (Castagnoli) since {@link java.util.zip.CRC32C} is not available before Java 9.
+ * 
+ * @author wstrater
+ *
+ */
+public class CRC32C implements Checksum {
+
+  private final static int   POLYNOMIAL = 0x82F63B78;
+  private final static int[] TABLE      = new int[256];
+
+  static {
+    for (int xx = 0; xx < TABLE.length; xx++) {
+      int crc = xx;
+      for (int bit = 0; bit < 8; bit++) {
+        crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+      }
+      TABLE[xx] = crc;
+    }
+  }
+
+  private int                crc        = 0xFFFFFFFF;
+
+  @Override
+  public long getValue() {
+    return ~crc & 0xFFFFFFFFL;
+  }
+
+  @Override
+  public void reset() {
+    crc = 0xFFFFFFFF;
+  }
+
+  @Override
+  public void update(byte[] data, int offset, int length) {
+    int value = crc;
+    for (int xx = offset; xx < offset + length; xx++) {
+      value = (value >>> 8) ^ TABLE[(value ^ data[xx]) & 0xFF];
+    }
+    crc = value;
+  }
+
+  @Override
+  public void update(int data) {
+    crc = (crc >>> 8) ^ TABLE[(crc ^ data) & 0xFF];
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,18 @@
+package com.wstrater.server.fileSync.common.hash;
+
+import java.util.zip.Checksum;
+
+/**
+ * Creates the {@link Checksum} used to verify blocks. Register it with {@link Checksums} so it can
+ * be chosen by type.
+ * 
+ * @author wstrater
+ *
+ */
+public interface ChecksumProvider {
+
+  public String getType();
+
+  public Checksum newChecksum();
+
+}
\ No newline at end of file
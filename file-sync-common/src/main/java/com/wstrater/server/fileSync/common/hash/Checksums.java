@@ -0,0 +1,154 @@
+package com.wstrater.server.fileSync.common.hash;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Security;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Checksum;
+
+import com.wstrater.server.fileSync.common.exceptions.InvalidChecksumTypeException;
+
+/**
+ * The registry of block checksums and file digests. A block checksum is chosen by type from the
+ * registered {@link ChecksumProvider}s. A file digest is any {@link MessageDigest} the JVM knows
+ * about plus the fast ones from {@link FileSyncProvider}.
+ * <p/>
+ * <code>CRC32</code> is the default since it is what older clients and servers use. The client and
+ * server must agree on the checksum type so it is sent with every request.
+ * 
+ * @author wstrater
+ *
+ */
+public abstract class Checksums {
+
+  public final static String                         CRC32                 = "CRC32";
+  public final static String                         CRC32C                = "CRC32C";
+  public final static String                         DEFAULT_CHECKSUM_TYPE = CRC32;
+  public final static String                         XXH64                 = "XXH64";
+
+  private final static Map<String, ChecksumProvider> providers             = new LinkedHashMap<>();
+
+  static {
+    register(new ChecksumProvider() {
+
+      @Override
+      public String getType() {
+        return CRC32;
+      }
+
+      @Override
+      public Checksum newChecksum() {
+        return new java.util.zip.CRC32();
+      }
+    });
+    register(new ChecksumProvider() {
+
+      @Override
+      public String getType() {
+        return CRC32C;
+      }
+
+      @Override
+      public Checksum newChecksum() {
+        return new CRC32C();
+      }
+    });
+    register(new ChecksumProvider() {
+
+      @Override
+      public String getType() {
+        return XXH64;
+      }
+
+      @Override
+      public Checksum newChecksum() {
+        return new XXHash64();
+      }
+    });
+
+    if (Security.getProvider(FileSyncProvider.NAME) == null) {
+      Security.addProvider(new FileSyncProvider());
+    }
+  }
+
+  /**
+   * The registered checksum types in the order registered.
+   * 
+   * @return
+   */
+  public static Set<String> getChecksumTypes() {
+    Set<String> ret;
+
+    synchronized (providers) {
+      ret = Collections.unmodifiableSet(new LinkedHashSet<>(providers.keySet()));
+    }
+
+    return ret;
+  }
+
+  public static boolean isChecksumType(String checksumType) {
+    boolean ret = false;
+
+    if (checksumType != null) {
+      synchronized (providers) {
+        ret = providers.containsKey(checksumType.toUpperCase());
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Create a new checksum of the given type.
+   * 
+   * @param checksumType Case insensitive.
+   * @return
+   * @throws InvalidChecksumTypeException If the type is not registered.
+   */
+  public static Checksum newChecksum(String checksumType) {
+    ChecksumProvider provider = null;
+
+    if (checksumType != null) {
+      synchronized (providers) {
+        provider = providers.get(checksumType.toUpperCase());
+      }
+    }
+
+    if (provider == null) {
+      throw new InvalidChecksumTypeException(String.format("Unknown checksum type: %s", checksumType));
+    }
+
+    return provider.newChecksum();
+  }
+
+  /**
+   * Create a new digest for the given hash type making sure the fast digests are available.
+   * 
+   * @param hashType
+   * @return
+   * @throws NoSuchAlgorithmException
+   */
+  public static MessageDigest newDigest(String hashType) throws NoSuchAlgorithmException {
+    return MessageDigest.getInstance(hashType);
+  }
+
+  /**
+   * Add or replace a checksum type.
+   * 
+   * @param provider
+   */
+  public static void register(ChecksumProvider provider) {
+    if (provider == null || provider.getType() == null) {
+      throw new IllegalArgumentException("Checksum provider and type are required");
+    }
+
+    synchronized (providers) {
+      providers.put(provider.getType().toUpperCase(), provider);
+    }
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,23 @@
+package com.wstrater.server.fileSync.common.hash;
+
+import java.security.Provider;
+
+/**
+ * Makes the fast digests available to {@link java.security.MessageDigest#getInstance(String)}.
+ * 
+ * @author wstrater
+ *
+ */
+public class FileSyncProvider extends Provider {
+
+  public final static String NAME             = "FileSync";
+
+  private static final long  serialVersionUID = 20150704L;
+
+  public FileSyncProvider() {
+    super(NAME, 1.0D, "FileSync fast digests");
+
+    put("MessageDigest." + Checksums.XXH64, XXHash64Digest.class.getName());
+  }
+
+}
\ No newline at end of file
@@ -4,16 +4,31 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.MessageDigest;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,32 +37,116 @@ import com.wstrater.server.fileSync.common.data.DirectoryInfo;
 import com.wstrater.server.fileSync.common.data.HashRequest;
 import com.wstrater.server.fileSync.common.data.HashResponse;
 import com.wstrater.server.fileSync.common.data.HashStatus;
-import com.wstrater.server.fileSync.common.data.IndexFile;
 import com.wstrater.server.fileSync.common.data.IndexInfo;
+import com.wstrater.server.fileSync.common.exceptions.ErrorHashingDirectoryException;
 import com.wstrater.server.fileSync.common.exceptions.InvalidFileLocationException;
 import com.wstrater.server.fileSync.common.exceptions.MissingBaseDirectoryException;
 import com.wstrater.server.fileSync.common.exceptions.MissingIdException;
 import com.wstrater.server.fileSync.common.exceptions.MissingPathException;
 import com.wstrater.server.fileSync.common.exceptions.MissingRequestException;
 import com.wstrater.server.fileSync.common.hash.HashEvent.EventType;
-import com.wstrater.server.fileSync.common.utils.Base64Utils;
 import com.wstrater.server.fileSync.common.utils.ChunkUtils;
 import com.wstrater.server.fileSync.common.utils.Compare;
+import com.wstrater.server.fileSync.common.utils.CompressionAdvisor;
 import com.wstrater.server.fileSync.common.utils.DirectoryUtils;
 import com.wstrater.server.fileSync.common.utils.FileUtils;
+import com.wstrater.server.fileSync.common.utils.HashTreeUtils;
 import com.wstrater.server.fileSync.common.utils.IndexManager;
 
+/**
+ * Hashes the files of the directories in a {@link HashRequest} and saves the hashes in the
+ * {@link com.wstrater.server.fileSync.common.data.IndexFile} of each directory.
+ * <p/>
+ * Requests are taken from a priority queue by {@link #REQUEST_THREADS} threads that walk the
+ * directories. The files are hashed by a pool of {@link #getThreads()} threads for each disk so one
+ * slow disk does not hold up another. A request that is the same as, or within, a request still
+ * waiting in the queue is folded into it rather than hashing the same files twice.
+ * <p/>
+ * Every hash type asked for is kept, up to {@link #MAX_HASH_TYPES}, and a file is hashed with all
+ * of them in the one read so a request for another hash type is served from the index. The
+ * {@link com.wstrater.server.fileSync.common.data.HashTree} of the file's chunks is built with the
+ * requested hash type in the same read.
+ * <p/>
+ * The progress of a request is counted as the files are read but only sampled into its
+ * {@link HashStatus}, and sent to the {@link HashListener}s, every {@link #getProgressMillis()}
+ * or {@link #getProgressBytes()} so hashing a large file does not log or allocate for each block.
+ * A caller can wait for the next sample with {@link #awaitHashStatus(String, long, long)}.
+ * <p/>
+ * Every read is paced by the {@link HashThrottle} so hashing backs off while
+ * {@link FileUtils} is reading or writing blocks.
+ *
+ * @author wstrater
+ *
+ */
 public abstract class HashProcessor {
 
-  public final static String               DEFAULT_HASH_TYPE = "SHA1";
-  public final static int                  MAX_HISTORY       = 25;
+  public final static String                           DEFAULT_HASH_TYPE       = "SHA1";
+  public final static long                             DEFAULT_PROGRESS_BYTES  = 64L * 1024L * 1024L;
+  public final static long                             DEFAULT_PROGRESS_MILLIS = 1000L;
+  public final static int                              DEFAULT_THREADS         = 2;
+  public final static int                              MAX_HASH_TYPES          = 4;
+  public final static int                              MAX_HISTORY             = 25;
+  public final static int                              MAX_PENDING_FILES       = 256;
+  public final static long                             MAX_WAIT_MILLIS         = 60L * 1000L;
+  public final static int                              REQUEST_THREADS         = 2;
 
-  protected final static Logger            logger            = LoggerFactory.getLogger(HashProcessor.class);
+  protected final static Logger                        logger                  = LoggerFactory.getLogger(HashProcessor.class);
 
-  private transient static ExecutorService executor;
-  private final static List<HashStatus>    hashHistory       = new ArrayList<>(MAX_HISTORY);
-  private static String                    hashType          = DEFAULT_HASH_TYPE;
-  private final static Object              mutex             = new Object();
+  private final static Map<Object, ThreadPoolExecutor> diskExecutors           = new HashMap<>();
+  private transient static ThreadPoolExecutor          executor;
+  private final static List<HashStatus>                hashHistory             = new ArrayList<>(MAX_HISTORY);
+  private static String                                hashType                = DEFAULT_HASH_TYPE;
+  private final static Set<String>                     hashTypes               = new LinkedHashSet<>();
+  private final static List<HashListener>              listeners               = new CopyOnWriteArrayList<>();
+  private final static Object                          mutex                   = new Object();
+  private final static List<HashJob>                   pendingJobs             = new ArrayList<>();
+  private static volatile long                         progressBytes           = DEFAULT_PROGRESS_BYTES;
+  private static volatile long                         progressMillis          = DEFAULT_PROGRESS_MILLIS;
+  private static long                                  sequence                = 0L;
+  private static int                                   threads                 = DEFAULT_THREADS;
+  private final static HashThrottle                    throttle                = new HashThrottle();
+
+  /**
+   * Add a listener for the events of every request. The events are fired on the hashing threads so
+   * the listener should not block.
+   * 
+   * @param listener
+   */
+  public static void addListener(HashListener listener) {
+    if (listener != null) {
+      listeners.add(listener);
+    }
+  }
+
+  /**
+   * Wait for the {@link HashStatus} of a request to change. A caller polls with the version of the
+   * last status it has seen and is answered as soon as there is a newer one rather than on a timer.
+   * 
+   * @param id
+   * @param version The version already seen. Negative to not wait.
+   * @param waitMillis How long to wait, up to {@link #MAX_WAIT_MILLIS}.
+   * @return Null if the request is no longer in history.
+   * @throws InterruptedException
+   */
+  public static HashStatus awaitHashStatus(String id, long version, long waitMillis) throws InterruptedException {
+    HashStatus ret = null;
+
+    if (id != null) {
+      long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.min(Math.max(waitMillis, 0L), MAX_WAIT_MILLIS));
+      synchronized (mutex) {
+        ret = getHashStatus(id);
+        while (ret != null && version >= 0L && ret.getVersion() <= version && !ret.isDone() && !ret.isFailed()) {
+          long remaining = TimeUnit.NANOSECONDS.toMillis(until - System.nanoTime());
+          if (remaining <= 0L) {
+            break;
+          }
+          mutex.wait(remaining);
+        }
+      }
+    }
+
+    return ret;
+  }
 
   /**
    * {@see ExecutorService#awaitTermination(long, TimeUnit)}
@@ -62,21 +161,145 @@ public abstract class HashProcessor {
 
     if (executor != null) {
       ret = executor.awaitTermination(timeout, timeUnit);
+      if (ret) {
+        // Requests wait for their files so the disks are idle.
+        synchronized (mutex) {
+          for (ThreadPoolExecutor diskExecutor : diskExecutors.values()) {
+            diskExecutor.shutdown();
+          }
+          diskExecutors.clear();
+        }
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Fold a request into a request waiting in the queue if one covers the other.
+   * 
+   * @param pending
+   * @param request
+   * @return The request to process for both or null if neither covers the other.
+   */
+  private static HashRequest coalesce(HashRequest pending, HashRequest request) {
+    HashRequest ret = null;
+
+    if (Compare.equals(FileUtils.canonicalFile(pending.getBaseDir()), FileUtils.canonicalFile(request.getBaseDir()))
+        && Compare.equals(hashType(pending), hashType(request))) {
+      File pendingDir = FileUtils.canonicalFile(new File(pending.getBaseDir(), pending.getPath()));
+      File dir = FileUtils.canonicalFile(new File(request.getBaseDir(), request.getPath()));
+      if (pendingDir.equals(dir)) {
+        ret = copyRequest(pending);
+        ret.setHiddenDirectories(pending.isHiddenDirectories() || request.isHiddenDirectories());
+        ret.setHiddenFiles(pending.isHiddenFiles() || request.isHiddenFiles());
+        ret.setRecursive(pending.isRecursive() || request.isRecursive());
+        ret.setReHashExisting(pending.isReHashExisting() || request.isReHashExisting());
+      } else if (covers(pending, pendingDir, request, dir)) {
+        ret = copyRequest(pending);
+      } else if (covers(request, dir, pending, pendingDir)) {
+        ret = copyRequest(request);
+        ret.setId(pending.getId());
+      }
+      if (ret != null) {
+        ret.setPriority(Math.max(pending.getPriority(), request.getPriority()));
+      }
     }
 
     return ret;
   }
 
+  private static HashRequest copyRequest(HashRequest request) {
+    HashRequest ret = new HashRequest();
+
+    ret.setBaseDir(request.getBaseDir());
+    ret.setHashType(request.getHashType());
+    ret.setHiddenDirectories(request.isHiddenDirectories());
+    ret.setHiddenFiles(request.isHiddenFiles());
+    ret.setId(request.getId());
+    ret.setPath(request.getPath());
+    ret.setPriority(request.getPriority());
+    ret.setRecursive(request.isRecursive());
+    ret.setReHashExisting(request.isReHashExisting());
+
+    return ret;
+  }
+
+  /**
+   * Does processing the outer request also process everything in the inner request? The inner
+   * directory must be below the outer directory and reached by the outer walk.
+   */
+  private static boolean covers(HashRequest outer, File outerDir, HashRequest inner, File innerDir) {
+    boolean ret = outer.isRecursive() && (outer.isHiddenDirectories() || !inner.isHiddenDirectories())
+        && (outer.isHiddenFiles() || !inner.isHiddenFiles()) && (outer.isReHashExisting() || !inner.isReHashExisting())
+        && DirectoryUtils.isChild(outerDir, innerDir);
+
+    if (ret && !outer.isHiddenDirectories()) {
+      for (File dir = innerDir; dir != null && !dir.equals(outerDir); dir = dir.getParentFile()) {
+        if (dir.isHidden()) {
+          ret = false;
+          break;
+        }
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * A directory is finished once it has been walked and all of its files are hashed.
+   */
+  private static void finishDirectory(HashRequest request, File dir, AtomicInteger remaining) {
+    if (remaining.decrementAndGet() == 0) {
+      fireEvent(request, new HashEvent(EventType.FinishedDirectory, FileUtils.canonicalFile(dir), 100, request.getId()));
+    }
+  }
+
   private static void fireEvent(HashRequest request, HashEvent event) {
     if (event.getEvent() == EventType.StartingDirectory || event.getEvent() == EventType.Done) {
       logger.info(String.format("Firing Event %s for request %s", event, request.getId()));
-    } else {
+    } else if (logger.isDebugEnabled()) {
       logger.debug(String.format("Firing Event %s for request %s", event, request.getId()));
     }
 
-    /*
-     * if (request.getListener() != null) { request.getListener().fireEvent(event); }
-     */
+    for (HashListener listener : listeners) {
+      try {
+        listener.fireEvent(event);
+      } catch (RuntimeException ee) {
+        logger.warn(String.format("Listener failed for request %s: %s", request.getId(), ee));
+      }
+    }
+  }
+
+  /**
+   * The pool hashing the files of a directory. There is one pool for each disk, as told by its
+   * {@link java.nio.file.FileStore}, so the threads of one disk do not wait on another.
+   * 
+   * @param dir
+   * @return
+   */
+  private static ThreadPoolExecutor getDiskExecutor(File dir) {
+    ThreadPoolExecutor ret = null;
+
+    Object disk;
+    try {
+      disk = Files.getFileStore(dir.toPath());
+    } catch (IOException ee) {
+      disk = String.valueOf(dir.toPath().getRoot());
+    }
+
+    synchronized (mutex) {
+      ret = diskExecutors.get(disk);
+      if (ret == null) {
+        ret = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new HashThreadFactory(String.format("hash-%d", diskExecutors.size() + 1)));
+        ret.allowCoreThreadTimeOut(true);
+        diskExecutors.put(disk, ret);
+        logger.info(String.format("Hashing %s with %d threads", disk, threads));
+      }
+    }
+
+    return ret;
   }
 
   /**
@@ -111,6 +334,58 @@ public abstract class HashProcessor {
     return hashType;
   }
 
+  /**
+   * Get the hash types every file is hashed with, the default first.
+   * 
+   * @return
+   */
+  public static Set<String> getHashTypes() {
+    Set<String> ret = new LinkedHashSet<>();
+
+    ret.add(hashType);
+    synchronized (mutex) {
+      ret.addAll(hashTypes);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Get the bytes hashed by a request between samples of its progress.
+   * 
+   * @return
+   */
+  public static long getProgressBytes() {
+    return progressBytes;
+  }
+
+  /**
+   * Get the milliseconds between samples of the progress of a request.
+   * 
+   * @return
+   */
+  public static long getProgressMillis() {
+    return progressMillis;
+  }
+
+  /**
+   * Get the number of files hashed at once on each disk.
+   * 
+   * @return
+   */
+  public static int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Get the throttle pacing the hashing reads. Block reads and writes are reported to it.
+   * 
+   * @return
+   */
+  public static HashThrottle getThrottle() {
+    return throttle;
+  }
+
   public static HashResponse hashDirectory(HashRequest request) {
     HashResponse ret = new HashResponse();
 
@@ -126,87 +401,210 @@ public abstract class HashProcessor {
   }
 
   /**
-   * Hash the files in a directory and update the {@see IndexFile}.
+   * Hash the files in a directory and update the {@see IndexFile}. The files are handed to the
+   * pool for the disk and may still be hashing when this returns.
    * 
-   * @param request
+   * @param job
    * @param dir
    * @param directoryInfo
-   * @throws NoSuchAlgorithmException
+   * @param pending
+   * @throws InterruptedException
    */
-  private static void hashDirectory(HashRequest request, File dir, DirectoryInfo directoryInfo) throws NoSuchAlgorithmException {
+  private static void hashDirectory(HashJob job, File dir, DirectoryInfo directoryInfo, Pending pending)
+      throws InterruptedException {
+    HashRequest request = job.request;
     if (request != null && directoryInfo != null && dir != null && dir.isDirectory()) {
       logger.info(String.format("Hashing Directory: %s with %d directories and %d files", dir.getAbsolutePath(), directoryInfo
           .getDirectories().size(), directoryInfo.getFiles().size()));
 
       fireEvent(request, new HashEvent(EventType.StartingDirectory, FileUtils.canonicalFile(dir), 0, request.getId()));
 
-      String hashType = Compare.isBlank(request.getHashType()) ? DEFAULT_HASH_TYPE : request.getHashType();
-      MessageDigest digester = MessageDigest.getInstance(hashType);
+      List<IndexInfo> indexInfos = IndexManager.updateIndex(dir, directoryInfo);
+      ExecutorService diskExecutor = getDiskExecutor(dir);
 
-      IndexFile indexFile = IndexManager.loadIndex(dir);
+      // The walk holds one count so the directory is not finished before all the files are queued.
+      AtomicInteger remaining = new AtomicInteger(1);
       try {
-        IndexManager.updateIndexInfo(indexFile, directoryInfo);
-
-        int count = indexFile.getIndexInfos().size();
+        int count = indexInfos.size();
         int index = 0;
-        for (IndexInfo indexInfo : indexFile.getIndexInfos().values()) {
-          File file = FileUtils.canonicalFile(new File(indexFile.getDirectory(), indexInfo.getName()));
+        for (IndexInfo indexInfo : indexInfos) {
+          File file = FileUtils.canonicalFile(new File(dir, indexInfo.getName()));
           if (file.canRead()) {
-            long length = file.length();
-            boolean hashFile = request.isReHashExisting() || Compare.isBlank(indexInfo.getHash());
+            boolean hashFile = request.isReHashExisting() || Compare.isBlank(indexInfo.getHash(hashType(request)));
             if (!hashFile) {
               // Check for modified file.
-              hashFile = length != indexInfo.getLength() || file.lastModified() != indexInfo.getLastModified();
+              hashFile = !Compare.equals(file.length(), indexInfo.getLength())
+                  || !Compare.equals(file.lastModified(), indexInfo.getLastModified());
             }
             if (hashFile) {
-              fireEvent(request,
-                  HashEvent.newProgress(EventType.StartingFile, FileUtils.canonicalFile(file), index++, count, request.getId()));
-
-              long progress = 0L;
-              byte[] buf = new byte[ChunkUtils.getBlockSize()];
-              int len = 0;
+              pending.acquire();
+              remaining.incrementAndGet();
               try {
-                digester.reset();
-                InputStream in = new FileInputStream(file);
-                try {
-                  while ((len = in.read(buf)) >= 0) {
-                    fireEvent(
-                        request,
-                        HashEvent.newProgress(EventType.HashingFile, FileUtils.canonicalFile(file), progress, length,
-                            request.getId()));
-
-                    progress += len;
-                    if (progress > length) {
-                      throw new IOException("Trying to hash file that is growing");
-                    }
-                    digester.update(buf, 0, len);
-                  }
-                } finally {
-                  in.close();
-                }
-
-                byte[] digest = digester.digest();
-                indexInfo.setHash(Base64Utils.encodeAsString(digest));
-                indexInfo.setHashType(hashType);
-                IndexManager.saveIndexItem(indexFile.getDirectory(), indexInfo);
-              } catch (IOException ee) {
-                fireEvent(request,
-                    new HashEvent(EventType.HashingError, String.format("%s: %s", ee.getMessage(), file.getAbsolutePath()), 0,
-                        request.getId()));
+                diskExecutor.execute(new FileTask(job, dir, file, hashTypes(request, indexInfo), index++, count,
+                    remaining, pending));
+              } catch (RejectedExecutionException ee) {
+                remaining.decrementAndGet();
+                pending.release();
+                throw ee;
               }
-
-              fireEvent(request, new HashEvent(EventType.FinishedFile, FileUtils.canonicalFile(file), 100, request.getId()));
             }
           }
         }
       } finally {
-        IndexManager.saveIndex(indexFile);
+        finishDirectory(request, dir, remaining);
       }
+    }
+  }
 
-      fireEvent(request, new HashEvent(EventType.FinishedDirectory, FileUtils.canonicalFile(dir), 100, request.getId()));
+  /**
+   * Hash one file and merge the hashes into the {@link IndexInfo} if the file has not changed.
+   * 
+   * @param job
+   * @param dir
+   * @param file
+   * @param hashTypes
+   * @throws IOException
+   * @throws NoSuchAlgorithmException
+   */
+  private static void hashFile(HashJob job, File dir, File file, Set<String> hashTypes) throws IOException,
+      NoSuchAlgorithmException {
+    long length = file.length();
+    long lastModified = file.lastModified();
+
+    IndexInfo hashed = new IndexInfo();
+    hashed.setName(file.getName());
+    hashed.setLength(length);
+    hashed.setLastModified(lastModified);
+    hashFile(job, file, length, new MultiDigest(hashTypes), hashed);
+    hashed.setCompressible(CompressionAdvisor.sample(file));
+    if (file.lastModified() != lastModified || !IndexManager.saveIndexHash(dir, hashed)) {
+      logger.debug(String.format("Not saving hash of changed file: %s", file.getAbsolutePath()));
     }
   }
 
+  /**
+   * Hash a file through the mapped windows of {@link FileUtils} if it is large enough. Otherwise,
+   * or if the file can not be mapped, the file is read.
+   * 
+   * @param job
+   * @param file
+   * @param length
+   * @param digester
+   * @param hashed Receives the hashes and the tree.
+   * @throws IOException
+   * @throws NoSuchAlgorithmException
+   */
+  private static void hashFile(HashJob job, File file, long length, MultiDigest digester, IndexInfo hashed)
+      throws IOException, NoSuchAlgorithmException {
+    Map<String, String> digests = null;
+    HashTreeUtils.Builder treeBuilder = null;
+
+    if (FileUtils.isMapped(length)) {
+      treeBuilder = newTreeBuilder(job.request, length);
+      digests = hashMapped(job, file, length, digester, treeBuilder);
+    }
+
+    if (digests == null) {
+      treeBuilder = newTreeBuilder(job.request, length);
+      digests = hashStream(job, file, length, digester, treeBuilder);
+    }
+
+    hashed.putHashes(digests);
+    if (length > 0L) {
+      hashed.setHashTree(treeBuilder.build());
+    }
+  }
+
+  /**
+   * Update the digests straight from the mapped windows of the file rather than copying it.
+   * 
+   * @return Null if the file could not be mapped.
+   * @throws IOException
+   */
+  private static Map<String, String> hashMapped(HashJob job, File file, long length, MultiDigest digester,
+      HashTreeUtils.Builder treeBuilder) throws IOException {
+    Map<String, String> ret = null;
+
+    digester.reset();
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      if (channel.size() > length) {
+        throw new IOException("Trying to hash file that is growing");
+      }
+
+      long progress = 0L;
+      int len = 0;
+      do {
+        ByteBuffer slice = FileUtils.getMappedWindows().slice(file, channel, progress, ChunkUtils.getBlockSize());
+        len = slice.remaining();
+        throttle(len);
+        treeBuilder.update(slice.duplicate());
+        digester.update(slice);
+        progress += len;
+        if (job.hashed(len)) {
+          sampleProgress(job, file, progress, length);
+        }
+      } while (len > 0);
+
+      ret = digester.digest();
+    } catch (InterruptedIOException ee) {
+      throw ee;
+    } catch (IOException | InternalError ee) {
+      logger.debug(String.format("Unable to map %s: %s", file.getAbsolutePath(), ee.getMessage()));
+      FileUtils.getMappedWindows().evict(file);
+    } finally {
+      channel.close();
+    }
+
+    return ret;
+  }
+
+  private static Map<String, String> hashStream(HashJob job, File file, long length, MultiDigest digester,
+      HashTreeUtils.Builder treeBuilder) throws IOException {
+    long progress = 0L;
+    byte[] buf = new byte[ChunkUtils.getBlockSize()];
+    int len = 0;
+
+    digester.reset();
+    InputStream in = new FileInputStream(file);
+    try {
+      while ((len = in.read(buf)) >= 0) {
+        progress += len;
+        if (progress > length) {
+          throw new IOException("Trying to hash file that is growing");
+        }
+        throttle(len);
+        treeBuilder.update(buf, 0, len);
+        digester.update(buf, 0, len);
+        if (job.hashed(len)) {
+          sampleProgress(job, file, progress, length);
+        }
+      }
+    } finally {
+      in.close();
+    }
+
+    return digester.digest();
+  }
+
+  private static String hashType(HashRequest request) {
+    return Compare.isBlank(request.getHashType()) ? DEFAULT_HASH_TYPE : request.getHashType();
+  }
+
+  /**
+   * The hash types to hash a file with. The one asked for comes first so it is the main hash of a
+   * new {@link IndexInfo}. Hash types the file already has are kept up to date.
+   */
+  private static Set<String> hashTypes(HashRequest request, IndexInfo indexInfo) {
+    Set<String> ret = new LinkedHashSet<>();
+
+    ret.add(hashType(request));
+    ret.addAll(getHashTypes());
+    ret.addAll(indexInfo.getHashTypes());
+
+    return ret;
+  }
+
   /**
    * {@see ExecutorService#isShutdown()}
    * 
@@ -225,24 +623,48 @@ public abstract class HashProcessor {
     return executor == null || executor.isTerminated();
   }
 
+  private static FutureTask<HashStatus> newFuture(final HashStatus status) {
+    return new FutureTask<HashStatus>(new Callable<HashStatus>() {
+
+      @Override
+      public HashStatus call() throws Exception {
+        if (status.isFailed()) {
+          throw new ErrorHashingDirectoryException(status.getFailureMessage());
+        }
+        return status;
+      }
+    });
+  }
+
+  /**
+   * The tree is built over the chunks a sync of the file would use.
+   */
+  private static HashTreeUtils.Builder newTreeBuilder(HashRequest request, long length) throws NoSuchAlgorithmException {
+    int blockSize = ChunkUtils.getBlockSize();
+    return new HashTreeUtils.Builder(hashType(request), blockSize, ChunkUtils.newInstance(length, blockSize)
+        .getChunkSize(), length, 0, 0);
+  }
+
   /**
    * Process a directory for a request. Can be recursive.
    * 
-   * @param request
+   * @param job
    * @param path
-   * @throws NoSuchAlgorithmException
+   * @param pending
+   * @throws InterruptedException
    */
-  private static void processDirectory(HashRequest request, String path) throws NoSuchAlgorithmException {
+  private static void processDirectory(HashJob job, String path, Pending pending) throws InterruptedException {
+    HashRequest request = job.request;
     if (request != null && path != null) {
       File dir = FileUtils.canonicalFile(new File(request.getBaseDir(), path));
       if (dir.isDirectory()) {
         DirectoryInfo directoryInfo = DirectoryUtils.listDirectory(dir, false, request.isHiddenDirectories(),
             request.isHiddenFiles());
         if (directoryInfo != null) {
-          hashDirectory(request, dir, directoryInfo);
+          hashDirectory(job, dir, directoryInfo, pending);
           if (request.isRecursive()) {
             for (DirectoryInfo childInfo : directoryInfo.getDirectories()) {
-              processDirectory(request, String.format("%s%s%s", path, File.separator, childInfo.getName()));
+              processDirectory(job, String.format("%s%s%s", path, File.separator, childInfo.getName()), pending);
             }
           }
         }
@@ -251,58 +673,115 @@ public abstract class HashProcessor {
   }
 
   /**
-   * Process a request. Called by the executor.
+   * Process a request and every request folded into it. Called by the executor.
    * 
-   * @param request
-   * @return
-   * @throws NoSuchAlgorithmException
+   * @param job
    */
-  private static HashStatus processRequest(HashStatus status) throws NoSuchAlgorithmException {
-    if (status != null && status.getRequest() != null) {
-      status.setDone(false);
-      status.setStarted(true);
+  private static void processJob(HashJob job) {
+    HashRequest request;
+    synchronized (mutex) {
+      pendingJobs.remove(job);
+      request = job.request;
+      for (HashStatus status : job.statuses) {
+        status.setDone(false);
+        status.setStarted(true);
+        updateProgress(job, status, null);
+      }
+      mutex.notifyAll();
+    }
 
-      fireEvent(status.getRequest(), new HashEvent(EventType.Starting, "Starting", 0, status.getRequest().getId()));
+    fireEvent(request, new HashEvent(EventType.Starting, "Starting", 0, request.getId()));
 
-      try {
-        processDirectory(status.getRequest(), status.getRequest().getPath());
-      } catch (NoSuchAlgorithmException ee) {
-        status.setFailureMessage(ee.toString());
-        status.setFailed(true);
-        fireEvent(status.getRequest(), new HashEvent(EventType.Failed, "Failed", 0, status.getRequest().getId()));
-        throw ee;
+    String failureMessage = null;
+    try {
+      Checksums.newDigest(hashType(request));
+      synchronized (mutex) {
+        if (getHashTypes().size() < MAX_HASH_TYPES) {
+          hashTypes.add(hashType(request));
+        }
       }
 
-      fireEvent(status.getRequest(), new HashEvent(EventType.Done, "Finished", 100, status.getRequest().getId()));
+      Pending pending = new Pending(MAX_PENDING_FILES);
+      processDirectory(job, request.getPath(), pending);
+      pending.await();
+    } catch (NoSuchAlgorithmException | RuntimeException ee) {
+      failureMessage = ee.toString();
+    } catch (InterruptedException ee) {
+      failureMessage = ee.toString();
+      Thread.currentThread().interrupt();
+    }
 
-      status.setDone(true);
+    if (failureMessage == null) {
+      fireEvent(request, new HashEvent(EventType.Done, "Finished", 100, request.getId()));
+    } else {
+      fireEvent(request, new HashEvent(EventType.Failed, "Failed", 0, request.getId()));
     }
 
-    return status;
+    synchronized (mutex) {
+      for (HashStatus status : job.statuses) {
+        updateProgress(job, status, null);
+        if (failureMessage == null) {
+          status.setDone(true);
+        } else {
+          status.setFailureMessage(failureMessage);
+          status.setFailed(true);
+        }
+      }
+      mutex.notifyAll();
+    }
+    for (FutureTask<HashStatus> future : job.futures) {
+      future.run();
+    }
   }
 
   /**
-   * Queue up a request to be processed by a single threaded executor. The {@link Future} value is
-   * the supplied {@link HashRequest}. This is just to have an object to wait for.
+   * Queue up a request to be processed in order of priority. The {@link Future} value is the
+   * {@link HashStatus} of the supplied {@link HashRequest}. This is just to have an object to wait
+   * for.
    * 
    * @param request
    * @return
    */
   public static Future<HashStatus> queueRequest(HashRequest request) {
-    Future<HashStatus> ret = null;
+    HashStatus status = new HashStatus();
+    status.setRequest(request);
 
-    if (executor == null) {
-      synchronized (mutex) {
-        if (executor == null) {
-          executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(10));
+    FutureTask<HashStatus> ret = newFuture(status);
+
+    synchronized (mutex) {
+      if (executor == null || executor.isTerminated()) {
+        executor = new ThreadPoolExecutor(REQUEST_THREADS, REQUEST_THREADS, 30, TimeUnit.SECONDS,
+            new PriorityBlockingQueue<Runnable>(), new HashThreadFactory("hash-request"));
+      }
+
+      HashJob job = null;
+      HashRequest merged = null;
+      for (HashJob pendingJob : pendingJobs) {
+        merged = coalesce(pendingJob.request, request);
+        if (merged != null) {
+          job = pendingJob;
+          break;
         }
       }
-    }
 
-    final HashStatus status = new HashStatus();
-    status.setRequest(request);
+      if (job == null) {
+        logger.info(String.format("Queuing Hash Request: %s", request));
+        job = new HashJob(copyRequest(request), sequence++);
+        executor.execute(job);
+        pendingJobs.add(job);
+      } else {
+        logger.info(String.format("Coalescing Hash Request: %s into %s", request, job.request.getId()));
+        if (merged.getPriority() != job.request.getPriority() && executor.remove(job)) {
+          // Queued again to be placed by its new priority.
+          job.request = merged;
+          executor.execute(job);
+        } else {
+          job.request = merged;
+        }
+      }
+      job.statuses.add(status);
+      job.futures.add(ret);
 
-    synchronized (mutex) {
       // Keep some history.
       while (hashHistory.size() >= MAX_HISTORY) {
         hashHistory.remove(0);
@@ -310,17 +789,53 @@ public abstract class HashProcessor {
       hashHistory.add(status);
     }
 
-    logger.info(String.format("Queuing Hash Request: %s", request));
+    return ret;
+  }
 
-    ret = executor.submit(new Callable<HashStatus>() {
+  /**
+   * Remove a listener added by {@link #addListener(HashListener)}.
+   * 
+   * @param listener
+   */
+  public static void removeListener(HashListener listener) {
+    listeners.remove(listener);
+  }
 
-      @Override
-      public HashStatus call() throws Exception {
-        return processRequest(status);
+  /**
+   * Copy the counters of a job into the statuses of its requests, wake up anyone waiting for them
+   * and fire one progress event. Only called when {@link HashJob#hashed(int)} claims a sample.
+   */
+  private static void sampleProgress(HashJob job, File file, long progress, long length) {
+    synchronized (mutex) {
+      for (HashStatus status : job.statuses) {
+        updateProgress(job, status, file);
       }
-    });
+      mutex.notifyAll();
+    }
 
-    return ret;
+    if (length > 0L) {
+      fireEvent(job.request, HashEvent.newProgress(EventType.HashingFile, file, progress, length, job.request.getId()));
+    }
+  }
+
+  /**
+   * Set the bytes per second hashed while no blocks are being read or written.
+   * 
+   * @param budget Zero for no limit.
+   */
+  public static void setBudget(long budget) {
+    throttle.setBudget(budget);
+    logger.info(String.format("Setting budget: %d", throttle.getBudget()));
+  }
+
+  /**
+   * Set the bytes per second hashed while blocks are being read or written.
+   * 
+   * @param busyBudget Zero to not back off.
+   */
+  public static void setBusyBudget(long busyBudget) {
+    throttle.setBusyBudget(busyBudget);
+    logger.info(String.format("Setting busyBudget: %d", throttle.getBusyBudget()));
   }
 
   /**
@@ -333,6 +848,59 @@ public abstract class HashProcessor {
     logger.info(String.format("Setting hashType: %s", HashProcessor.hashType));
   }
 
+  /**
+   * Set the bytes hashed by a request between samples of its progress.
+   * 
+   * @param progressBytes
+   */
+  public static void setProgressBytes(long progressBytes) {
+    if (progressBytes < 1L) {
+      throw new IllegalArgumentException(String.format("Invalid progress bytes: %d", progressBytes));
+    }
+
+    HashProcessor.progressBytes = progressBytes;
+    logger.info(String.format("Setting progressBytes: %d", HashProcessor.progressBytes));
+  }
+
+  /**
+   * Set the milliseconds between samples of the progress of a request.
+   * 
+   * @param progressMillis
+   */
+  public static void setProgressMillis(long progressMillis) {
+    if (progressMillis < 1L) {
+      throw new IllegalArgumentException(String.format("Invalid progress millis: %d", progressMillis));
+    }
+
+    HashProcessor.progressMillis = progressMillis;
+    logger.info(String.format("Setting progressMillis: %d", HashProcessor.progressMillis));
+  }
+
+  /**
+   * Set the number of files hashed at once on each disk.
+   * 
+   * @param threads
+   */
+  public static void setThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException(String.format("Invalid hash threads: %d", threads));
+    }
+
+    synchronized (mutex) {
+      for (ThreadPoolExecutor diskExecutor : diskExecutors.values()) {
+        if (threads > diskExecutor.getMaximumPoolSize()) {
+          diskExecutor.setMaximumPoolSize(threads);
+          diskExecutor.setCorePoolSize(threads);
+        } else {
+          diskExecutor.setCorePoolSize(threads);
+          diskExecutor.setMaximumPoolSize(threads);
+        }
+      }
+      HashProcessor.threads = threads;
+    }
+    logger.info(String.format("Setting threads: %d", HashProcessor.threads));
+  }
+
   /**
    * {@see ExecutorService#shutdown()()}
    * 
@@ -358,13 +926,50 @@ public abstract class HashProcessor {
     boolean ret = false;
 
     if (executor != null) {
-      executor.shutdownNow();
+      synchronized (mutex) {
+        for (Runnable runnable : executor.shutdownNow()) {
+          for (FutureTask<HashStatus> future : ((HashJob) runnable).futures) {
+            future.cancel(false);
+          }
+        }
+        pendingJobs.clear();
+        for (ThreadPoolExecutor diskExecutor : diskExecutors.values()) {
+          diskExecutor.shutdownNow();
+        }
+        diskExecutors.clear();
+      }
       ret = true;
     }
 
     return ret;
   }
 
+  /**
+   * Wait for the throttle before hashing the bytes just read.
+   */
+  private static void throttle(int len) throws InterruptedIOException {
+    try {
+      throttle.acquire(len);
+    } catch (InterruptedException ee) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for hash budget");
+    }
+  }
+
+  /**
+   * Must hold the mutex.
+   */
+  private static void updateProgress(HashJob job, HashStatus status, File file) {
+    status.setBytesHashed(job.bytesHashed.get());
+    status.setFilesHashed(job.filesHashed.get());
+    status.setRate(throttle.getRate());
+    status.setThrottled(throttle.isBusy() && throttle.getRate() > 0L);
+    if (file != null) {
+      status.setFileName(file.getPath());
+    }
+    status.setVersion(status.getVersion() + 1L);
+  }
+
   private static File validateHashRequest(HashRequest request) {
     File ret = null;
 
@@ -391,4 +996,180 @@ public abstract class HashProcessor {
     }
   }
 
-}
\ No newline at end of file
+  /**
+   * Hash one file of a directory on the pool of its disk.
+   * 
+   * @author wstrater
+   * 
+   */
+  private static class FileTask implements Runnable {
+
+    private final int           count;
+    private final File          dir;
+    private final File          file;
+    private final Set<String>   hashTypes;
+    private final int           index;
+    private final HashJob       job;
+    private final Pending       pending;
+    private final AtomicInteger remaining;
+    private final HashRequest   request;
+
+    private FileTask(HashJob job, File dir, File file, Set<String> hashTypes, int index, int count,
+        AtomicInteger remaining, Pending pending) {
+      this.job = job;
+      this.request = job.request;
+      this.dir = dir;
+      this.file = file;
+      this.hashTypes = hashTypes;
+      this.index = index;
+      this.count = count;
+      this.remaining = remaining;
+      this.pending = pending;
+    }
+
+    @Override
+    public void run() {
+      try {
+        fireEvent(request, HashEvent.newProgress(EventType.StartingFile, file, index, count, request.getId()));
+
+        hashFile(job, dir, file, hashTypes);
+      } catch (IOException | NoSuchAlgorithmException | RuntimeException ee) {
+        fireEvent(request,
+            new HashEvent(EventType.HashingError, String.format("%s: %s", ee.getMessage(), file.getAbsolutePath()), 0,
+                request.getId()));
+      } finally {
+        job.filesHashed.incrementAndGet();
+        fireEvent(request, new HashEvent(EventType.FinishedFile, file, 100, request.getId()));
+        pending.release();
+        finishDirectory(request, dir, remaining);
+      }
+    }
+
+  }
+
+  /**
+   * A request waiting in, or taken from, the queue along with the requests folded into it. The
+   * queue is ordered by priority and then by the order the requests were queued.
+   * <p/>
+   * The hashing threads count their progress in the job without a lock. Only the thread that
+   * claims a sample copies the counts into the statuses.
+   * 
+   * @author wstrater
+   * 
+   */
+  private static class HashJob implements Runnable, Comparable<HashJob> {
+
+    private final AtomicLong                   bytesHashed  = new AtomicLong();
+    private final AtomicInteger                filesHashed  = new AtomicInteger();
+    private final List<FutureTask<HashStatus>> futures      = new ArrayList<>();
+    private HashRequest                        request;
+    private final AtomicLong                   sampledBytes = new AtomicLong();
+    private final AtomicLong                   sampledNanos = new AtomicLong(System.nanoTime());
+    private final long                         sequence;
+    private final List<HashStatus>             statuses     = new ArrayList<>();
+
+    private HashJob(HashRequest request, long sequence) {
+      this.request = request;
+      this.sequence = sequence;
+    }
+
+    @Override
+    public int compareTo(HashJob other) {
+      int ret = Integer.compare(other.request.getPriority(), request.getPriority());
+      if (ret == 0) {
+        ret = Long.compare(sequence, other.sequence);
+      }
+
+      return ret;
+    }
+
+    /**
+     * Count bytes hashed for the job.
+     * 
+     * @param len
+     * @return True if the caller should sample the progress. Only one caller is told to for each
+     *         interval.
+     */
+    private boolean hashed(int len) {
+      boolean ret = false;
+
+      long bytes = bytesHashed.addAndGet(len);
+      long sampled = sampledBytes.get();
+      long now = System.nanoTime();
+      long nanos = sampledNanos.get();
+      if (bytes - sampled >= progressBytes || now - nanos >= TimeUnit.MILLISECONDS.toNanos(progressMillis)) {
+        ret = sampledNanos.compareAndSet(nanos, now);
+        if (ret) {
+          sampledBytes.set(bytes);
+        }
+      }
+
+      return ret;
+    }
+
+    @Override
+    public void run() {
+      processJob(this);
+    }
+
+  }
+
+  /**
+   * Names the hashing threads.
+   * 
+   * @author wstrater
+   * 
+   */
+  private static class HashThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+    private final String        prefix;
+
+    private HashThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      return new Thread(runnable, String.format("%s-%d", prefix, count.incrementAndGet()));
+    }
+
+  }
+
+  /**
+   * Counts the files of a request still being hashed so the request can wait for all of them and
+   * only so many are queued at once.
+   * 
+   * @author wstrater
+   * 
+   */
+  private static class Pending {
+
+    private int       count;
+    private final int max;
+
+    private Pending(int max) {
+      this.max = max;
+    }
+
+    private synchronized void acquire() throws InterruptedException {
+      while (count >= max) {
+        wait();
+      }
+      count++;
+    }
+
+    private synchronized void await() throws InterruptedException {
+      while (count > 0) {
+        wait();
+      }
+    }
+
+    private synchronized void release() {
+      count--;
+      notifyAll();
+    }
+
+  }
+
+}
@@ -0,0 +1,128 @@
+package com.wstrater.server.fileSync.common.hash;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the hashing threads to a budget of bytes per second so hashing does not starve the blocks
+ * being read and written on the same disk. The budget drops to the busy budget while a block is
+ * being read or written and for {@link #IDLE_MILLIS} after the last one, then goes back up.
+ * <p/>
+ * The bytes are paced by reserving the time each read would take at the current budget. No credit
+ * is saved up while hashing is idle so there is never a burst of more than one read per thread.
+ *
+ * @author wstrater
+ *
+ */
+public class HashThrottle {
+
+  public final static long    DEFAULT_BUDGET      = 0L;
+  public final static long    DEFAULT_BUSY_BUDGET = 1024L * 1024L;
+  public final static long    IDLE_MILLIS         = 2000L;
+
+  private volatile long       budget              = DEFAULT_BUDGET;
+  private volatile long       busyBudget          = DEFAULT_BUSY_BUDGET;
+  private volatile long       lastTransfer        = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS);
+  private long                nextRead            = System.nanoTime();
+  private final AtomicInteger transfers           = new AtomicInteger();
+
+  /**
+   * Wait until the bytes about to be hashed fit the budget.
+   *
+   * @param bytes
+   * @throws InterruptedException
+   */
+  public void acquire(int bytes) throws InterruptedException {
+    long rate = getRate();
+    if (rate > 0L && bytes > 0) {
+      long sleep;
+      synchronized (this) {
+        long now = System.nanoTime();
+        if (nextRead - now < 0L) {
+          nextRead = now;
+        }
+        sleep = nextRead - now;
+        nextRead += TimeUnit.SECONDS.toNanos(bytes) / rate;
+      }
+
+      if (sleep > 0L) {
+        TimeUnit.NANOSECONDS.sleep(sleep);
+      }
+    }
+  }
+
+  /**
+   * A block read or write has finished.
+   */
+  public void finishTransfer() {
+    lastTransfer = System.nanoTime();
+    transfers.decrementAndGet();
+  }
+
+  /**
+   * The bytes per second hashed while no blocks are being read or written. Zero for no limit.
+   *
+   * @return
+   */
+  public long getBudget() {
+    return budget;
+  }
+
+  /**
+   * The bytes per second hashed while blocks are being read or written. Zero to not back off.
+   *
+   * @return
+   */
+  public long getBusyBudget() {
+    return busyBudget;
+  }
+
+  /**
+   * The bytes per second hashing is held to now.
+   *
+   * @return Zero for no limit.
+   */
+  public long getRate() {
+    long ret = budget;
+
+    long busy = busyBudget;
+    if (busy > 0L && (ret <= 0L || busy < ret) && isBusy()) {
+      ret = busy;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Are blocks being read or written, or have they been recently?
+   *
+   * @return
+   */
+  public boolean isBusy() {
+    return transfers.get() > 0 || System.nanoTime() - lastTransfer < TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS);
+  }
+
+  public void setBudget(long budget) {
+    if (budget < 0L) {
+      throw new IllegalArgumentException(String.format("Invalid hash budget: %d", budget));
+    }
+
+    this.budget = budget;
+  }
+
+  public void setBusyBudget(long busyBudget) {
+    if (busyBudget < 0L) {
+      throw new IllegalArgumentException(String.format("Invalid busy hash budget: %d", busyBudget));
+    }
+
+    this.busyBudget = busyBudget;
+  }
+
+  /**
+   * A block read or write has started. Must be followed by {@link #finishTransfer()}.
+   */
+  public void startTransfer() {
+    transfers.incrementAndGet();
+  }
+
+}
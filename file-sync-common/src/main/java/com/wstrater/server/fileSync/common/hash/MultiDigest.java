@@ -0,0 +1,84 @@
+package com.wstrater.server.fileSync.common.hash;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.wstrater.server.fileSync.common.utils.Base64Utils;
+
+/**
+ * Feeds one read of a file to a {@link MessageDigest} for each of several hash types so a file is
+ * only read once no matter how many hash types are kept for it.
+ *
+ * @author wstrater
+ *
+ */
+public class MultiDigest {
+
+  private final Map<String, MessageDigest> digesters = new LinkedHashMap<>();
+
+  /**
+   * @param hashTypes The first hash type is the first in {@link #digest()}.
+   * @throws NoSuchAlgorithmException
+   */
+  public MultiDigest(Collection<String> hashTypes) throws NoSuchAlgorithmException {
+    if (hashTypes == null || hashTypes.isEmpty()) {
+      throw new IllegalArgumentException("At least one hash type is required");
+    }
+
+    for (String hashType : hashTypes) {
+      if (!digesters.containsKey(hashType)) {
+        digesters.put(hashType, Checksums.newDigest(hashType));
+      }
+    }
+  }
+
+  /**
+   * Finish the digests.
+   *
+   * @return The Base64 encoded digest keyed by hash type in the order they were given.
+   */
+  public Map<String, String> digest() {
+    Map<String, String> ret = new LinkedHashMap<>();
+
+    for (Entry<String, MessageDigest> entry : digesters.entrySet()) {
+      ret.put(entry.getKey(), Base64Utils.encodeAsString(entry.getValue().digest()));
+    }
+
+    return ret;
+  }
+
+  public void reset() {
+    for (MessageDigest digester : digesters.values()) {
+      digester.reset();
+    }
+  }
+
+  public int size() {
+    return digesters.size();
+  }
+
+  public void update(byte[] data, int offset, int length) {
+    for (MessageDigest digester : digesters.values()) {
+      digester.update(data, offset, length);
+    }
+  }
+
+  /**
+   * Update every digest with the remaining bytes of the buffer. The buffer is consumed as it would
+   * be by {@link MessageDigest#update(ByteBuffer)}.
+   *
+   * @param buffer
+   */
+  public void update(ByteBuffer buffer) {
+    for (MessageDigest digester : digesters.values()) {
+      digester.update(buffer.duplicate());
+    }
+    buffer.position(buffer.limit());
+  }
+
+}
@@ -0,0 +1,173 @@
+package com.wstrater.server.fileSync.common.hash;
+
+import java.io.File;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a {@link MultiDigest} of each file being read or written so the file does not have to be
+ * read again to be hashed once the last block has gone through. A file is digested from the block
+ * at offset zero and only while each block starts where the last one ended. A block out of order
+ * drops the file. Only so many files are digested at once, the least recently used dropped first.
+ *
+ * @author wstrater
+ *
+ */
+public class RunningDigests {
+
+  public final static int          DEFAULT_MAX_FILES = 64;
+
+  protected final static Logger    logger            = LoggerFactory.getLogger(RunningDigests.class);
+
+  private final Map<File, Running> files;
+
+  /**
+   * @param maxFiles The most files digested at once.
+   */
+  public RunningDigests(final int maxFiles) {
+    if (maxFiles < 1) {
+      throw new IllegalArgumentException(String.format("Invalid max files: %d", maxFiles));
+    }
+
+    files = new LinkedHashMap<File, Running>(16, 0.75F, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<File, Running> eldest) {
+        return size() > maxFiles;
+      }
+    };
+  }
+
+  /**
+   * Finish the digests of a file digested in order up to its length. The file is no longer
+   * digested either way.
+   *
+   * @param file
+   * @param length The length of the file.
+   * @param lastModified The last modified the file had when its first block was digested. Zero to
+   *          not check.
+   * @return The Base64 encoded digests keyed by hash type, the default hash type first. Null if the
+   *         file was not digested in order up to the length.
+   */
+  public Map<String, String> finish(File file, long length, long lastModified) {
+    Map<String, String> ret = null;
+
+    Running running;
+    synchronized (this) {
+      running = files.remove(file);
+    }
+
+    if (running != null) {
+      synchronized (running) {
+        if (!running.dropped && running.position == length && (lastModified == 0L || running.lastModified == lastModified)) {
+          ret = running.digest.digest();
+        }
+        running.dropped = true;
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Stop digesting a file.
+   *
+   * @param file
+   */
+  public synchronized void remove(File file) {
+    files.remove(file);
+  }
+
+  /**
+   * The number of files being digested.
+   *
+   * @return
+   */
+  public synchronized int size() {
+    return files.size();
+  }
+
+  /**
+   * Feed a block of a file to its digest. A block at offset zero starts the file over.
+   *
+   * @param file
+   * @param offset The offset of the block in the file.
+   * @param data
+   * @param dataOffset
+   * @param length
+   * @return The offset just past the block or -1 if the file is not being digested.
+   */
+  public long update(File file, long offset, byte[] data, int dataOffset, int length) {
+    long ret = -1L;
+
+    Running running = null;
+    if (offset == 0L) {
+      try {
+        running = new Running(new MultiDigest(HashProcessor.getHashTypes()), file.lastModified());
+      } catch (NoSuchAlgorithmException ee) {
+        logger.warn(String.format("Unable to digest %s: %s", file.getAbsolutePath(), ee.getMessage()));
+      }
+    }
+
+    synchronized (this) {
+      if (offset != 0L) {
+        running = files.get(file);
+      } else if (running != null) {
+        files.put(file, running);
+      } else {
+        files.remove(file);
+      }
+    }
+
+    if (running != null) {
+      boolean dropped;
+      synchronized (running) {
+        if (!running.dropped && running.position == offset) {
+          running.digest.update(data, dataOffset, length);
+          running.position += length;
+          ret = running.position;
+        } else {
+          running.dropped = true;
+        }
+        dropped = running.dropped;
+      }
+
+      if (dropped) {
+        synchronized (this) {
+          if (files.get(file) == running) {
+            files.remove(file);
+          }
+        }
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * The digest of one file and how far into the file it has got.
+   *
+   * @author wstrater
+   *
+   */
+  private static class Running {
+
+    private final MultiDigest digest;
+    private boolean           dropped;
+    private final long        lastModified;
+    private long              position;
+
+    private Running(MultiDigest digest, long lastModified) {
+      this.digest = digest;
+      this.lastModified = lastModified;
+    }
+
+  }
+
+}
@@ -0,0 +1,144 @@
+package com.wstrater.server.fileSync.common.hash;
+
+import java.util.zip.Checksum;
+
+/**
+ * A pure Java xxHash64 with a seed of zero. Much faster than a cryptographic hash on small CPUs and
+ * good enough for noticing that a file or block changed.
+ * 
+ * @author wstrater
+ *
+ */
+public class XXHash64 implements Checksum {
+
+  private final static long PRIME1 = 0x9E3779B185EBCA87L;
+  private final static long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+  private final static long PRIME3 = 0x165667B19E3779F9L;
+  private final static long PRIME4 = 0x85EBCA77C2B2AE63L;
+  private final static long PRIME5 = 0x27D4EB2F165667C5L;
+
+  private final byte[]      buffer = new byte[32];
+  private int               buffered;
+  private long              total;
+  private long              v1;
+  private long              v2;
+  private long              v3;
+  private long              v4;
+
+  public XXHash64() {
+    reset();
+  }
+
+  private static long getLong(byte[] data, int offset) {
+    return (data[offset] & 0xFFL) | (data[offset + 1] & 0xFFL) << 8 | (data[offset + 2] & 0xFFL) << 16
+        | (data[offset + 3] & 0xFFL) << 24 | (data[offset + 4] & 0xFFL) << 32 | (data[offset + 5] & 0xFFL) << 40
+        | (data[offset + 6] & 0xFFL) << 48 | (data[offset + 7] & 0xFFL) << 56;
+  }
+
+  private static long getUnsignedInt(byte[] data, int offset) {
+    return (data[offset] & 0xFFL) | (data[offset + 1] & 0xFFL) << 8 | (data[offset + 2] & 0xFFL) << 16
+        | (data[offset + 3] & 0xFFL) << 24;
+  }
+
+  @Override
+  public long getValue() {
+    long ret;
+
+    if (total >= 32L) {
+      ret = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      ret = merge(ret, v1);
+      ret = merge(ret, v2);
+      ret = merge(ret, v3);
+      ret = merge(ret, v4);
+    } else {
+      ret = PRIME5;
+    }
+    ret += total;
+
+    int offset = 0;
+    while (offset + 8 <= buffered) {
+      ret ^= round(0L, getLong(buffer, offset));
+      ret = Long.rotateLeft(ret, 27) * PRIME1 + PRIME4;
+      offset += 8;
+    }
+    if (offset + 4 <= buffered) {
+      ret ^= getUnsignedInt(buffer, offset) * PRIME1;
+      ret = Long.rotateLeft(ret, 23) * PRIME2 + PRIME3;
+      offset += 4;
+    }
+    while (offset < buffered) {
+      ret ^= (buffer[offset] & 0xFFL) * PRIME5;
+      ret = Long.rotateLeft(ret, 11) * PRIME1;
+      offset++;
+    }
+
+    ret ^= ret >>> 33;
+    ret *= PRIME2;
+    ret ^= ret >>> 29;
+    ret *= PRIME3;
+    ret ^= ret >>> 32;
+
+    return ret;
+  }
+
+  private static long merge(long hash, long value) {
+    return (hash ^ round(0L, value)) * PRIME1 + PRIME4;
+  }
+
+  @Override
+  public void reset() {
+    buffered = 0;
+    total = 0L;
+    v1 = PRIME1 + PRIME2;
+    v2 = PRIME2;
+    v3 = 0L;
+    v4 = -PRIME1;
+  }
+
+  private static long round(long acc, long input) {
+    return Long.rotateLeft(acc + input * PRIME2, 31) * PRIME1;
+  }
+
+  /**
+   * Consume one 32 byte stripe.
+   */
+  private void stripe(byte[] data, int offset) {
+    v1 = round(v1, getLong(data, offset));
+    v2 = round(v2, getLong(data, offset + 8));
+    v3 = round(v3, getLong(data, offset + 16));
+    v4 = round(v4, getLong(data, offset + 24));
+  }
+
+  @Override
+  public void update(byte[] data, int offset, int length) {
+    int end = offset + length;
+    total += length;
+
+    if (buffered > 0) {
+      int count = Math.min(buffer.length - buffered, length);
+      System.arraycopy(data, offset, buffer, buffered, count);
+      buffered += count;
+      offset += count;
+      if (buffered == buffer.length) {
+        stripe(buffer, 0);
+        buffered = 0;
+      }
+    }
+
+    while (offset + 32 <= end) {
+      stripe(data, offset);
+      offset += 32;
+    }
+
+    if (offset < end) {
+      System.arraycopy(data, offset, buffer, buffered, end - offset);
+      buffered += end - offset;
+    }
+  }
+
+  @Override
+  public void update(int data) {
+    update(new byte[] { (byte) data }, 0, 1);
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,54 @@
+package com.wstrater.server.fileSync.common.hash;
+
+import java.security.MessageDigest;
+
+/**
+ * {@link XXHash64} as a {@link MessageDigest} so it can be used as a hash type. The digest is the
+ * 64 bit value, most significant byte first.
+ * 
+ * @author wstrater
+ *
+ */
+public class XXHash64Digest extends MessageDigest {
+
+  private final XXHash64 hash = new XXHash64();
+
+  public XXHash64Digest() {
+    super(Checksums.XXH64);
+  }
+
+  @Override
+  protected byte[] engineDigest() {
+    byte[] ret = new byte[8];
+
+    long value = hash.getValue();
+    for (int xx = ret.length - 1; xx >= 0; xx--) {
+      ret[xx] = (byte) value;
+      value >>>= 8;
+    }
+    hash.reset();
+
+    return ret;
+  }
+
+  @Override
+  protected int engineGetDigestLength() {
+    return 8;
+  }
+
+  @Override
+  protected void engineReset() {
+    hash.reset();
+  }
+
+  @Override
+  protected void engineUpdate(byte input) {
+    hash.update(input);
+  }
+
+  @Override
+  protected void engineUpdate(byte[] input, int offset, int len) {
+    hash.update(input, offset, len);
+  }
+
+}
\ No newline at end of file
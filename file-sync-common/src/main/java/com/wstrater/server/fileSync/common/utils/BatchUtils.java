@@ -0,0 +1,320 @@
+package com.wstrater.server.fileSync.common.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.wstrater.server.fileSync.common.codec.Codec;
+import com.wstrater.server.fileSync.common.data.ReadRequest;
+import com.wstrater.server.fileSync.common.data.ReadResponse;
+import com.wstrater.server.fileSync.common.data.WriteRequest;
+import com.wstrater.server.fileSync.common.data.WriteResponse;
+import com.wstrater.server.fileSync.common.exceptions.ErrorInflatingBlockException;
+import com.wstrater.server.fileSync.common.exceptions.ErrorReadingResponse;
+import com.wstrater.server.fileSync.common.exceptions.ErrorWritingBlockException;
+import com.wstrater.server.fileSync.common.exceptions.InvalidDataLengthException;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Deflated;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Inflated;
+
+/**
+ * The body of a request or response carrying a batch of blocks. Every batch starts with the number
+ * of blocks. Each block has its own offset, length, compressed length, CRC and data so the blocks
+ * can be compressed independently. The compressed length is -1 when the block is not compressed.
+ * Every block of a batch is compressed with the same {@link Codec}, named in a header. Time stamps
+ * are sent as UTC.
+ * 
+ * @author wstrater
+ *
+ */
+public abstract class BatchUtils {
+
+  /**
+   * Compress a block when asked, the {@link CompressionAdvisor} expects it to compress and it gets
+   * smaller. The compressed data is pooled so release it once written.
+   * 
+   * @param level Zero to not compress.
+   * @return Null if not compressed.
+   */
+  private static Deflated compress(File baseDir, String fileName, byte[] data, int length, Codec codec, int level) {
+    return FileUtils.getCompressionAdvisor().compress(baseDir, fileName, data, 0, length, codec, level,
+        FileUtils.getBufferPool());
+  }
+
+  /**
+   * Read the data of a block into an array from the pool. Release it once written.
+   */
+  private static byte[] readData(DataInputStream in, int length, int compressed, Codec codec) throws IOException {
+    byte[] ret;
+
+    if (length < 0 || length > FileUtils.getMaxBlockSize() || compressed > length) {
+      throw new InvalidDataLengthException(String.format("Length must be between %d and %d: %d/%d", 0,
+          FileUtils.getMaxBlockSize(), length, compressed));
+    }
+
+    if (compressed > 0) {
+      byte[] data = new byte[compressed];
+      in.readFully(data);
+
+      Inflated inflated = codec.decompress(data, 0, compressed, length, FileUtils.getBufferPool());
+      if (inflated == null || inflated.getLength() != length) {
+        if (inflated != null) {
+          FileUtils.getBufferPool().release(inflated.getData());
+        }
+        throw new ErrorInflatingBlockException("Error inflating compressed block of a batch");
+      }
+      ret = inflated.getData();
+    } else {
+      ret = FileUtils.getBufferPool().acquire(length);
+      try {
+        in.readFully(ret);
+      } catch (IOException ee) {
+        FileUtils.getBufferPool().release(ret);
+        throw ee;
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Read the responses to a batch of read requests. The server may return fewer responses than
+   * requests.
+   * 
+   * @param in
+   * @param requests
+   * @param codec The blocks were compressed with.
+   * @return
+   */
+  public static List<ReadResponse> readReadResponses(InputStream in, List<ReadRequest> requests, Codec codec) {
+    List<ReadResponse> ret = new ArrayList<>();
+
+    try {
+      DataInputStream data = new DataInputStream(in);
+
+      int count = data.readInt();
+      if (count < 0 || count > requests.size()) {
+        throw new ErrorReadingResponse(String.format("Batch of %d responses to %d requests", count, requests.size()));
+      }
+
+      for (int xx = 0; xx < count; xx++) {
+        ReadResponse response = new ReadResponse();
+        response.setRequest(requests.get(xx));
+
+        long offset = data.readLong();
+        if (offset != requests.get(xx).getOffset()) {
+          throw new ErrorReadingResponse(String.format("Batch response for offset %d to request for offset %d", offset,
+              requests.get(xx).getOffset()));
+        }
+        response.setLength(data.readInt());
+        int compressed = data.readInt();
+        response.setCrc32(data.readLong());
+        response.setEof(data.readBoolean());
+        response.setSuccess(data.readBoolean());
+        response.setData(readData(data, response.getLength(), compressed, codec));
+        response.setPooled(true);
+
+        ret.add(response);
+      }
+    } catch (IOException ee) {
+      throw new ErrorReadingResponse(String.format("Unable to read batch response: %s", ee.getMessage()));
+    }
+
+    return ret;
+  }
+
+  /**
+   * Read a batch of write requests. Reading stops at {@link FileUtils#getMaxBatchSize()} so the
+   * rest of the batch is left to be sent again.
+   * 
+   * @param in
+   * @param baseDir
+   * @param fileName
+   * @param codec The blocks were compressed with.
+   * @return
+   */
+  public static List<WriteRequest> readWriteRequests(InputStream in, File baseDir, String fileName, Codec codec) {
+    List<WriteRequest> ret = new ArrayList<>();
+
+    try {
+      DataInputStream data = new DataInputStream(in);
+
+      long batchSize = 0L;
+      int count = data.readInt();
+      for (int xx = 0; xx < count; xx++) {
+        WriteRequest request = new WriteRequest();
+        request.setBaseDir(baseDir);
+        request.setFileName(fileName);
+        request.setOffset(data.readLong());
+        request.setLength(data.readInt());
+        int compressed = data.readInt();
+        request.setEof(data.readBoolean());
+        long timeStamp = data.readLong();
+        request.setTimeStamp(timeStamp > 0L ? TimeUtils.fromUTC(timeStamp) : 0L);
+
+        batchSize += request.getLength();
+        if (!ret.isEmpty() && batchSize > FileUtils.getMaxBatchSize()) {
+          break;
+        }
+
+        request.setData(readData(data, request.getLength(), compressed, codec));
+        request.setPooled(true);
+
+        ret.add(request);
+      }
+    } catch (IOException ee) {
+      throw new ErrorWritingBlockException(String.format("Unable to read batch request: %s", ee.getMessage()));
+    }
+
+    return ret;
+  }
+
+  /**
+   * Read the responses to a batch of write requests. The server may return fewer responses than
+   * requests.
+   * 
+   * @param in
+   * @param requests
+   * @return
+   */
+  public static List<WriteResponse> readWriteResponses(InputStream in, List<WriteRequest> requests) {
+    List<WriteResponse> ret = new ArrayList<>();
+
+    try {
+      DataInputStream data = new DataInputStream(in);
+
+      int count = data.readInt();
+      if (count < 0 || count > requests.size()) {
+        throw new ErrorReadingResponse(String.format("Batch of %d responses to %d requests", count, requests.size()));
+      }
+
+      for (int xx = 0; xx < count; xx++) {
+        WriteResponse response = new WriteResponse();
+        response.setRequest(requests.get(xx));
+        response.setLength(data.readInt());
+        response.setCrc32(data.readLong());
+        response.setSuccess(data.readBoolean());
+
+        ret.add(response);
+      }
+    } catch (IOException ee) {
+      throw new ErrorReadingResponse(String.format("Unable to read batch response: %s", ee.getMessage()));
+    }
+
+    return ret;
+  }
+
+  /**
+   * Write the responses to a batch of read requests.
+   * 
+   * @param responses
+   * @param codec
+   * @param level The level to compress the blocks that get smaller at or zero to not compress.
+   * @return
+   */
+  public static byte[] writeReadResponses(List<ReadResponse> responses, Codec codec, int level) {
+    ByteArrayOutputStream ret = new ByteArrayOutputStream();
+
+    try {
+      DataOutputStream out = new DataOutputStream(ret);
+
+      out.writeInt(responses.size());
+      for (ReadResponse response : responses) {
+        byte[] data = response.getData() == null ? new byte[0] : response.getData();
+        ReadRequest request = response.getRequest();
+        Deflated deflated = compress(request.getBaseDir(), request.getFileName(), data, response.getLength(), codec, level);
+
+        out.writeLong(request.getOffset());
+        out.writeInt(response.getLength());
+        out.writeInt(deflated == null ? -1 : deflated.getLength());
+        out.writeLong(response.getCrc32());
+        out.writeBoolean(response.isEof());
+        out.writeBoolean(response.isSuccess());
+        if (deflated == null) {
+          out.write(data, 0, response.getLength());
+        } else {
+          out.write(deflated.getData(), 0, deflated.getLength());
+          FileUtils.getBufferPool().release(deflated.getData());
+        }
+      }
+
+      out.flush();
+    } catch (IOException ee) {
+      // Writing to memory
+    }
+
+    return ret.toByteArray();
+  }
+
+  /**
+   * Write a batch of write requests.
+   * 
+   * @param requests
+   * @param codec
+   * @param level The level to compress the blocks that get smaller at or zero to not compress.
+   * @return
+   */
+  public static byte[] writeWriteRequests(List<WriteRequest> requests, Codec codec, int level) {
+    ByteArrayOutputStream ret = new ByteArrayOutputStream();
+
+    try {
+      DataOutputStream out = new DataOutputStream(ret);
+
+      out.writeInt(requests.size());
+      for (WriteRequest request : requests) {
+        Deflated deflated = compress(DirectoryUtils.getBaseDir(), request.getFileName(), request.getData(),
+            request.getLength(), codec, level);
+
+        out.writeLong(request.getOffset());
+        out.writeInt(request.getLength());
+        out.writeInt(deflated == null ? -1 : deflated.getLength());
+        out.writeBoolean(request.isEof());
+        out.writeLong(request.getTimeStamp() > 0L ? TimeUtils.toUTC(request.getTimeStamp()) : 0L);
+        if (deflated == null) {
+          out.write(request.getData(), 0, request.getLength());
+        } else {
+          out.write(deflated.getData(), 0, deflated.getLength());
+          FileUtils.getBufferPool().release(deflated.getData());
+        }
+      }
+
+      out.flush();
+    } catch (IOException ee) {
+      // Writing to memory
+    }
+
+    return ret.toByteArray();
+  }
+
+  /**
+   * Write the responses to a batch of write requests.
+   * 
+   * @param responses
+   * @return
+   */
+  public static byte[] writeWriteResponses(List<WriteResponse> responses) {
+    ByteArrayOutputStream ret = new ByteArrayOutputStream();
+
+    try {
+      DataOutputStream out = new DataOutputStream(ret);
+
+      out.writeInt(responses.size());
+      for (WriteResponse response : responses) {
+        out.writeInt(response.getLength());
+        out.writeLong(response.getCrc32());
+        out.writeBoolean(response.isSuccess());
+      }
+
+      out.flush();
+    } catch (IOException ee) {
+      // Writing to memory
+    }
+
+    return ret.toByteArray();
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,173 @@
+package com.wstrater.server.fileSync.common.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded pool of byte arrays so the blocks of a transfer can reuse the same few arrays rather
+ * than allocating new ones for every block. Arrays are pooled by their exact size since the blocks
+ * of a file are all the same size except for the last one. No more than <code>maxBytes</code> are
+ * kept free. Once the pool is full the sizes released longest ago, such as the last block of a
+ * file, are dropped to make room and left for the garbage collector.
+ * <p/>
+ * The hits, misses and drops can be used to tune the size of the pool. A pool of zero bytes always
+ * allocates.
+ * <p/>
+ * Only release an array once nothing else refers to it.
+ *
+ * @author wstrater
+ *
+ */
+public class BufferPool {
+
+  public final static long                  DEFAULT_MAX_BYTES = 8L * 1024L * 1024L;
+
+  private long                              drops;
+  private final Map<Integer, Deque<byte[]>> free              = new LinkedHashMap<>(16, 0.75F, true);
+  private long                              freeBytes;
+  private long                              hits;
+  private final long                        maxBytes;
+  private long                              misses;
+
+  public BufferPool(long maxBytes) {
+    this.maxBytes = Math.max(0L, maxBytes);
+  }
+
+  /**
+   * Take a free array of the given size from the pool or allocate one if there are none.
+   *
+   * @param size
+   * @return
+   */
+  public byte[] acquire(int size) {
+    byte[] ret = null;
+
+    synchronized (this) {
+      Deque<byte[]> buffers = free.get(size);
+      if (buffers != null) {
+        ret = buffers.poll();
+      }
+      if (ret == null) {
+        misses++;
+      } else {
+        hits++;
+        freeBytes -= ret.length;
+      }
+    }
+
+    if (ret == null) {
+      ret = new byte[size];
+    }
+
+    return ret;
+  }
+
+  /**
+   * Drop every free array.
+   */
+  public synchronized void clear() {
+    free.clear();
+    freeBytes = 0L;
+  }
+
+  /**
+   * Drop free arrays of the other sizes, those used longest ago first, to make room. Called while
+   * synchronized.
+   *
+   * @param size Not dropped.
+   * @param needed
+   */
+  private void dropEldest(int size, long needed) {
+    long dropped = 0L;
+
+    Iterator<Map.Entry<Integer, Deque<byte[]>>> iter = free.entrySet().iterator();
+    while (dropped < needed && iter.hasNext()) {
+      Map.Entry<Integer, Deque<byte[]>> entry = iter.next();
+      if (entry.getKey() != size) {
+        Deque<byte[]> buffers = entry.getValue();
+        while (dropped < needed && !buffers.isEmpty()) {
+          dropped += buffers.pop().length;
+          drops++;
+        }
+        if (buffers.isEmpty()) {
+          iter.remove();
+        }
+      }
+    }
+
+    freeBytes -= dropped;
+  }
+
+  /**
+   * The arrays dropped because the pool was full.
+   *
+   * @return
+   */
+  public synchronized long getDrops() {
+    return drops;
+  }
+
+  public synchronized long getFreeBytes() {
+    return freeBytes;
+  }
+
+  /**
+   * The arrays taken from the pool.
+   *
+   * @return
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * The arrays allocated because there were none free of the size asked for.
+   *
+   * @return
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /**
+   * Return an array to the pool. A <code>null</code> array is ignored.
+   *
+   * @param buffer
+   */
+  public synchronized void release(byte[] buffer) {
+    if (buffer != null) {
+      Deque<byte[]> buffers = free.get(buffer.length);
+      if (freeBytes + buffer.length > maxBytes) {
+        dropEldest(buffer.length, freeBytes + buffer.length - maxBytes);
+      }
+      if (freeBytes + buffer.length > maxBytes) {
+        drops++;
+      } else {
+        if (buffers == null) {
+          buffers = new ArrayDeque<>();
+          free.put(buffer.length, buffers);
+        }
+        buffers.push(buffer);
+        freeBytes += buffer.length;
+      }
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("BufferPool [maxBytes=").append(maxBytes).append(", freeBytes=").append(freeBytes).append(", hits=")
+        .append(hits).append(", misses=").append(misses).append(", drops=").append(drops).append("]");
+
+    return builder.toString();
+  }
+
+}
\ No newline at end of file
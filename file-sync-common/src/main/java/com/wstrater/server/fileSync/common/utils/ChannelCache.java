@@ -0,0 +1,341 @@
+package com.wstrater.server.fileSync.common.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An LRU cache of open file channels keyed by canonical file so the blocks of a file can be read
+ * and written without opening the file for every block. Channels are shared by concurrent requests
+ * for the same file since positional reads and writes do not share a position. A channel is only
+ * closed once every {@link Handle} acquired for it has been released.
+ * <p/>
+ * No more than <code>maxOpen</code> channels are kept open and channels not used for
+ * <code>idleMillis</code> are closed. A file must be evicted when it is deleted, truncated or
+ * replaced so the next request opens the file as it is now.
+ *
+ * @author wstrater
+ *
+ */
+public class ChannelCache {
+
+  public final static long         DEFAULT_IDLE_MILLIS = TimeUnit.SECONDS.toMillis(30L);
+  public final static int          DEFAULT_MAX_OPEN    = 64;
+
+  protected final static Logger    logger              = LoggerFactory.getLogger(ChannelCache.class);
+
+  private final Map<File, Handle>  handles             = new LinkedHashMap<>(16, 0.75F, true);
+  private final long               idleMillis;
+  private final int                maxOpen;
+  private ScheduledExecutorService sweeper;
+
+  public ChannelCache(int maxOpen, long idleMillis) {
+    this.maxOpen = Math.max(1, maxOpen);
+    this.idleMillis = idleMillis;
+  }
+
+  /**
+   * Open a channel that is closed when released rather than cached.
+   *
+   * @param file
+   * @param write
+   * @return
+   * @throws IOException
+   */
+  public static Handle open(File file, boolean write) throws IOException {
+    Handle ret = new Handle(null, file, write);
+
+    ret.users = 1;
+
+    return ret;
+  }
+
+  /**
+   * Get the open channel for a file, opening it if needed. A channel opened for reading is replaced
+   * by one opened for reading and writing the first time the file is written. Be sure to release
+   * the handle.
+   *
+   * @param file Canonical
+   * @param write
+   * @return
+   * @throws IOException
+   */
+  public Handle acquire(File file, boolean write) throws IOException {
+    Handle ret = null;
+
+    List<Handle> closing = new ArrayList<>();
+    try {
+      synchronized (this) {
+        ret = handles.get(file);
+        if (ret != null && (!ret.channel.isOpen() || (write && !ret.write))) {
+          handles.remove(file);
+          ret.evicted = true;
+          if (ret.users == 0) {
+            closing.add(ret);
+          }
+          ret = null;
+        }
+
+        if (ret == null) {
+          ret = new Handle(this, file, write);
+          handles.put(file, ret);
+          evictEldest(closing);
+          startSweeper();
+        }
+
+        ret.users++;
+        ret.lastUsed = System.currentTimeMillis();
+      }
+    } finally {
+      close(closing);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Close every channel. Channels still in use are closed when released.
+   */
+  public void clear() {
+    List<Handle> closing = new ArrayList<>();
+
+    synchronized (this) {
+      for (Handle handle : handles.values()) {
+        handle.evicted = true;
+        if (handle.users == 0) {
+          closing.add(handle);
+        }
+      }
+      handles.clear();
+
+      if (sweeper != null) {
+        sweeper.shutdownNow();
+        sweeper = null;
+      }
+    }
+
+    close(closing);
+  }
+
+  private void close(List<Handle> closing) {
+    for (Handle handle : closing) {
+      handle.close();
+    }
+  }
+
+  /**
+   * Close the channels not used for <code>idleMillis</code>.
+   */
+  public void closeIdle() {
+    List<Handle> closing = new ArrayList<>();
+
+    synchronized (this) {
+      long idleSince = System.currentTimeMillis() - idleMillis;
+      Iterator<Handle> iter = handles.values().iterator();
+      while (iter.hasNext()) {
+        Handle handle = iter.next();
+        if (handle.users == 0 && handle.lastUsed <= idleSince) {
+          iter.remove();
+          handle.evicted = true;
+          closing.add(handle);
+        }
+      }
+    }
+
+    close(closing);
+  }
+
+  /**
+   * Close the channel of a file once it is no longer in use. The next request opens the file again.
+   *
+   * @param file Canonical
+   */
+  public void evict(File file) {
+    List<Handle> closing = new ArrayList<>();
+
+    synchronized (this) {
+      Handle handle = handles.remove(file);
+      if (handle != null) {
+        handle.evicted = true;
+        if (handle.users == 0) {
+          closing.add(handle);
+        }
+      }
+    }
+
+    close(closing);
+  }
+
+  /**
+   * Close the channels of every file within a directory once they are no longer in use.
+   *
+   * @param dir Canonical
+   */
+  public void evictAll(File dir) {
+    List<Handle> closing = new ArrayList<>();
+
+    synchronized (this) {
+      Iterator<Handle> iter = handles.values().iterator();
+      while (iter.hasNext()) {
+        Handle handle = iter.next();
+        if (DirectoryUtils.isChild(dir, handle.file)) {
+          iter.remove();
+          handle.evicted = true;
+          if (handle.users == 0) {
+            closing.add(handle);
+          }
+        }
+      }
+    }
+
+    close(closing);
+  }
+
+  /**
+   * Evict the least recently used channels over <code>maxOpen</code>. Called while synchronized.
+   *
+   * @param closing
+   */
+  private void evictEldest(List<Handle> closing) {
+    Iterator<Handle> iter = handles.values().iterator();
+    while (handles.size() > maxOpen && iter.hasNext()) {
+      Handle handle = iter.next();
+      iter.remove();
+      handle.evicted = true;
+      if (handle.users == 0) {
+        closing.add(handle);
+      }
+    }
+  }
+
+  public int getMaxOpen() {
+    return maxOpen;
+  }
+
+  /**
+   * Whether the file already has an open channel.
+   *
+   * @param file Canonical
+   * @return
+   */
+  public synchronized boolean isOpen(File file) {
+    Handle handle = handles.get(file);
+    return handle != null && handle.channel.isOpen();
+  }
+
+  private void release(Handle handle) {
+    boolean close = false;
+
+    synchronized (this) {
+      handle.users--;
+      handle.lastUsed = System.currentTimeMillis();
+      close = handle.users == 0 && (handle.evicted || !handle.channel.isOpen());
+      if (!handle.channel.isOpen() && handles.get(handle.file) == handle) {
+        // Closed by an interrupted thread so it can not be used again.
+        handles.remove(handle.file);
+        handle.evicted = true;
+      }
+    }
+
+    if (close) {
+      handle.close();
+    }
+  }
+
+  public synchronized int size() {
+    return handles.size();
+  }
+
+  /**
+   * Called while synchronized.
+   */
+  private void startSweeper() {
+    if (sweeper == null && idleMillis > 0L) {
+      sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread ret = new Thread(runnable, "ChannelCache-Sweeper");
+          ret.setDaemon(true);
+          return ret;
+        }
+      });
+      long period = Math.max(1L, idleMillis / 2L);
+      sweeper.scheduleWithFixedDelay(new Runnable() {
+
+        @Override
+        public void run() {
+          closeIdle();
+        }
+      }, period, period, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * An open channel acquired from the cache.
+   */
+  public static class Handle {
+
+    private final ChannelCache cache;
+    private final FileChannel  channel;
+    private boolean            evicted;
+    private final File         file;
+    private long               lastUsed;
+    private int                users;
+    private final boolean      write;
+
+    private Handle(ChannelCache cache, File file, boolean write) throws IOException {
+      this.cache = cache;
+      this.file = file;
+      this.write = write;
+      if (write) {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+      } else {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      }
+    }
+
+    private void close() {
+      try {
+        channel.close();
+      } catch (IOException ee) {
+        logger.debug(String.format("Error closing %s: %s", file.getAbsolutePath(), ee.getMessage()));
+      }
+    }
+
+    public FileChannel getChannel() {
+      return channel;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    /**
+     * Release the handle. The channel is closed if it is not cached or has been evicted and is no
+     * longer in use.
+     */
+    public void release() {
+      if (cache == null) {
+        close();
+      } else {
+        cache.release(this);
+      }
+    }
+
+  }
+
+}
\ No newline at end of file
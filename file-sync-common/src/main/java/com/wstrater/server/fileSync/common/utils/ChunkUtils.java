@@ -55,6 +55,33 @@ public class ChunkUtils {
     return ret;
   }
 
+  /**
+   * Create a new {@see ChunkInfo} for the fileSize with chunks of another file so the chunks of the
+   * two files line up. There may be more than {@link ChunkInfo#MAX_NUM_CHUNKS} chunks so the flags
+   * of the result can not be used for every chunk.
+   * 
+   * @param fileSize
+   * @param blockSize
+   * @param chunkSize
+   * @return
+   */
+  public static ChunkInfo newInstance(long fileSize, int blockSize, int chunkSize) {
+    ChunkInfo ret = new ChunkInfo();
+
+    ret.setBlockSize(blockSize);
+
+    if (fileSize > 0 && chunkSize > 0) {
+      long numBlocks = (fileSize / blockSize) + 1;
+      ret.setChunkSize(chunkSize);
+      ret.setNumChunks((int) ((numBlocks + chunkSize - 1) / chunkSize));
+    } else {
+      ret.setChunkSize(0);
+      ret.setNumChunks(0);
+    }
+
+    return ret;
+  }
+
   /**
    * Set the default block size.
    * 
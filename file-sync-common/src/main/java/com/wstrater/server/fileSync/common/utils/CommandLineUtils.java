@@ -21,7 +21,10 @@ import org.apache.commons.cli.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.wstrater.server.fileSync.common.codec.Codecs;
+import com.wstrater.server.fileSync.common.hash.Checksums;
 import com.wstrater.server.fileSync.common.hash.HashProcessor;
+import com.wstrater.server.fileSync.common.hash.HashThrottle;
 import com.wstrater.server.fileSync.common.utils.Constants.SslEnum;
 import com.wstrater.server.fileSync.common.utils.Constants.SyncEnum;
 
@@ -37,11 +40,21 @@ public class CommandLineUtils {
   public final static String ALLOW_DELETE_ARG  = "allow-delete";
   public final static String ALLOW_WRITE_ARG   = "allow-write";
   public final static String BASE_DIR_ARG      = "base-dir";
+  public final static String BATCH_SIZE_ARG    = "batch-size";
   public final static String BLOCK_SIZE_ARG    = "block-size";
+  public final static String CHECKSUM_TYPE_ARG = "checksum-type";
+  public final static String CODEC_ARG         = "codec";
   public final static String COMPRESS_ARG      = "compress";
+  public final static String DELTA_ARG         = "delta";
+  public final static String DICTIONARY_ARG    = "dictionary";
   public final static String ENC_PASS_ARG      = "enc-pass";
   public final static String ENC_USER_ARG      = "enc-user";
   public final static String HASH_ARG          = "hash";
+  public final static String HASH_BUDGET_ARG   = "hash-budget";
+  public final static String HASH_BUSY_ARG     = "hash-busy";
+  public final static String HASH_BYTES_ARG    = "hash-progress-bytes";
+  public final static String HASH_PROGRESS_ARG = "hash-progress";
+  public final static String HASH_THREADS_ARG  = "hash-threads";
   public final static String HASH_TYPE_ARG     = "hash-type";
   public final static String HELP_ARG          = "help";
   public final static String HELP_SHORT_ARG    = "h";
@@ -49,8 +62,13 @@ public class CommandLineUtils {
   public final static String HIDDEN_DIRS_ARG   = "hidden-dirs";
   public final static String HIDDEN_FILES_ARG  = "hidden-files";
   public final static String KEY_PASS_ARG      = "key-pass";
+  public final static String LISTINGS_ARG      = "listings";
+  public final static String MAP_SIZE_ARG      = "map-size";
+  public final static String MAX_BATCH_ARG     = "max-batch";
   public final static String MAX_BLOCK_ARG     = "max-block";
   public final static String MAX_OFFSET_ARG    = "max-offset";
+  public final static String MAX_OPEN_ARG      = "max-open";
+  public final static String MAX_POOL_ARG      = "max-pool";
   public final static String PATH_ARG          = "path";
   public final static String PLAN_ARG          = "plan";
   public final static String PLAN_EOL_ARG      = "plan-eol";
@@ -59,15 +77,23 @@ public class CommandLineUtils {
   public final static String PORT_ARG          = "port";
   public final static String PROPS_ARG         = "props";
   public final static String PROP_PREFIX_ARG   = "prop-prefix";
+  public final static String QUEUE_DEPTH_ARG   = "queue-depth";
   public final static String RECURSIVE_ARG     = "recursive";
   public final static String REHASH_ARG        = "rehash";
   public final static String REMOTE_DELETE_ARG = "remote-delete";
   public final static String REMOTE_WRITE_ARG  = "remote-write";
+  public final static String ROLLING_SIZE_ARG  = "rolling-size";
+  public final static String ROLLUP_ARG        = "rollup";
   public final static String SSL_ARG           = "ssl";
   public final static String STORE_FILE_ARG    = "store-file";
   public final static String STORE_PASS_ARG    = "store-pass";
+  public final static String STREAM_SIZE_ARG   = "stream-size";
+  public final static String STRIPES_ARG       = "stripes";
+  public final static String STRIPE_SIZE_ARG   = "stripe-size";
   public final static String SYNC_ARG          = "sync";
+  public final static String THREADS_ARG       = "threads";
   public final static String TIME_ZONE_ARG     = "time-zone";
+  public final static String TREE_ARG          = "tree";
   public final static String TRUST_FILE_ARG    = "trust-file";
   public final static String TRUST_PASS_ARG    = "trust-pass";
   public final static String USER_FILE_ARG     = "user-file";
@@ -85,19 +111,34 @@ public class CommandLineUtils {
   private boolean            allowDelete       = FilePermissions.DEFAULT_LOCAL_DELETE;
   private boolean            allowWrite        = FilePermissions.DEFAULT_LOCAL_WRITE;
   private File               baseDir;
+  private int                batchSize         = Constants.DEFAULT_BATCH_SIZE;
   private int                blockSize         = ChunkUtils.DEFAULT_BLOCK_SIZE;
+  private String             checksumType      = Checksums.DEFAULT_CHECKSUM_TYPE;
+  private String             codec             = Codecs.DEFAULT_CODEC;
   private boolean            compress          = false;
+  private boolean            delta             = false;
+  private boolean            dictionary        = false;
   private String             encPass;
   private String             encUser;
   private SyncEnum           hash              = SyncEnum.Local;
+  private long               hashBudget        = HashThrottle.DEFAULT_BUDGET;
+  private long               hashBusy          = HashThrottle.DEFAULT_BUSY_BUDGET;
+  private long               hashBytes         = HashProcessor.DEFAULT_PROGRESS_BYTES;
+  private long               hashProgress      = HashProcessor.DEFAULT_PROGRESS_MILLIS;
+  private int                hashThreads       = HashProcessor.DEFAULT_THREADS;
   private String             hashType          = HashProcessor.DEFAULT_HASH_TYPE;
   private boolean            help              = false;
   private boolean            hiddenDirectories = false;
   private boolean            hiddenFiles       = false;
   private String             host              = "localhost";
   private String             keyPass;
+  private int                listings          = Constants.DEFAULT_LISTINGS;
+  private long               mapSize           = 0L;
+  private int                maxBatch          = FileUtils.MAX_BATCH_SIZE;
   private int                maxBlock          = FileUtils.MAX_BLOCK_SIZE;
   private long               maxOffset         = FileUtils.MAX_OFFSET;
+  private int                maxOpen           = ChannelCache.DEFAULT_MAX_OPEN;
+  private long               maxPool           = BufferPool.DEFAULT_MAX_BYTES;
   private CommandLineParser  parser;
   private String             path              = ".";
   private SyncEnum           plan              = SyncEnum.Local;
@@ -105,15 +146,23 @@ public class CommandLineUtils {
   private String             planFile          = null;
   private String             planTemplate      = "planTemplateCSV.jmte";
   private int                port              = 8080;
+  private int                queueDepth        = Constants.DEFAULT_QUEUE_DEPTH;
   private boolean            remoteDelete      = FilePermissions.DEFAULT_REMOTE_DELETE;
   private boolean            remoteWrite       = FilePermissions.DEFAULT_REMOTE_WRITE;
   private boolean            recursive         = true;
   private boolean            reHash            = false;
+  private long               rollingSize       = Constants.DEFAULT_ROLLING_SIZE;
+  private boolean            rollup            = false;
   private SslEnum            ssl               = null;
   private File               storeFile;
   private String             storePass;
+  private long               streamSize        = Constants.DEFAULT_STREAM_SIZE;
+  private int                stripes           = Constants.DEFAULT_STRIPES;
+  private long               stripeSize        = Constants.DEFAULT_STRIPE_SIZE;
   private SyncEnum           sync              = SyncEnum.Local;
+  private int                threads           = Constants.DEFAULT_SYNC_THREADS;
   private TimeZone           timeZone          = TimeUtils.getTimeZone();
+  private boolean            tree              = false;
   private File               trustFile;
   private String             trustPass;
   private File               userFile;
@@ -283,6 +332,14 @@ public class CommandLineUtils {
     return ret;
   }
 
+  public int getBatchSize() {
+    int ret = getPropertyInt(BATCH_SIZE_ARG, batchSize);
+
+    logParameter("Batch Size", ret);
+
+    return ret;
+  }
+
   public int getBlockSize() {
     int ret = getPropertyInt(BLOCK_SIZE_ARG, blockSize);
 
@@ -291,6 +348,22 @@ public class CommandLineUtils {
     return ret;
   }
 
+  public String getChecksumType() {
+    String ret = getPropertyString(CHECKSUM_TYPE_ARG, checksumType);
+
+    logParameter("Checksum Type", ret);
+
+    return ret;
+  }
+
+  public String getCodec() {
+    String ret = getPropertyString(CODEC_ARG, codec);
+
+    logParameter("Codec", ret);
+
+    return ret;
+  }
+
   public boolean isCompress() {
     boolean ret = getPropertyBoolean(COMPRESS_ARG, compress);
 
@@ -299,6 +372,22 @@ public class CommandLineUtils {
     return ret;
   }
 
+  public boolean isDelta() {
+    boolean ret = getPropertyBoolean(DELTA_ARG, delta);
+
+    logParameter("Delta", ret);
+
+    return ret;
+  }
+
+  public boolean isDictionary() {
+    boolean ret = getPropertyBoolean(DICTIONARY_ARG, dictionary);
+
+    logParameter("Dictionary", ret);
+
+    return ret;
+  }
+
   public String getEncPass() {
     String ret = getPropertyString(ENC_PASS_ARG, encPass);
 
@@ -323,6 +412,46 @@ public class CommandLineUtils {
     return ret;
   }
 
+  public long getHashBudget() {
+    long ret = getPropertyLong(HASH_BUDGET_ARG, hashBudget);
+
+    logParameter("Hash Budget", ret);
+
+    return ret;
+  }
+
+  public long getHashBusy() {
+    long ret = getPropertyLong(HASH_BUSY_ARG, hashBusy);
+
+    logParameter("Hash Busy", ret);
+
+    return ret;
+  }
+
+  public long getHashBytes() {
+    long ret = getPropertyLong(HASH_BYTES_ARG, hashBytes);
+
+    logParameter("Hash Progress Bytes", ret);
+
+    return ret;
+  }
+
+  public long getHashProgress() {
+    long ret = getPropertyLong(HASH_PROGRESS_ARG, hashProgress);
+
+    logParameter("Hash Progress", ret);
+
+    return ret;
+  }
+
+  public int getHashThreads() {
+    int ret = getPropertyInt(HASH_THREADS_ARG, hashThreads);
+
+    logParameter("Hash Threads", ret);
+
+    return ret;
+  }
+
   public String getHashType() {
     String ret = getPropertyString(HASH_TYPE_ARG, hashType);
 
@@ -367,6 +496,30 @@ public class CommandLineUtils {
     return ret;
   }
 
+  public int getListings() {
+    int ret = getPropertyInt(LISTINGS_ARG, listings);
+
+    logParameter("Listings", ret);
+
+    return ret;
+  }
+
+  public long getMapSize() {
+    long ret = getPropertyLong(MAP_SIZE_ARG, mapSize);
+
+    logParameter("Map Size", ret);
+
+    return ret;
+  }
+
+  public int getMaxBatch() {
+    int ret = getPropertyInt(MAX_BATCH_ARG, maxBatch);
+
+    logParameter("Max Batch", ret);
+
+    return ret;
+  }
+
   public int getMaxBlock() {
     int ret = getPropertyInt(MAX_BLOCK_ARG, maxBlock);
 
@@ -383,6 +536,22 @@ public class CommandLineUtils {
     return ret;
   }
 
+  public int getMaxOpen() {
+    int ret = getPropertyInt(MAX_OPEN_ARG, maxOpen);
+
+    logParameter("Max Open", ret);
+
+    return ret;
+  }
+
+  public long getMaxPool() {
+    long ret = getPropertyLong(MAX_POOL_ARG, maxPool);
+
+    logParameter("Max Pool", ret);
+
+    return ret;
+  }
+
   public String getPath() {
     String ret = getPropertyString(PATH_ARG, path);
 
@@ -431,6 +600,14 @@ public class CommandLineUtils {
     return ret;
   }
 
+  public int getQueueDepth() {
+    int ret = getPropertyInt(QUEUE_DEPTH_ARG, queueDepth);
+
+    logParameter("Queue Depth", ret);
+
+    return ret;
+  }
+
   public boolean isRecursive() {
     boolean ret = getPropertyBoolean(RECURSIVE_ARG, recursive);
 
@@ -463,6 +640,22 @@ public class CommandLineUtils {
     return ret;
   }
 
+  public boolean isRollup() {
+    boolean ret = getPropertyBoolean(ROLLUP_ARG, rollup);
+
+    logParameter("Rollup", ret);
+
+    return ret;
+  }
+
+  public long getRollingSize() {
+    long ret = getPropertyLong(ROLLING_SIZE_ARG, rollingSize);
+
+    logParameter("Rolling Size", ret);
+
+    return ret;
+  }
+
   public SslEnum getSsl() {
     SslEnum ret = ssl;
 
@@ -494,6 +687,30 @@ public class CommandLineUtils {
     return ret;
   }
 
+  public long getStreamSize() {
+    long ret = getPropertyLong(STREAM_SIZE_ARG, streamSize);
+
+    logParameter("Stream Size", ret);
+
+    return ret;
+  }
+
+  public int getStripes() {
+    int ret = getPropertyInt(STRIPES_ARG, stripes);
+
+    logParameter("Stripes", ret);
+
+    return ret;
+  }
+
+  public long getStripeSize() {
+    long ret = getPropertyLong(STRIPE_SIZE_ARG, stripeSize);
+
+    logParameter("Stripe Size", ret);
+
+    return ret;
+  }
+
   public SyncEnum getSync() {
     SyncEnum ret = getPropertySync(SYNC_ARG, sync);
 
@@ -502,6 +719,14 @@ public class CommandLineUtils {
     return ret;
   }
 
+  public int getThreads() {
+    int ret = getPropertyInt(THREADS_ARG, threads);
+
+    logParameter("Threads", ret);
+
+    return ret;
+  }
+
   public TimeZone getTimeZone() {
     TimeZone ret = getPropertyTimeZone(TIME_ZONE_ARG, timeZone);
 
@@ -513,6 +738,14 @@ public class CommandLineUtils {
     return ret;
   }
 
+  public boolean isTree() {
+    boolean ret = getPropertyBoolean(TREE_ARG, tree);
+
+    logParameter("Tree", ret);
+
+    return ret;
+  }
+
   public File getTrustFile() {
     File ret = getPropertyFile(TRUST_FILE_ARG, trustFile);
 
@@ -565,14 +798,34 @@ public class CommandLineUtils {
     return cli != null && cli.hasOption(BASE_DIR_ARG);
   }
 
+  public boolean hasBatchSize() {
+    return cli != null && cli.hasOption(BATCH_SIZE_ARG);
+  }
+
   public boolean hasBlockSize() {
     return cli != null && cli.hasOption(BLOCK_SIZE_ARG);
   }
 
+  public boolean hasChecksumType() {
+    return cli != null && cli.hasOption(CHECKSUM_TYPE_ARG);
+  }
+
+  public boolean hasCodec() {
+    return cli != null && cli.hasOption(CODEC_ARG);
+  }
+
   public boolean hasCompress() {
     return cli != null && cli.hasOption(COMPRESS_ARG);
   }
 
+  public boolean hasDelta() {
+    return cli != null && cli.hasOption(DELTA_ARG);
+  }
+
+  public boolean hasDictionary() {
+    return cli != null && cli.hasOption(DICTIONARY_ARG);
+  }
+
   public boolean hasEncPass() {
     return cli != null && cli.hasOption(ENC_PASS_ARG);
   }
@@ -585,6 +838,26 @@ public class CommandLineUtils {
     return cli != null && cli.hasOption(HASH_ARG);
   }
 
+  public boolean hasHashBudget() {
+    return cli != null && cli.hasOption(HASH_BUDGET_ARG);
+  }
+
+  public boolean hasHashBusy() {
+    return cli != null && cli.hasOption(HASH_BUSY_ARG);
+  }
+
+  public boolean hasHashBytes() {
+    return cli != null && cli.hasOption(HASH_BYTES_ARG);
+  }
+
+  public boolean hasHashProgress() {
+    return cli != null && cli.hasOption(HASH_PROGRESS_ARG);
+  }
+
+  public boolean hasHashThreads() {
+    return cli != null && cli.hasOption(HASH_THREADS_ARG);
+  }
+
   public boolean hasHashType() {
     return cli != null && cli.hasOption(HASH_TYPE_ARG);
   }
@@ -609,6 +882,18 @@ public class CommandLineUtils {
     return cli != null && cli.hasOption(KEY_PASS_ARG);
   }
 
+  public boolean hasListings() {
+    return cli != null && cli.hasOption(LISTINGS_ARG);
+  }
+
+  public boolean hasMapSize() {
+    return cli != null && cli.hasOption(MAP_SIZE_ARG);
+  }
+
+  public boolean hasMaxBatch() {
+    return cli != null && cli.hasOption(MAX_BATCH_ARG);
+  }
+
   public boolean hasMaxBlock() {
     return cli != null && cli.hasOption(MAX_BLOCK_ARG);
   }
@@ -617,6 +902,14 @@ public class CommandLineUtils {
     return cli != null && cli.hasOption(MAX_OFFSET_ARG);
   }
 
+  public boolean hasMaxOpen() {
+    return cli != null && cli.hasOption(MAX_OPEN_ARG);
+  }
+
+  public boolean hasMaxPool() {
+    return cli != null && cli.hasOption(MAX_POOL_ARG);
+  }
+
   public boolean hasPath() {
     return cli != null && cli.hasOption(PATH_ARG);
   }
@@ -645,6 +938,10 @@ public class CommandLineUtils {
     return cli != null && cli.hasOption(PROPS_ARG);
   }
 
+  public boolean hasQueueDepth() {
+    return cli != null && cli.hasOption(QUEUE_DEPTH_ARG);
+  }
+
   public boolean hasRecursive() {
     return cli != null && cli.hasOption(RECURSIVE_ARG);
   }
@@ -661,6 +958,14 @@ public class CommandLineUtils {
     return cli != null && cli.hasOption(REMOTE_WRITE_ARG);
   }
 
+  public boolean hasRollingSize() {
+    return cli != null && cli.hasOption(ROLLING_SIZE_ARG);
+  }
+
+  public boolean hasRollup() {
+    return cli != null && cli.hasOption(ROLLUP_ARG);
+  }
+
   public boolean hasSsl() {
     return cli != null && cli.hasOption(SSL_ARG);
   }
@@ -673,14 +978,34 @@ public class CommandLineUtils {
     return cli != null && cli.hasOption(STORE_PASS_ARG);
   }
 
+  public boolean hasStreamSize() {
+    return cli != null && cli.hasOption(STREAM_SIZE_ARG);
+  }
+
+  public boolean hasStripes() {
+    return cli != null && cli.hasOption(STRIPES_ARG);
+  }
+
+  public boolean hasStripeSize() {
+    return cli != null && cli.hasOption(STRIPE_SIZE_ARG);
+  }
+
   public boolean hasSync() {
     return cli != null && cli.hasOption(SYNC_ARG);
   }
 
+  public boolean hasThreads() {
+    return cli != null && cli.hasOption(THREADS_ARG);
+  }
+
   public boolean hasTimeZone() {
     return cli != null && cli.hasOption(TIME_ZONE_ARG);
   }
 
+  public boolean hasTree() {
+    return cli != null && cli.hasOption(TREE_ARG);
+  }
+
   public boolean hasTrustFile() {
     return cli != null && cli.hasOption(TRUST_FILE_ARG);
   }
@@ -755,6 +1080,17 @@ public class CommandLineUtils {
           }
         }
 
+        if (hasBatchSize()) {
+          try {
+            batchSize = Integer.parseInt(cli.getOptionValue(BATCH_SIZE_ARG));
+            if (batchSize < 1) {
+              throw new ParseException(String.format("Invalid %s: %s", BATCH_SIZE_ARG, cli.getOptionValue(BATCH_SIZE_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", BATCH_SIZE_ARG, cli.getOptionValue(BATCH_SIZE_ARG)));
+          }
+        }
+
         if (hasBlockSize()) {
           try {
             blockSize = Integer.parseInt(cli.getOptionValue(BLOCK_SIZE_ARG));
@@ -766,8 +1102,26 @@ public class CommandLineUtils {
           }
         }
 
+        if (hasChecksumType()) {
+          checksumType = cli.getOptionValue(CHECKSUM_TYPE_ARG);
+          if (!Checksums.isChecksumType(checksumType)) {
+            throw new ParseException(String.format("Invalid %s: %s", CHECKSUM_TYPE_ARG, checksumType));
+          }
+        }
+
+        if (hasCodec()) {
+          codec = cli.getOptionValue(CODEC_ARG);
+          if (!Codecs.isCodec(codec)) {
+            throw new ParseException(String.format("Invalid %s: %s", CODEC_ARG, codec));
+          }
+        }
+
         compress = parseBoolean(COMPRESS_ARG, compress);
 
+        delta = parseBoolean(DELTA_ARG, delta);
+
+        dictionary = parseBoolean(DICTIONARY_ARG, dictionary);
+
         if (hasEncPass()) {
           encPass = cli.getOptionValue(ENC_PASS_ARG);
           logParameter("Enc Pass", "********");
@@ -782,6 +1136,61 @@ public class CommandLineUtils {
           hash = SyncEnum.parseSync(cli.getOptionValue(HASH_ARG), hash);
         }
 
+        if (hasHashBudget()) {
+          try {
+            hashBudget = Long.parseLong(cli.getOptionValue(HASH_BUDGET_ARG));
+            if (hashBudget < 0L) {
+              throw new ParseException(String.format("Invalid %s: %s", HASH_BUDGET_ARG, cli.getOptionValue(HASH_BUDGET_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", HASH_BUDGET_ARG, cli.getOptionValue(HASH_BUDGET_ARG)));
+          }
+        }
+
+        if (hasHashBusy()) {
+          try {
+            hashBusy = Long.parseLong(cli.getOptionValue(HASH_BUSY_ARG));
+            if (hashBusy < 0L) {
+              throw new ParseException(String.format("Invalid %s: %s", HASH_BUSY_ARG, cli.getOptionValue(HASH_BUSY_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", HASH_BUSY_ARG, cli.getOptionValue(HASH_BUSY_ARG)));
+          }
+        }
+
+        if (hasHashBytes()) {
+          try {
+            hashBytes = Long.parseLong(cli.getOptionValue(HASH_BYTES_ARG));
+            if (hashBytes < 1L) {
+              throw new ParseException(String.format("Invalid %s: %s", HASH_BYTES_ARG, cli.getOptionValue(HASH_BYTES_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", HASH_BYTES_ARG, cli.getOptionValue(HASH_BYTES_ARG)));
+          }
+        }
+
+        if (hasHashProgress()) {
+          try {
+            hashProgress = Long.parseLong(cli.getOptionValue(HASH_PROGRESS_ARG));
+            if (hashProgress < 1L) {
+              throw new ParseException(String.format("Invalid %s: %s", HASH_PROGRESS_ARG, cli.getOptionValue(HASH_PROGRESS_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", HASH_PROGRESS_ARG, cli.getOptionValue(HASH_PROGRESS_ARG)));
+          }
+        }
+
+        if (hasHashThreads()) {
+          try {
+            hashThreads = Integer.parseInt(cli.getOptionValue(HASH_THREADS_ARG));
+            if (hashThreads < 1) {
+              throw new ParseException(String.format("Invalid %s: %s", HASH_THREADS_ARG, cli.getOptionValue(HASH_THREADS_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", HASH_THREADS_ARG, cli.getOptionValue(HASH_THREADS_ARG)));
+          }
+        }
+
         if (hasHashType()) {
           hashType = cli.getOptionValue(HASH_TYPE_ARG);
         }
@@ -798,6 +1207,39 @@ public class CommandLineUtils {
           keyPass = cli.getOptionValue(KEY_PASS_ARG);
         }
 
+        if (hasListings()) {
+          try {
+            listings = Integer.parseInt(cli.getOptionValue(LISTINGS_ARG));
+            if (listings < 1) {
+              throw new ParseException(String.format("Invalid %s: %s", LISTINGS_ARG, cli.getOptionValue(LISTINGS_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", LISTINGS_ARG, cli.getOptionValue(LISTINGS_ARG)));
+          }
+        }
+
+        if (hasMapSize()) {
+          try {
+            mapSize = Long.parseLong(cli.getOptionValue(MAP_SIZE_ARG));
+            if (mapSize < 0) {
+              throw new ParseException(String.format("Invalid %s: %s", MAP_SIZE_ARG, cli.getOptionValue(MAP_SIZE_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", MAP_SIZE_ARG, cli.getOptionValue(MAP_SIZE_ARG)));
+          }
+        }
+
+        if (hasMaxBatch()) {
+          try {
+            maxBatch = Integer.parseInt(cli.getOptionValue(MAX_BATCH_ARG));
+            if (maxBatch < 0) {
+              throw new ParseException(String.format("Invalid %s: %s", MAX_BATCH_ARG, cli.getOptionValue(MAX_BATCH_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", MAX_BATCH_ARG, cli.getOptionValue(MAX_BATCH_ARG)));
+          }
+        }
+
         if (hasMaxBlock()) {
           try {
             maxBlock = Integer.parseInt(cli.getOptionValue(MAX_BLOCK_ARG));
@@ -820,6 +1262,28 @@ public class CommandLineUtils {
           }
         }
 
+        if (hasMaxOpen()) {
+          try {
+            maxOpen = Integer.parseInt(cli.getOptionValue(MAX_OPEN_ARG));
+            if (maxOpen < 0) {
+              throw new ParseException(String.format("Invalid %s: %s", MAX_OPEN_ARG, cli.getOptionValue(MAX_OPEN_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", MAX_OPEN_ARG, cli.getOptionValue(MAX_OPEN_ARG)));
+          }
+        }
+
+        if (hasMaxPool()) {
+          try {
+            maxPool = Long.parseLong(cli.getOptionValue(MAX_POOL_ARG));
+            if (maxPool < 0) {
+              throw new ParseException(String.format("Invalid %s: %s", MAX_POOL_ARG, cli.getOptionValue(MAX_POOL_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", MAX_POOL_ARG, cli.getOptionValue(MAX_POOL_ARG)));
+          }
+        }
+
         if (hasKeyPass()) {
           encPass = cli.getOptionValue(KEY_PASS_ARG);
         }
@@ -887,6 +1351,17 @@ public class CommandLineUtils {
           }
         }
 
+        if (hasQueueDepth()) {
+          try {
+            queueDepth = Integer.parseInt(cli.getOptionValue(QUEUE_DEPTH_ARG));
+            if (queueDepth < 1) {
+              throw new ParseException(String.format("Invalid %s: %s", QUEUE_DEPTH_ARG, cli.getOptionValue(QUEUE_DEPTH_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", QUEUE_DEPTH_ARG, cli.getOptionValue(QUEUE_DEPTH_ARG)));
+          }
+        }
+
         recursive = parseBoolean(RECURSIVE_ARG, recursive);
 
         reHash = parseBoolean(REHASH_ARG, reHash);
@@ -895,6 +1370,19 @@ public class CommandLineUtils {
 
         remoteWrite = parseBoolean(REMOTE_WRITE_ARG, remoteWrite);
 
+        if (hasRollingSize()) {
+          try {
+            rollingSize = Long.parseLong(cli.getOptionValue(ROLLING_SIZE_ARG));
+            if (rollingSize < 0) {
+              throw new ParseException(String.format("Invalid %s: %s", ROLLING_SIZE_ARG, cli.getOptionValue(ROLLING_SIZE_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", ROLLING_SIZE_ARG, cli.getOptionValue(ROLLING_SIZE_ARG)));
+          }
+        }
+
+        rollup = parseBoolean(ROLLUP_ARG, rollup);
+
         if (hasSsl()) {
           ssl = SslEnum.parseSsl(cli.getOptionValue(SSL_ARG), SslEnum.OneWay);
         }
@@ -912,10 +1400,54 @@ public class CommandLineUtils {
           storePass = cli.getOptionValue(STORE_PASS_ARG);
         }
 
+        if (hasStreamSize()) {
+          try {
+            streamSize = Long.parseLong(cli.getOptionValue(STREAM_SIZE_ARG));
+            if (streamSize < 0) {
+              throw new ParseException(String.format("Invalid %s: %s", STREAM_SIZE_ARG, cli.getOptionValue(STREAM_SIZE_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", STREAM_SIZE_ARG, cli.getOptionValue(STREAM_SIZE_ARG)));
+          }
+        }
+
+        if (hasStripes()) {
+          try {
+            stripes = Integer.parseInt(cli.getOptionValue(STRIPES_ARG));
+            if (stripes < 1) {
+              throw new ParseException(String.format("Invalid %s: %s", STRIPES_ARG, cli.getOptionValue(STRIPES_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", STRIPES_ARG, cli.getOptionValue(STRIPES_ARG)));
+          }
+        }
+
+        if (hasStripeSize()) {
+          try {
+            stripeSize = Long.parseLong(cli.getOptionValue(STRIPE_SIZE_ARG));
+            if (stripeSize < 0) {
+              throw new ParseException(String.format("Invalid %s: %s", STRIPE_SIZE_ARG, cli.getOptionValue(STRIPE_SIZE_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", STRIPE_SIZE_ARG, cli.getOptionValue(STRIPE_SIZE_ARG)));
+          }
+        }
+
         if (hasSync()) {
           sync = SyncEnum.parseSync(cli.getOptionValue(SYNC_ARG), sync);
         }
 
+        if (hasThreads()) {
+          try {
+            threads = Integer.parseInt(cli.getOptionValue(THREADS_ARG));
+            if (threads < 1) {
+              throw new ParseException(String.format("Invalid %s: %s", THREADS_ARG, cli.getOptionValue(THREADS_ARG)));
+            }
+          } catch (NumberFormatException ee) {
+            throw new ParseException(String.format("Invalid %s: %s", THREADS_ARG, cli.getOptionValue(THREADS_ARG)));
+          }
+        }
+
         if (hasTimeZone()) {
           String id = cli.getOptionValue(TIME_ZONE_ARG);
           try {
@@ -924,6 +1456,8 @@ public class CommandLineUtils {
             throw new ParseException(String.format("Invalid %s: %s", TIME_ZONE_ARG, ee.toString()));
           }
         }
+
+        tree = parseBoolean(TREE_ARG, tree);
         if (hasTrustFile()) {
           File file = new File(cli.getOptionValue(TRUST_FILE_ARG));
           if (file.canRead()) {
@@ -1042,8 +1576,20 @@ public class CommandLineUtils {
   }
 
   public CommandLineUtils useHashType() {
+    options.addOption(Option.builder().longOpt(HASH_BUDGET_ARG).required(false).hasArg().argName("bytes").optionalArg(false)
+        .type(Long.class).desc("Bytes per second to hash while idle. Zero for no limit.").build());
+    options.addOption(Option.builder().longOpt(HASH_BUSY_ARG).required(false).hasArg().argName("bytes").optionalArg(false)
+        .type(Long.class).desc("Bytes per second to hash while blocks are read or written. Zero to not back off.").build());
+    options.addOption(Option.builder().longOpt(HASH_BYTES_ARG).required(false).hasArg().argName("bytes").optionalArg(false)
+        .type(Long.class).desc("Bytes hashed between hashing progress events.").build());
+    options.addOption(Option.builder().longOpt(HASH_PROGRESS_ARG).required(false).hasArg().argName("millis").optionalArg(false)
+        .type(Long.class).desc("Milliseconds between hashing progress events.").build());
+    options.addOption(Option.builder().longOpt(HASH_THREADS_ARG).required(false).hasArg().argName("threads").optionalArg(false)
+        .type(Integer.class).desc("Number of files to hash at once on each disk.").build());
     options.addOption(Option.builder().longOpt(HASH_TYPE_ARG).required(false).hasArg().argName("algorithm").optionalArg(false)
         .type(String.class).desc("The algorithm for generating the hash.").build());
+    options.addOption(Option.builder().longOpt(CHECKSUM_TYPE_ARG).required(false).hasArg().argName("type").optionalArg(false)
+        .type(String.class).desc(String.format("The checksum for verifying blocks: %s.", Checksums.getChecksumTypes())).build());
     return this;
   }
 
@@ -1058,10 +1604,18 @@ public class CommandLineUtils {
   }
 
   public CommandLineUtils useMax() {
+    options.addOption(Option.builder().longOpt(MAP_SIZE_ARG).required(false).hasArg().argName("bytes").optionalArg(false)
+        .type(Long.class).desc("Smallest file read and hashed through memory mapping. 0 never maps files.").build());
+    options.addOption(Option.builder().longOpt(MAX_BATCH_ARG).required(false).hasArg().argName("bytes").optionalArg(false)
+        .type(Integer.class).desc("Maximum bytes in a batch of blocks. Never less than the maximum block size.").build());
     options.addOption(Option.builder().longOpt(MAX_BLOCK_ARG).required(false).hasArg().argName("bytes").optionalArg(false)
         .type(Integer.class).desc("Maximum block size.").build());
     options.addOption(Option.builder().longOpt(MAX_OFFSET_ARG).required(false).hasArg().argName("bytes").optionalArg(false)
         .type(Long.class).desc("Maximum offset.").build());
+    options.addOption(Option.builder().longOpt(MAX_OPEN_ARG).required(false).hasArg().argName("files").optionalArg(false)
+        .type(Integer.class).desc("Maximum files kept open between blocks. 0 opens a file for every block.").build());
+    options.addOption(Option.builder().longOpt(MAX_POOL_ARG).required(false).hasArg().argName("bytes").optionalArg(false)
+        .type(Long.class).desc("Maximum bytes of free buffers kept for reuse. 0 allocates every buffer.").build());
     return this;
   }
 
@@ -1087,8 +1641,12 @@ public class CommandLineUtils {
         .type(Boolean.class).desc("Include hidden directories.").build());
     options.addOption(Option.builder().longOpt(HIDDEN_FILES_ARG).required(false).hasArg().argName("include").optionalArg(true)
         .type(Boolean.class).desc("Include hidden files.").build());
+    options.addOption(Option.builder().longOpt(LISTINGS_ARG).required(false).hasArg().argName("listings").optionalArg(false)
+        .type(Integer.class).desc("Maximum number of directory listings outstanding.").build());
     options.addOption(Option.builder().longOpt(RECURSIVE_ARG).required(false).hasArg().argName("recurse").optionalArg(true)
         .type(Boolean.class).desc("Process directories recursively.").build());
+    options.addOption(Option.builder().longOpt(ROLLUP_ARG).required(false).hasArg().argName("rollup").optionalArg(true)
+        .type(Boolean.class).desc("Skip directories whose digests match on both sides.").build());
     return this;
   }
 
@@ -1101,16 +1659,42 @@ public class CommandLineUtils {
   }
 
   public CommandLineUtils useSync() {
+    options.addOption(Option.builder().longOpt(BATCH_SIZE_ARG).required(false).hasArg().argName("blocks").optionalArg(false)
+        .type(Integer.class).desc("Number of blocks read or written with one request. 1 disables batching.").build());
+    options.addOption(Option.builder().longOpt(CODEC_ARG).required(false).hasArg().argName("codec").optionalArg(false)
+        .type(String.class).desc(String.format("The codec for compressing remote blocks: %s.", Codecs.getCodecNames())).build());
     options.addOption(Option.builder().longOpt(COMPRESS_ARG).required(false).hasArg().argName("compress").optionalArg(true)
         .type(Boolean.class).desc("Compress remote blocks.").build());
+    options.addOption(Option.builder().longOpt(DELTA_ARG).required(false).hasArg().argName("delta").optionalArg(true)
+        .type(Boolean.class).desc("Only copy the blocks that differ from an existing file.").build());
+    options.addOption(Option.builder().longOpt(DICTIONARY_ARG).required(false).hasArg().argName("train").optionalArg(true)
+        .type(Boolean.class).desc("Train a dictionary from the small files for compressing small blocks.").build());
     options.addOption(Option.builder().longOpt(HIDDEN_DIRS_ARG).required(false).hasArg().argName("include").optionalArg(true)
         .type(Boolean.class).desc("Include hidden directories.").build());
     options.addOption(Option.builder().longOpt(HIDDEN_FILES_ARG).required(false).hasArg().argName("include").optionalArg(true)
         .type(Boolean.class).desc("Include hidden files.").build());
+    options.addOption(Option.builder().longOpt(LISTINGS_ARG).required(false).hasArg().argName("listings").optionalArg(false)
+        .type(Integer.class).desc("Maximum number of directory listings outstanding.").build());
+    options.addOption(Option.builder().longOpt(QUEUE_DEPTH_ARG).required(false).hasArg().argName("blocks").optionalArg(false)
+        .type(Integer.class).desc("Number of blocks to read ahead of writing. 1 disables reading ahead.").build());
     options.addOption(Option.builder().longOpt(RECURSIVE_ARG).required(false).hasArg().argName("recurse").optionalArg(true)
         .type(Boolean.class).desc("Process directories recursively.").build());
+    options.addOption(Option.builder().longOpt(ROLLING_SIZE_ARG).required(false).hasArg().argName("bytes").optionalArg(false)
+        .type(Long.class).desc("Minimum size of an existing file for rebuilding it from a delta. 0 disables deltas.").build());
+    options.addOption(Option.builder().longOpt(ROLLUP_ARG).required(false).hasArg().argName("rollup").optionalArg(true)
+        .type(Boolean.class).desc("Skip directories whose digests match on both sides.").build());
+    options.addOption(Option.builder().longOpt(STREAM_SIZE_ARG).required(false).hasArg().argName("bytes").optionalArg(false)
+        .type(Long.class).desc("Minimum file size for copying a file as one stream. 0 disables streaming.").build());
+    options.addOption(Option.builder().longOpt(STRIPES_ARG).required(false).hasArg().argName("stripes").optionalArg(false)
+        .type(Integer.class).desc("Number of connections used to copy one large file.").build());
+    options.addOption(Option.builder().longOpt(STRIPE_SIZE_ARG).required(false).hasArg().argName("bytes").optionalArg(false)
+        .type(Long.class).desc(String.format("Minimum file size for using %s.", STRIPES_ARG)).build());
     options.addOption(Option.builder().longOpt(SYNC_ARG).required(false).hasArg().argName("direction").optionalArg(false)
         .type(String.class).desc(String.format("Perform a synchronization. %s", Arrays.toString(SyncEnum.values()))).build());
+    options.addOption(Option.builder().longOpt(THREADS_ARG).required(false).hasArg().argName("threads").optionalArg(false)
+        .type(Integer.class).desc("Number of files to transfer at once.").build());
+    options.addOption(Option.builder().longOpt(TREE_ARG).required(false).hasArg().argName("tree").optionalArg(true)
+        .type(Boolean.class).desc("Only copy the chunks whose hashes differ from an existing file.").build());
     return this;
   }
 
@@ -0,0 +1,442 @@
+package com.wstrater.server.fileSync.common.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.wstrater.server.fileSync.common.codec.Codec;
+import com.wstrater.server.fileSync.common.codec.Codecs;
+import com.wstrater.server.fileSync.common.codec.DictionaryCodec;
+import com.wstrater.server.fileSync.common.data.IndexFile;
+import com.wstrater.server.fileSync.common.data.IndexInfo;
+import com.wstrater.server.fileSync.common.exceptions.ErrorDeflatingBlockException;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Deflated;
+
+/**
+ * Decides which blocks are worth deflating so CPU is not spent on content that is already
+ * compressed, such as photos and videos. A file is judged by the first of these that is known:
+ * <ol>
+ * <li>What was learned deflating its earlier blocks.</li>
+ * <li>The compressibility saved in its {@link IndexInfo} when it was hashed.</li>
+ * <li>Whether the files with the same extension have proven incompressible.</li>
+ * <li>The entropy of a sample of its first block.</li>
+ * </ol>
+ * A file stops being deflated once its blocks stop getting smaller. Only the most recently used
+ * <code>maxFiles</code> files are remembered. Blocks shorter than
+ * {@link Constants#MINIMUM_FOR_COMPRESSION} are only worth compressing with a preset dictionary.
+ * 
+ * @author wstrater
+ *
+ */
+public class CompressionAdvisor {
+
+  public final static int              DEFAULT_MAX_FILES = 1024;
+  public final static double           MAX_ENTROPY       = 7.5D;
+  public final static double           MAX_RATIO         = 0.95D;
+  public final static int              MAX_MISSES        = 2;
+  public final static int              MIN_FILES         = 3;
+  public final static int              SAMPLE_SIZE       = 4096;
+
+  private long                         compressed;
+  private final Map<String, Extension> extensions        = new HashMap<>();
+  private final Map<String, Entry>     files             = new LinkedHashMap<>(16, 0.75F, true);
+  private final int                    maxFiles;
+  private long                         skipped;
+
+  public CompressionAdvisor(int maxFiles) {
+    this.maxFiles = Math.max(1, maxFiles);
+  }
+
+  /**
+   * Forget everything learned.
+   */
+  public synchronized void clear() {
+    extensions.clear();
+    files.clear();
+  }
+
+  /**
+   * Compress a block of a file if it is worth it and remember whether it got smaller. The compressed
+   * data is pooled so release it once written.
+   * 
+   * @param baseDir Used to find the {@link IndexInfo} of the file. May be null.
+   * @param fileName
+   * @param data
+   * @param offset
+   * @param length
+   * @param codec
+   * @param level Zero to not compress.
+   * @param pool
+   * @return Null if not compressed.
+   */
+  public Deflated compress(File baseDir, String fileName, byte[] data, int offset, int length, Codec codec, int level,
+      BufferPool pool) {
+    Deflated ret = null;
+
+    if (level > 0 && shouldCompress(baseDir, fileName, data, offset, length, minimumLength(codec))) {
+      ret = compress(fileName, data, offset, length, codec, level, pool);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Compress a block of a file and remember whether it got smaller. Use
+   * {@link #shouldCompress(File, String, byte[], int, int)} first to see if it is worth it. The
+   * compressed data is pooled so release it once written.
+   * 
+   * @param fileName
+   * @param data
+   * @param offset
+   * @param length
+   * @param codec
+   * @param level
+   * @param pool
+   * @return Null if it did not get smaller.
+   */
+  public Deflated compress(String fileName, byte[] data, int offset, int length, Codec codec, int level, BufferPool pool) {
+    Deflated ret = codec.compress(data, offset, length, level, pool);
+
+    if (ret == null) {
+      throw new ErrorDeflatingBlockException(String.format("Error compressing block with %s", codec.getName()));
+    }
+    record(fileName, length, ret.getLength());
+    if (ret.getLength() >= length) {
+      pool.release(ret.getData());
+      ret = null;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Deflate a block of a file with the highest compression if it is worth it.
+   * 
+   * @see #compress(File, String, byte[], int, int, Codec, int, BufferPool)
+   */
+  public Deflated deflate(File baseDir, String fileName, byte[] data, int offset, int length, BufferPool pool) {
+    return deflate(baseDir, fileName, data, offset, length, CompressionUtils.DEFAULT_LEVEL, pool);
+  }
+
+  /**
+   * Deflate a block of a file if it is worth it.
+   * 
+   * @see #compress(File, String, byte[], int, int, Codec, int, BufferPool)
+   */
+  public Deflated deflate(File baseDir, String fileName, byte[] data, int offset, int length, int level, BufferPool pool) {
+    return compress(baseDir, fileName, data, offset, length, Codecs.getCodec(Codecs.DEFLATE), level, pool);
+  }
+
+  /**
+   * Estimate the entropy, in bits per byte, from up to {@link #SAMPLE_SIZE} bytes spread across the
+   * data. Random or already compressed data is close to eight.
+   * 
+   * @param data
+   * @param offset
+   * @param length
+   * @return
+   */
+  public static double entropy(byte[] data, int offset, int length) {
+    double ret = 0.0D;
+
+    CompressionUtils.valdiate(data, offset, length);
+
+    int step = Math.max(1, length / SAMPLE_SIZE);
+    int[] counts = new int[256];
+    int samples = 0;
+    for (int xx = offset; xx < offset + length; xx += step) {
+      counts[data[xx] & 0xFF]++;
+      samples++;
+    }
+
+    for (int count : counts) {
+      if (count > 0) {
+        double probability = (double) count / samples;
+        ret -= probability * Math.log(probability);
+      }
+    }
+
+    return ret / Math.log(2.0D);
+  }
+
+  private static String extension(String fileName) {
+    String ret = "";
+
+    int slash = Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\'));
+    int dot = fileName.lastIndexOf('.');
+    if (dot > slash + 1) {
+      ret = fileName.substring(dot + 1).toLowerCase();
+    }
+
+    return ret;
+  }
+
+  /**
+   * The blocks deflated.
+   * 
+   * @return
+   */
+  public synchronized long getCompressed() {
+    return compressed;
+  }
+
+  public int getMaxFiles() {
+    return maxFiles;
+  }
+
+  /**
+   * The blocks not deflated because they were not expected to get smaller.
+   * 
+   * @return
+   */
+  public synchronized long getSkipped() {
+    return skipped;
+  }
+
+  /**
+   * Whether the sample of the data looks like it would get smaller.
+   * 
+   * @param data
+   * @param offset
+   * @param length
+   * @return
+   */
+  public static boolean isCompressible(byte[] data, int offset, int length) {
+    return entropy(data, offset, length) < MAX_ENTROPY;
+  }
+
+  /**
+   * What is known about a file.
+   * 
+   * @param fileName
+   * @return Null if not known.
+   */
+  public synchronized Boolean isCompressible(String fileName) {
+    Entry entry = files.get(fileName);
+    return entry == null ? null : entry.compressible;
+  }
+
+  /**
+   * Whether most of the files with an extension have proven incompressible.
+   */
+  private synchronized boolean isIncompressible(String type) {
+    Extension extension = extensions.get(type);
+    return extension != null && extension.files >= MIN_FILES && extension.incompressible * 10 >= extension.files * 9;
+  }
+
+  /**
+   * The compressibility saved when the file was hashed as long as the file has not changed since.
+   */
+  private static Boolean lookup(File baseDir, String fileName) {
+    Boolean ret = null;
+
+    if (baseDir != null) {
+      File file = new File(baseDir, fileName);
+      if (file.isFile()) {
+        IndexFile indexFile = IndexManager.loadIndex(file.getParentFile());
+        IndexInfo indexInfo = indexFile == null ? null : indexFile.getIndexInfo(file.getName());
+        if (indexInfo != null && Compare.equals(indexInfo.getLength(), file.length())
+            && Compare.equals(indexInfo.getLastModified(), file.lastModified())) {
+          ret = indexInfo.getCompressible();
+        }
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * The shortest block worth compressing with the codec. A preset dictionary gives even small
+   * blocks something to refer to.
+   * 
+   * @param codec
+   * @return
+   */
+  public static int minimumLength(Codec codec) {
+    return codec instanceof DictionaryCodec ? Constants.MINIMUM_FOR_DICTIONARY : Constants.MINIMUM_FOR_COMPRESSION;
+  }
+
+  /**
+   * Remember whether a block of a file got smaller. A file whose first block or
+   * {@link #MAX_MISSES} blocks in a row do not get smaller is no longer deflated.
+   * 
+   * @param fileName
+   * @param length
+   * @param deflatedLength
+   */
+  public synchronized void record(String fileName, int length, int deflatedLength) {
+    boolean miss = deflatedLength >= length * MAX_RATIO;
+
+    compressed++;
+
+    Entry entry = files.get(fileName);
+    if (entry == null) {
+      entry = new Entry();
+      remember(fileName, entry);
+    }
+    entry.blocks++;
+    entry.misses = miss ? entry.misses + 1 : 0;
+    if (entry.compressible == null || entry.compressible) {
+      boolean compressible = !(miss && entry.blocks == 1) && entry.misses < MAX_MISSES;
+      if (entry.compressible == null || !compressible) {
+        setCompressible(fileName, entry, compressible);
+      }
+    }
+  }
+
+  /**
+   * Called while synchronized.
+   */
+  private void remember(String fileName, Entry entry) {
+    files.put(fileName, entry);
+
+    Iterator<Entry> iter = files.values().iterator();
+    while (files.size() > maxFiles && iter.hasNext()) {
+      iter.next();
+      iter.remove();
+    }
+  }
+
+  /**
+   * Read a sample from the start of a file to see if it looks compressible.
+   * 
+   * @param file
+   * @return Null if the file could not be read or is too short to be worth compressing.
+   */
+  public static Boolean sample(File file) {
+    Boolean ret = null;
+
+    try {
+      InputStream in = new FileInputStream(file);
+      try {
+        byte[] buf = new byte[SAMPLE_SIZE];
+        int length = 0;
+        int len;
+        while (length < buf.length && (len = in.read(buf, length, buf.length - length)) >= 0) {
+          length += len;
+        }
+        if (length >= Constants.MINIMUM_FOR_COMPRESSION) {
+          ret = isCompressible(buf, 0, length);
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException ee) {
+      FileUtils.logger.debug(String.format("Unable to sample %s: %s", file.getAbsolutePath(), ee.getMessage()));
+    }
+
+    return ret;
+  }
+
+  /**
+   * Called while synchronized. The extension is judged by the files whose compressibility is known.
+   */
+  private void setCompressible(String fileName, Entry entry, boolean compressible) {
+    String type = extension(fileName);
+    Extension extension = extensions.get(type);
+    if (extension == null) {
+      extension = new Extension();
+      extensions.put(type, extension);
+    }
+    if (entry.compressible == null) {
+      extension.files++;
+    } else if (!entry.compressible) {
+      extension.incompressible--;
+    }
+    if (!compressible) {
+      extension.incompressible++;
+    }
+    entry.compressible = compressible;
+  }
+
+  /**
+   * Whether a block of a file is worth deflating.
+   * 
+   * @param baseDir Used to find the {@link IndexInfo} of the file. May be null.
+   * @param fileName
+   * @param data
+   * @param offset
+   * @param length
+   * @return
+   */
+  public boolean shouldCompress(File baseDir, String fileName, byte[] data, int offset, int length) {
+    return shouldCompress(baseDir, fileName, data, offset, length, Constants.MINIMUM_FOR_COMPRESSION);
+  }
+
+  /**
+   * Whether a block of a file is worth compressing with a codec that pays off for blocks of at least
+   * <code>minimum</code> bytes.
+   * 
+   * @param baseDir Used to find the {@link IndexInfo} of the file. May be null.
+   * @param fileName
+   * @param data
+   * @param offset
+   * @param length
+   * @param minimum See {@link #minimumLength(Codec)}.
+   * @return
+   */
+  public boolean shouldCompress(File baseDir, String fileName, byte[] data, int offset, int length, int minimum) {
+    boolean ret = false;
+
+    if (length >= minimum) {
+      Boolean compressible = isCompressible(fileName);
+      if (compressible == null) {
+        compressible = lookup(baseDir, fileName);
+        if (compressible == null && isIncompressible(extension(fileName))) {
+          compressible = Boolean.FALSE;
+        }
+        if (compressible == null) {
+          compressible = isCompressible(data, offset, length);
+        }
+        if (!compressible) {
+          synchronized (this) {
+            Entry entry = new Entry();
+            remember(fileName, entry);
+            setCompressible(fileName, entry, false);
+          }
+        }
+      }
+      ret = compressible;
+
+      if (!ret) {
+        synchronized (this) {
+          skipped++;
+        }
+      }
+    }
+
+    return ret;
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("CompressionAdvisor [maxFiles=").append(maxFiles).append(", files=").append(files.size())
+        .append(", extensions=").append(extensions.size()).append(", compressed=").append(compressed).append(", skipped=")
+        .append(skipped).append("]");
+
+    return builder.toString();
+  }
+
+  private static class Entry {
+
+    private int     blocks;
+    private Boolean compressible;
+    private int     misses;
+
+  }
+
+  private static class Extension {
+
+    private int files;
+    private int incompressible;
+
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,193 @@
+package com.wstrater.server.fileSync.common.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks the {@link java.util.zip.Deflater} level that moves the most bytes of a file per second
+ * over the link being used. Heavy compression pays off on a slow link but becomes the bottleneck
+ * on a fast one. Each level is timed from before the block is deflated until the other end has it
+ * so the cost of deflating, sending and inflating are all included. Level zero sends the block as
+ * is.
+ * <p/>
+ * Every level is tried a few times at first. After that the fastest level is used and the choice is
+ * looked at again every <code>evaluateBlocks</code> blocks, trying one of the neighboring levels
+ * each time so a change in the link is noticed during a long sync.
+ * 
+ * @author wstrater
+ *
+ */
+public class CompressionTuner {
+
+  public final static int     DEFAULT_EVALUATE_BLOCKS = 32;
+  public final static int[]   LEVELS                  = { 0, 1, 3, 6, 9 };
+
+  private final static int    MIN_SAMPLES             = 2;
+  private final static long   NANOS_PER_SECOND        = TimeUnit.SECONDS.toNanos(1L);
+  private final static double WEIGHT                  = 0.25D;
+
+  private long                blocks;
+  private int                 current;
+  private final int           evaluateBlocks;
+  private boolean             exploreUp;
+  private final Level[]       levels                  = new Level[LEVELS.length];
+
+  public CompressionTuner(int evaluateBlocks) {
+    this.evaluateBlocks = Math.max(1, evaluateBlocks);
+    for (int xx = 0; xx < levels.length; xx++) {
+      levels[xx] = new Level(LEVELS[xx]);
+    }
+    current = levels.length - 1;
+  }
+
+  /**
+   * Use the level with the best rate. Called while synchronized.
+   */
+  private void evaluate() {
+    for (int xx = 0; xx < levels.length; xx++) {
+      if (levels[xx].rate > levels[current].rate) {
+        current = xx;
+      }
+    }
+  }
+
+  public int getEvaluateBlocks() {
+    return evaluateBlocks;
+  }
+
+  /**
+   * The level currently considered the fastest.
+   * 
+   * @return
+   */
+  public synchronized int getLevel() {
+    return levels[current].level;
+  }
+
+  /**
+   * The bytes sent for each byte of the file at a level.
+   * 
+   * @param level
+   * @return One if not known.
+   */
+  public synchronized double getRatio(int level) {
+    double ret = 1.0D;
+
+    Level found = find(level);
+    if (found != null && found.length > 0L) {
+      ret = (double) found.sent / found.length;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Called while synchronized.
+   */
+  private Level find(int level) {
+    Level ret = null;
+
+    for (Level temp : levels) {
+      if (temp.level == level) {
+        ret = temp;
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * The level to use for the next block or batch. Be sure to {@link #record} how long it took.
+   * 
+   * @return Zero to not compress.
+   */
+  public synchronized int nextLevel() {
+    int ret = -1;
+
+    blocks++;
+
+    for (int xx = 0; ret < 0 && xx < levels.length; xx++) {
+      if (levels[xx].samples < MIN_SAMPLES) {
+        ret = levels[xx].level;
+      }
+    }
+
+    if (ret < 0) {
+      if (blocks % evaluateBlocks == 0L) {
+        evaluate();
+        exploreUp = !exploreUp;
+        int neighbor = current + (exploreUp ? 1 : -1);
+        if (neighbor < 0 || neighbor >= levels.length) {
+          neighbor = current + (exploreUp ? -1 : 1);
+        }
+        ret = levels[neighbor].level;
+      } else {
+        ret = levels[current].level;
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Record how long it took to move a block or batch at a level.
+   * 
+   * @param level
+   * @param length The bytes of the file moved.
+   * @param sent The bytes sent or -1 if not known.
+   * @param codecNanos The time spent deflating or inflating.
+   * @param totalNanos The time from before deflating until the other end had the data.
+   */
+  public synchronized void record(int level, long length, long sent, long codecNanos, long totalNanos) {
+    Level found = find(level);
+    if (found != null && length > 0L && totalNanos > 0L) {
+      double rate = (double) length * NANOS_PER_SECOND / totalNanos;
+      found.rate = found.samples == 0 ? rate : found.rate * (1.0D - WEIGHT) + rate * WEIGHT;
+      found.samples++;
+      found.codecNanos += codecNanos;
+      found.totalNanos += totalNanos;
+      if (sent >= 0L) {
+        found.length += length;
+        found.sent += sent;
+      }
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("CompressionTuner [level=").append(levels[current].level).append(", blocks=").append(blocks)
+        .append(", levels=");
+    for (int xx = 0; xx < levels.length; xx++) {
+      Level level = levels[xx];
+      builder.append(xx == 0 ? "{" : ", ").append(level.level).append("=");
+      builder.append(String.format("%d samples %.1f KB/s", level.samples, level.rate / 1024.0D));
+      if (level.length > 0L) {
+        builder.append(String.format(" ratio %.2f", (double) level.sent / level.length));
+      }
+      if (level.totalNanos > 0L) {
+        builder.append(String.format(" codec %d%%", level.codecNanos * 100L / level.totalNanos));
+      }
+    }
+    builder.append("}]");
+
+    return builder.toString();
+  }
+
+  private static class Level {
+
+    private long      codecNanos;
+    private long      length;
+    private final int level;
+    private double    rate;
+    private int       samples;
+    private long      sent;
+    private long      totalNanos;
+
+    private Level(int level) {
+      this.level = level;
+    }
+
+  }
+
+}
\ No newline at end of file
@@ -3,6 +3,7 @@ package com.wstrater.server.fileSync.common.utils;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
@@ -18,8 +19,53 @@ import com.wstrater.server.fileSync.common.exceptions.ErrorInflatingBlockExcepti
  */
 public abstract class CompressionUtils {
 
-  public final static int  DEFAULT_LEVEL = Deflater.BEST_COMPRESSION;
-  private final static int EXTRA_BYTES   = 256;
+  public final static int                  DEFAULT_LEVEL = Deflater.BEST_COMPRESSION;
+  private final static int                 EXTRA_BYTES   = 256;
+
+  /**
+   * Each thread keeps a deflater and inflater and resets them between blocks rather than paying for
+   * the native ZLib setup of new ones for every block.
+   */
+  private final static ThreadLocal<Deflater> deflaters     = new ThreadLocal<>();
+  private final static ThreadLocal<Inflater> inflaters     = new ThreadLocal<>();
+
+  /**
+   * The deflater of this thread reset to start a new block at the level. Do not end it.
+   * 
+   * @param level
+   * @return
+   */
+  static Deflater getDeflater(int level) {
+    Deflater ret = deflaters.get();
+
+    if (ret == null) {
+      ret = new Deflater(level);
+      deflaters.set(ret);
+    } else {
+      ret.reset();
+      ret.setLevel(level);
+    }
+
+    return ret;
+  }
+
+  /**
+   * The inflater of this thread reset to start a new block. Do not end it.
+   * 
+   * @return
+   */
+  static Inflater getInflater() {
+    Inflater ret = inflaters.get();
+
+    if (ret == null) {
+      ret = new Inflater();
+      inflaters.set(ret);
+    } else {
+      ret.reset();
+    }
+
+    return ret;
+  }
 
   /**
    * Deflate with highest compression, {@link Deflater.BEST_COMPRESSION}, data using ZLib
@@ -68,19 +114,61 @@ public abstract class CompressionUtils {
    * @return
    */
   public static Deflated deflate(byte[] data, int offset, int length, int level) {
+    BufferPool pool = FileUtils.getBufferPool();
+
+    Deflated ret = deflate(data, offset, length, level, pool);
+
+    byte[] buf = ret.getData();
+    ret.setData(Arrays.copyOf(buf, ret.getLength()));
+    pool.release(buf);
+
+    return ret;
+  }
+
+  /**
+   * Deflate data using ZLib implementation into an array from the pool. The array is larger than
+   * the deflated length so only {@link Deflated#getLength()} bytes are used. Release the array to
+   * the pool once it has been sent.
+   * 
+   * @param data
+   * @param offset
+   * @param length
+   * @param level
+   * @param pool
+   * @return
+   */
+  public static Deflated deflate(byte[] data, int offset, int length, int level, BufferPool pool) {
+    return deflate(data, offset, length, level, null, pool);
+  }
+
+  /**
+   * Deflate data using ZLib implementation with a preset dictionary into an array from the pool.
+   * The same dictionary is needed to inflate it. Release the array to the pool once it has been
+   * sent.
+   *
+   * @param data
+   * @param offset
+   * @param length
+   * @param level
+   * @param dictionary Optional
+   * @param pool
+   * @return
+   */
+  public static Deflated deflate(byte[] data, int offset, int length, int level, byte[] dictionary, BufferPool pool) {
     Deflated ret = new Deflated();
 
     valdiate(data, offset, length);
 
-    Deflater deflater = new Deflater(level);
+    Deflater deflater = getDeflater(level);
+    if (dictionary != null) {
+      deflater.setDictionary(dictionary);
+    }
     deflater.setInput(data, offset, length);
     deflater.finish();
 
-    byte[] buf = new byte[length + EXTRA_BYTES];
+    byte[] buf = pool.acquire(length + EXTRA_BYTES);
     ret.setLength(deflater.deflate(buf));
-    deflater.end();
-    ret.setData(new byte[ret.getLength()]);
-    System.arraycopy(buf, 0, ret.getData(), 0, ret.getLength());
+    ret.setData(buf);
 
     return ret;
   }
@@ -114,17 +202,85 @@ public abstract class CompressionUtils {
 
     valdiate(data, offset, length);
 
-    Inflater inflater = new Inflater();
+    Inflater inflater = getInflater();
     inflater.setInput(data, offset, length);
 
-    byte[] buf = new byte[inflatedLength + EXTRA_BYTES];
+    BufferPool pool = FileUtils.getBufferPool();
+    byte[] buf = pool.acquire(inflatedLength + EXTRA_BYTES);
     try {
       ret.setLength(inflater.inflate(buf));
-      inflater.end();
-      ret.setData(new byte[ret.getLength()]);
-      System.arraycopy(buf, 0, ret.getData(), 0, ret.getLength());
+      ret.setData(Arrays.copyOf(buf, ret.getLength()));
     } catch (DataFormatException ee) {
       throw new ErrorInflatingBlockException("Error inflating block", ee);
+    } finally {
+      pool.release(buf);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Inflate data compressed using ZLib deflation into an array from the pool of exactly
+   * <code>inflatedLength</code> bytes. Release the array to the pool once it has been written.
+   * 
+   * @param data
+   * @param offset
+   * @param length
+   * @param inflatedLength This is the expected output size. Data that inflates to more is an error.
+   * @param pool
+   * @return
+   */
+  public static Inflated inflate(byte[] data, int offset, int length, int inflatedLength, BufferPool pool) {
+    return inflate(data, offset, length, inflatedLength, null, pool);
+  }
+
+  /**
+   * Inflate data compressed using ZLib deflation with a preset dictionary into an array from the
+   * pool of exactly <code>inflatedLength</code> bytes. Data deflated without a dictionary is
+   * inflated without it. Release the array to the pool once it has been written.
+   *
+   * @param data
+   * @param offset
+   * @param length
+   * @param inflatedLength This is the expected output size. Data that inflates to more is an error.
+   * @param dictionary Optional. Data deflated with a different dictionary is an error.
+   * @param pool
+   * @return
+   */
+  public static Inflated inflate(byte[] data, int offset, int length, int inflatedLength, byte[] dictionary,
+      BufferPool pool) {
+    Inflated ret = new Inflated();
+
+    valdiate(data, offset, length);
+
+    Inflater inflater = getInflater();
+    inflater.setInput(data, offset, length);
+
+    byte[] buf = pool.acquire(inflatedLength);
+    try {
+      ret.setLength(inflater.inflate(buf));
+      if (inflater.needsDictionary()) {
+        if (dictionary == null) {
+          throw new ErrorInflatingBlockException("Block was deflated with a dictionary");
+        }
+        try {
+          // Checks the Adler-32 of the dictionary against the one the block was deflated with.
+          inflater.setDictionary(dictionary);
+        } catch (IllegalArgumentException ee) {
+          throw new ErrorInflatingBlockException("Block was deflated with a different dictionary", ee);
+        }
+        ret.setLength(inflater.inflate(buf));
+      }
+      if (!inflater.finished()) {
+        throw new ErrorInflatingBlockException(String.format("Block did not inflate to %d bytes", inflatedLength));
+      }
+      ret.setData(buf);
+    } catch (DataFormatException ee) {
+      throw new ErrorInflatingBlockException("Error inflating block", ee);
+    } finally {
+      if (ret.getData() == null) {
+        pool.release(buf);
+      }
     }
 
     return ret;
@@ -5,12 +5,31 @@ public abstract class Constants {
   public final static String ADMIN_ROLE              = "admin";
   public final static String ALLOW_DELETE_HEADER     = "fileSync-allowDelete";
   public final static String ALLOW_WRITE_HEADER      = "fileSync-allowWrite";
+  public final static String BATCH_MEDIA_TYPE        = "application/vnd.fileSync.batch";
   public final static String BLOCK_SIZE_PARAM        = "blockSize";
+  public final static String CHECKPOINT_HEADER       = "fileSync-checkpoint";
+  public final static String CHECKSUM_TYPE_HEADER    = "fileSync-checksumType";
+  public final static String CHUNK_SIZE_PARAM        = "chunkSize";
+  public final static String CODEC_HEADER            = "fileSync-codec";
   public final static String COMPRESSED_HEADER       = "fileSync-compressed";
   public final static String COMPRESSED_PARAM        = "compressed";
   public final static String CONTENT_ENCODED_HEADER  = "Accept-Encoding";
+  public final static String COUNT_PARAM             = "count";
   public final static String CRC_HEADER              = "fileSync-crc";
+  public final static int    DEFAULT_BATCH_SIZE      = 1;
+  public final static int    DEFAULT_LISTINGS        = 4;
+  public final static int    DEFAULT_QUEUE_DEPTH     = 4;
+  public final static long   DEFAULT_ROLLING_SIZE    = 16L * 1024L * 1024L;
+  public final static long   DEFAULT_STREAM_SIZE     = 1024L * 1024L;
+  public final static int    DEFAULT_STRIPES         = 1;
+  public final static long   DEFAULT_STRIPE_SIZE     = 64L * 1024L * 1024L;
+  public final static int    DEFAULT_SYNC_THREADS    = 4;
   public final static String DEFLATE                 = "deflate";
+  public final static String DEFLATE_LEVEL_HEADER    = "fileSync-deflateLevel";
+  public final static String DELTA_MEDIA_TYPE        = "application/vnd.fileSync.delta";
+  public final static String DICTIONARY_HEADER       = "fileSync-dictionary";
+  public final static String DICTIONARY_PATH         = "/dict";
+  public final static String DIGEST_MEDIA_TYPE       = "application/vnd.fileSync.digest+json";
   public final static String DIRECTORY_PATH          = "/dir";
   public final static String EOF_HEADER              = "fileSync-eof";
   public final static String EOF_PARAM               = "eof";
@@ -19,23 +38,38 @@ public abstract class Constants {
   public final static String FILE_PATH               = "/file";
   public final static String FILE_NAME_PARAM         = "fileName";
   public final static String FILES_PARAM             = "files";
+  public final static String FIRST_PARAM             = "first";
+  public final static String HASH_HEADER             = "fileSync-hash";
+  public final static String HASH_ONLY_PARAM         = "hashOnly";
+  public final static String HASH_PARAM              = "hash";
   public final static String HASH_PATH               = "/hash";
+  public final static String HASH_TYPE_HEADER        = "fileSync-hashType";
   public final static String HASH_TYPE_PARAM         = "hashType";
   public final static String HIDDEN_DIRS_PARAM       = "hiddenDirs";
   public final static String HIDDEN_FILES_PARAM      = "hiddenFiles";
   public final static String ID_PARAM                = "id";
   public final static String LENGTH_HEADER           = "fileSync-length";
   public final static String LENGTH_PARAM            = "length";
+  public final static String LEVELS_PARAM            = "levels";
+  public final static String LITERAL_HEADER          = "fileSync-literal";
+  public final static String MAX_BATCH_HEADER        = "fileSync-maxBatch";
+  public final static String MATCHED_HEADER          = "fileSync-matched";
   public final static int    MINIMUM_FOR_COMPRESSION = 3072;
+  public final static int    MINIMUM_FOR_DICTIONARY  = 128;
   public final static String OFFSET_PARAM            = "offset";
   public final static String PATH_PARAM              = "path";
   public final static String PERMISSIONS_PATH        = "/perms";
+  public final static String PRIORITY_PARAM          = "priority";
   public final static String REALM                   = "file-sync-server";
   public final static String RECURSIVE_PARAM         = "recursive";
   public final static String REHASH_PARAM            = "rehash";
+  public final static String STREAM_MEDIA_TYPE       = "application/vnd.fileSync.stream";
   public final static String SUCCESS_HEADER          = "fileSync-success";
   public final static String TIME_STAMP_PARAM        = "timeStamp";
+  public final static String TREE_MEDIA_TYPE         = "application/vnd.fileSync.tree+json";
   public final static String USER_ROLE               = "user";
+  public final static String VERSION_PARAM           = "version";
+  public final static String WAIT_PARAM              = "wait";
 
   public final static String ID_REST                 = "{" + ID_PARAM + " : .*}";
   // public final static String ID_REST = "{" + ID_PARAM + " : [\\w\\-]*}";
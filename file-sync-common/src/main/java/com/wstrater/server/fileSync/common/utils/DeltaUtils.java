@@ -0,0 +1,428 @@
+package com.wstrater.server.fileSync.common.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.wstrater.server.fileSync.common.data.BlockSignature;
+import com.wstrater.server.fileSync.common.data.FileSignature;
+import com.wstrater.server.fileSync.common.exceptions.ErrorReadingBlockException;
+import com.wstrater.server.fileSync.common.exceptions.InvalidDataLengthException;
+import com.wstrater.server.fileSync.common.hash.Checksums;
+
+/**
+ * The rolling checksum and instructions used to rebuild a file from the blocks of an older copy.
+ * The receiver publishes the {@link FileSignature} of its copy. The sender slides a window the size
+ * of a block across its file one byte at a time looking for a block with the same rolling checksum
+ * and hash. A delta is a series of instructions, each starting with a one byte type.
+ * <ul>
+ * <li>{@link #COPY_INSTRUCTION} is followed by the index of a block of the older copy.</li>
+ * <li>{@link #LITERAL_INSTRUCTION} is followed by the length and the bytes not found in the older
+ * copy.</li>
+ * <li>{@link #END_INSTRUCTION} is followed by the length and Base64 encoded hash of the whole file.</li>
+ * <li>{@link #ERROR_INSTRUCTION} is followed by a message when the file could not be read.</li>
+ * </ul>
+ * 
+ * @author wstrater
+ *
+ */
+public abstract class DeltaUtils {
+
+  public final static byte      COPY_INSTRUCTION    = 'C';
+  public final static byte      END_INSTRUCTION     = 'E';
+  public final static byte      ERROR_INSTRUCTION   = 'X';
+  public final static byte      LITERAL_INSTRUCTION = 'L';
+
+  protected final static Logger logger              = LoggerFactory.getLogger(DeltaUtils.class);
+
+  private final static int      MODULUS             = 1 << 16;
+
+  /**
+   * Read the next instruction. The bytes of a literal are read into the buffer.
+   * 
+   * @param in
+   * @param buffer Large enough for the block size.
+   * @return
+   * @throws IOException
+   */
+  public static Instruction readInstruction(DataInputStream in, byte[] buffer) throws IOException {
+    Instruction ret = new Instruction();
+
+    ret.type = in.readByte();
+    switch (ret.type) {
+      case COPY_INSTRUCTION: {
+        ret.index = in.readInt();
+        break;
+      }
+      case LITERAL_INSTRUCTION: {
+        ret.length = in.readInt();
+        if (ret.length < 0 || ret.length > buffer.length) {
+          throw new InvalidDataLengthException(String.format("Length must be between %d and %d: %d", 0, buffer.length,
+              ret.length));
+        }
+        in.readFully(buffer, 0, ret.length);
+        break;
+      }
+      case END_INSTRUCTION: {
+        ret.offset = in.readLong();
+        ret.hash = in.readUTF();
+        break;
+      }
+      case ERROR_INSTRUCTION: {
+        ret.hash = in.readUTF();
+        break;
+      }
+      default: {
+        throw new ErrorReadingBlockException(String.format("Invalid delta instruction: %d", ret.type));
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Move the window of a rolling checksum forward one byte.
+   * 
+   * @param checksum The checksum of the window before moving.
+   * @param length The length of the window.
+   * @param out The byte leaving the window.
+   * @param in The byte entering the window.
+   * @return
+   */
+  public static long roll(long checksum, int length, byte out, byte in) {
+    long a = checksum & 0xFFFF;
+    long b = (checksum >>> 16) & 0xFFFF;
+
+    a = (a - (out & 0xFF) + (in & 0xFF)) & 0xFFFF;
+    b = (b - (long) length * (out & 0xFF) + a) & 0xFFFF;
+
+    return a | (b << 16);
+  }
+
+  /**
+   * The rolling checksum of a block. It can be moved along a file one byte at a time with
+   * {@link #roll(long, int, byte, byte)} rather than being calculated again.
+   * 
+   * @param data
+   * @param offset
+   * @param length
+   * @return
+   */
+  public static long rolling(byte[] data, int offset, int length) {
+    long a = 0L;
+    long b = 0L;
+
+    for (int xx = 0; xx < length; xx++) {
+      a += data[offset + xx] & 0xFF;
+      b += (long) (length - xx) * (data[offset + xx] & 0xFF);
+    }
+
+    return (a % MODULUS) | ((b % MODULUS) << 16);
+  }
+
+  /**
+   * One instruction of a delta.
+   */
+  public static class Instruction {
+
+    private String hash;
+    private int    index;
+    private int    length;
+    private long   offset;
+    private byte   type;
+
+    /**
+     * The hash of the whole file or the message of an error.
+     * 
+     * @return
+     */
+    public String getHash() {
+      return hash;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public byte getType() {
+      return type;
+    }
+
+  }
+
+  /**
+   * Generates the instructions of a delta while it is read so the whole file is never held in
+   * memory. Literals are sent at most a block at a time. The file channel is closed along with the
+   * stream.
+   */
+  static class DeltaInputStream extends InputStream {
+
+    private final MessageDigest            blockDigester;
+    private final List<byte[]>             blockHashes  = new ArrayList<>();
+    private final Map<Long, List<Integer>> blockIndex   = new HashMap<>();
+    private final int                      blockSize;
+    private final byte[]                   buffer;
+    private final FileChannel              channel;
+    private final MessageDigest            fileDigester;
+    private final ByteArrayOutputStream    instructions = new ByteArrayOutputStream();
+    private final DataOutputStream         out          = new DataOutputStream(instructions);
+    private final List<BlockSignature>     signatures;
+    private int                            bufferLength;
+    private long                           bufferStart;
+    private long                           checksum;
+    private boolean                        checksumValid;
+    private boolean                        done;
+    private boolean                        eof;
+    private byte[]                         instruction  = new byte[0];
+    private int                            instructionPos;
+    private int                            literalStart;
+    private long                           position;
+    private int                            windowStart;
+
+    DeltaInputStream(FileChannel channel, FileSignature signature) throws NoSuchAlgorithmException {
+      this.channel = channel;
+      this.blockSize = signature.getBlockSize();
+      this.signatures = signature.getBlocks();
+      this.buffer = new byte[blockSize * 3];
+      this.blockDigester = Checksums.newDigest(signature.getHashType());
+      this.fileDigester = Checksums.newDigest(signature.getHashType());
+
+      for (int xx = 0; xx < signatures.size(); xx++) {
+        BlockSignature block = signatures.get(xx);
+        blockHashes.add(Base64Utils.decodeAsBytes(block.getHash()));
+        if (block.getLength() == blockSize) {
+          List<Integer> indexes = blockIndex.get(block.getRolling());
+          if (indexes == null) {
+            indexes = new ArrayList<>();
+            blockIndex.put(block.getRolling(), indexes);
+          }
+          indexes.add(xx);
+        }
+      }
+    }
+
+    @Override
+    public int available() throws IOException {
+      return instruction.length - instructionPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+      done = true;
+      channel.close();
+    }
+
+    /**
+     * Make sure the buffer holds <code>length</code> bytes past the start of the window unless the
+     * end of the file is reached. The literal not yet sent is kept.
+     * 
+     * @param length
+     * @throws IOException
+     */
+    private void fill(int length) throws IOException {
+      if (windowStart + length > bufferLength && !eof) {
+        System.arraycopy(buffer, literalStart, buffer, 0, bufferLength - literalStart);
+        bufferStart += literalStart;
+        bufferLength -= literalStart;
+        windowStart -= literalStart;
+        literalStart = 0;
+
+        ByteBuffer read = ByteBuffer.wrap(buffer, bufferLength, buffer.length - bufferLength);
+        int count = 0;
+        do {
+          count = channel.read(read, bufferStart + read.position());
+        } while (count >= 0 && read.hasRemaining());
+        eof = count < 0;
+        bufferLength = read.position();
+      }
+    }
+
+    /**
+     * Find a block of the older copy matching the window.
+     * 
+     * @param length
+     * @return The index of the block or -1 if not found.
+     */
+    private int findBlock(int length) {
+      int ret = -1;
+
+      List<Integer> indexes = blockIndex.get(checksum);
+      if (indexes != null) {
+        blockDigester.reset();
+        blockDigester.update(buffer, windowStart, length);
+        byte[] hash = blockDigester.digest();
+        for (int index : indexes) {
+          if (MessageDigest.isEqual(hash, blockHashes.get(index))) {
+            ret = index;
+            break;
+          }
+        }
+      }
+
+      return ret;
+    }
+
+    /**
+     * Check the hash of the tail against the last block of the older copy.
+     * 
+     * @param index
+     * @param length
+     * @return
+     */
+    private boolean findTail(int index, int length) {
+      blockDigester.reset();
+      blockDigester.update(buffer, windowStart, length);
+      return MessageDigest.isEqual(blockDigester.digest(), blockHashes.get(index));
+    }
+
+    /**
+     * Fill the instruction buffer with at least one instruction.
+     * 
+     * @return False at the end of the delta.
+     */
+    private boolean nextInstruction() {
+      if (done) {
+        return false;
+      }
+
+      instructions.reset();
+      try {
+        try {
+          boolean written = false;
+          while (!written) {
+            fill(blockSize + 1);
+            int available = bufferLength - windowStart;
+            if (available >= blockSize) {
+              if (!checksumValid) {
+                checksum = rolling(buffer, windowStart, blockSize);
+                checksumValid = true;
+              }
+
+              int index = findBlock(blockSize);
+              if (index >= 0) {
+                writeLiteral();
+                writeCopy(index, blockSize);
+              } else {
+                if (available > blockSize) {
+                  checksum = roll(checksum, blockSize, buffer[windowStart], buffer[windowStart + blockSize]);
+                } else {
+                  checksumValid = false;
+                }
+                windowStart++;
+                if (windowStart - literalStart >= blockSize) {
+                  writeLiteral();
+                }
+              }
+            } else {
+              // The tail can only match the last block of the older copy.
+              int last = signatures.size() - 1;
+              if (available > 0 && last >= 0 && signatures.get(last).getLength() == available) {
+                checksum = rolling(buffer, windowStart, available);
+                if (checksum == signatures.get(last).getRolling() && findTail(last, available)) {
+                  writeLiteral();
+                  writeCopy(last, available);
+                }
+              }
+
+              windowStart = bufferLength;
+              writeLiteral();
+              out.writeByte(END_INSTRUCTION);
+              out.writeLong(position);
+              out.writeUTF(Base64Utils.encodeAsString(fileDigester.digest()));
+              done = true;
+            }
+            written = instructions.size() > 0;
+          }
+        } catch (IOException ee) {
+          logger.error(String.format("Error building delta at offset %d: %s", position, ee.getMessage()));
+          instructions.reset();
+          out.writeByte(ERROR_INSTRUCTION);
+          out.writeUTF(String.valueOf(ee.getMessage()));
+          done = true;
+        }
+        out.flush();
+      } catch (IOException ee) {
+        // Writing to memory
+      }
+
+      instruction = instructions.toByteArray();
+      instructionPos = 0;
+
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int ret = -1;
+
+      byte[] one = new byte[1];
+      if (read(one, 0, 1) > 0) {
+        ret = one[0] & 0xFF;
+      }
+
+      return ret;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      while (instructionPos >= instruction.length) {
+        if (!nextInstruction()) {
+          return -1;
+        }
+      }
+
+      int ret = Math.min(length, instruction.length - instructionPos);
+      System.arraycopy(instruction, instructionPos, buffer, offset, ret);
+      instructionPos += ret;
+
+      return ret;
+    }
+
+    private void writeCopy(int index, int length) throws IOException {
+      out.writeByte(COPY_INSTRUCTION);
+      out.writeInt(index);
+      fileDigester.update(buffer, windowStart, length);
+      position += length;
+
+      windowStart += length;
+      literalStart = windowStart;
+      checksumValid = false;
+    }
+
+    private void writeLiteral() throws IOException {
+      int length = windowStart - literalStart;
+      if (length > 0) {
+        out.writeByte(LITERAL_INSTRUCTION);
+        out.writeInt(length);
+        out.write(buffer, literalStart, length);
+        fileDigester.update(buffer, literalStart, length);
+        position += length;
+
+        literalStart = windowStart;
+      }
+    }
+
+  }
+
+}
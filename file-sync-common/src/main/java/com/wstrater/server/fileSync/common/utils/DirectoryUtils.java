@@ -4,6 +4,13 @@ import static com.wstrater.server.fileSync.common.utils.AccessUtils.access;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 
 import org.slf4j.Logger;
@@ -11,6 +18,9 @@ import org.slf4j.LoggerFactory;
 
 import com.wstrater.server.fileSync.common.data.DirectoryDeleteRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryDeleteResponse;
+import com.wstrater.server.fileSync.common.data.DirectoryDigest;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestRequest;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestResponse;
 import com.wstrater.server.fileSync.common.data.DirectoryInfo;
 import com.wstrater.server.fileSync.common.data.DirectoryListRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryListResponse;
@@ -22,19 +32,33 @@ import com.wstrater.server.fileSync.common.data.FileInfo;
 import com.wstrater.server.fileSync.common.data.IndexFile;
 import com.wstrater.server.fileSync.common.data.IndexInfo;
 import com.wstrater.server.fileSync.common.exceptions.DeleteNotAllowedException;
+import com.wstrater.server.fileSync.common.exceptions.ErrorListingDirectoryException;
 import com.wstrater.server.fileSync.common.exceptions.InvalidFileLocationException;
 import com.wstrater.server.fileSync.common.exceptions.MissingBaseDirectoryException;
 import com.wstrater.server.fileSync.common.exceptions.MissingPathException;
 import com.wstrater.server.fileSync.common.exceptions.MissingRequestException;
 import com.wstrater.server.fileSync.common.exceptions.NotValidDirectoryException;
 import com.wstrater.server.fileSync.common.exceptions.WriteNotAllowedException;
+import com.wstrater.server.fileSync.common.hash.Checksums;
 
 public abstract class DirectoryUtils {
 
-  protected final static Logger logger = LoggerFactory.getLogger(DirectoryUtils.class);
+  public final static String    DIGEST_HASH_TYPE = "SHA1";
+
+  protected final static Logger logger           = LoggerFactory.getLogger(DirectoryUtils.class);
 
   private static File           baseDir;
 
+  private static Comparator<File> compareByName() {
+    return new Comparator<File>() {
+
+      @Override
+      public int compare(File file1, File file2) {
+        return file1.getName().compareTo(file2.getName());
+      }
+    };
+  }
+
   public static DirectoryDeleteResponse deleteDirectory(DirectoryDeleteRequest request) {
     DirectoryDeleteResponse ret = new DirectoryDeleteResponse();
 
@@ -47,6 +71,9 @@ public abstract class DirectoryUtils {
 
     boolean isBaseDir = dir.equals(request.getBaseDir());
 
+    // Close the files about to be deleted.
+    FileUtils.evictChannels(dir);
+
     ret.setSuccess(deleteDirectoryContents(dir, !isBaseDir, request.isFiles(), request.isRecursive()));
 
     logger.info(String.format("DeleteDiretory: %s, Success: %b", dir.getAbsolutePath(), ret.isSuccess()));
@@ -93,6 +120,109 @@ public abstract class DirectoryUtils {
     return ret;
   }
 
+  public static DirectoryDigestResponse digestDirectory(DirectoryDigestRequest request) {
+    DirectoryDigestResponse ret = new DirectoryDigestResponse();
+
+    ret.setRequest(request);
+
+    File dir = validateDirectoryDigestRequest(request);
+
+    logger.info(String.format("DigestDirectory: %s, HiddenDirs: %b, HiddenFiles: %b, Levels: %d", dir.getAbsolutePath(),
+        request.isHiddenDirectories(), request.isHiddenFiles(), request.getLevels()));
+
+    ret.setDirectoryDigest(digestDirectory(dir, request.getLevels(), request.isHiddenDirectories(), request.isHiddenFiles()));
+
+    ret.setSuccess(ret.getDirectoryDigest() != null);
+
+    logger.info(String.format("DigestDirectory: %s, Success: %b", dir.getAbsolutePath(), ret.isSuccess()));
+
+    return ret;
+  }
+
+  /**
+   * Create a {@see DirectoryDigest} structure for the dir. The digest always covers every
+   * sub-directory but only the digests of the sub-directories within <code>levels</code> are
+   * returned. A negative <code>levels</code> returns every sub-directory digested so the tree is
+   * only walked once. The lastModified is digested in the current time zone, as it is listed by the server,
+   * so the digests of both file systems can be compared.
+   * 
+   * @param dir
+   * @param levels The number of levels of sub-directories to return. Negative for every level.
+   * @param hiddenDirectories
+   * @param hiddenFiles
+   * @return
+   */
+  public static DirectoryDigest digestDirectory(File dir, int levels, boolean hiddenDirectories, boolean hiddenFiles) {
+    DirectoryDigest ret = null;
+
+    if (dir != null && dir.isDirectory()) {
+      dir = FileUtils.canonicalFile(dir);
+      try {
+        MessageDigest digester = Checksums.newDigest(DIGEST_HASH_TYPE);
+        ret = new DirectoryDigest();
+        ret.setName(".");
+        ret.setDigest(Base64Utils.encodeAsString(digestDirectoryContents(ret, dir, levels, hiddenDirectories, hiddenFiles,
+            digester)));
+      } catch (NoSuchAlgorithmException ee) {
+        throw new ErrorListingDirectoryException(String.format("Unable to digest directory '%s': %s", dir, ee.getMessage()));
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Recursively digest a directory. The sub-directories are digested first so the digester can be
+   * reused for the entries of this directory, which are digested in name order.
+   * 
+   * @param parent
+   * @param dir
+   * @param levels
+   * @param hiddenDirectories
+   * @param hiddenFiles
+   * @param digester
+   * @return
+   */
+  private static byte[] digestDirectoryContents(DirectoryDigest parent, File dir, int levels, boolean hiddenDirectories,
+      boolean hiddenFiles, MessageDigest digester) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      files = new File[0];
+    }
+    Arrays.sort(files, compareByName());
+
+    if (levels != 0) {
+      parent.setDirectories(new ArrayList<DirectoryDigest>());
+    }
+
+    List<String> entries = new ArrayList<>(files.length);
+    for (File file : files) {
+      if (file.isDirectory()) {
+        if (hiddenDirectories || !file.isHidden()) {
+          DirectoryDigest directoryDigest = new DirectoryDigest();
+          directoryDigest.setName(file.getName());
+          directoryDigest.setDigest(Base64Utils.encodeAsString(digestDirectoryContents(directoryDigest, file, levels - 1,
+              hiddenDirectories, hiddenFiles, digester)));
+          if (levels != 0) {
+            parent.addDirectory(directoryDigest);
+          }
+          entries.add(String.format("D\t%s\t%s\n", file.getName(), directoryDigest.getDigest()));
+        }
+      } else {
+        if ((hiddenFiles || !file.isHidden()) && !Compare.equals(IndexFile.INDEX_FILE_NAME, file.getName())) {
+          entries.add(String.format("F\t%s\t%d\t%d\n", file.getName(), file.length(), TimeUtils.fromUTC(file.lastModified())));
+        }
+      }
+    }
+
+    digester.reset();
+    for (String entry : entries) {
+      digester.update(entry.getBytes(StandardCharsets.UTF_8));
+    }
+
+    return digester.digest();
+  }
+
   public static File getBaseDir() {
     return baseDir;
   }
@@ -313,8 +443,7 @@ public abstract class DirectoryUtils {
           || !Compare.equals(indexInfo.getLength(), fileInfo.getLength())) {
         indexInfo.setLastModified(fileInfo.getLastModified());
         indexInfo.setLength(fileInfo.getLength());
-        indexInfo.setHashType(null);
-        indexInfo.setHash(null);
+        indexInfo.clearHashes();
       }
     }
 
@@ -349,6 +478,25 @@ public abstract class DirectoryUtils {
     return ret;
   }
 
+  private static File validateDirectoryDigestRequest(DirectoryDigestRequest request) {
+    File ret = null;
+
+    if (request == null) {
+      throw new MissingRequestException("Missing request");
+    } else if (request.getBaseDir() == null) {
+      throw new MissingBaseDirectoryException("Missing base directory");
+    } else if (request.getPath() == null) {
+      throw new MissingPathException("Missing path");
+    }
+
+    ret = FileUtils.canonicalFile(new File(request.getBaseDir(), request.getPath()));
+
+    validateDirectory(ret);
+    validateFileLocation(request.getBaseDir(), ret);
+
+    return ret;
+  }
+
   private static void validateDirectoryPermissionsRequest(DirectoryPermissionsRequest request) {
     if (request == null) {
       throw new MissingRequestException("Missing request");
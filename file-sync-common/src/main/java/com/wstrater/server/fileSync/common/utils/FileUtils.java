@@ -1,19 +1,52 @@
 package com.wstrater.server.fileSync.common.utils;
 
+import static com.wstrater.server.fileSync.common.utils.AccessUtils.access;
+
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.util.zip.CRC32;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.Checksum;
+import java.util.zip.Inflater;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.wstrater.server.fileSync.common.codec.Codec;
+import com.wstrater.server.fileSync.common.codec.Codecs;
+import com.wstrater.server.fileSync.common.data.BlockSignature;
 import com.wstrater.server.fileSync.common.data.DeleteRequest;
 import com.wstrater.server.fileSync.common.data.DeleteResponse;
+import com.wstrater.server.fileSync.common.data.DeltaRequest;
+import com.wstrater.server.fileSync.common.data.DeltaResponse;
+import com.wstrater.server.fileSync.common.data.FileInfo;
+import com.wstrater.server.fileSync.common.data.FileSignature;
+import com.wstrater.server.fileSync.common.data.HashRequest;
+import com.wstrater.server.fileSync.common.data.HashTree;
+import com.wstrater.server.fileSync.common.data.IndexFile;
+import com.wstrater.server.fileSync.common.data.IndexInfo;
 import com.wstrater.server.fileSync.common.data.ReadRequest;
 import com.wstrater.server.fileSync.common.data.ReadResponse;
+import com.wstrater.server.fileSync.common.data.SignatureRequest;
+import com.wstrater.server.fileSync.common.data.SignatureResponse;
+import com.wstrater.server.fileSync.common.data.StreamRequest;
+import com.wstrater.server.fileSync.common.data.StreamResponse;
+import com.wstrater.server.fileSync.common.data.TreeRequest;
+import com.wstrater.server.fileSync.common.data.TreeResponse;
 import com.wstrater.server.fileSync.common.data.WriteRequest;
 import com.wstrater.server.fileSync.common.data.WriteResponse;
 import com.wstrater.server.fileSync.common.exceptions.DeleteNotAllowedException;
@@ -24,28 +57,82 @@ import com.wstrater.server.fileSync.common.exceptions.ErrorWritingBlockException
 import com.wstrater.server.fileSync.common.exceptions.FileNotFoundException;
 import com.wstrater.server.fileSync.common.exceptions.FileNotReadableException;
 import com.wstrater.server.fileSync.common.exceptions.FileNotWritableException;
+import com.wstrater.server.fileSync.common.exceptions.InvalidBlockHashException;
 import com.wstrater.server.fileSync.common.exceptions.InvalidBlockSizeException;
+import com.wstrater.server.fileSync.common.exceptions.InvalidChecksumTypeException;
+import com.wstrater.server.fileSync.common.exceptions.InvalidCodecException;
 import com.wstrater.server.fileSync.common.exceptions.InvalidDataBlockException;
 import com.wstrater.server.fileSync.common.exceptions.InvalidDataLengthException;
+import com.wstrater.server.fileSync.common.exceptions.InvalidFileHashException;
 import com.wstrater.server.fileSync.common.exceptions.InvalidFileLocationException;
 import com.wstrater.server.fileSync.common.exceptions.InvalidFileOffsetException;
 import com.wstrater.server.fileSync.common.exceptions.MissingBaseDirectoryException;
+import com.wstrater.server.fileSync.common.exceptions.MissingDataException;
 import com.wstrater.server.fileSync.common.exceptions.MissingFileNameException;
 import com.wstrater.server.fileSync.common.exceptions.MissingRequestException;
 import com.wstrater.server.fileSync.common.exceptions.WriteNotAllowedException;
+import com.wstrater.server.fileSync.common.file.StreamListener;
+import com.wstrater.server.fileSync.common.hash.Checksums;
+import com.wstrater.server.fileSync.common.hash.HashProcessor;
+import com.wstrater.server.fileSync.common.hash.RunningDigests;
+import com.wstrater.server.fileSync.common.utils.ChannelCache.Handle;
+import com.wstrater.server.fileSync.common.utils.DeltaUtils.DeltaInputStream;
+import com.wstrater.server.fileSync.common.utils.DeltaUtils.Instruction;
+import com.wstrater.server.fileSync.common.utils.StreamUtils.Frame;
+import com.wstrater.server.fileSync.common.utils.StreamUtils.FrameInputStream;
 
 public abstract class FileUtils {
 
-  public static final int        MAX_BLOCK_SIZE = 256 * 1024;
-  public static final long       MAX_OFFSET     = 64L * 1024L * 1024L * 1024L;
-  public static final int        MIN_BLOCK_SIZE = 4096;
-
-  protected final static Logger  logger         = LoggerFactory.getLogger(FileUtils.class);
+  public static final int                           DEFERRED_PRIORITY = -1;
+  public static final int                           MAX_BATCH_SIZE    = 4 * 1024 * 1024;
+  public static final int                           MAX_BLOCK_SIZE    = 256 * 1024;
+  public static final long                          MAX_OFFSET        = 64L * 1024L * 1024L * 1024L;
+  public static final int                           MIN_BLOCK_SIZE    = 4096;
+
+  protected final static Logger                     logger            = LoggerFactory.getLogger(FileUtils.class);
+
+  private static CompressionAdvisor                 advisor           = new CompressionAdvisor(
+                                                                          CompressionAdvisor.DEFAULT_MAX_FILES);
+  private static BufferPool                         bufferPool        = new BufferPool(BufferPool.DEFAULT_MAX_BYTES);
+  private static ChannelCache                       channelCache      = new ChannelCache(ChannelCache.DEFAULT_MAX_OPEN,
+                                                                          ChannelCache.DEFAULT_IDLE_MILLIS);
+  private static String                             checksumType      = Checksums.DEFAULT_CHECKSUM_TYPE;
+  private static String                             codec             = Codecs.DEFAULT_CODEC;
+  private static boolean                            compress          = false;
+  private static boolean                            deferHashing      = false;
+  private static MappedWindows                      mappedWindows     = new MappedWindows(MappedWindows.DEFAULT_MAX_WINDOWS,
+                                                                          MappedWindows.DEFAULT_WINDOW_SIZE);
+  private static long                               mapSize           = 0L;
+  private static int                                maxBatchSize      = MAX_BATCH_SIZE;
+  private static int                                maxBlockSize      = MAX_BLOCK_SIZE;
+  private static long                               maxOffset         = MAX_OFFSET;
+  private static FilePermissions                    permissions       = new FilePermissions();
+  private static RunningDigests                     readDigests       = new RunningDigests(RunningDigests.DEFAULT_MAX_FILES);
+  private static RunningDigests                     writeDigests      = new RunningDigests(RunningDigests.DEFAULT_MAX_FILES);
+
+  private final static ThreadLocal<String>          threadChecksumType = new ThreadLocal<>();
+  private final static ThreadLocal<FilePermissions> threadPermissions  = new ThreadLocal<>();
 
-  private static boolean         compress       = false;
-  private static int             maxBlockSize   = MAX_BLOCK_SIZE;
-  private static long            maxOffset      = MAX_OFFSET;
-  private static FilePermissions permissions    = new FilePermissions();
+  /**
+   * Get an open channel for the file from the {@link ChannelCache} or open one that is closed when
+   * released if there is no cache. The {@link HashProcessor} backs off until the channel is
+   * released with {@link #releaseChannel(Handle)}.
+   * 
+   * @param file
+   * @param write
+   * @return
+   * @throws IOException
+   */
+  private static Handle acquireChannel(File file, boolean write) throws IOException {
+    ChannelCache cache = channelCache;
+    HashProcessor.getThrottle().startTransfer();
+    try {
+      return cache == null ? ChannelCache.open(file, write) : cache.acquire(file, write);
+    } catch (IOException | RuntimeException ee) {
+      HashProcessor.getThrottle().finishTransfer();
+      throw ee;
+    }
+  }
 
   public static long calcCRC(byte[] data) {
     return calcCRC(data, 0, data == null ? 0 : data.length);
@@ -55,7 +142,7 @@ public abstract class FileUtils {
     long ret = -1;
 
     if (data != null) {
-      CRC32 crc = new CRC32();
+      Checksum crc = Checksums.newChecksum(getChecksumType());
       crc.update(data, offset, length);
       ret = crc.getValue();
     }
@@ -144,6 +231,30 @@ public abstract class FileUtils {
     return ret;
   }
 
+  /**
+   * Create the file if it does not exist. A file with an open channel is known to exist.
+   * 
+   * @param file
+   * @return The file.
+   */
+  private static File createFile(File file) {
+    if ((channelCache == null || !channelCache.isOpen(file)) && !file.exists()) {
+      File dir = file.getParentFile();
+      try {
+        dir.mkdirs();
+      } catch (Exception ee) {
+        throw new ErrorCreatingDirectoryException(String.format("Cant create directory '%s'", dir));
+      }
+      try {
+        file.createNewFile();
+      } catch (Exception ee) {
+        throw new ErrorCreatingFileException(String.format("Cant create file '%s'", file));
+      }
+    }
+
+    return file;
+  }
+
   public static DeleteResponse deleteFile(DeleteRequest request) {
     DeleteResponse ret = new DeleteResponse();
 
@@ -153,6 +264,7 @@ public abstract class FileUtils {
 
     logger.info(String.format("DeleteFile: %s", file.getAbsolutePath()));
 
+    evictChannel(file);
     file.delete();
 
     ret.setSuccess(!file.exists());
@@ -162,290 +274,1419 @@ public abstract class FileUtils {
     return ret;
   }
 
-  public static boolean isCompress() {
-    return compress;
+  /**
+   * Queue a file written out of order to be hashed by the {@link HashProcessor} since it could not
+   * be hashed as it was written. Nothing is queued if the index already has a current hash.
+   * 
+   * @param file Canonical
+   * @param request
+   */
+  private static void deferHash(File file, WriteRequest request) {
+    IndexFile indexFile = IndexManager.loadIndex(file.getParentFile());
+    IndexInfo indexInfo = indexFile == null ? null : indexFile.getIndexInfo(file.getName());
+    if (indexInfo == null || Compare.isBlank(indexInfo.getHash(HashProcessor.getHashType()))
+        || !Compare.equals(indexInfo.getLength(), file.length())
+        || !Compare.equals(indexInfo.getLastModified(), file.lastModified())) {
+      String path = new File(request.getFileName()).getParent();
+
+      HashRequest hashRequest = new HashRequest();
+      hashRequest.setBaseDir(request.getBaseDir());
+      hashRequest.setHashType(HashProcessor.getHashType());
+      hashRequest.setHiddenFiles(file.isHidden());
+      hashRequest.setPath(path == null ? "." : path);
+      hashRequest.setPriority(DEFERRED_PRIORITY);
+      hashRequest.setRecursive(false);
+
+      logger.info(String.format("Deferring hash of %s", file.getAbsolutePath()));
+      HashProcessor.queueRequest(hashRequest);
+    }
   }
 
-  public static int getMaxBlockSize() {
-    return maxBlockSize < 0 ? Integer.MAX_VALUE : maxBlockSize;
+  /**
+   * Close the cached channel and drop the mapped windows of a file before it is truncated, replaced
+   * or deleted.
+   * 
+   * @param file Canonical
+   */
+  private static void evictChannel(File file) {
+    ChannelCache cache = channelCache;
+    if (cache != null) {
+      cache.evict(file);
+    }
+    mappedWindows.evict(file);
   }
 
-  public static long getMaxOffset() {
-    return maxOffset < 0 ? Long.MAX_VALUE : maxOffset;
+  /**
+   * Close the cached channels of every file within a directory before it is deleted.
+   * 
+   * @param dir Canonical
+   */
+  public static void evictChannels(File dir) {
+    ChannelCache cache = channelCache;
+    if (cache != null) {
+      cache.evictAll(dir);
+    }
+    mappedWindows.evictAll(dir);
   }
 
-  public static FilePermissions getPermissions() {
-    return permissions;
+  /**
+   * The pool of arrays shared by the block reads, writes and compression.
+   * 
+   * @return
+   */
+  public static BufferPool getBufferPool() {
+    return bufferPool;
   }
 
   /**
-   * Read a block of a file.
+   * The cache of open channels used to read and write blocks. Null if channels are not cached.
    * 
-   * @param request
    * @return
-   * @throws IOException
    */
-  public static ReadResponse readBlock(ReadRequest request) {
-    ReadResponse ret = new ReadResponse();
-
-    File file = validateReadRequest(request);
-
-    ret.setRequest(request);
-
-    logger.info(String.format("ReadBlock: %s, Offset: %d, Block Size: %s", file.getAbsolutePath(), request.getOffset(),
-        request.getBlockSize()));
-
-    if (request.getOffset() > file.length()) {
-      ret.setEof(true);
-      ret.setSuccess(true);
-    } else {
-      try {
-        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
-        try {
-          ByteBuffer buffer = ByteBuffer.allocate(request.getBlockSize());
-
-          channel.position(request.getOffset());
-
-          int count = 0;
-          int length = 0;
-          do {
-            count = channel.read(buffer);
-            if (count > 0) {
-              length += count;
-            }
-          } while (count >= 0 && buffer.hasRemaining());
-          ret.setEof(count < 0);
-
-          // buffer.flip();
-
-          byte[] data = new byte[length];
-          System.arraycopy(buffer.array(), 0, data, 0, length);
-
-          ret.setData(data);
-          ret.setLength(length);
-          ret.setCrc32(calcCRC(data, 0, length));
-          ret.setSuccess(true);
-        } finally {
-          channel.close();
-        }
-      } catch (IOException ee) {
-        throw new ErrorReadingBlockException(ee.getMessage());
-      }
-    }
+  public static ChannelCache getChannelCache() {
+    return channelCache;
+  }
 
-    logger.info(String.format("ReadBlock: %s, Length: %s, CRC: %d, EOF: %b, Success: %b", file.getAbsolutePath(), ret.getLength(),
-        ret.getCrc32(), ret.isEof(), ret.isSuccess()));
+  /**
+   * The block checksum type for the current thread. The server uses the type negotiated with the
+   * client for the request.
+   * 
+   * @return
+   */
+  public static String getChecksumType() {
+    String ret = threadChecksumType.get();
 
-    return ret;
+    return ret == null ? checksumType : ret;
   }
 
-  public static void setCompress(boolean compress) {
-    FileUtils.compress = compress;
+  /**
+   * The codec the client compresses blocks with when compression is on.
+   * 
+   * @return
+   */
+  public static Codec getCodec() {
+    return Codecs.getCodec(codec);
   }
 
-  public static void setMaxBlockSize(int maxBlockSize) {
-    FileUtils.maxBlockSize = maxBlockSize;
+  /**
+   * Decides which blocks are worth deflating when compression is on.
+   * 
+   * @return
+   */
+  public static CompressionAdvisor getCompressionAdvisor() {
+    return advisor;
   }
 
   /**
-   * Set the maximum offset. Setting this too high could allow a poorly coded or malicious call fill
-   * up your storage.
+   * The windows mapped from files at least {@link #getMapSize()} bytes long.
    * 
-   * @param maxOffset
+   * @return
    */
-  public static void setMaxOffset(long maxOffset) {
-    FileUtils.maxOffset = maxOffset;
+  public static MappedWindows getMappedWindows() {
+    return mappedWindows;
   }
 
-  public static void setPermissions(FilePermissions permissions) {
-    if (permissions == null) {
-      throw new IllegalStateException(String.format("%s requires a %s", FileUtils.class.getSimpleName(),
-          FilePermissions.class.getSimpleName()));
-    }
-    FileUtils.permissions = permissions;
+  /**
+   * The smallest file read and hashed through mapped windows. Zero if files are never mapped.
+   * 
+   * @return
+   */
+  public static long getMapSize() {
+    return mapSize;
   }
 
-  private static void validateBlockSize(int blockSize) {
-    if (blockSize < MIN_BLOCK_SIZE || blockSize > getMaxBlockSize() || blockSize % MIN_BLOCK_SIZE != 0) {
-      throw new InvalidBlockSizeException(String.format("Block size must be between %d and %d and a multiple of %d: %d",
-          MIN_BLOCK_SIZE, getMaxBlockSize(), MIN_BLOCK_SIZE, blockSize));
-    }
+  public static boolean isCompress() {
+    return compress;
   }
 
-  private static void validateData(byte[] data) {
-    if (data == null || data.length > getMaxBlockSize()) {
-      throw new InvalidDataBlockException(String.format("Data block must be between %d and %d bytes: %d", 0, getMaxBlockSize(),
-          data == null ? -1 : data.length));
-    }
+  public static boolean isDeferHashing() {
+    return deferHashing;
   }
 
-  private static File validateDeleteRequest(DeleteRequest request) {
-    File ret = null;
-
-    if (permissions == null || !permissions.isLocalDelete()) {
-      throw new DeleteNotAllowedException("Delete not allowed");
-    } else if (request == null) {
-      throw new MissingRequestException("Missing request");
-    } else if (request.getBaseDir() == null) {
-      throw new MissingBaseDirectoryException("Missing base directory");
-    } else if (request.getFileName() == null) {
-      throw new MissingFileNameException("Missing file name");
-    }
-
-    ret = canonicalFile(new File(request.getBaseDir(), request.getFileName()));
-
-    validateFileLocation(request.getBaseDir(), ret);
-    validateWriteFile(ret);
+  /**
+   * Whether a file of this length is read and hashed through mapped windows.
+   * 
+   * @param length
+   * @return
+   */
+  public static boolean isMapped(long length) {
+    return mapSize > 0L && length >= mapSize;
+  }
 
-    return ret;
+  /**
+   * The most bytes read or written by one batch of blocks. Never less than
+   * {@link #getMaxBlockSize()} so a batch can always hold one block.
+   * 
+   * @return
+   */
+  public static int getMaxBatchSize() {
+    return maxBatchSize < 0 ? Integer.MAX_VALUE : Math.max(maxBatchSize, getMaxBlockSize());
   }
 
-  private static void validateFileLocation(File baseDir, File file) {
-    if (baseDir == null || file == null || !DirectoryUtils.isChild(baseDir, file)) {
-      throw new InvalidFileLocationException(String.format("'%s' not within '%s'", file, baseDir));
-    }
+  public static int getMaxBlockSize() {
+    return maxBlockSize < 0 ? Integer.MAX_VALUE : maxBlockSize;
   }
 
-  private static void validateLength(int length) {
-    if (length < 0 || length > getMaxBlockSize()) {
-      throw new InvalidDataLengthException(String.format("Length must be between %d and %d: %d", 0, getMaxBlockSize(), length));
-    }
+  public static long getMaxOffset() {
+    return maxOffset < 0 ? Long.MAX_VALUE : maxOffset;
   }
 
-  private static void validateOffset(long offset) {
-    if (offset < 0 || offset > getMaxOffset()) {
-      throw new InvalidFileOffsetException(String.format("Offset must be between %d and %d: %d", 0, getMaxOffset(), offset));
-    }
+  public static FilePermissions getPermissions() {
+    FilePermissions ret = threadPermissions.get();
+
+    return ret == null ? permissions : ret;
   }
 
-  private static void validateReadFile(File file) {
-    if (file == null || !file.exists()) {
-      throw new FileNotFoundException(String.format("Can not find file '%s'", file));
-    } else if (!file.canRead()) {
-      throw new FileNotReadableException(String.format("File '%s' is not readable", file));
+  /**
+   * Feed a block read to the running digest of the file. The hashes are saved to the index and
+   * returned with the last block if every block was read in order from the start and the file was
+   * not modified in the meantime.
+   */
+  private static void hashRead(File file, long offset, byte[] data, int length, long size, ReadResponse response) {
+    if (readDigests.update(file, offset, data, 0, length) == size) {
+      Map<String, String> hashes = readDigests.finish(file, size, file.lastModified());
+      if (hashes != null) {
+        saveFileHash(file, hashes);
+        Entry<String, String> hash = hashes.entrySet().iterator().next();
+        response.setHashType(hash.getKey());
+        response.setHash(hash.getValue());
+      }
     }
   }
 
-  private static File validateReadRequest(ReadRequest request) {
-    File ret = null;
+  /**
+   * Finish the running digest of a file just written up to its end. The hash of the request, if
+   * any, is checked against the hashes of the same type and the hashes saved to the index.
+   * 
+   * @param file
+   * @param length
+   * @param hash Optional
+   * @param hashType
+   * @return Null if the file was not written in order from the start.
+   * @throws InvalidFileHashException If the file written does not match the hash.
+   */
+  private static Map<String, String> hashWrite(File file, long length, String hash, String hashType) {
+    Map<String, String> ret = writeDigests.finish(file, length, 0L);
+
+    if (ret != null) {
+      if (!Compare.isBlank(hash)) {
+        hashType = Compare.isBlank(hashType) ? HashProcessor.DEFAULT_HASH_TYPE : hashType;
+        String written = ret.get(hashType);
+        if (written == null) {
+          logger.debug(String.format("Unable to check %s without a %s hash", file.getAbsolutePath(), hashType));
+        } else if (!written.equals(hash)) {
+          throw new InvalidFileHashException(String.format("File hash after write of %s did not match %s",
+              file.getAbsolutePath(), hash));
+        }
+      }
 
-    if (request == null) {
-      throw new MissingRequestException("Missing request");
-    } else if (request.getBaseDir() == null) {
-      throw new MissingBaseDirectoryException("Missing base directory");
-    } else if (request.getFileName() == null) {
-      throw new MissingFileNameException("Missing file name");
+      saveFileHash(file, ret);
     }
 
-    validateBlockSize(request.getBlockSize());
-    validateOffset(request.getOffset());
-
-    ret = canonicalFile(new File(request.getBaseDir(), request.getFileName()));
-
-    validateFileLocation(request.getBaseDir(), ret);
-    validateReadFile(ret);
-
     return ret;
   }
 
-  private static void validateWriteFile(File file) {
-    if (file == null || (file.exists() && !file.canWrite())) {
-      throw new FileNotWritableException(String.format("File '%s' is not writable", file));
-    }
-  }
+  /**
+   * Read a block of a file.
+   * 
+   * @param request
+   * @return
+   * @throws IOException
+   */
+  public static ReadResponse readBlock(ReadRequest request) {
+    ReadResponse ret = null;
 
-  private static File validateWriteRequest(WriteRequest request) {
-    File ret = null;
+    File file = validateReadRequest(request);
 
-    if (permissions == null || !permissions.isLocalWrite()) {
-      throw new WriteNotAllowedException("Write not allowed");
-    } else if (request == null) {
-      throw new MissingRequestException("Missing request");
-    } else if (request.getBaseDir() == null) {
-      throw new MissingBaseDirectoryException("Missing base directory");
-    } else if (request.getFileName() == null) {
-      throw new MissingFileNameException("Missing file name");
+    try {
+      Handle handle = acquireChannel(file, false);
+      try {
+        ret = readBlock(handle.getChannel(), file, request);
+      } finally {
+        releaseChannel(handle);
+      }
+    } catch (IOException ee) {
+      throw new ErrorReadingBlockException(ee.getMessage());
     }
 
-    validateData(request.getData());
-    validateOffset(request.getOffset());
-    validateLength(request.getLength());
-
-    ret = canonicalFile(new File(request.getBaseDir(), request.getFileName()));
-
-    validateFileLocation(request.getBaseDir(), ret);
-    validateWriteFile(ret);
-
     return ret;
   }
 
   /**
-   * Write a block of a file.
+   * Read a block into the buffer given rather than a new array so a caller writing the block
+   * straight out again can reuse the buffer for every block. The data of the response is the buffer
+   * so only the first <code>length</code> bytes belong to the block.
    * 
    * @param request
+   * @param buffer At least the block size of the request.
    * @return
-   * @throws IOException
    */
-  public static WriteResponse writeBlock(WriteRequest request) {
-    WriteResponse ret = new WriteResponse();
+  public static ReadResponse readBlock(ReadRequest request, byte[] buffer) {
+    ReadResponse ret = null;
 
-    File file = validateWriteRequest(request);
+    File file = validateReadRequest(request);
 
-    ret.setRequest(request);
+    if (buffer == null || buffer.length < request.getBlockSize()) {
+      throw new InvalidBlockSizeException(String.format("Buffer must be at least %d bytes: %d", request.getBlockSize(),
+          buffer == null ? -1 : buffer.length));
+    }
+
+    try {
+      Handle handle = acquireChannel(file, false);
+      try {
+        ret = readBlock(handle.getChannel(), file, request, buffer);
+      } finally {
+        releaseChannel(handle);
+      }
+    } catch (IOException ee) {
+      throw new ErrorReadingBlockException(ee.getMessage());
+    }
+
+    return ret;
+  }
+
+  /**
+   * Read a block into an array from the {@link BufferPool}. A full block keeps the pooled array so
+   * it must be released with {@link #releaseBlock(ReadResponse)} once written. Only a short block
+   * is copied to an array of its length and the pooled array released at once.
+   */
+  private static ReadResponse readBlock(FileChannel channel, File file, ReadRequest request) throws IOException {
+    byte[] buffer = bufferPool.acquire(request.getBlockSize());
+
+    ReadResponse ret;
+    try {
+      ret = readBlock(channel, file, request, buffer);
+    } catch (IOException ee) {
+      bufferPool.release(buffer);
+      throw ee;
+    }
+
+    if (ret.getData() == null) {
+      bufferPool.release(buffer);
+    } else if (ret.getData().length != ret.getLength()) {
+      ret.setData(Arrays.copyOf(ret.getData(), ret.getLength()));
+      bufferPool.release(buffer);
+    } else {
+      ret.setPooled(true);
+    }
+
+    return ret;
+  }
+
+  private static ReadResponse readBlock(FileChannel channel, File file, ReadRequest request, byte[] data) throws IOException {
+    ReadResponse ret = new ReadResponse();
+
+    ret.setRequest(request);
+
+    logger.info(String.format("ReadBlock: %s, Offset: %d, Block Size: %s", file.getAbsolutePath(), request.getOffset(),
+        request.getBlockSize()));
+
+    long size = channel.size();
+    if (request.getOffset() > size) {
+      ret.setEof(true);
+      ret.setSuccess(true);
+    } else {
+      int length = -1;
+      if (isMapped(size)) {
+        length = readMapped(channel, file, request.getOffset(), data, request.getBlockSize());
+      }
+
+      if (length >= 0) {
+        ret.setEof(length < request.getBlockSize());
+      } else {
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, request.getBlockSize());
+
+        int count = 0;
+        length = 0;
+        do {
+          // Positional reads so concurrent readers of the same file do not share a position.
+          count = channel.read(buffer, request.getOffset() + length);
+          if (count > 0) {
+            length += count;
+          }
+        } while (count >= 0 && buffer.hasRemaining());
+        ret.setEof(count < 0);
+      }
+
+      ret.setData(data);
+      ret.setLength(length);
+      ret.setCrc32(calcCRC(data, 0, length));
+      ret.setSuccess(true);
+
+      hashRead(file, request.getOffset(), data, length, size, ret);
+    }
+
+    logger.info(String.format("ReadBlock: %s, Length: %s, CRC: %d, EOF: %b, Success: %b", file.getAbsolutePath(), ret.getLength(),
+        ret.getCrc32(), ret.isEof(), ret.isSuccess()));
+
+    return ret;
+  }
+
+  /**
+   * Copy a block from the mapped windows of a file rather than reading the channel.
+   * 
+   * @return The bytes copied or -1 if the file could not be mapped so the channel must be read.
+   */
+  private static int readMapped(FileChannel channel, File file, long offset, byte[] data, int blockSize) {
+    int ret = 0;
+
+    try {
+      int length = 0;
+      do {
+        // A block may span two windows.
+        ByteBuffer slice = mappedWindows.slice(file, channel, offset + ret, blockSize - ret);
+        length = slice.remaining();
+        slice.get(data, ret, length);
+        ret += length;
+      } while (length > 0 && ret < blockSize);
+    } catch (IOException | InternalError ee) {
+      // Mapping failed or the file was truncated under the mapping.
+      logger.debug(String.format("Unable to map %s: %s", file.getAbsolutePath(), ee.getMessage()));
+      mappedWindows.evict(file);
+      ret = -1;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Read several blocks of one file through a single channel. Only the blocks that fit in
+   * {@link #getMaxBatchSize()} are read so there may be fewer responses than requests. The rest are
+   * expected to be requested again.
+   * 
+   * @param requests
+   * @return
+   */
+  public static List<ReadResponse> readBlocks(List<ReadRequest> requests) {
+    List<ReadResponse> ret = new ArrayList<>();
+
+    if (requests == null || requests.isEmpty()) {
+      throw new MissingRequestException("Missing request");
+    }
+
+    File file = validateReadRequest(requests.get(0));
+
+    try {
+      Handle handle = acquireChannel(file, false);
+      try {
+        FileChannel channel = handle.getChannel();
+        long batchSize = 0L;
+        for (ReadRequest request : requests) {
+          batchSize += request.getBlockSize();
+          if (!ret.isEmpty() && batchSize > getMaxBatchSize()) {
+            break;
+          }
+
+          validateBatchFile(file, validateReadRequest(request));
+          ret.add(readBlock(channel, file, request));
+        }
+      } finally {
+        releaseChannel(handle);
+      }
+    } catch (IOException ee) {
+      throw new ErrorReadingBlockException(ee.getMessage());
+    }
+
+    return ret;
+  }
+
+  /**
+   * Open a stream of the delta described in {@link DeltaUtils} that rebuilds a file from the blocks
+   * of the older copy described by the signature of the request. The file is read as the stream is
+   * read. Be sure to close the stream.
+   * 
+   * @param request
+   * @return
+   */
+  public static InputStream readDelta(DeltaRequest request) {
+    InputStream ret = null;
+
+    File file = validateDeltaRequest(request);
+    validateReadFile(file);
+
+    if (request.getSignature() == null) {
+      throw new MissingDataException("Missing signature");
+    }
+    validateBlockSize(request.getSignature().getBlockSize());
+
+    logger.info(String.format("ReadDelta: %s, Block Size: %d, Blocks: %d", file.getAbsolutePath(), request.getSignature()
+        .getBlockSize(), request.getSignature().getBlocks().size()));
+
+    try {
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try {
+        ret = new DeltaInputStream(channel, request.getSignature());
+      } catch (NoSuchAlgorithmException ee) {
+        channel.close();
+        throw new ErrorReadingBlockException(String.format("Unknown hash type '%s'", request.getSignature().getHashType()));
+      }
+    } catch (IOException ee) {
+      throw new ErrorReadingBlockException(ee.getMessage());
+    }
+
+    return ret;
+  }
+
+  /**
+   * Read the {@link FileSignature} of a file. Every block is read at the block size of the request
+   * and its CRC32 and hash calculated while the whole file is hashed. The blocks are left out if
+   * the request is hash only.
+   * 
+   * @param request
+   * @return
+   */
+  public static SignatureResponse readSignature(SignatureRequest request) {
+    SignatureResponse ret = new SignatureResponse();
+
+    ret.setRequest(request);
+
+    File file = validateSignatureRequest(request);
+
+    String hashType = Compare.isBlank(request.getHashType()) ? HashProcessor.DEFAULT_HASH_TYPE : request.getHashType();
+
+    logger.info(String.format("ReadSignature: %s, Block Size: %d, Hash Type: %s, Hash Only: %b", file.getAbsolutePath(),
+        request.getBlockSize(), hashType, request.isHashOnly()));
+
+    FileSignature signature = new FileSignature();
+    signature.setBlockSize(request.getBlockSize());
+    signature.setHashType(hashType);
+
+    try {
+      MessageDigest fileDigester = Checksums.newDigest(hashType);
+      MessageDigest blockDigester = Checksums.newDigest(hashType);
+
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try {
+        ByteBuffer buffer = ByteBuffer.allocate(request.getBlockSize());
+        Checksum crc = Checksums.newChecksum(getChecksumType());
+
+        long offset = 0L;
+        int count = 0;
+        do {
+          buffer.clear();
+          int length = 0;
+          do {
+            count = channel.read(buffer);
+            if (count > 0) {
+              length += count;
+            }
+          } while (count >= 0 && buffer.hasRemaining());
+
+          if (length > 0) {
+            fileDigester.update(buffer.array(), 0, length);
+            if (!request.isHashOnly()) {
+              crc.reset();
+              crc.update(buffer.array(), 0, length);
+              blockDigester.reset();
+              blockDigester.update(buffer.array(), 0, length);
+              signature.getBlocks().add(
+                  new BlockSignature(offset, length, crc.getValue(), DeltaUtils.rolling(buffer.array(), 0, length),
+                      Base64Utils.encodeAsString(blockDigester.digest())));
+            }
+            offset += length;
+          }
+        } while (count >= 0);
+
+        signature.setLength(offset);
+        signature.setHash(Base64Utils.encodeAsString(fileDigester.digest()));
+      } finally {
+        channel.close();
+      }
+    } catch (NoSuchAlgorithmException ee) {
+      throw new ErrorReadingBlockException(String.format("Unknown hash type '%s'", hashType));
+    } catch (IOException ee) {
+      throw new ErrorReadingBlockException(ee.getMessage());
+    }
+
+    ret.setSignature(signature);
+    ret.setSuccess(true);
+
+    logger.info(String.format("ReadSignature: %s, Length: %d, Blocks: %d, Hash: %s", file.getAbsolutePath(),
+        signature.getLength(), signature.getBlocks().size(), signature.getHash()));
+
+    return ret;
+  }
+
+  /**
+   * Open a stream of the frames described in {@link StreamUtils} for the blocks of a file starting
+   * at the offset. The file is read as the stream is read. Be sure to close the stream.
+   * 
+   * @param request
+   * @return
+   */
+  public static InputStream readStream(StreamRequest request) {
+    InputStream ret = null;
+
+    File file = validateStreamRequest(request);
+    validateReadFile(file);
+
+    logger.info(String.format("ReadStream: %s, Offset: %d, Length: %d, Block Size: %d, Chunk Size: %d, Level: %d",
+        file.getAbsolutePath(), request.getOffset(), request.getLength(), request.getBlockSize(), request.getChunkSize(),
+        request.getLevel()));
+
+    try {
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      long end = request.getLength() < 0L ? Long.MAX_VALUE : request.getOffset() + request.getLength();
+      ret = new FrameInputStream(channel, request, end);
+    } catch (IOException ee) {
+      throw new ErrorReadingBlockException(ee.getMessage());
+    }
+
+    return ret;
+  }
+
+  /**
+   * Read the {@link HashTree} of a file. The tree kept in the {@link IndexInfo} by
+   * {@link HashProcessor} is used if the file has not changed since and the chunks are the same
+   * size. Otherwise only the chunks asked for are read and a whole tree is kept for next time.
+   * 
+   * @param request
+   * @return
+   */
+  public static TreeResponse readTree(TreeRequest request) {
+    TreeResponse ret = new TreeResponse();
+
+    ret.setRequest(request);
+
+    File file = validateTreeRequest(request);
+
+    String hashType = Compare.isBlank(request.getHashType()) ? HashProcessor.DEFAULT_HASH_TYPE : request.getHashType();
+    long length = file.length();
+    long lastModified = file.lastModified();
+    int chunkSize = request.getChunkSize() > 0 ? request.getChunkSize() : ChunkUtils.newInstance(length,
+        request.getBlockSize()).getChunkSize();
+
+    logger.info(String.format("ReadTree: %s, Block Size: %d, Chunk Size: %d, Hash Type: %s, First: %d, Count: %d",
+        file.getAbsolutePath(), request.getBlockSize(), chunkSize, hashType, request.getFirst(), request.getCount()));
+
+    HashTree layout = new HashTree();
+    layout.setBlockSize(request.getBlockSize());
+    layout.setChunkSize(chunkSize);
+    layout.setHashType(hashType);
+
+    File dir = file.getParentFile();
+    IndexInfo indexInfo = IndexManager.loadIndex(dir).getIndexInfo(file.getName());
+    boolean fresh = indexInfo != null && Compare.equals(indexInfo.getLength(), length)
+        && Compare.equals(indexInfo.getLastModified(), lastModified);
+
+    HashTree tree = null;
+    if (fresh && layout.isComparable(indexInfo.getHashTree()) && indexInfo.getHashTree().isComplete()) {
+      tree = indexInfo.getHashTree();
+    } else {
+      try {
+        tree = HashTreeUtils.hashFile(file, hashType, request.getBlockSize(), chunkSize, request.getFirst(),
+            request.getCount());
+      } catch (NoSuchAlgorithmException ee) {
+        throw new ErrorReadingBlockException(String.format("Unknown hash type '%s'", hashType));
+      } catch (IOException ee) {
+        throw new ErrorReadingBlockException(ee.getMessage());
+      }
+
+      if (fresh && tree.isComplete() && tree.getLength() == length && file.lastModified() == lastModified) {
+        IndexInfo hashed = new IndexInfo();
+        hashed.setName(file.getName());
+        hashed.setLength(length);
+        hashed.setLastModified(lastModified);
+        hashed.setHashTree(tree);
+        IndexManager.saveIndexHash(dir, hashed);
+      }
+    }
+
+    if (tree.isComplete() && (request.getFirst() > 0 || request.getCount() > 0)) {
+      tree = tree.subtree(request.getFirst(), request.getCount() > 0 ? request.getCount() : tree.getNumChunks());
+    }
+
+    ret.setTree(tree);
+    ret.setSuccess(true);
+
+    logger.info(String.format("ReadTree: %s, Length: %d, Chunks: %d, Leaves: %d", file.getAbsolutePath(),
+        tree.getLength(), tree.getNumChunks(), tree.getCount()));
+
+    return ret;
+  }
+
+  /**
+   * Return the data of a block to the {@link BufferPool} once it has been written. Nothing is done
+   * unless the data was pooled. The response no longer has data.
+   * 
+   * @param response
+   */
+  public static void releaseBlock(ReadResponse response) {
+    if (response != null && response.isPooled()) {
+      bufferPool.release(response.getData());
+      response.setData(null);
+      response.setPooled(false);
+    }
+  }
+
+  /**
+   * Return the data of a block to the {@link BufferPool} once it has been written. Nothing is done
+   * unless the data was pooled. The request no longer has data.
+   * 
+   * @param request
+   */
+  public static void releaseBlock(WriteRequest request) {
+    if (request != null && request.isPooled()) {
+      bufferPool.release(request.getData());
+      request.setData(null);
+      request.setPooled(false);
+    }
+  }
+
+  private static void releaseChannel(Handle handle) {
+    try {
+      handle.release();
+    } finally {
+      HashProcessor.getThrottle().finishTransfer();
+    }
+  }
+
+  /**
+   * Save the hashes of a file just read or written to the index of its directory.
+   * 
+   * @param file Canonical
+   * @param hashes
+   */
+  private static void saveFileHash(File file, Map<String, String> hashes) {
+    File dir = file.getParentFile();
+
+    FileInfo fileInfo = new FileInfo();
+    fileInfo.setName(file.getName());
+    fileInfo.setAccess(access(access().dir(dir).permissions(getPermissions()).get()).file(file).get());
+    fileInfo.setLastModified(file.lastModified());
+    fileInfo.setLength(file.length());
+
+    IndexManager.saveFileHash(dir, fileInfo, hashes);
+  }
+
+  /**
+   * Replace the pool of arrays with one keeping at most <code>maxBytes</code> free. Zero allocates
+   * an array for every block.
+   * 
+   * @param maxBytes
+   */
+  public static void setBufferPoolSize(long maxBytes) {
+    bufferPool = new BufferPool(maxBytes);
+  }
+
+  /**
+   * The block checksum type used unless overridden for a thread.
+   * 
+   * @param checksumType
+   * @throws InvalidChecksumTypeException If the type is not registered.
+   */
+  public static void setChecksumType(String checksumType) {
+    if (!Checksums.isChecksumType(checksumType)) {
+      throw new InvalidChecksumTypeException(String.format("Unknown checksum type: %s", checksumType));
+    }
+    FileUtils.checksumType = checksumType.toUpperCase();
+  }
+
+  /**
+   * Set the codec the client compresses blocks with.
+   * 
+   * @param codec
+   * @throws InvalidCodecException If the codec is not registered.
+   */
+  public static void setCodec(String codec) {
+    if (!Codecs.isCodec(codec)) {
+      throw new InvalidCodecException(String.format("Unknown codec: %s", codec));
+    }
+    FileUtils.codec = codec.toLowerCase();
+  }
+
+  public static void setCompress(boolean compress) {
+    FileUtils.compress = compress;
+  }
+
+  /**
+   * Queue a file written out of order to be hashed by the {@link HashProcessor} once the last block
+   * is written. Only a long running server should defer hashing since the hashing threads keep the
+   * process running.
+   * 
+   * @param deferHashing
+   */
+  public static void setDeferHashing(boolean deferHashing) {
+    FileUtils.deferHashing = deferHashing;
+  }
+
+  /**
+   * Set the smallest file read and hashed through mapped windows. Zero never maps files.
+   * 
+   * @param mapSize
+   */
+  public static void setMapSize(long mapSize) {
+    FileUtils.mapSize = mapSize;
+    if (mapSize <= 0L) {
+      mappedWindows.clear();
+    }
+  }
+
+  /**
+   * Replace the mapped windows with at most <code>maxWindows</code> windows of
+   * <code>windowSize</code> bytes.
+   * 
+   * @param maxWindows
+   * @param windowSize
+   */
+  public static void setMappedWindows(int maxWindows, int windowSize) {
+    MappedWindows old = mappedWindows;
+    mappedWindows = new MappedWindows(maxWindows, windowSize);
+    old.clear();
+  }
+
+  /**
+   * Set the most bytes read or written by one batch of blocks. Negative is unlimited.
+   * 
+   * @param maxBatchSize
+   */
+  public static void setMaxBatchSize(int maxBatchSize) {
+    FileUtils.maxBatchSize = maxBatchSize;
+  }
+
+  public static void setMaxBlockSize(int maxBlockSize) {
+    FileUtils.maxBlockSize = maxBlockSize;
+  }
+
+  /**
+   * Set the maximum offset. Setting this too high could allow a poorly coded or malicious call fill
+   * up your storage.
+   * 
+   * @param maxOffset
+   */
+  public static void setMaxOffset(long maxOffset) {
+    FileUtils.maxOffset = maxOffset;
+  }
+
+  /**
+   * Replace the cache of open channels with one holding at most <code>maxOpenFiles</code>. Zero
+   * opens a channel for every block.
+   * 
+   * @param maxOpenFiles
+   */
+  public static void setMaxOpenFiles(int maxOpenFiles) {
+    ChannelCache old = channelCache;
+    channelCache = maxOpenFiles > 0 ? new ChannelCache(maxOpenFiles, ChannelCache.DEFAULT_IDLE_MILLIS) : null;
+    if (old != null) {
+      old.clear();
+    }
+  }
+
+  public static void setPermissions(FilePermissions permissions) {
+    if (permissions == null) {
+      throw new IllegalStateException(String.format("%s requires a %s", FileUtils.class.getSimpleName(),
+          FilePermissions.class.getSimpleName()));
+    }
+    FileUtils.permissions = permissions;
+  }
+
+  /**
+   * Override the block checksum type for the current thread only.
+   * 
+   * @param checksumType The override or null to remove it.
+   */
+  public static void setThreadChecksumType(String checksumType) {
+    if (checksumType == null) {
+      threadChecksumType.remove();
+    } else {
+      threadChecksumType.set(checksumType.toUpperCase());
+    }
+  }
+
+  /**
+   * Override the permissions for the current thread only. This allows the local as remote
+   * implementations used for testing to swap the permissions without affecting other threads.
+   * 
+   * @param permissions The override or null to remove it.
+   */
+  public static void setThreadPermissions(FilePermissions permissions) {
+    if (permissions == null) {
+      threadPermissions.remove();
+    } else {
+      threadPermissions.set(permissions);
+    }
+  }
+
+  private static void validateBatchFile(File batchFile, File file) {
+    if (!batchFile.equals(file)) {
+      throw new InvalidFileLocationException(String.format("'%s' not the same file as the rest of the batch '%s'", file,
+          batchFile));
+    }
+  }
+
+  private static void validateBlockSize(int blockSize) {
+    if (blockSize < MIN_BLOCK_SIZE || blockSize > getMaxBlockSize() || blockSize % MIN_BLOCK_SIZE != 0) {
+      throw new InvalidBlockSizeException(String.format("Block size must be between %d and %d and a multiple of %d: %d",
+          MIN_BLOCK_SIZE, getMaxBlockSize(), MIN_BLOCK_SIZE, blockSize));
+    }
+  }
+
+  private static void validateData(byte[] data) {
+    if (data == null || data.length > getMaxBlockSize()) {
+      throw new InvalidDataBlockException(String.format("Data block must be between %d and %d bytes: %d", 0, getMaxBlockSize(),
+          data == null ? -1 : data.length));
+    }
+  }
+
+  private static File validateDeltaRequest(DeltaRequest request) {
+    File ret = null;
+
+    if (request == null) {
+      throw new MissingRequestException("Missing request");
+    } else if (request.getBaseDir() == null) {
+      throw new MissingBaseDirectoryException("Missing base directory");
+    } else if (request.getFileName() == null) {
+      throw new MissingFileNameException("Missing file name");
+    }
+
+    ret = canonicalFile(new File(request.getBaseDir(), request.getFileName()));
+
+    validateFileLocation(request.getBaseDir(), ret);
+
+    return ret;
+  }
+
+  private static File validateDeleteRequest(DeleteRequest request) {
+    File ret = null;
+
+    FilePermissions permissions = getPermissions();
+    if (permissions == null || !permissions.isLocalDelete()) {
+      throw new DeleteNotAllowedException("Delete not allowed");
+    } else if (request == null) {
+      throw new MissingRequestException("Missing request");
+    } else if (request.getBaseDir() == null) {
+      throw new MissingBaseDirectoryException("Missing base directory");
+    } else if (request.getFileName() == null) {
+      throw new MissingFileNameException("Missing file name");
+    }
+
+    ret = canonicalFile(new File(request.getBaseDir(), request.getFileName()));
+
+    validateFileLocation(request.getBaseDir(), ret);
+    validateWriteFile(ret);
+
+    return ret;
+  }
+
+  private static void validateFileLocation(File baseDir, File file) {
+    if (baseDir == null || file == null || !DirectoryUtils.isChild(baseDir, file)) {
+      throw new InvalidFileLocationException(String.format("'%s' not within '%s'", file, baseDir));
+    }
+  }
+
+  private static void validateLength(int length) {
+    if (length < 0 || length > getMaxBlockSize()) {
+      throw new InvalidDataLengthException(String.format("Length must be between %d and %d: %d", 0, getMaxBlockSize(), length));
+    }
+  }
+
+  private static void validateOffset(long offset) {
+    if (offset < 0 || offset > getMaxOffset()) {
+      throw new InvalidFileOffsetException(String.format("Offset must be between %d and %d: %d", 0, getMaxOffset(), offset));
+    }
+  }
+
+  private static void validateReadFile(File file) {
+    if (file == null || !file.exists()) {
+      throw new FileNotFoundException(String.format("Can not find file '%s'", file));
+    } else if (!file.canRead()) {
+      throw new FileNotReadableException(String.format("File '%s' is not readable", file));
+    }
+  }
+
+  private static File validateReadRequest(ReadRequest request) {
+    File ret = null;
+
+    if (request == null) {
+      throw new MissingRequestException("Missing request");
+    } else if (request.getBaseDir() == null) {
+      throw new MissingBaseDirectoryException("Missing base directory");
+    } else if (request.getFileName() == null) {
+      throw new MissingFileNameException("Missing file name");
+    }
+
+    validateBlockSize(request.getBlockSize());
+    validateOffset(request.getOffset());
+
+    ret = canonicalFile(new File(request.getBaseDir(), request.getFileName()));
+
+    validateFileLocation(request.getBaseDir(), ret);
+    // A file with an open channel was already found readable.
+    if (channelCache == null || !channelCache.isOpen(ret)) {
+      validateReadFile(ret);
+    }
+
+    return ret;
+  }
+
+  private static File validateSignatureRequest(SignatureRequest request) {
+    File ret = null;
 
-    if (!file.exists()) {
-      File dir = file.getParentFile();
-      try {
-        dir.mkdirs();
-      } catch (Exception ee) {
-        throw new ErrorCreatingDirectoryException(String.format("Cant create directory '%s'", dir));
-      }
+    if (request == null) {
+      throw new MissingRequestException("Missing request");
+    } else if (request.getBaseDir() == null) {
+      throw new MissingBaseDirectoryException("Missing base directory");
+    } else if (request.getFileName() == null) {
+      throw new MissingFileNameException("Missing file name");
+    }
+
+    validateBlockSize(request.getBlockSize());
+
+    ret = canonicalFile(new File(request.getBaseDir(), request.getFileName()));
+
+    validateFileLocation(request.getBaseDir(), ret);
+    validateReadFile(ret);
+
+    return ret;
+  }
+
+  private static File validateStreamRequest(StreamRequest request) {
+    File ret = null;
+
+    if (request == null) {
+      throw new MissingRequestException("Missing request");
+    } else if (request.getBaseDir() == null) {
+      throw new MissingBaseDirectoryException("Missing base directory");
+    } else if (request.getFileName() == null) {
+      throw new MissingFileNameException("Missing file name");
+    }
+
+    validateBlockSize(request.getBlockSize());
+    validateOffset(request.getOffset());
+
+    ret = canonicalFile(new File(request.getBaseDir(), request.getFileName()));
+
+    validateFileLocation(request.getBaseDir(), ret);
+
+    return ret;
+  }
+
+  private static File validateTreeRequest(TreeRequest request) {
+    File ret = null;
+
+    if (request == null) {
+      throw new MissingRequestException("Missing request");
+    } else if (request.getBaseDir() == null) {
+      throw new MissingBaseDirectoryException("Missing base directory");
+    } else if (request.getFileName() == null) {
+      throw new MissingFileNameException("Missing file name");
+    }
+
+    validateBlockSize(request.getBlockSize());
+
+    ret = canonicalFile(new File(request.getBaseDir(), request.getFileName()));
+
+    validateFileLocation(request.getBaseDir(), ret);
+    validateReadFile(ret);
+
+    return ret;
+  }
+
+  private static void validateWriteFile(File file) {
+    if (file == null || (file.exists() && !file.canWrite())) {
+      throw new FileNotWritableException(String.format("File '%s' is not writable", file));
+    }
+  }
+
+  private static File validateWriteRequest(WriteRequest request) {
+    File ret = null;
+
+    FilePermissions permissions = getPermissions();
+    if (permissions == null || !permissions.isLocalWrite()) {
+      throw new WriteNotAllowedException("Write not allowed");
+    } else if (request == null) {
+      throw new MissingRequestException("Missing request");
+    } else if (request.getBaseDir() == null) {
+      throw new MissingBaseDirectoryException("Missing base directory");
+    } else if (request.getFileName() == null) {
+      throw new MissingFileNameException("Missing file name");
+    }
+
+    validateData(request.getData());
+    validateOffset(request.getOffset());
+    validateLength(request.getLength());
+
+    ret = canonicalFile(new File(request.getBaseDir(), request.getFileName()));
+
+    validateFileLocation(request.getBaseDir(), ret);
+    validateWriteFile(ret);
+
+    return ret;
+  }
+
+  /**
+   * Write a block of a file.
+   * 
+   * @param request
+   * @return
+   * @throws IOException
+   */
+  public static WriteResponse writeBlock(WriteRequest request) {
+    WriteResponse ret = null;
+
+    File file = validateWriteRequest(request);
+
+    try {
+      Handle handle = acquireChannel(createFile(file), true);
       try {
-        file.createNewFile();
-      } catch (Exception ee) {
-        throw new ErrorCreatingFileException(String.format("Cant create file '%s'", file));
+        ret = writeBlock(handle.getChannel(), file, request);
+      } finally {
+        releaseChannel(handle);
       }
+    } catch (IOException ee) {
+      throw new ErrorWritingBlockException(ee.getMessage());
+    }
+
+    if (request.isEof()) {
+      evictChannel(file);
     }
 
+    return ret;
+  }
+
+  private static WriteResponse writeBlock(FileChannel channel, File file, WriteRequest request) throws IOException {
+    WriteResponse ret = new WriteResponse();
+
+    ret.setRequest(request);
+
     logger.info(String.format("WriteBlock: %s, Offset: %d, Length: %s, TimeStamp: %d, EOF: %b, Data: %s", file.getAbsolutePath(),
         request.getOffset(), request.getLength(), request.getTimeStamp(), request.isEof(),
         request.getData() == null ? -1 : request.getData().length));
 
+    ByteBuffer buffer = ByteBuffer.wrap(request.getData());
+    buffer.limit(request.getLength());
+
+    int count = 0;
+    int length = 0;
+    do {
+      // Positional writes so blocks can arrive out of order from concurrent writers.
+      count = channel.write(buffer, request.getOffset() + length);
+      length += count;
+    } while (count >= 0 && buffer.hasRemaining());
+
+    if (request.isEof()) {
+      channel.truncate(request.getOffset() + request.getLength());
+    }
+
+    if (request.getTimeStamp() > 0L) {
+      file.setLastModified(request.getTimeStamp());
+    }
+
+    writeDigests.update(file, request.getOffset(), buffer.array(), 0, length);
+    if (request.isEof()) {
+      Map<String, String> hashes = hashWrite(file, request.getOffset() + length, request.getHash(), request.getHashType());
+      if (hashes != null) {
+        Entry<String, String> hash = hashes.entrySet().iterator().next();
+        ret.setHashType(hash.getKey());
+        ret.setHash(hash.getValue());
+      } else if (deferHashing) {
+        deferHash(file, request);
+      }
+    }
+
+    ret.setLength(length);
+    ret.setCrc32(calcCRC(buffer.array(), 0, length));
+    ret.setSuccess(ret.getLength() == request.getLength());
+
+    logger.info(String.format("WriteBlock: %s, Length: %s, CRC: %d, Success: %b", file.getAbsolutePath(), ret.getLength(),
+        ret.getCrc32(), ret.isSuccess()));
+
+    return ret;
+  }
+
+  /**
+   * Write several blocks of one file through a single channel. Only the blocks that fit in
+   * {@link #getMaxBatchSize()} are written so there may be fewer responses than requests. The rest
+   * are expected to be sent again.
+   * 
+   * @param requests
+   * @return
+   */
+  public static List<WriteResponse> writeBlocks(List<WriteRequest> requests) {
+    List<WriteResponse> ret = new ArrayList<>();
+
+    if (requests == null || requests.isEmpty()) {
+      throw new MissingRequestException("Missing request");
+    }
+
+    File file = validateWriteRequest(requests.get(0));
+
+    boolean eof = false;
     try {
-      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+      Handle handle = acquireChannel(createFile(file), true);
       try {
-        ByteBuffer buffer = ByteBuffer.wrap(request.getData());
-        buffer.limit(request.getLength());
+        long batchSize = 0L;
+        for (WriteRequest request : requests) {
+          batchSize += request.getLength();
+          if (!ret.isEmpty() && batchSize > getMaxBatchSize()) {
+            break;
+          }
 
-        channel.position(request.getOffset());
+          validateBatchFile(file, validateWriteRequest(request));
+          ret.add(writeBlock(handle.getChannel(), file, request));
+          eof |= request.isEof();
+        }
+      } finally {
+        releaseChannel(handle);
+      }
+    } catch (IOException ee) {
+      throw new ErrorWritingBlockException(ee.getMessage());
+    }
 
-        int count = 0;
-        int length = 0;
-        do {
-          count = channel.write(buffer);
-          length += count;
-        } while (count >= 0 && buffer.hasRemaining());
+    if (eof) {
+      evictChannel(file);
+    }
+
+    return ret;
+  }
+
+  /**
+   * Rebuild a file from a stream of the delta described in {@link DeltaUtils}. The blocks are copied
+   * from the file already there at the block size of the request and the literals written in
+   * between. The new copy is written beside the file and only moved over it once its length and hash
+   * match the end of the delta so a failed delta leaves the file as it was.
+   * 
+   * @param request
+   * @param in
+   * @return
+   */
+  public static DeltaResponse writeDelta(DeltaRequest request, InputStream in) {
+    DeltaResponse ret = new DeltaResponse();
+
+    FilePermissions permissions = getPermissions();
+    if (permissions == null || !permissions.isLocalWrite()) {
+      throw new WriteNotAllowedException("Write not allowed");
+    }
+
+    File file = validateDeltaRequest(request);
+    validateBlockSize(request.getBlockSize());
+    validateReadFile(file);
+    validateWriteFile(file);
+
+    ret.setRequest(request);
+
+    String hashType = Compare.isBlank(request.getHashType()) ? HashProcessor.DEFAULT_HASH_TYPE : request.getHashType();
+
+    logger.info(String.format("WriteDelta: %s, Block Size: %d, Hash Type: %s, TimeStamp: %d", file.getAbsolutePath(),
+        request.getBlockSize(), hashType, request.getTimeStamp()));
+
+    File temp = null;
+    String hash = null;
+    try {
+      MessageDigest digester = Checksums.newDigest(hashType);
+
+      temp = File.createTempFile("." + file.getName() + ".", ".tmp", file.getParentFile());
+      FileChannel basis = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      HashProcessor.getThrottle().startTransfer();
+      try {
+        FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE);
+        try {
+          DataInputStream data = new DataInputStream(in);
+          byte[] buffer = new byte[request.getBlockSize()];
+          long basisLength = basis.size();
+          long position = 0L;
+
+          boolean end = false;
+          while (!end) {
+            Instruction instruction = DeltaUtils.readInstruction(data, buffer);
+            switch (instruction.getType()) {
+              case DeltaUtils.COPY_INSTRUCTION: {
+                long offset = (long) instruction.getIndex() * request.getBlockSize();
+                if (instruction.getIndex() < 0 || offset >= basisLength) {
+                  throw new InvalidFileOffsetException(String.format("Block %d is not within %s", instruction.getIndex(),
+                      file.getAbsolutePath()));
+                }
+                int length = (int) Math.min(request.getBlockSize(), basisLength - offset);
+                ByteBuffer block = ByteBuffer.wrap(buffer, 0, length);
+                int count = 0;
+                do {
+                  count = basis.read(block, offset + block.position());
+                } while (count >= 0 && block.hasRemaining());
+                length = block.position();
+                ret.setMatched(ret.getMatched() + length);
+                position = writeDelta(channel, digester, buffer, length, position);
+                break;
+              }
+              case DeltaUtils.LITERAL_INSTRUCTION: {
+                ret.setLiteral(ret.getLiteral() + instruction.getLength());
+                position = writeDelta(channel, digester, buffer, instruction.getLength(), position);
+                break;
+              }
+              case DeltaUtils.END_INSTRUCTION: {
+                hash = Base64Utils.encodeAsString(digester.digest());
+                if (instruction.getOffset() != position || !hash.equals(instruction.getHash())) {
+                  throw new InvalidFileHashException(String.format("Delta of %s did not match the length %d or hash %s",
+                      file.getAbsolutePath(), instruction.getOffset(), instruction.getHash()));
+                }
+                end = true;
+                break;
+              }
+              case DeltaUtils.ERROR_INSTRUCTION: {
+                throw new ErrorReadingBlockException(instruction.getHash());
+              }
+            }
+          }
 
-        if (request.isEof()) {
-          channel.truncate(request.getOffset() + request.getLength());
+          ret.setLength(position);
+        } finally {
+          channel.close();
         }
+      } finally {
+        HashProcessor.getThrottle().finishTransfer();
+        basis.close();
+      }
+
+      if (request.getTimeStamp() > 0L) {
+        temp.setLastModified(request.getTimeStamp());
+      }
+
+      try {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException ee) {
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      // A cached channel would still read the file replaced.
+      evictChannel(file);
+      writeDigests.remove(file);
+
+      Map<String, String> hashes = new LinkedHashMap<>();
+      hashes.put(hashType, hash);
+      saveFileHash(file, hashes);
+
+      ret.setSuccess(true);
+    } catch (NoSuchAlgorithmException ee) {
+      throw new ErrorWritingBlockException(String.format("Unknown hash type '%s'", hashType));
+    } catch (IOException ee) {
+      throw new ErrorWritingBlockException(String.format("Error writing delta of %s: %s", file.getAbsolutePath(), ee));
+    } finally {
+      if (temp != null && temp.exists()) {
+        temp.delete();
+      }
+    }
+
+    logger.info(String.format("WriteDelta: %s, Length: %d, Matched: %d, Literal: %d, Success: %b", file.getAbsolutePath(),
+        ret.getLength(), ret.getMatched(), ret.getLiteral(), ret.isSuccess()));
+
+    return ret;
+  }
+
+  private static long writeDelta(FileChannel channel, MessageDigest digester, byte[] buffer, int length, long position)
+      throws IOException {
+    ByteBuffer block = ByteBuffer.wrap(buffer, 0, length);
+    while (block.hasRemaining()) {
+      channel.write(block, position + block.position());
+    }
+    digester.update(buffer, 0, length);
+
+    return position + length;
+  }
+
+  /**
+   * Write the blocks of a stream of the frames described in {@link StreamUtils} starting at the
+   * offset. Deflated blocks are inflated with one inflater for the whole stream. The blocks written
+   * are checked against the CRC of each checkpoint before the listener is notified. The file is
+   * truncated at the end of the stream if the request is EOF.
+   * 
+   * @param request
+   * @param in
+   * @param listener Optional
+   * @return
+   */
+  public static StreamResponse writeStream(StreamRequest request, InputStream in, StreamListener listener) {
+    StreamResponse ret = new StreamResponse();
+
+    FilePermissions permissions = getPermissions();
+    if (permissions == null || !permissions.isLocalWrite()) {
+      throw new WriteNotAllowedException("Write not allowed");
+    }
+
+    File file = validateStreamRequest(request);
+    validateWriteFile(file);
+
+    ret.setRequest(request);
+    ret.setCheckpoint(request.getOffset());
+
+    createFile(file);
+
+    logger.info(String.format("WriteStream: %s, Offset: %d, TimeStamp: %d, EOF: %b", file.getAbsolutePath(),
+        request.getOffset(), request.getTimeStamp(), request.isEof()));
+
+    try {
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+      Inflater inflater = new Inflater();
+      HashProcessor.getThrottle().startTransfer();
+      try {
+        DataInputStream data = new DataInputStream(in);
+        byte[] buffer = new byte[request.getBlockSize()];
+        Checksum crc = Checksums.newChecksum(getChecksumType());
+        long position = request.getOffset();
+
+        boolean end = false;
+        while (!end) {
+          Frame frame = StreamUtils.readFrame(data, buffer, inflater);
+          switch (frame.getType()) {
+            case StreamUtils.BLOCK_FRAME:
+            case StreamUtils.DEFLATED_FRAME: {
+              ByteBuffer block = ByteBuffer.wrap(buffer, 0, frame.getLength());
+              while (block.hasRemaining()) {
+                channel.write(block, position + block.position());
+              }
+              writeDigests.update(file, position, buffer, 0, frame.getLength());
+              crc.update(buffer, 0, frame.getLength());
+              position += frame.getLength();
+              ret.setLength(ret.getLength() + frame.getLength());
+              break;
+            }
+            case StreamUtils.CHECKPOINT_FRAME:
+            case StreamUtils.END_FRAME: {
+              if (frame.getOffset() != position || frame.getCrc32() != crc.getValue()) {
+                throw new InvalidBlockHashException(String.format("Stream of %s did not match the checkpoint at offset %d",
+                    file.getAbsolutePath(), frame.getOffset()));
+              }
+              crc.reset();
+
+              end = frame.getType() == StreamUtils.END_FRAME;
+              if (end) {
+                if (request.isEof()) {
+                  channel.truncate(position);
+                }
+                if (request.getTimeStamp() > 0L) {
+                  file.setLastModified(request.getTimeStamp());
+                }
+                if (request.isEof()) {
+                  hashWrite(file, position, null, null);
+                }
+              }
 
-        if (request.getTimeStamp() > 0L) {
-          file.setLastModified(request.getTimeStamp());
+              ret.setCheckpoint(position);
+              if (listener != null) {
+                listener.checkpoint(position);
+              }
+              break;
+            }
+            case StreamUtils.ERROR_FRAME: {
+              throw new ErrorReadingBlockException(frame.getMessage());
+            }
+          }
         }
 
-        ret.setLength(length);
-        ret.setCrc32(calcCRC(buffer.array(), 0, length));
-        ret.setSuccess(ret.getLength() == request.getLength());
+        ret.setSuccess(true);
       } finally {
+        HashProcessor.getThrottle().finishTransfer();
+        inflater.end();
         channel.close();
       }
     } catch (IOException ee) {
-      throw new ErrorWritingBlockException(ee.getMessage());
+      throw new ErrorWritingBlockException(String.format("Error writing stream of %s at offset %d: %s", file.getAbsolutePath(),
+          ret.getCheckpoint(), ee));
     }
 
-    logger.info(String.format("WriteBlock: %s, Length: %s, CRC: %d, Success: %b", file.getAbsolutePath(), ret.getLength(),
-        ret.getCrc32(), ret.isSuccess()));
+    if (request.isEof()) {
+      evictChannel(file);
+    }
+
+    logger.info(String.format("WriteStream: %s, Length: %d, Checkpoint: %d, Success: %b", file.getAbsolutePath(),
+        ret.getLength(), ret.getCheckpoint(), ret.isSuccess()));
 
     return ret;
   }
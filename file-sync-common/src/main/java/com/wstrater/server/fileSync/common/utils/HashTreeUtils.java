@@ -0,0 +1,312 @@
+package com.wstrater.server.fileSync.common.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.wstrater.server.fileSync.common.data.ChunkInfo;
+import com.wstrater.server.fileSync.common.data.HashTree;
+import com.wstrater.server.fileSync.common.hash.Checksums;
+
+/**
+ * Builds and compares the {@link HashTree} of a file. The leaves are the hashes of the chunks laid
+ * out by {@link ChunkUtils#newInstance(long, int, int)}. Chunks past the end of the file are the
+ * hash of nothing. A node is the hash of its two children and a node without a sibling is moved up
+ * as is. Two trees are compared from the root down so only the chunks under differing nodes are
+ * looked at.
+ *
+ * @author wstrater
+ *
+ */
+public abstract class HashTreeUtils {
+
+  protected final static Logger logger = LoggerFactory.getLogger(HashTreeUtils.class);
+
+  private static void diff(List<byte[][]> source, List<byte[][]> target, int level, int index, int first,
+      List<Integer> ret) {
+    byte[] sourceNode = source.get(level)[index];
+    byte[] targetNode = target.get(level)[index];
+    if (sourceNode == null || targetNode == null || !Arrays.equals(sourceNode, targetNode)) {
+      if (level == 0) {
+        ret.add(first + index);
+      } else {
+        int children = source.get(level - 1).length;
+        for (int child = index * 2; child <= index * 2 + 1 && child < children; child++) {
+          diff(source, target, level - 1, child, first, ret);
+        }
+      }
+    }
+  }
+
+  /**
+   * Find the chunks of the source that are not the same in the target. Every chunk of the source
+   * is different if the trees can not be compared.
+   *
+   * @param source
+   * @param target May only hold some of the chunks.
+   * @return The indexes of the chunks in order.
+   */
+  public static List<Integer> diff(HashTree source, HashTree target) {
+    List<Integer> ret = new ArrayList<>();
+
+    if (source != null && source.getCount() > 0) {
+      List<byte[][]> sourceLevels = null;
+      List<byte[][]> targetLevels = null;
+      if (source.isComparable(target)) {
+        try {
+          sourceLevels = levels(source, source);
+          targetLevels = levels(source, target);
+        } catch (NoSuchAlgorithmException ee) {
+          logger.warn(String.format("Unable to compare trees: %s", ee.getMessage()));
+        }
+      }
+
+      if (targetLevels == null) {
+        for (int index = 0; index < source.getCount(); index++) {
+          ret.add(source.getFirst() + index);
+        }
+      } else {
+        diff(sourceLevels, targetLevels, sourceLevels.size() - 1, 0, source.getFirst(), ret);
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Hash some of the chunks of a file. Only those chunks are read.
+   *
+   * @param file
+   * @param hashType
+   * @param blockSize
+   * @param chunkSize
+   * @param first The index of the first chunk.
+   * @param count Every chunk from the first if not positive.
+   * @return
+   * @throws IOException
+   * @throws NoSuchAlgorithmException
+   */
+  public static HashTree hashFile(File file, String hashType, int blockSize, int chunkSize, int first, int count)
+      throws IOException, NoSuchAlgorithmException {
+    HashTree ret = null;
+
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      Builder builder = new Builder(hashType, blockSize, chunkSize, channel.size(), first, count);
+      ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+
+      long offset = builder.getPosition();
+      int len = 0;
+      while (offset < builder.getEnd() && (len = channel.read(buffer, offset)) >= 0) {
+        buffer.flip();
+        builder.update(buffer);
+        buffer.clear();
+        offset += len;
+      }
+
+      ret = builder.build();
+    } finally {
+      channel.close();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Every level of the tree over the chunks of <code>range</code> using the leaves of
+   * <code>tree</code>. A node is null if any leaf under it is missing from the tree.
+   */
+  private static List<byte[][]> levels(HashTree range, HashTree tree) throws NoSuchAlgorithmException {
+    List<byte[][]> ret = new ArrayList<>();
+
+    MessageDigest digester = Checksums.newDigest(tree.getHashType());
+
+    byte[][] level = new byte[range.getCount()][];
+    for (int index = 0; index < level.length; index++) {
+      level[index] = tree.getLeaf(range.getFirst() + index);
+    }
+    ret.add(level);
+
+    while (level.length > 1) {
+      byte[][] parent = new byte[(level.length + 1) / 2][];
+      for (int index = 0; index < parent.length; index++) {
+        byte[] left = level[index * 2];
+        if (index * 2 + 1 >= level.length) {
+          parent[index] = left;
+        } else {
+          byte[] right = level[index * 2 + 1];
+          if (left != null && right != null) {
+            digester.reset();
+            digester.update(left);
+            digester.update(right);
+            parent[index] = digester.digest();
+          }
+        }
+      }
+      ret.add(parent);
+      level = parent;
+    }
+
+    return ret;
+  }
+
+  /**
+   * Calculate the root of the tree.
+   *
+   * @param tree
+   * @return Null if the tree is empty.
+   * @throws NoSuchAlgorithmException
+   */
+  public static byte[] root(HashTree tree) throws NoSuchAlgorithmException {
+    byte[] ret = null;
+
+    if (tree != null && tree.getCount() > 0) {
+      List<byte[][]> levels = levels(tree, tree);
+      ret = levels.get(levels.size() - 1)[0];
+    }
+
+    return ret;
+  }
+
+  /**
+   * Hashes the chunks of a file as it is read. The bytes must be given in order starting at
+   * {@link #getPosition()}. Bytes past the last chunk are ignored.
+   *
+   * @author wstrater
+   *
+   */
+  public static class Builder {
+
+    private final long                  chunkBytes;
+    private final MessageDigest         digester;
+    private final long                  end;
+    private final ByteArrayOutputStream leaves;
+    private long                        next;
+    private int                         numLeaves;
+    private long                        position;
+    private final HashTree              tree;
+
+    /**
+     * @param hashType
+     * @param blockSize
+     * @param chunkSize
+     * @param length The length of the file.
+     * @param first The index of the first chunk.
+     * @param count Every chunk from the first if not positive.
+     * @throws NoSuchAlgorithmException
+     */
+    public Builder(String hashType, int blockSize, int chunkSize, long length, int first, int count)
+        throws NoSuchAlgorithmException {
+      ChunkInfo layout = ChunkUtils.newInstance(length, blockSize, chunkSize);
+
+      digester = Checksums.newDigest(hashType);
+
+      int numChunks = layout.getNumChunks();
+      first = Math.max(0, Math.min(first, numChunks));
+      count = count <= 0 ? numChunks - first : Math.min(count, numChunks - first);
+
+      tree = new HashTree();
+      tree.setBlockSize(blockSize);
+      tree.setChunkSize(chunkSize);
+      tree.setCount(count);
+      tree.setFirst(first);
+      tree.setHashType(hashType);
+      tree.setLength(length);
+      tree.setNumChunks(numChunks);
+
+      chunkBytes = (long) blockSize * chunkSize;
+      position = first * chunkBytes;
+      next = position + chunkBytes;
+      end = (first + count) * chunkBytes;
+      leaves = new ByteArrayOutputStream(count * Math.max(digester.getDigestLength(), 1));
+    }
+
+    /**
+     * Finish the chunk being hashed and any chunks after it.
+     *
+     * @return
+     */
+    public HashTree build() {
+      while (numLeaves < tree.getCount()) {
+        finishChunk();
+      }
+      tree.setLeaves(leaves.toByteArray());
+
+      return tree;
+    }
+
+    private void finishChunk() {
+      byte[] leaf = digester.digest();
+      leaves.write(leaf, 0, leaf.length);
+      numLeaves++;
+      position = next;
+      next += chunkBytes;
+    }
+
+    /**
+     * The offset just past the last chunk of the tree.
+     *
+     * @return
+     */
+    public long getEnd() {
+      return end;
+    }
+
+    /**
+     * The offset of the next byte expected.
+     *
+     * @return
+     */
+    public long getPosition() {
+      return position;
+    }
+
+    public void update(byte[] data, int offset, int length) {
+      while (length > 0 && position < end) {
+        int len = (int) Math.min(length, next - position);
+        digester.update(data, offset, len);
+        offset += len;
+        length -= len;
+        position += len;
+        if (position == next) {
+          finishChunk();
+        }
+      }
+    }
+
+    /**
+     * Update the tree with the remaining bytes of the buffer. The buffer is consumed as it would be
+     * by {@link MessageDigest#update(ByteBuffer)}.
+     *
+     * @param buffer
+     */
+    public void update(ByteBuffer buffer) {
+      ByteBuffer data = buffer.duplicate();
+      while (data.hasRemaining() && position < end) {
+        int len = (int) Math.min(data.remaining(), next - position);
+        ByteBuffer slice = data.slice();
+        slice.limit(len);
+        digester.update(slice);
+        data.position(data.position() + len);
+        position += len;
+        if (position == next) {
+          finishChunk();
+        }
+      }
+      buffer.position(buffer.limit());
+    }
+
+  }
+
+}
@@ -6,12 +6,16 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
 
 import com.wstrater.server.fileSync.common.data.ChunkInfo;
 import com.wstrater.server.fileSync.common.data.DirectoryInfo;
 import com.wstrater.server.fileSync.common.data.FileInfo;
+import com.wstrater.server.fileSync.common.data.HashTree;
 import com.wstrater.server.fileSync.common.data.IndexFile;
 import com.wstrater.server.fileSync.common.data.IndexInfo;
 import com.wstrater.server.fileSync.common.data.MemoryCache;
@@ -23,20 +27,23 @@ import com.wstrater.server.fileSync.common.data.MemoryCache.CacheWriter;
  * <p/>
  * <strong>This implementation uses a locking cache in memory but does not block concurrent updates
  * on the file system.</strong> This should not be an issue since only the client would be updating
- * these files and there should only be one client running at one time.
+ * these files and there should only be one client running at one time. Updates from the client's
+ * workers are serialized so an {@link IndexFile} is not changed while it is being written.
  * 
  * @author wstrater
  *
  */
 public class IndexManager {
 
-  private final static int             CACHE_SIZE      = 25;
-  private final static long            CACHE_LIFE      = TimeUnit.MINUTES.toMillis(5L);
+  private final static int             CACHE_SIZE          = 25;
+  private final static long            CACHE_LIFE          = TimeUnit.MINUTES.toMillis(5L);
 
-  public final static String           CHUNK_SEPARATOR = ",";
-  public final static String           INDEX_SEPARATOR = "|";
+  public final static String           CHUNK_SEPARATOR     = ",";
+  public final static String           HASH_SEPARATOR      = ";";
+  public final static String           HASH_TYPE_SEPARATOR = ":";
+  public final static String           INDEX_SEPARATOR     = "|";
 
-  private MemoryCache<File, IndexFile> cache           = null;
+  private MemoryCache<File, IndexFile> cache               = null;
 
   /**
    * Setup the singleton instance. This is a self-populating and write through cache.
@@ -67,7 +74,7 @@ public class IndexManager {
    * @param dir
    * @param indexInfo
    */
-  private void deleteIndexItemToCache(File dir, IndexInfo indexInfo) {
+  private synchronized void deleteIndexItemToCache(File dir, IndexInfo indexInfo) {
     if (dir != null && indexInfo != null) {
       IndexFile indexFile = loadIndexFromCache(dir);
       if (indexFile != null) {
@@ -117,12 +124,115 @@ public class IndexManager {
    * 
    * @param indexFile
    */
-  private void saveIndexToCache(IndexFile indexFile) {
+  private synchronized void saveIndexToCache(IndexFile indexFile) {
     if (indexFile != null) {
       cache.put(indexFile.getDirectory(), indexFile);
     }
   }
 
+  /**
+   * Save the hashes of a file that was just read or written from start to end. Unlike
+   * {@link #saveIndexHash(File, IndexInfo)} the {@link IndexInfo} is brought up to date with the
+   * file first, or added if missing, since the file is known to be as it was hashed.
+   * 
+   * @param dir
+   * @param fileInfo The file as it is now.
+   * @param hashes Keyed by hash type.
+   */
+  public static void saveFileHash(File dir, FileInfo fileInfo, Map<String, String> hashes) {
+    getInstance().saveFileHashToCache(dir, fileInfo, hashes);
+  }
+
+  /**
+   * Load the exising {@link IndexFile}, update the {@link IndexInfo} with the file and its hashes
+   * and save it.
+   * 
+   * @param dir
+   * @param fileInfo
+   * @param hashes
+   */
+  private synchronized void saveFileHashToCache(File dir, FileInfo fileInfo, Map<String, String> hashes) {
+    if (dir != null && fileInfo != null && hashes != null) {
+      IndexFile indexFile = loadIndexFromCache(dir);
+      if (indexFile != null) {
+        IndexInfo indexInfo = indexFile.getIndexInfo(fileInfo.getName());
+        if (indexInfo == null) {
+          indexInfo = newIndexInfo(fileInfo);
+          indexFile.putIndexInfo(indexInfo);
+        } else {
+          updateIndexInfo(indexInfo, fileInfo);
+        }
+        indexInfo.putHashes(hashes);
+        saveIndexToCache(indexFile);
+      }
+    }
+  }
+
+  /**
+   * A new {@link IndexInfo} for a file not yet in the index.
+   * 
+   * @param fileInfo
+   * @return
+   */
+  private static IndexInfo newIndexInfo(FileInfo fileInfo) {
+    IndexInfo ret = new IndexInfo();
+
+    ret.setName(fileInfo.getName());
+    ret.setAccess(fileInfo.getAccess());
+    ret.setLastModified(fileInfo.getLastModified());
+    ret.setLength(fileInfo.getLength());
+    ret.setChunkInfo(ChunkUtils.newInstance(fileInfo.getLength(), ChunkUtils.getBlockSize()));
+
+    return ret;
+  }
+
+  /**
+   * Save the hashes of a file if the file is unchanged since it was hashed. The files of a directory
+   * are hashed by several threads so only the hash is merged into the current {@link IndexInfo}
+   * rather than replacing it with a copy that may be stale. Hashes of other hash types are kept.
+   * The {@link HashTree} is replaced if one was built.
+   * 
+   * @param dir
+   * @param hashed The name, length and last modified of the file when it was hashed with its hash.
+   * @return False if the file changed and the hash was not saved.
+   */
+  public static boolean saveIndexHash(File dir, IndexInfo hashed) {
+    return getInstance().saveIndexHashToCache(dir, hashed);
+  }
+
+  /**
+   * Load the exising {@link IndexFile}, merge the hash into the {@link IndexInfo} and save it.
+   * 
+   * @param dir
+   * @param hashed
+   * @return
+   */
+  private synchronized boolean saveIndexHashToCache(File dir, IndexInfo hashed) {
+    boolean ret = false;
+
+    if (dir != null && hashed != null) {
+      IndexFile indexFile = loadIndexFromCache(dir);
+      if (indexFile != null) {
+        IndexInfo indexInfo = indexFile.getIndexInfo(hashed.getName());
+        if (indexInfo != null && Compare.equals(indexInfo.getLength(), hashed.getLength())
+            && Compare.equals(indexInfo.getLastModified(), hashed.getLastModified())) {
+          indexInfo.putHash(hashed.getHashType(), hashed.getHash());
+          indexInfo.putHashes(hashed.getHashes());
+          if (hashed.getHashTree() != null) {
+            indexInfo.setHashTree(hashed.getHashTree());
+          }
+          if (hashed.getCompressible() != null) {
+            indexInfo.setCompressible(hashed.getCompressible());
+          }
+          saveIndexToCache(indexFile);
+          ret = true;
+        }
+      }
+    }
+
+    return ret;
+  }
+
   /**
    * Update one {@link IndexInfo} for a {@link IndexFile}. Update is saved to disk.
    * 
@@ -139,7 +249,7 @@ public class IndexManager {
    * @param dir
    * @param indexInfo
    */
-  private void saveIndexItemToCache(File dir, IndexInfo indexInfo) {
+  private synchronized void saveIndexItemToCache(File dir, IndexInfo indexInfo) {
     if (dir != null && indexInfo != null) {
       IndexFile indexFile = loadIndexFromCache(dir);
       if (indexFile != null) {
@@ -149,6 +259,40 @@ public class IndexManager {
     }
   }
 
+  /**
+   * Update the {@link IndexFile} of a directory with the contents of a {@link DirectoryInfo} and
+   * save it.
+   * 
+   * @param dir
+   * @param directoryInfo
+   * @return The {@link IndexInfo} of the directory as they were after the update.
+   */
+  public static List<IndexInfo> updateIndex(File dir, DirectoryInfo directoryInfo) {
+    return getInstance().updateIndexToCache(dir, directoryInfo);
+  }
+
+  /**
+   * Load the exising {@link IndexFile}, update it with the {@link DirectoryInfo} and save it.
+   * 
+   * @param dir
+   * @param directoryInfo
+   * @return
+   */
+  private synchronized List<IndexInfo> updateIndexToCache(File dir, DirectoryInfo directoryInfo) {
+    List<IndexInfo> ret = new ArrayList<>();
+
+    if (dir != null) {
+      IndexFile indexFile = loadIndexFromCache(dir);
+      if (indexFile != null) {
+        updateIndexInfo(indexFile, directoryInfo);
+        saveIndexToCache(indexFile);
+        ret.addAll(indexFile.getIndexInfos().values());
+      }
+    }
+
+    return ret;
+  }
+
   /**
    * Update a {@see IndexFile} with the contents of a {@see DirectoryInfo}.
    * 
@@ -161,13 +305,7 @@ public class IndexManager {
         for (FileInfo fileInfo : directoryInfo.getFiles()) {
           IndexInfo indexInfo = indexFile.getIndexInfo(fileInfo.getName());
           if (indexInfo == null) {
-            indexInfo = new IndexInfo();
-            indexInfo.setName(fileInfo.getName());
-            indexInfo.setAccess(fileInfo.getAccess());
-            indexInfo.setLastModified(fileInfo.getLastModified());
-            indexInfo.setLength(fileInfo.getLength());
-            indexInfo.setChunkInfo(ChunkUtils.newInstance(fileInfo.getLength(), ChunkUtils.getBlockSize()));
-            indexFile.putIndexInfo(indexInfo);
+            indexFile.putIndexInfo(newIndexInfo(fileInfo));
           } else {
             updateIndexInfo(indexInfo, fileInfo);
           }
@@ -187,11 +325,16 @@ public class IndexManager {
       if (!Compare.equals(indexInfo.getLastModified(), fileInfo.getLastModified())
           || !Compare.equals(indexInfo.getLength(), fileInfo.getLength())
           || !Compare.equals(indexInfo.getAccess(), fileInfo.getAccess())) {
+        if (!Compare.equals(indexInfo.getLastModified(), fileInfo.getLastModified())
+            || !Compare.equals(indexInfo.getLength(), fileInfo.getLength())) {
+          // The chunks flagged as copied are for the old contents.
+          indexInfo.setChunkInfo(ChunkUtils.newInstance(fileInfo.getLength(), ChunkUtils.getBlockSize()));
+        }
         indexInfo.setAccess(fileInfo.getAccess());
         indexInfo.setLastModified(fileInfo.getLastModified());
         indexInfo.setLength(fileInfo.getLength());
-        indexInfo.setHashType(null);
-        indexInfo.setHash(null);
+        indexInfo.clearHashes();
+        indexInfo.setCompressible(null);
       }
     }
   }
@@ -238,6 +381,46 @@ public class IndexManager {
       return ret;
     }
 
+    private void parseHashes(IndexInfo indexInfo, String text) {
+      if (Compare.isNotBlank(text)) {
+        for (String node : text.split(String.format("[%s]", HASH_SEPARATOR))) {
+          int index = node.indexOf(HASH_TYPE_SEPARATOR);
+          if (index > 0) {
+            indexInfo.putHash(node.substring(0, index), node.substring(index + 1));
+          }
+        }
+      }
+    }
+
+    private HashTree parseHashTree(String text, Long length) {
+      HashTree ret = null;
+
+      if (Compare.isNotBlank(text) && length != null) {
+        String[] nodes = text.split(String.format("[%s]", CHUNK_SEPARATOR));
+        if (nodes != null && nodes.length >= 4) {
+          int index = 0;
+          String hashType = nodes[index++];
+          int blockSize = parseInt(nodes[index++], 0);
+          int chunkSize = parseInt(nodes[index++], 0);
+          byte[] leaves = Base64Utils.decodeAsBytes(nodes[index++]);
+          int numChunks = ChunkUtils.newInstance(length, blockSize, chunkSize).getNumChunks();
+          if (blockSize > 0 && numChunks > 0 && leaves != null && leaves.length % numChunks == 0) {
+            ret = new HashTree();
+            ret.setBlockSize(blockSize);
+            ret.setChunkSize(chunkSize);
+            ret.setCount(numChunks);
+            ret.setFirst(0);
+            ret.setHashType(hashType);
+            ret.setLeaves(leaves);
+            ret.setLength(length);
+            ret.setNumChunks(numChunks);
+          }
+        }
+      }
+
+      return ret;
+    }
+
     private IndexInfo parseIndexInfo(String text) {
       IndexInfo ret = null;
 
@@ -252,6 +435,18 @@ public class IndexManager {
           ret.setHashType(nodes[index++]);
           ret.setHash(nodes[index++]);
           ret.setChunkInfo(parseChunkInfo(nodes[index++]));
+          if (nodes.length > index && Compare.isNotBlank(nodes[index])) {
+            ret.setCompressible(Boolean.valueOf(nodes[index]));
+          }
+          index++;
+          if (nodes.length > index) {
+            parseHashes(ret, nodes[index]);
+          }
+          index++;
+          if (nodes.length > index) {
+            ret.setHashTree(parseHashTree(nodes[index], ret.getLength()));
+          }
+          index++;
         }
       }
 
@@ -353,6 +548,26 @@ public class IndexManager {
       return ret;
     }
 
+    private String formatHashTree(HashTree hashTree) {
+      String ret = null;
+
+      if (hashTree != null) {
+        StringBuilder buf = new StringBuilder();
+
+        buf.append(hashTree.getHashType());
+        buf.append(CHUNK_SEPARATOR);
+        buf.append(hashTree.getBlockSize());
+        buf.append(CHUNK_SEPARATOR);
+        buf.append(hashTree.getChunkSize());
+        buf.append(CHUNK_SEPARATOR);
+        buf.append(Base64Utils.encodeAsString(hashTree.getLeaves()));
+
+        ret = buf.toString();
+      }
+
+      return ret;
+    }
+
     private String formatIndexInfo(IndexInfo indexInfo) {
       String ret = null;
 
@@ -382,6 +597,26 @@ public class IndexManager {
         if (indexInfo.getChunkInfo() != null) {
           buf.append(formatChunkInfo(indexInfo.getChunkInfo()));
         }
+        boolean hashes = !indexInfo.getHashes().isEmpty();
+        boolean hashTree = indexInfo.getHashTree() != null && indexInfo.getHashTree().isComplete();
+        if (indexInfo.getCompressible() != null || hashes || hashTree) {
+          buf.append(INDEX_SEPARATOR);
+          if (indexInfo.getCompressible() != null) {
+            buf.append(indexInfo.getCompressible());
+          }
+        }
+        if (hashes || hashTree) {
+          buf.append(INDEX_SEPARATOR);
+          String separator = "";
+          for (Entry<String, String> entry : indexInfo.getHashes().entrySet()) {
+            buf.append(separator).append(entry.getKey()).append(HASH_TYPE_SEPARATOR).append(entry.getValue());
+            separator = HASH_SEPARATOR;
+          }
+        }
+        if (hashTree) {
+          buf.append(INDEX_SEPARATOR);
+          buf.append(formatHashTree(indexInfo.getHashTree()));
+        }
 
         ret = buf.toString();
       }
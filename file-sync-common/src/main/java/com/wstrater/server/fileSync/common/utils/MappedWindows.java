@@ -0,0 +1,218 @@
+package com.wstrater.server.fileSync.common.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An LRU cache of read only windows mapped from large files so blocks can be read and hashed
+ * straight from the page cache. Each window maps <code>windowSize</code> bytes of a file starting
+ * at a multiple of <code>windowSize</code>. No more than <code>maxWindows</code> windows are kept.
+ * A mapping is only released by the garbage collector once it is no longer referenced.
+ * <p/>
+ * A window is mapped again if the size, last modified or file key of the file has changed so a
+ * file replaced by a rename is not served from the mapping of the file it replaced. A file must
+ * still be evicted before it is truncated. Callers are expected to fall back to reading the channel
+ * when a window can not be mapped.
+ *
+ * @author wstrater
+ *
+ */
+public class MappedWindows {
+
+  public final static int        DEFAULT_MAX_WINDOWS = 8;
+  public final static int        DEFAULT_WINDOW_SIZE = 32 * 1024 * 1024;
+
+  protected final static Logger  logger              = LoggerFactory.getLogger(MappedWindows.class);
+
+  private final int              maxWindows;
+  private final int              windowSize;
+  private final Map<Key, Window> windows             = new LinkedHashMap<>(16, 0.75F, true);
+
+  public MappedWindows(int maxWindows, int windowSize) {
+    this.maxWindows = Math.max(1, maxWindows);
+    this.windowSize = Math.max(FileUtils.MIN_BLOCK_SIZE, windowSize);
+  }
+
+  /**
+   * Drop every window.
+   */
+  public synchronized void clear() {
+    windows.clear();
+  }
+
+  /**
+   * Drop the windows of a file.
+   *
+   * @param file Canonical
+   */
+  public synchronized void evict(File file) {
+    Iterator<Key> iter = windows.keySet().iterator();
+    while (iter.hasNext()) {
+      if (iter.next().file.equals(file)) {
+        iter.remove();
+      }
+    }
+  }
+
+  /**
+   * Drop the windows of every file within a directory.
+   *
+   * @param dir Canonical
+   */
+  public synchronized void evictAll(File dir) {
+    Iterator<Key> iter = windows.keySet().iterator();
+    while (iter.hasNext()) {
+      if (DirectoryUtils.isChild(dir, iter.next().file)) {
+        iter.remove();
+      }
+    }
+  }
+
+  public int getMaxWindows() {
+    return maxWindows;
+  }
+
+  public int getWindowSize() {
+    return windowSize;
+  }
+
+  public synchronized int size() {
+    return windows.size();
+  }
+
+  /**
+   * Get up to <code>length</code> bytes of a file starting at <code>offset</code> from the window
+   * holding the offset. Fewer bytes are returned at the end of the window or file so call again for
+   * the rest. The buffer returned has its own position and limit.
+   *
+   * @param file Canonical
+   * @param channel Open for reading the file.
+   * @param offset
+   * @param length
+   * @return An empty buffer at or past the end of the file.
+   * @throws IOException If the window can not be mapped.
+   */
+  public ByteBuffer slice(File file, FileChannel channel, long offset, int length) throws IOException {
+    ByteBuffer ret;
+
+    long size = channel.size();
+    if (offset >= size || length <= 0) {
+      ret = ByteBuffer.allocate(0);
+    } else {
+      BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+      Window window = window(file, channel, offset / windowSize, size, attributes);
+
+      int position = (int) (offset - window.start);
+      ret = window.buffer.duplicate();
+      ret.position(position);
+      ret.limit(Math.min(ret.capacity(), position + length));
+    }
+
+    return ret;
+  }
+
+  /**
+   * Get the window, mapping it if missing or mapped before the file changed or was replaced.
+   */
+  private Window window(File file, FileChannel channel, long index, long size, BasicFileAttributes attributes)
+      throws IOException {
+    Window ret;
+
+    Key key = new Key(file, index);
+
+    synchronized (this) {
+      ret = windows.get(key);
+      if (ret != null && !ret.isSame(size, attributes)) {
+        windows.remove(key);
+        ret = null;
+      }
+    }
+
+    if (ret == null) {
+      long start = index * windowSize;
+      MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, start, Math.min(windowSize, size - start));
+      ret = new Window(buffer, size, start, attributes);
+      logger.debug(String.format("Mapped %s at %d for %d bytes", file.getAbsolutePath(), start, buffer.capacity()));
+
+      synchronized (this) {
+        windows.put(key, ret);
+        Iterator<Window> iter = windows.values().iterator();
+        while (windows.size() > maxWindows && iter.hasNext()) {
+          iter.next();
+          iter.remove();
+        }
+      }
+    }
+
+    return ret;
+  }
+
+  private static class Key {
+
+    private final File file;
+    private final long index;
+
+    private Key(File file, long index) {
+      this.file = file;
+      this.index = index;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      boolean ret = false;
+
+      if (obj instanceof Key) {
+        Key other = (Key) obj;
+        ret = index == other.index && file.equals(other.file);
+      }
+
+      return ret;
+    }
+
+    @Override
+    public int hashCode() {
+      return file.hashCode() * 31 + (int) (index ^ (index >>> 32));
+    }
+
+  }
+
+  private static class Window {
+
+    private final MappedByteBuffer buffer;
+    private final Object           fileKey;
+    private final long             lastModified;
+    private final long             size;
+    private final long             start;
+
+    private Window(MappedByteBuffer buffer, long size, long start, BasicFileAttributes attributes) {
+      this.buffer = buffer;
+      this.size = size;
+      this.start = start;
+      this.fileKey = attributes.fileKey();
+      this.lastModified = attributes.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * Is the file still the one mapped? The file key is null where the file system has none.
+     */
+    private boolean isSame(long size, BasicFileAttributes attributes) {
+      Object key = attributes.fileKey();
+      return this.size == size && lastModified == attributes.lastModifiedTime().toMillis()
+          && (fileKey == null ? key == null : fileKey.equals(key));
+    }
+
+  }
+
+}
\ No newline at end of file
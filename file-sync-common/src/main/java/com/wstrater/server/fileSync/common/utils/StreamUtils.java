@@ -0,0 +1,413 @@
+package com.wstrater.server.fileSync.common.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.wstrater.server.fileSync.common.data.StreamRequest;
+import com.wstrater.server.fileSync.common.exceptions.ErrorInflatingBlockException;
+import com.wstrater.server.fileSync.common.exceptions.ErrorReadingBlockException;
+import com.wstrater.server.fileSync.common.exceptions.InvalidDataLengthException;
+import com.wstrater.server.fileSync.common.hash.Checksums;
+
+/**
+ * The frames used to stream a file as one body. A stream is a series of frames, each starting with
+ * a one byte type.
+ * <ul>
+ * <li>{@link #BLOCK_FRAME} is followed by the length and the data of a block.</li>
+ * <li>{@link #DEFLATED_FRAME} is followed by the length of a block, the deflated length and the
+ * deflated data. All the deflated blocks of a stream are deflated as one so each uses the blocks
+ * before it as a dictionary. Each block is flushed so it can be inflated as soon as it arrives.</li>
+ * <li>{@link #CHECKPOINT_FRAME} is followed by the offset of the end of the previous block and the
+ * CRC of the blocks since the previous checkpoint.</li>
+ * <li>{@link #END_FRAME} is the final checkpoint.</li>
+ * <li>{@link #ERROR_FRAME} is followed by a message when the file could not be read.</li>
+ * </ul>
+ * 
+ * @author wstrater
+ *
+ */
+public abstract class StreamUtils {
+
+  public final static byte      BLOCK_FRAME      = 'B';
+  public final static byte      CHECKPOINT_FRAME = 'C';
+  public final static byte      DEFLATED_FRAME   = 'D';
+  public final static byte      END_FRAME        = 'E';
+  public final static byte      ERROR_FRAME      = 'X';
+
+  protected final static Logger logger           = LoggerFactory.getLogger(StreamUtils.class);
+
+  /**
+   * The most a block can grow when deflated and flushed.
+   * 
+   * @param length
+   * @return
+   */
+  static int deflatedBound(int length) {
+    return length + length / 1000 + 64;
+  }
+
+  /**
+   * Inflate the data of one deflated frame with the inflater of the stream. The flush at the end of
+   * the frame is consumed so the inflater is ready for the next frame.
+   */
+  private static void inflate(Inflater inflater, byte[] data, int length, byte[] buffer, int inflatedLength) {
+    inflater.setInput(data, 0, length);
+    try {
+      int count = 0;
+      while (count < inflatedLength) {
+        int len = inflater.inflate(buffer, count, inflatedLength - count);
+        if (len == 0 && (inflater.needsInput() || inflater.needsDictionary() || inflater.finished())) {
+          break;
+        }
+        count += len;
+      }
+
+      // Consume the flush that ends the frame. Anything more is too much data.
+      if (count == inflatedLength && inflater.getRemaining() > 0) {
+        count += inflater.inflate(new byte[1]);
+      }
+
+      if (count != inflatedLength || inflater.getRemaining() > 0) {
+        throw new ErrorInflatingBlockException(String.format("Stream block did not inflate to %d bytes", inflatedLength));
+      }
+    } catch (DataFormatException ee) {
+      throw new ErrorInflatingBlockException("Error inflating stream block", ee);
+    }
+  }
+
+  /**
+   * Read the next frame. The data of a block frame is read into the buffer.
+   * 
+   * @param in
+   * @param buffer Large enough for the maximum block size.
+   * @return
+   * @throws IOException
+   */
+  public static Frame readFrame(DataInputStream in, byte[] buffer) throws IOException {
+    return readFrame(in, buffer, null);
+  }
+
+  /**
+   * Read the next frame. The data of a block frame is read into the buffer, inflating it if the
+   * frame is deflated.
+   * 
+   * @param in
+   * @param buffer Large enough for the maximum block size.
+   * @param inflater Used for every frame of the stream. Required if the stream has deflated frames.
+   * @return
+   * @throws IOException
+   */
+  public static Frame readFrame(DataInputStream in, byte[] buffer, Inflater inflater) throws IOException {
+    Frame ret = new Frame();
+
+    ret.type = in.readByte();
+    switch (ret.type) {
+      case BLOCK_FRAME: {
+        ret.length = in.readInt();
+        if (ret.length < 0 || ret.length > buffer.length) {
+          throw new InvalidDataLengthException(String.format("Length must be between %d and %d: %d", 0, buffer.length,
+              ret.length));
+        }
+        in.readFully(buffer, 0, ret.length);
+        break;
+      }
+      case DEFLATED_FRAME: {
+        ret.length = in.readInt();
+        ret.compressed = in.readInt();
+        if (ret.length < 0 || ret.length > buffer.length) {
+          throw new InvalidDataLengthException(String.format("Length must be between %d and %d: %d", 0, buffer.length,
+              ret.length));
+        }
+        if (ret.compressed < 0 || ret.compressed > deflatedBound(ret.length)) {
+          throw new InvalidDataLengthException(String.format("Deflated length must be between %d and %d: %d", 0,
+              deflatedBound(ret.length), ret.compressed));
+        }
+        if (inflater == null) {
+          throw new ErrorInflatingBlockException("Deflated stream block without an inflater");
+        }
+
+        BufferPool pool = FileUtils.getBufferPool();
+        byte[] data = pool.acquire(ret.compressed);
+        try {
+          in.readFully(data, 0, ret.compressed);
+          inflate(inflater, data, ret.compressed, buffer, ret.length);
+        } finally {
+          pool.release(data);
+        }
+        break;
+      }
+      case CHECKPOINT_FRAME:
+      case END_FRAME: {
+        ret.offset = in.readLong();
+        ret.crc32 = in.readLong();
+        break;
+      }
+      case ERROR_FRAME: {
+        ret.message = in.readUTF();
+        break;
+      }
+      default: {
+        throw new ErrorReadingBlockException(String.format("Invalid stream frame: %d", ret.type));
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * One frame of a stream.
+   */
+  public static class Frame {
+
+    private int    compressed = -1;
+    private long   crc32;
+    private int    length;
+    private String message;
+    private long   offset;
+    private byte   type;
+
+    /**
+     * The deflated length of a deflated block frame.
+     * 
+     * @return -1 if not deflated.
+     */
+    public int getCompressed() {
+      return compressed;
+    }
+
+    public long getCrc32() {
+      return crc32;
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public byte getType() {
+      return type;
+    }
+
+  }
+
+  /**
+   * Generates the frames of a stream while it is read so the whole file is never held in memory.
+   * The file channel is closed along with the stream.
+   * <p/>
+   * When a level is requested and the {@link CompressionAdvisor} expects the first block to
+   * compress, the blocks are deflated with one deflater for the whole stream. The blocks are sent
+   * as they are once the advisor learns the file does not compress. The inflater at the other end
+   * only sees deflated blocks so it is not upset by the switch.
+   */
+  static class FrameInputStream extends InputStream {
+
+    private final File                  baseDir;
+    private final ByteBuffer            block;
+    private final FileChannel           channel;
+    private final int                   chunkSize;
+    private final Checksum              crc       = Checksums.newChecksum(FileUtils.getChecksumType());
+    private final long                  end;
+    private final String                fileName;
+    private final ByteArrayOutputStream frames    = new ByteArrayOutputStream();
+    private final int                   level;
+    private final DataOutputStream      out       = new DataOutputStream(frames);
+    private int                         blocks;
+    private byte[]                      deflated;
+    private Deflater                    deflater;
+    private boolean                     done;
+    private byte[]                      frame     = new byte[0];
+    private int                         framePos;
+    private long                        position;
+    private boolean                     started;
+
+    FrameInputStream(FileChannel channel, StreamRequest request, long end) {
+      this.channel = channel;
+      this.baseDir = request.getBaseDir();
+      this.fileName = request.getFileName();
+      this.level = request.getLevel();
+      this.position = request.getOffset();
+      this.end = end;
+      this.block = ByteBuffer.allocate(request.getBlockSize());
+      this.chunkSize = Math.max(1, request.getChunkSize());
+    }
+
+    @Override
+    public int available() throws IOException {
+      return frame.length - framePos;
+    }
+
+    @Override
+    public void close() throws IOException {
+      done = true;
+      endDeflater();
+      channel.close();
+    }
+
+    /**
+     * Deflate the block read and flush it so the other end can inflate it without the blocks that
+     * follow.
+     * 
+     * @return The deflated length.
+     */
+    private int deflate(int length) {
+      if (deflated == null) {
+        deflated = new byte[deflatedBound(block.capacity())];
+      }
+
+      deflater.setInput(block.array(), 0, length);
+
+      int ret = 0;
+      while (true) {
+        int space = deflated.length - ret;
+        int count = deflater.deflate(deflated, ret, space, Deflater.SYNC_FLUSH);
+        ret += count;
+        if (count < space) {
+          break;
+        }
+        deflated = Arrays.copyOf(deflated, deflated.length * 2);
+      }
+
+      return ret;
+    }
+
+    private void endDeflater() {
+      if (deflater != null) {
+        deflater.end();
+        deflater = null;
+      }
+    }
+
+    /**
+     * Fill the frame buffer with the next block and any checkpoint that follows it.
+     * 
+     * @return False at the end of the stream.
+     */
+    private boolean nextFrame() {
+      if (done) {
+        return false;
+      }
+
+      frames.reset();
+      try {
+        try {
+          int count = 0;
+          block.clear();
+          if (position < end) {
+            block.limit((int) Math.min(block.capacity(), end - position));
+            do {
+              count = channel.read(block, position + block.position());
+            } while (count >= 0 && block.hasRemaining());
+          }
+
+          if (block.position() > 0) {
+            CompressionAdvisor advisor = FileUtils.getCompressionAdvisor();
+            if (!started) {
+              started = true;
+              if (level > 0 && advisor.shouldCompress(baseDir, fileName, block.array(), 0, block.position())) {
+                deflater = new Deflater(level);
+              }
+            }
+
+            if (deflater == null) {
+              out.writeByte(BLOCK_FRAME);
+              out.writeInt(block.position());
+              out.write(block.array(), 0, block.position());
+            } else {
+              int length = deflate(block.position());
+              out.writeByte(DEFLATED_FRAME);
+              out.writeInt(block.position());
+              out.writeInt(length);
+              out.write(deflated, 0, length);
+
+              advisor.record(fileName, block.position(), length);
+              if (Boolean.FALSE.equals(advisor.isCompressible(fileName))) {
+                endDeflater();
+              }
+            }
+            crc.update(block.array(), 0, block.position());
+            position += block.position();
+
+            if (++blocks >= chunkSize) {
+              out.writeByte(CHECKPOINT_FRAME);
+              out.writeLong(position);
+              out.writeLong(crc.getValue());
+              crc.reset();
+              blocks = 0;
+            }
+          }
+
+          if (block.position() < block.capacity() || position >= end) {
+            out.writeByte(END_FRAME);
+            out.writeLong(position);
+            out.writeLong(crc.getValue());
+            done = true;
+          }
+        } catch (IOException ee) {
+          logger.error(String.format("Error streaming at offset %d: %s", position, ee.getMessage()));
+          frames.reset();
+          out.writeByte(ERROR_FRAME);
+          out.writeUTF(String.valueOf(ee.getMessage()));
+          done = true;
+        }
+        out.flush();
+      } catch (IOException ee) {
+        // Writing to memory
+      }
+
+      frame = frames.toByteArray();
+      framePos = 0;
+
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int ret = -1;
+
+      byte[] one = new byte[1];
+      if (read(one, 0, 1) > 0) {
+        ret = one[0] & 0xFF;
+      }
+
+      return ret;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      while (framePos >= frame.length) {
+        if (!nextFrame()) {
+          return -1;
+        }
+      }
+
+      int ret = Math.min(length, frame.length - framePos);
+      System.arraycopy(frame, framePos, buffer, offset, ret);
+      framePos += ret;
+
+      return ret;
+    }
+
+  }
+
+}
\ No newline at end of file
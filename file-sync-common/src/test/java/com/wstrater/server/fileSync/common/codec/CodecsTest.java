@@ -0,0 +1,221 @@
+package com.wstrater.server.fileSync.common.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.wstrater.server.fileSync.common.exceptions.ErrorInflatingBlockException;
+import com.wstrater.server.fileSync.common.exceptions.InvalidCodecException;
+import com.wstrater.server.fileSync.common.utils.BufferPool;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Deflated;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Inflated;
+
+public class CodecsTest {
+
+  private final static int BENCHMARK_ROUNDS = 32;
+  private final static int BLOCK_SIZE       = 64 * 1024;
+
+  private Random           rand             = new Random(20150704L);
+
+  /**
+   * Blocks like the ones found in the files being synced.
+   */
+  private Map<String, byte[]> blocks() {
+    Map<String, byte[]> ret = new LinkedHashMap<>();
+
+    ret.put("text", textBlock());
+    ret.put("log", logBlock());
+    ret.put("binary", binaryBlock());
+    ret.put("zeros", new byte[BLOCK_SIZE]);
+    ret.put("random", randomBlock());
+
+    return ret;
+  }
+
+  /**
+   * Records of small numbers and repeated field names like a database or object file.
+   */
+  private byte[] binaryBlock() {
+    byte[] ret = new byte[BLOCK_SIZE];
+
+    for (int xx = 0; xx + 16 <= BLOCK_SIZE; xx += 16) {
+      ret[xx] = 'R';
+      ret[xx + 1] = 'E';
+      ret[xx + 2] = 'C';
+      ret[xx + 4] = (byte) (xx >>> 4);
+      ret[xx + 5] = (byte) (xx >>> 12);
+      ret[xx + 8] = (byte) rand.nextInt(16);
+      ret[xx + 12] = (byte) rand.nextInt(256);
+    }
+
+    return ret;
+  }
+
+  private byte[] logBlock() {
+    StringBuilder builder = new StringBuilder();
+
+    while (builder.length() < BLOCK_SIZE) {
+      builder.append(String.format("2015-07-04 12:%02d:%02d.%03d INFO  [pool-1-thread-%d] Syncer - Copied file%d.dat %d bytes\n",
+          rand.nextInt(60), rand.nextInt(60), rand.nextInt(1000), rand.nextInt(8), rand.nextInt(1000), rand.nextInt(1000000)));
+    }
+
+    return builder.substring(0, BLOCK_SIZE).getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private byte[] randomBlock() {
+    byte[] ret = new byte[BLOCK_SIZE];
+
+    rand.nextBytes(ret);
+
+    return ret;
+  }
+
+  private byte[] roundTrip(Codec codec, byte[] data, int offset, int length, BufferPool pool) {
+    Deflated deflated = codec.compress(data, offset, length, CompressionUtils.DEFAULT_LEVEL, pool);
+    Inflated inflated = codec.decompress(deflated.getData(), 0, deflated.getLength(), length, pool);
+    assertEquals(String.format("%s length", codec.getName()), length, inflated.getLength());
+
+    byte[] ret = Arrays.copyOf(inflated.getData(), inflated.getLength());
+    pool.release(deflated.getData());
+    pool.release(inflated.getData());
+
+    return ret;
+  }
+
+  private byte[] textBlock() {
+    String[] words = { "the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "file", "sync", "block" };
+    StringBuilder builder = new StringBuilder();
+
+    while (builder.length() < BLOCK_SIZE) {
+      builder.append(words[rand.nextInt(words.length)]).append(rand.nextInt(10) == 0 ? ".\n" : " ");
+    }
+
+    return builder.substring(0, BLOCK_SIZE).getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Compare the speed and ratio of the codecs on each type of block. This is a rough guide rather
+   * than a test since the times vary with the machine.
+   */
+  @Test
+  public void benchmarkTest() {
+    BufferPool pool = new BufferPool(BLOCK_SIZE * 8);
+
+    for (Map.Entry<String, byte[]> block : blocks().entrySet()) {
+      byte[] data = block.getValue();
+      for (String name : Codecs.getCodecNames()) {
+        Codec codec = Codecs.getCodec(name);
+
+        // Warm up before timing.
+        roundTrip(codec, data, 0, data.length, pool);
+
+        long compressNanos = 0L;
+        long decompressNanos = 0L;
+        int compressed = 0;
+        for (int xx = 0; xx < BENCHMARK_ROUNDS; xx++) {
+          long start = System.nanoTime();
+          Deflated deflated = codec.compress(data, 0, data.length, CompressionUtils.DEFAULT_LEVEL, pool);
+          long middle = System.nanoTime();
+          Inflated inflated = codec.decompress(deflated.getData(), 0, deflated.getLength(), data.length, pool);
+          decompressNanos += System.nanoTime() - middle;
+          compressNanos += middle - start;
+          compressed = deflated.getLength();
+          pool.release(deflated.getData());
+          pool.release(inflated.getData());
+        }
+
+        double megabytes = (double) data.length * BENCHMARK_ROUNDS / (1024D * 1024D);
+        System.out.println(String.format("%-6s %-7s: ratio %3d%% compress %7.1f MB/s decompress %7.1f MB/s", block.getKey(),
+            name, compressed * 100 / data.length, megabytes * 1e9D / Math.max(1L, compressNanos), megabytes * 1e9D
+                / Math.max(1L, decompressNanos)));
+      }
+    }
+  }
+
+  @Test
+  public void codecsTest() {
+    assertTrue("Deflate missing", Codecs.isCodec("DEFLATE"));
+    assertTrue("LZ4 missing", Codecs.isCodec(Codecs.LZ4));
+    assertFalse("Unknown codec", Codecs.isCodec("zstd"));
+    assertEquals("Default codec", Codecs.DEFAULT_CODEC, Codecs.getCodec(null).getName());
+    try {
+      Codecs.getCodec("zstd");
+      fail("Unknown codec found");
+    } catch (InvalidCodecException ee) {
+    }
+  }
+
+  @Test
+  public void corruptTest() {
+    BufferPool pool = new BufferPool(0L);
+    Codec codec = Codecs.getCodec(Codecs.LZ4);
+    byte[] data = textBlock();
+
+    Deflated deflated = codec.compress(data, 0, data.length, 0, pool);
+    try {
+      codec.decompress(deflated.getData(), 0, deflated.getLength(), data.length - 1, pool);
+      fail("Decompressed larger than expected");
+    } catch (ErrorInflatingBlockException ee) {
+    }
+
+    byte[] corrupt = Arrays.copyOf(deflated.getData(), deflated.getLength());
+    for (int xx = 0; xx < corrupt.length; xx += 7) {
+      corrupt[xx] = (byte) rand.nextInt(256);
+    }
+    try {
+      Inflated inflated = codec.decompress(corrupt, 0, corrupt.length, data.length, pool);
+      assertFalse("Corrupt data decompressed", Arrays.equals(data, Arrays.copyOf(inflated.getData(), inflated.getLength())));
+    } catch (ErrorInflatingBlockException ee) {
+    }
+  }
+
+  /**
+   * Every codec gives back what it was given for each type of block, including short blocks and
+   * blocks in the middle of an array.
+   */
+  @Test
+  public void roundTripTest() {
+    BufferPool pool = new BufferPool(BLOCK_SIZE * 4);
+
+    for (String name : Codecs.getCodecNames()) {
+      Codec codec = Codecs.getCodec(name);
+      for (Map.Entry<String, byte[]> block : blocks().entrySet()) {
+        byte[] data = block.getValue();
+        String label = String.format("%s %s", name, block.getKey());
+
+        assertTrue(label, Arrays.equals(data, roundTrip(codec, data, 0, data.length, pool)));
+        assertTrue(String.format("%s middle", label),
+            Arrays.equals(Arrays.copyOfRange(data, 100, 5000), roundTrip(codec, data, 100, 4900, pool)));
+        for (int length = 0; length < 32; length++) {
+          assertTrue(String.format("%s %d", label, length),
+              Arrays.equals(Arrays.copyOf(data, length), roundTrip(codec, data, 0, length, pool)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void ratioTest() {
+    BufferPool pool = new BufferPool(0L);
+    Codec codec = Codecs.getCodec(Codecs.LZ4);
+
+    byte[] data = textBlock();
+    Deflated deflated = codec.compress(data, 0, data.length, 0, pool);
+    assertTrue("Text did not compress", deflated.getLength() < data.length * 3 / 4);
+
+    data = randomBlock();
+    deflated = codec.compress(data, 0, data.length, 0, pool);
+    assertTrue("Random data grew too much", deflated.getLength() <= LZ4Codec.maxCompressedLength(data.length));
+  }
+
+}
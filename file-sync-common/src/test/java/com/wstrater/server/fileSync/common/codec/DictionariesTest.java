@@ -0,0 +1,197 @@
+package com.wstrater.server.fileSync.common.codec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.wstrater.server.fileSync.common.exceptions.DictionaryNotFoundException;
+import com.wstrater.server.fileSync.common.exceptions.ErrorInflatingBlockException;
+import com.wstrater.server.fileSync.common.utils.BufferPool;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Deflated;
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Inflated;
+
+public class DictionariesTest {
+
+  private final static int SAMPLES = 200;
+
+  private Random           rand    = new Random(20150704L);
+
+  /**
+   * A small JSON file like the ones synced by the thousand.
+   */
+  private byte[] jsonFile() {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("{\n  \"customer\": {\n    \"id\": ").append(rand.nextInt(1000000)).append(",\n    \"name\": \"")
+        .append(Long.toString(rand.nextLong() & Long.MAX_VALUE, 36)).append("\",\n    \"email\": \"")
+        .append(Integer.toString(rand.nextInt() & Integer.MAX_VALUE, 36)).append("@example.com\",\n    \"active\": ")
+        .append(rand.nextBoolean()).append("\n  },\n  \"orders\": [\n");
+    int orders = 1 + rand.nextInt(4);
+    for (int xx = 0; xx < orders; xx++) {
+      builder.append("    {\n      \"orderId\": \"ORD-").append(rand.nextInt(100000))
+          .append("\",\n      \"status\": \"").append(rand.nextBoolean() ? "SHIPPED" : "PENDING")
+          .append("\",\n      \"quantity\": ").append(rand.nextInt(10)).append(",\n      \"unitPrice\": ")
+          .append(rand.nextInt(10000) / 100.0D).append(",\n      \"currency\": \"USD\"\n    }")
+          .append(xx + 1 < orders ? ",\n" : "\n");
+    }
+    builder.append("  ]\n}\n");
+
+    return builder.toString().getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private Dictionary trainJson() {
+    List<byte[]> samples = new ArrayList<>();
+    for (int xx = 0; xx < SAMPLES; xx++) {
+      samples.add(jsonFile());
+    }
+
+    return new Dictionary("json", DictionaryTrainer.train(samples, DictionaryTrainer.DEFAULT_SIZE));
+  }
+
+  /**
+   * Small files deflate much smaller with a dictionary trained on files like them.
+   */
+  @Test
+  public void compressTest() {
+    BufferPool pool = new BufferPool(0L);
+    Dictionary dictionary = trainJson();
+    assertTrue("Dictionary empty", dictionary.getLength() > 0);
+    assertTrue("Dictionary too large", dictionary.getLength() <= DictionaryTrainer.DEFAULT_SIZE);
+
+    Codec plain = Codecs.getCodec(Codecs.DEFLATE);
+    Codec codec = new DictionaryCodec(dictionary);
+    long length = 0L;
+    long deflated = 0L;
+    long trained = 0L;
+    for (int xx = 0; xx < 100; xx++) {
+      byte[] data = jsonFile();
+      length += data.length;
+      deflated += compressedLength(plain, data, pool);
+      trained += compressedLength(codec, data, pool);
+    }
+
+    System.out.println(String.format("%s: %d bytes deflated to %d, %d with dictionary", dictionary, length, deflated, trained));
+    assertTrue("Dictionary did not help", trained < deflated * 3 / 4);
+  }
+
+  private int compressedLength(Codec codec, byte[] data, BufferPool pool) {
+    Deflated deflated = codec.compress(data, 0, data.length, CompressionUtils.DEFAULT_LEVEL, pool);
+    Inflated inflated = codec.decompress(deflated.getData(), 0, deflated.getLength(), data.length, pool);
+    assertTrue("Round trip", Arrays.equals(data, Arrays.copyOf(inflated.getData(), inflated.getLength())));
+
+    int ret = deflated.getLength();
+    pool.release(deflated.getData());
+    pool.release(inflated.getData());
+
+    return ret;
+  }
+
+  @Test
+  public void registerTest() {
+    Dictionary dictionary = new Dictionary("test", "some common content".getBytes(StandardCharsets.US_ASCII));
+    Dictionary retrained = new Dictionary("test", "other common content".getBytes(StandardCharsets.US_ASCII));
+    assertNotEquals("Versions", dictionary.getKey(), retrained.getKey());
+
+    Dictionaries.register(dictionary);
+    Dictionaries.register(retrained);
+    assertTrue("Dictionary", Dictionaries.getDictionary(dictionary.getKey()) == dictionary);
+    assertTrue("Retrained", Dictionaries.getDictionary(retrained.getKey()) == retrained);
+
+    for (int xx = 0; xx < Dictionaries.MAX_DICTIONARIES; xx++) {
+      Dictionaries.register(new Dictionary("test" + xx, new byte[] { (byte) xx }));
+    }
+    assertFalse("Not forgotten", Dictionaries.isDictionary(dictionary.getKey()));
+    try {
+      Dictionaries.getDictionary(dictionary.getKey());
+      fail("Forgotten dictionary found");
+    } catch (DictionaryNotFoundException ee) {
+    }
+  }
+
+  @Test
+  public void sampleTest() throws IOException {
+    File baseDir = File.createTempFile(getClass().getSimpleName() + "_", "");
+    assertTrue("Temp file", baseDir.delete());
+    assertTrue("Temp dir", new File(baseDir, "sub").mkdirs());
+
+    List<File> files = new ArrayList<>();
+    try {
+      for (int xx = 0; xx < 20; xx++) {
+        files.add(writeFile(new File(baseDir, xx % 2 == 0 ? "file" + xx + ".json" : "sub/file" + xx + ".json"), jsonFile()));
+      }
+      files.add(writeFile(new File(baseDir, ".hidden.json"), jsonFile()));
+      files.add(writeFile(new File(baseDir, "large.dat"), new byte[DictionaryTrainer.MAX_FILE_SIZE + 1]));
+
+      assertEquals("Samples", 20, DictionaryTrainer.sample(baseDir, 100, Integer.MAX_VALUE).size());
+      assertEquals("Max samples", 5, DictionaryTrainer.sample(baseDir, 5, Integer.MAX_VALUE).size());
+
+      Dictionary dictionary = DictionaryTrainer.train("json", baseDir);
+      assertNotNull("Dictionary", dictionary);
+      assertEquals("Id", "json", dictionary.getId());
+    } finally {
+      for (File file : files) {
+        file.delete();
+      }
+      new File(baseDir, "sub").delete();
+      baseDir.delete();
+    }
+  }
+
+  /**
+   * A block deflated with one dictionary never inflates with another or without one.
+   */
+  @Test
+  public void staleTest() {
+    BufferPool pool = new BufferPool(0L);
+    Dictionary dictionary = trainJson();
+    Dictionary stale = trainJson();
+    assertNotEquals("Versions", dictionary.getVersion(), stale.getVersion());
+
+    byte[] data = jsonFile();
+    Deflated deflated = new DictionaryCodec(dictionary).compress(data, 0, data.length, CompressionUtils.DEFAULT_LEVEL, pool);
+    try {
+      new DictionaryCodec(stale).decompress(deflated.getData(), 0, deflated.getLength(), data.length, pool);
+      fail("Inflated with a stale dictionary");
+    } catch (ErrorInflatingBlockException ee) {
+    }
+    try {
+      Codecs.getCodec(Codecs.DEFLATE).decompress(deflated.getData(), 0, deflated.getLength(), data.length, pool);
+      fail("Inflated without a dictionary");
+    } catch (ErrorInflatingBlockException ee) {
+    }
+
+    // Blocks deflated without a dictionary still inflate.
+    deflated = Codecs.getCodec(Codecs.DEFLATE).compress(data, 0, data.length, CompressionUtils.DEFAULT_LEVEL, pool);
+    Inflated inflated = new DictionaryCodec(dictionary).decompress(deflated.getData(), 0, deflated.getLength(), data.length,
+        pool);
+    assertTrue("Plain block", Arrays.equals(data, Arrays.copyOf(inflated.getData(), inflated.getLength())));
+  }
+
+  private File writeFile(File file, byte[] data) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+
+    return file;
+  }
+
+}
\ No newline at end of file
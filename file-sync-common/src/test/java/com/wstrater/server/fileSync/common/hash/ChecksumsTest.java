@@ -0,0 +1,85 @@
+package com.wstrater.server.fileSync.common.hash;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import org.junit.Test;
+
+import com.wstrater.server.fileSync.common.exceptions.InvalidChecksumTypeException;
+
+public class ChecksumsTest {
+
+  private long checksum(String checksumType, String value) {
+    Checksum checksum = Checksums.newChecksum(checksumType);
+    byte[] data = value.getBytes(StandardCharsets.US_ASCII);
+    checksum.update(data, 0, data.length);
+    return checksum.getValue();
+  }
+
+  /**
+   * Updating in odd sized pieces gives the same value as updating all at once.
+   */
+  @Test
+  public void testChunked() {
+    Random random = new Random(20150704L);
+    byte[] data = new byte[1000];
+    random.nextBytes(data);
+
+    for (String checksumType : Checksums.getChecksumTypes()) {
+      Checksum whole = Checksums.newChecksum(checksumType);
+      whole.update(data, 0, data.length);
+
+      Checksum chunked = Checksums.newChecksum(checksumType);
+      int offset = 0;
+      while (offset < data.length) {
+        int length = Math.min(data.length - offset, random.nextInt(70));
+        chunked.update(data, offset, length);
+        offset += length;
+      }
+      assertEquals(String.format("Chunked %s", checksumType), whole.getValue(), chunked.getValue());
+
+      chunked.reset();
+      for (byte value : data) {
+        chunked.update(value);
+      }
+      assertEquals(String.format("Bytes %s", checksumType), whole.getValue(), chunked.getValue());
+    }
+  }
+
+  @Test
+  public void testDigest() throws Exception {
+    MessageDigest digester = Checksums.newDigest(Checksums.XXH64);
+    byte[] digest = digester.digest("abc".getBytes(StandardCharsets.US_ASCII));
+    assertArrayEquals("XXH64 digest", new byte[] { 0x44, (byte) 0xBC, 0x2C, (byte) 0xF5, (byte) 0xAD, 0x77, 0x09, (byte) 0x99 },
+        digest);
+  }
+
+  @Test
+  public void testTypes() {
+    assertTrue("CRC32 missing", Checksums.isChecksumType("crc32"));
+    assertTrue("CRC32C missing", Checksums.isChecksumType(Checksums.CRC32C));
+    assertFalse("Unknown type", Checksums.isChecksumType("MD5"));
+    try {
+      Checksums.newChecksum("MD5");
+      assertTrue("Unknown type created", false);
+    } catch (InvalidChecksumTypeException ee) {
+    }
+  }
+
+  @Test
+  public void testValues() {
+    assertEquals("CRC32", 0xCBF43926L, checksum(Checksums.CRC32, "123456789"));
+    assertEquals("CRC32C", 0xE3069283L, checksum(Checksums.CRC32C, "123456789"));
+    assertEquals("XXH64 empty", 0xEF46DB3751D8E999L, checksum(Checksums.XXH64, ""));
+    assertEquals("XXH64 short", 0x44BC2CF5AD770999L, checksum(Checksums.XXH64, "abc"));
+    assertEquals("XXH64 long", 0xFBCEA83C8A378BF1L, checksum(Checksums.XXH64, "Nobody inspects the spammish repetition"));
+  }
+
+}
\ No newline at end of file
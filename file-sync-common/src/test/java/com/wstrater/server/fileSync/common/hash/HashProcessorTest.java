@@ -1,19 +1,215 @@
 package com.wstrater.server.fileSync.common.hash;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.wstrater.server.fileSync.common.data.HashRequest;
+import com.wstrater.server.fileSync.common.data.HashStatus;
+import com.wstrater.server.fileSync.common.data.IndexFile;
+import com.wstrater.server.fileSync.common.data.IndexInfo;
+import com.wstrater.server.fileSync.common.utils.Base64Utils;
 import com.wstrater.server.fileSync.common.utils.DirectoryUtils;
+import com.wstrater.server.fileSync.common.utils.IndexManager;
 
 public class HashProcessorTest {
 
   protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+  /**
+   * A file hashed for a second hash type keeps the first and is hashed for both after that.
+   */
+  @Test
+  public void hashTypesTest() throws Exception {
+    File baseDir = File.createTempFile(getClass().getSimpleName() + "_", "");
+    assertTrue("Temp file", baseDir.delete());
+    assertTrue("Temp dir", baseDir.mkdirs());
+
+    Random rand = new Random(20150704L);
+    List<File> files = new ArrayList<>();
+    try {
+      for (int xx = 0; xx < 5; xx++) {
+        byte[] data = new byte[rand.nextInt(16 * 1024)];
+        rand.nextBytes(data);
+        files.add(writeFile(new File(baseDir, "file" + xx + ".dat"), data));
+      }
+
+      String otherType = "SHA-256";
+      HashRequest request = newRequest(baseDir, ".", false, 0);
+      HashProcessor.queueRequest(request).get(1, TimeUnit.MINUTES);
+      request = newRequest(baseDir, ".", false, 0);
+      request.setHashType(otherType);
+      HashProcessor.queueRequest(request).get(1, TimeUnit.MINUTES);
+      assertTrue("Kept hash type", HashProcessor.getHashTypes().contains(otherType));
+
+      for (File file : files) {
+        IndexInfo indexInfo = IndexManager.loadIndex(baseDir).getIndexInfo(file.getName());
+        System.out.println(indexInfo);
+        byte[] data = Files.readAllBytes(file.toPath());
+        for (String hashType : new String[] { HashProcessor.getHashType(), otherType }) {
+          assertEquals(hashType, Base64Utils.encodeAsString(Checksums.newDigest(hashType).digest(data)),
+              indexInfo.getHash(hashType));
+        }
+      }
+
+      List<String> lines = Files.readAllLines(new File(baseDir, IndexFile.INDEX_FILE_NAME).toPath(), StandardCharsets.UTF_8);
+      assertEquals("Lines", files.size(), lines.size());
+      for (String line : lines) {
+        assertTrue(line, line.contains(otherType + IndexManager.HASH_TYPE_SEPARATOR));
+      }
+    } finally {
+      for (File file : files) {
+        file.delete();
+      }
+      new File(baseDir, IndexFile.INDEX_FILE_NAME).delete();
+      baseDir.delete();
+    }
+  }
+
+  private HashRequest newRequest(File baseDir, String path, boolean recursive, int priority) {
+    HashRequest ret = new HashRequest();
+
+    ret.setBaseDir(baseDir);
+    ret.setHashType(HashProcessor.getHashType());
+    ret.setPath(path);
+    ret.setPriority(priority);
+    ret.setRecursive(recursive);
+
+    return ret;
+  }
+
+  /**
+   * Overlapping requests hashed by several threads leave every file in the index with its hash.
+   */
+  @Test
+  public void parallelTest() throws Exception {
+    File baseDir = File.createTempFile(getClass().getSimpleName() + "_", "");
+    assertTrue("Temp file", baseDir.delete());
+    File subDir = new File(baseDir, "sub");
+    assertTrue("Temp dir", subDir.mkdirs());
+
+    Random rand = new Random(20150704L);
+    List<File> files = new ArrayList<>();
+    try {
+      for (int xx = 0; xx < 40; xx++) {
+        byte[] data = new byte[rand.nextInt(64 * 1024)];
+        rand.nextBytes(data);
+        files.add(writeFile(new File(xx % 2 == 0 ? baseDir : subDir, "file" + xx + ".dat"), data));
+      }
+
+      HashProcessor.setThreads(4);
+
+      List<Future<HashStatus>> futures = new ArrayList<>();
+      futures.add(HashProcessor.queueRequest(newRequest(baseDir, ".", true, 0)));
+      futures.add(HashProcessor.queueRequest(newRequest(baseDir, "sub", false, 0)));
+      futures.add(HashProcessor.queueRequest(newRequest(baseDir, ".", true, 1)));
+      futures.add(HashProcessor.queueRequest(newRequest(baseDir, "sub", true, 2)));
+      for (Future<HashStatus> future : futures) {
+        HashStatus status = future.get(1, TimeUnit.MINUTES);
+        System.out.println(status);
+        assertTrue("Done", status.isDone());
+        assertTrue("Status", status == HashProcessor.getHashStatus(status.getRequest().getId()));
+      }
+
+      for (File file : files) {
+        IndexInfo indexInfo = IndexManager.loadIndex(file.getParentFile()).getIndexInfo(file.getName());
+        MessageDigest digester = Checksums.newDigest(HashProcessor.getHashType());
+        assertEquals(file.getName(), Base64Utils.encodeAsString(digester.digest(Files.readAllBytes(file.toPath()))),
+            indexInfo.getHash());
+      }
+    } finally {
+      HashProcessor.setThreads(HashProcessor.DEFAULT_THREADS);
+      for (File file : files) {
+        file.delete();
+      }
+      new File(subDir, IndexFile.INDEX_FILE_NAME).delete();
+      subDir.delete();
+      new File(baseDir, IndexFile.INDEX_FILE_NAME).delete();
+      baseDir.delete();
+    }
+  }
+
+  /**
+   * The progress is sampled into the status and sent to the listeners, and a caller waiting on the
+   * status is woken up when it changes.
+   */
+  @Test
+  public void progressTest() throws Exception {
+    File baseDir = File.createTempFile(getClass().getSimpleName() + "_", "");
+    assertTrue("Temp file", baseDir.delete());
+    assertTrue("Temp dir", baseDir.mkdirs());
+
+    final AtomicInteger events = new AtomicInteger();
+    HashListener listener = new HashListener() {
+
+      @Override
+      public void fireEvent(HashEvent event) {
+        if (event.getEvent() == HashEvent.EventType.HashingFile) {
+          events.incrementAndGet();
+        }
+      }
+    };
+
+    Random rand = new Random(20150704L);
+    List<File> files = new ArrayList<>();
+    long bytes = 0L;
+    try {
+      for (int xx = 0; xx < 4; xx++) {
+        byte[] data = new byte[256 * 1024 + rand.nextInt(16 * 1024)];
+        rand.nextBytes(data);
+        files.add(writeFile(new File(baseDir, "file" + xx + ".dat"), data));
+        bytes += data.length;
+      }
+
+      HashProcessor.addListener(listener);
+      HashProcessor.setProgressBytes(64L * 1024L);
+
+      HashRequest request = newRequest(baseDir, ".", false, 0);
+      request.setId("progressTest");
+      request.setReHashExisting(true);
+      HashProcessor.queueRequest(request);
+
+      HashStatus status = HashProcessor.awaitHashStatus(request.getId(), 0L, TimeUnit.MINUTES.toMillis(1L));
+      long version = -1L;
+      while (status != null && !status.isDone() && !status.isFailed()) {
+        assertTrue("Version", status.getVersion() > version);
+        version = status.getVersion();
+        status = HashProcessor.awaitHashStatus(request.getId(), version, TimeUnit.MINUTES.toMillis(1L));
+      }
+      System.out.println(status);
+
+      assertTrue("Done", status.isDone());
+      assertEquals("Files", files.size(), status.getFilesHashed());
+      assertEquals("Bytes", bytes, status.getBytesHashed());
+      assertTrue("Events", events.get() > 0 && events.get() <= bytes / HashProcessor.getProgressBytes() + files.size());
+    } finally {
+      HashProcessor.removeListener(listener);
+      HashProcessor.setProgressBytes(HashProcessor.DEFAULT_PROGRESS_BYTES);
+      for (File file : files) {
+        file.delete();
+      }
+      new File(baseDir, IndexFile.INDEX_FILE_NAME).delete();
+      baseDir.delete();
+    }
+  }
+
   @Test
   public void testHashing() throws Exception {
     DirectoryUtils.setBaseDir(new File(System.getProperty("user.dir"), "."));
@@ -33,4 +229,15 @@ public class HashProcessorTest {
     HashProcessor.awaitTermination(1, TimeUnit.HOURS);
   }
 
+  private File writeFile(File file, byte[] data) throws IOException {
+    OutputStream out = new FileOutputStream(file);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+
+    return file;
+  }
+
 }
\ No newline at end of file
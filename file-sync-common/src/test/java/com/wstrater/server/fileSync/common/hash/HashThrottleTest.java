@@ -0,0 +1,59 @@
+package com.wstrater.server.fileSync.common.hash;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class HashThrottleTest {
+
+  /**
+   * Reads are paced at the budget without a burst up front.
+   */
+  @Test
+  public void acquireTest() throws Exception {
+    HashThrottle throttle = new HashThrottle();
+    throttle.setBudget(1024L * 1024L);
+
+    long start = System.nanoTime();
+    for (int xx = 0; xx < 5; xx++) {
+      throttle.acquire(128 * 1024);
+    }
+    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    assertTrue(String.format("Paced: %d", millis), millis >= 450L);
+  }
+
+  /**
+   * The budget drops while a block is being transferred and not again once it is idle.
+   */
+  @Test
+  public void busyTest() throws Exception {
+    HashThrottle throttle = new HashThrottle();
+    throttle.setBudget(8L * 1024L * 1024L);
+    throttle.setBusyBudget(1024L * 1024L);
+
+    assertFalse("Idle", throttle.isBusy());
+    assertEquals("Idle rate", throttle.getBudget(), throttle.getRate());
+
+    throttle.startTransfer();
+    assertTrue("Busy", throttle.isBusy());
+    assertEquals("Busy rate", throttle.getBusyBudget(), throttle.getRate());
+    throttle.finishTransfer();
+    assertTrue("Recently busy", throttle.isBusy());
+
+    throttle.setBudget(0L);
+    assertEquals("Unlimited but busy", throttle.getBusyBudget(), throttle.getRate());
+    throttle.setBusyBudget(0L);
+    assertEquals("Not backing off", 0L, throttle.getRate());
+
+    long start = System.nanoTime();
+    throttle.acquire(Integer.MAX_VALUE);
+    throttle.acquire(Integer.MAX_VALUE);
+    assertTrue("Unlimited", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100L);
+  }
+
+}
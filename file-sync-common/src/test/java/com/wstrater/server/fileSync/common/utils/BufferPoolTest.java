@@ -0,0 +1,79 @@
+package com.wstrater.server.fileSync.common.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class BufferPoolTest {
+
+  /**
+   * Arrays are reused by size and dropped once the pool is full.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testAcquire() throws Exception {
+    BufferPool pool = new BufferPool(2048L);
+
+    byte[] buffer1 = pool.acquire(1024);
+    byte[] buffer2 = pool.acquire(1024);
+    byte[] buffer3 = pool.acquire(1024);
+    assertEquals("Wrong misses", 3L, pool.getMisses());
+    assertEquals("Wrong size", 1024, buffer1.length);
+
+    pool.release(buffer1);
+    pool.release(buffer2);
+    pool.release(buffer3);
+    assertEquals("Wrong drops", 1L, pool.getDrops());
+    assertEquals("Wrong free", 2048L, pool.getFreeBytes());
+
+    assertSame("Not reused", buffer2, pool.acquire(1024));
+    assertNotSame("Wrong size reused", buffer1, pool.acquire(512));
+    assertEquals("Wrong hits", 1L, pool.getHits());
+    assertEquals("Wrong misses", 4L, pool.getMisses());
+  }
+
+  /**
+   * The sizes used longest ago are dropped to make room.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testDropEldest() throws Exception {
+    BufferPool pool = new BufferPool(2048L);
+
+    byte[] odd = pool.acquire(1000);
+    byte[] block1 = pool.acquire(1024);
+    byte[] block2 = pool.acquire(1024);
+
+    pool.release(odd);
+    pool.release(block1);
+    pool.release(block2);
+    assertEquals("Wrong drops", 1L, pool.getDrops());
+    assertEquals("Wrong free", 2048L, pool.getFreeBytes());
+
+    assertNotSame("Dropped size reused", odd, pool.acquire(1000));
+    pool.acquire(1024);
+    pool.acquire(1024);
+    assertEquals("Wrong hits", 2L, pool.getHits());
+  }
+
+  /**
+   * A pool of zero bytes always allocates.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testEmpty() throws Exception {
+    BufferPool pool = new BufferPool(0L);
+
+    byte[] buffer = pool.acquire(1024);
+    pool.release(buffer);
+    assertNotSame("Reused", buffer, pool.acquire(1024));
+    assertEquals("Wrong drops", 1L, pool.getDrops());
+    assertEquals("Wrong hits", 0L, pool.getHits());
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,119 @@
+package com.wstrater.server.fileSync.common.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import org.junit.Test;
+
+import com.wstrater.server.fileSync.common.utils.ChannelCache.Handle;
+
+public class ChannelCacheTest {
+
+  private File createFile() throws IOException {
+    File ret = File.createTempFile(getClass().getSimpleName() + "_", ".dat");
+
+    ret.deleteOnExit();
+
+    return FileUtils.canonicalFile(ret);
+  }
+
+  /**
+   * The same channel is shared until the file is evicted. A channel in use is only closed once it
+   * is released.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testEvict() throws Exception {
+    ChannelCache cache = new ChannelCache(4, 0L);
+    File file = createFile();
+
+    Handle handle1 = cache.acquire(file, false);
+    Handle handle2 = cache.acquire(file, false);
+    assertSame("Channel not shared", handle1, handle2);
+    assertTrue("File not open", cache.isOpen(file));
+
+    cache.evict(file);
+    assertFalse("Evicted file open", cache.isOpen(file));
+    assertTrue("Channel in use closed", handle1.getChannel().isOpen());
+
+    handle1.release();
+    assertTrue("Channel in use closed", handle2.getChannel().isOpen());
+    handle2.release();
+    assertFalse("Evicted channel not closed", handle2.getChannel().isOpen());
+
+    file.delete();
+  }
+
+  /**
+   * Only the most recently used channels are kept open.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testMaxOpen() throws Exception {
+    ChannelCache cache = new ChannelCache(2, 0L);
+    File file1 = createFile();
+    File file2 = createFile();
+    File file3 = createFile();
+
+    FileChannel channel1 = acquireAndRelease(cache, file1);
+    acquireAndRelease(cache, file2);
+    acquireAndRelease(cache, file1);
+    FileChannel channel3 = acquireAndRelease(cache, file3);
+
+    assertEquals("Wrong number open", 2, cache.size());
+    assertTrue("Recently used closed", cache.isOpen(file1) && channel1.isOpen());
+    assertFalse("Least recently used open", cache.isOpen(file2));
+    assertTrue("Newest closed", cache.isOpen(file3) && channel3.isOpen());
+
+    cache.evictAll(file1.getParentFile());
+    assertEquals("Directory not evicted", 0, cache.size());
+    assertFalse("Evicted channel not closed", channel1.isOpen());
+
+    file1.delete();
+    file2.delete();
+    file3.delete();
+  }
+
+  /**
+   * Writing replaces a channel only opened for reading.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testWrite() throws Exception {
+    ChannelCache cache = new ChannelCache(2, 0L);
+    File file = createFile();
+
+    Handle read = cache.acquire(file, false);
+    Handle write = cache.acquire(file, true);
+    assertNotSame("Read channel used to write", read, write);
+    read.release();
+    assertFalse("Replaced channel not closed", read.getChannel().isOpen());
+
+    Handle again = cache.acquire(file, false);
+    assertSame("Write channel not used to read", write, again);
+    again.release();
+    write.release();
+
+    cache.clear();
+    assertFalse("Cleared channel not closed", write.getChannel().isOpen());
+
+    file.delete();
+  }
+
+  private FileChannel acquireAndRelease(ChannelCache cache, File file) throws IOException {
+    Handle handle = cache.acquire(file, false);
+    handle.release();
+    return handle.getChannel();
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,93 @@
+package com.wstrater.server.fileSync.common.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.wstrater.server.fileSync.common.utils.CompressionUtils.Deflated;
+
+public class CompressionAdvisorTest {
+
+  private final static int BLOCK_SIZE = 16 * 1024;
+
+  private Random           rand       = new Random();
+
+  private byte[] randomBlock() {
+    byte[] ret = new byte[BLOCK_SIZE];
+
+    rand.nextBytes(ret);
+
+    return ret;
+  }
+
+  private byte[] textBlock() {
+    StringBuilder builder = new StringBuilder();
+
+    while (builder.length() < BLOCK_SIZE) {
+      builder.append("The quick brown fox jumps over the lazy dog ").append(rand.nextInt(100)).append('\n');
+    }
+
+    return builder.substring(0, BLOCK_SIZE).getBytes(StandardCharsets.US_ASCII);
+  }
+
+  @Test
+  public void testEntropy() {
+    assertTrue("Random data has low entropy", CompressionAdvisor.entropy(randomBlock(), 0, BLOCK_SIZE) > 7.8D);
+    assertTrue("Text has high entropy", CompressionAdvisor.entropy(textBlock(), 0, BLOCK_SIZE) < 5.0D);
+    assertEquals("Constant data has entropy", 0.0D, CompressionAdvisor.entropy(new byte[BLOCK_SIZE], 0, BLOCK_SIZE), 0.0D);
+  }
+
+  /**
+   * Random files are never deflated and once enough of them have been seen neither are other files
+   * with the same extension.
+   */
+  @Test
+  public void testIncompressible() {
+    CompressionAdvisor advisor = new CompressionAdvisor(16);
+    BufferPool pool = new BufferPool(0L);
+
+    for (int xx = 0; xx < CompressionAdvisor.MIN_FILES; xx++) {
+      String fileName = String.format("photo%d.jpg", xx);
+      assertNull("Random block deflated", advisor.deflate(null, fileName, randomBlock(), 0, BLOCK_SIZE, pool));
+      assertFalse("Random file compressible", advisor.isCompressible(fileName));
+    }
+    assertEquals("Nothing deflated", 0L, advisor.getCompressed());
+
+    assertNull("Extension not learned", advisor.deflate(null, "another.JPG", textBlock(), 0, BLOCK_SIZE, pool));
+    assertNotNull("Other extension skipped", advisor.deflate(null, "notes.txt", textBlock(), 0, BLOCK_SIZE, pool));
+    assertEquals("Wrong number skipped", CompressionAdvisor.MIN_FILES + 1, advisor.getSkipped());
+  }
+
+  /**
+   * A file that compresses at first stops being deflated once its blocks stop getting smaller.
+   */
+  @Test
+  public void testStopsCompressing() {
+    CompressionAdvisor advisor = new CompressionAdvisor(16);
+    BufferPool pool = new BufferPool(0L);
+    String fileName = "archive.bin";
+
+    Deflated deflated = advisor.deflate(null, fileName, textBlock(), 0, BLOCK_SIZE, pool);
+    assertNotNull("Text not deflated", deflated);
+    assertTrue("Text did not shrink", deflated.getLength() < BLOCK_SIZE);
+    assertTrue("Text not compressible", advisor.isCompressible(fileName));
+
+    for (int xx = 0; xx < CompressionAdvisor.MAX_MISSES; xx++) {
+      // Looks compressible but deflate can not shrink it.
+      advisor.record(fileName, BLOCK_SIZE, BLOCK_SIZE + 10);
+    }
+    assertFalse("Still compressible", advisor.isCompressible(fileName));
+    assertNull("Deflated after misses", advisor.deflate(null, fileName, textBlock(), 0, BLOCK_SIZE, pool));
+
+    assertNull("Short block deflated", advisor.deflate(null, "short.txt", textBlock(), 0,
+        Constants.MINIMUM_FOR_COMPRESSION - 1, pool));
+  }
+
+}
\ No newline at end of file
@@ -0,0 +1,72 @@
+package com.wstrater.server.fileSync.common.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CompressionTunerTest {
+
+  private final static int      BLOCK_SIZE    = 64 * 1024;
+
+  /**
+   * The nanos to deflate a byte at each of the {@link CompressionTuner#LEVELS}.
+   */
+  private final static double[] DEFLATE_COST  = { 0.0D, 10.0D, 15.0D, 30.0D, 90.0D };
+
+  /**
+   * The bytes sent for each byte of the block at each of the {@link CompressionTuner#LEVELS}.
+   */
+  private final static double[] DEFLATE_RATIO = { 1.0D, 0.50D, 0.45D, 0.40D, 0.38D };
+
+  private int index(int level) {
+    int ret = -1;
+
+    for (int xx = 0; xx < CompressionTuner.LEVELS.length; xx++) {
+      if (CompressionTuner.LEVELS[xx] == level) {
+        ret = xx;
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Send blocks over a simulated link.
+   * 
+   * @param tuner
+   * @param blocks
+   * @param nanosPerByte The nanos to send a byte over the link.
+   */
+  private void simulate(CompressionTuner tuner, int blocks, double nanosPerByte) {
+    for (int xx = 0; xx < blocks; xx++) {
+      int level = tuner.nextLevel();
+      int index = index(level);
+      long sent = (long) (BLOCK_SIZE * DEFLATE_RATIO[index]);
+      long codecNanos = (long) (BLOCK_SIZE * DEFLATE_COST[index]);
+      tuner.record(level, BLOCK_SIZE, sent, codecNanos, codecNanos + (long) (sent * nanosPerByte));
+    }
+  }
+
+  /**
+   * A fast link is not worth compressing for but a slow one is and the tuner follows the link as it
+   * changes.
+   */
+  @Test
+  public void testLinkChanges() {
+    CompressionTuner tuner = new CompressionTuner(8);
+
+    // About 1 GB/s so deflating is the bottleneck.
+    simulate(tuner, 100, 1.0D);
+    assertEquals("Compressing on a fast link", 0, tuner.getLevel());
+
+    // About 100 KB/s so every byte saved counts.
+    simulate(tuner, 400, 10000.0D);
+    assertEquals("Not compressing on a slow link", 9, tuner.getLevel());
+    assertEquals("Wrong ratio", DEFLATE_RATIO[4], tuner.getRatio(9), 0.001D);
+
+    // About 20 MB/s so a fast level is best.
+    simulate(tuner, 400, 50.0D);
+    assertEquals("Wrong level for a medium link", 1, tuner.getLevel());
+  }
+
+}
\ No newline at end of file
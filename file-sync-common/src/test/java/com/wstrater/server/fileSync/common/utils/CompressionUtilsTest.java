@@ -9,6 +9,7 @@ import java.util.Random;
 
 import org.junit.Test;
 
+import com.wstrater.server.fileSync.common.exceptions.ErrorInflatingBlockException;
 import com.wstrater.server.fileSync.common.utils.CompressionUtils.Deflated;
 import com.wstrater.server.fileSync.common.utils.CompressionUtils.Inflated;
 
@@ -87,6 +88,33 @@ public class CompressionUtilsTest {
     }
   }
 
+  @Test
+  public void pooledTest() throws Exception {
+    BufferPool pool = new BufferPool(DATA_LENGTH * 4);
+    byte[] data = generateAlphaNumericData(DATA_LENGTH);
+
+    for (int xx = 0; xx < NUM_TESTS; xx++) {
+      Deflated deflated = CompressionUtils.deflate(data, 0, data.length, CompressionUtils.DEFAULT_LEVEL, pool);
+      assertTrue("Invalid deflated length", deflated.getLength() > 0 && deflated.getLength() < deflated.getData().length);
+
+      Inflated inflated = CompressionUtils.inflate(deflated.getData(), 0, deflated.getLength(), data.length, pool);
+      assertEquals("Invalid inflated length", data.length, inflated.getData().length);
+      assertTrue("Inflated not equals to data", Compare.equals(data, inflated.getData()));
+
+      pool.release(deflated.getData());
+      pool.release(inflated.getData());
+    }
+
+    assertEquals("Buffers not reused", 2L, pool.getMisses());
+
+    Deflated deflated = CompressionUtils.deflate(data, 0, data.length, CompressionUtils.DEFAULT_LEVEL, pool);
+    try {
+      CompressionUtils.inflate(deflated.getData(), 0, deflated.getLength(), data.length - 1, pool);
+      fail("Inflated larger than expected");
+    } catch (ErrorInflatingBlockException ee) {
+    }
+  }
+
   @Test
   public void validationTest() throws Exception {
     try {
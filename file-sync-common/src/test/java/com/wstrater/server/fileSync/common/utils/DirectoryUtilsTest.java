@@ -1,21 +1,113 @@
 package com.wstrater.server.fileSync.common.utils;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.wstrater.server.fileSync.common.data.DirectoryDigest;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryInfo;
+import com.wstrater.server.fileSync.common.data.IndexFile;
 
 public class DirectoryUtilsTest {
 
   protected final Logger logger = LoggerFactory.getLogger(getClass());
 
+  private void deleteAll(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        deleteAll(child);
+      }
+    }
+    file.delete();
+  }
+
+  private File writeFile(File dir, String name, String data, long lastModified) throws IOException {
+    File ret = new File(dir, name);
+
+    dir.mkdirs();
+    FileOutputStream out = new FileOutputStream(ret);
+    try {
+      out.write(data.getBytes());
+    } finally {
+      out.close();
+    }
+    ret.setLastModified(lastModified);
+
+    return ret;
+  }
+
+  /**
+   * Two trees holding the same files have the same digests. A change deep in one tree only changes
+   * the digests of the directories above it.
+   */
+  @Test
+  public void testDigestDirectory() throws Exception {
+    File baseDir = File.createTempFile(getClass().getSimpleName() + "_", "");
+    assertTrue("Temp file", baseDir.delete());
+    File localDir = new File(baseDir, "local");
+    File remoteDir = new File(baseDir, "remote");
+
+    long lastModified = 1435968000000L;
+    try {
+      for (File dir : new File[] { localDir, remoteDir }) {
+        writeFile(dir, "top.txt", "top", lastModified);
+        writeFile(new File(dir, "one"), "one.txt", "one", lastModified);
+        writeFile(new File(dir, "one/deep"), "deep.txt", "deep", lastModified);
+        writeFile(new File(dir, "two"), "two.txt", "two", lastModified);
+      }
+      // The index is not part of the digest.
+      writeFile(localDir, IndexFile.INDEX_FILE_NAME, "index", lastModified);
+
+      DirectoryDigest local = DirectoryUtils.digestDirectory(localDir, 1, false, false);
+      DirectoryDigest remote = DirectoryUtils.digestDirectory(remoteDir, 1, false, false);
+      logger.debug(String.format("local: %s", local));
+      assertEquals("Same", local.getDigest(), remote.getDigest());
+      assertEquals("Directories", 2, local.getDirectories().size());
+      assertNotNull("Level one", local.getDirectory("one"));
+      assertNull("Level two", local.getDirectory("one").getDirectories());
+
+      writeFile(new File(remoteDir, "one/deep"), "deep.txt", "DEEP!", lastModified);
+
+      local = DirectoryUtils.digestDirectory(localDir, 2, false, false);
+      remote = DirectoryUtils.digestDirectory(remoteDir, 2, false, false);
+      assertNotEquals("Root", local.getDigest(), remote.getDigest());
+      assertNotEquals("One", local.getDirectory("one").getDigest(), remote.getDirectory("one").getDigest());
+      assertNotEquals("Deep", local.getDirectory("one").getDirectory("deep").getDigest(), remote.getDirectory("one")
+          .getDirectory("deep").getDigest());
+      assertEquals("Two", local.getDirectory("two").getDigest(), remote.getDirectory("two").getDigest());
+      assertNotNull("Empty", local.getDirectory("two").getDirectories());
+      assertTrue("Empty", local.getDirectory("two").getDirectories().isEmpty());
+
+      new File(localDir, "two/two.txt").setLastModified(lastModified + 2000L);
+      local = DirectoryUtils.digestDirectory(localDir, 2, false, false);
+      assertNotEquals("Two", local.getDirectory("two").getDigest(), remote.getDirectory("two").getDigest());
+
+      // Every level the walk digested comes back so the tree is only walked once.
+      local = DirectoryUtils.digestDirectory(localDir, DirectoryDigestRequest.ALL_LEVELS, false, false);
+      DirectoryDigest deep = local.getDirectory("one").getDirectory("deep");
+      assertNotNull("All levels", deep);
+      assertNotNull("Leaf", deep.getDirectories());
+      assertTrue("Leaf", deep.getDirectories().isEmpty());
+      assertEquals("Same deep", DirectoryUtils.digestDirectory(new File(localDir, "one/deep"), 0, false, false).getDigest(),
+          deep.getDigest());
+    } finally {
+      deleteAll(baseDir);
+    }
+  }
+
   @Test
   public void testSubDirectory() throws Exception {
     File baseDir = new File(System.getProperty("user.dir"));
@@ -3,16 +3,25 @@ package com.wstrater.server.fileSync.common.utils;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 import java.util.zip.CRC32;
 
@@ -20,10 +29,22 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.wstrater.server.fileSync.common.data.DeltaRequest;
+import com.wstrater.server.fileSync.common.data.DeltaResponse;
+import com.wstrater.server.fileSync.common.data.HashTree;
 import com.wstrater.server.fileSync.common.data.ReadRequest;
 import com.wstrater.server.fileSync.common.data.ReadResponse;
+import com.wstrater.server.fileSync.common.data.SignatureRequest;
+import com.wstrater.server.fileSync.common.data.SignatureResponse;
+import com.wstrater.server.fileSync.common.data.StreamRequest;
+import com.wstrater.server.fileSync.common.data.StreamResponse;
+import com.wstrater.server.fileSync.common.data.TreeRequest;
+import com.wstrater.server.fileSync.common.data.TreeResponse;
 import com.wstrater.server.fileSync.common.data.WriteRequest;
 import com.wstrater.server.fileSync.common.data.WriteResponse;
+import com.wstrater.server.fileSync.common.exceptions.InvalidFileHashException;
+import com.wstrater.server.fileSync.common.file.StreamListener;
+import com.wstrater.server.fileSync.common.hash.HashProcessor;
 import com.wstrater.server.fileSync.common.utils.Compare;
 import com.wstrater.server.fileSync.common.utils.FileUtils;
 
@@ -158,6 +179,35 @@ public class FileUtilsTest {
     }
   }
 
+  /**
+   * Write every block in order ending with an EOF request carrying the hash.
+   * 
+   * @param file
+   * @param hash Optional
+   * @return The response to the EOF request.
+   */
+  private WriteResponse writeInOrder(File file, String hash) {
+    WriteRequest request = new WriteRequest();
+    request.setBaseDir(file.getParentFile());
+    request.setFileName(file.getName());
+
+    for (int offset = 0; offset < data.length; offset += BUFFER_SIZE) {
+      request.setData(Arrays.copyOfRange(data, offset, offset + BUFFER_SIZE));
+      request.setOffset(offset);
+      request.setLength(BUFFER_SIZE);
+      FileUtils.writeBlock(request);
+    }
+
+    request.setData(new byte[0]);
+    request.setOffset(data.length);
+    request.setLength(0);
+    request.setEof(true);
+    request.setHash(hash);
+    request.setHashType(HashProcessor.getHashType());
+
+    return FileUtils.writeBlock(request);
+  }
+
   private void writeFile(File file, boolean append) throws IOException {
     OutputStream out = new FileOutputStream(file, append);
     try {
@@ -168,6 +218,72 @@ public class FileUtilsTest {
 
   }
 
+  /**
+   * Copy a file in batches limited to two blocks.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testBatch() throws Exception {
+    initializBuffer();
+    File file1 = createFile();
+    writeFile(file1, false);
+
+    File file2 = createFile();
+
+    FileUtils.setMaxBlockSize(BUFFER_SIZE * 2);
+    FileUtils.setMaxBatchSize(0);
+    try {
+      List<ReadRequest> readRequests = new ArrayList<>();
+      for (int xx = 0; xx < BUFFER_COUNT; xx++) {
+        ReadRequest request = new ReadRequest();
+        request.setBaseDir(file1.getParentFile());
+        request.setFileName(file1.getName());
+        request.setOffset(xx * BUFFER_SIZE);
+        request.setBlockSize(BUFFER_SIZE);
+        readRequests.add(request);
+      }
+
+      List<WriteRequest> writeRequests = new ArrayList<>();
+      while (writeRequests.size() < BUFFER_COUNT) {
+        List<ReadResponse> responses = FileUtils.readBlocks(readRequests.subList(writeRequests.size(), BUFFER_COUNT));
+        assertEquals("Read wrong batch size", 2, responses.size());
+        for (ReadResponse response : responses) {
+          assertTrue("Read not successful", response.isSuccess());
+          int buffer = (int) (response.getRequest().getOffset() / BUFFER_SIZE);
+          assertEquals("Invalid CRC32", crc32s[buffer], response.getCrc32());
+
+          WriteRequest request = new WriteRequest();
+          request.setBaseDir(file2.getParentFile());
+          request.setFileName(file2.getName());
+          request.setData(response.getData());
+          request.setOffset(response.getRequest().getOffset());
+          request.setLength(response.getLength());
+          writeRequests.add(request);
+        }
+      }
+
+      int written = 0;
+      while (written < BUFFER_COUNT) {
+        List<WriteResponse> responses = FileUtils.writeBlocks(writeRequests.subList(written, BUFFER_COUNT));
+        assertEquals("Wrote wrong batch size", 2, responses.size());
+        for (WriteResponse response : responses) {
+          assertTrue("Write not successful", response.isSuccess());
+          assertEquals("Invalid CRC32", crc32s[written], response.getCrc32());
+          written++;
+        }
+      }
+    } finally {
+      FileUtils.setMaxBlockSize(FileUtils.MAX_BLOCK_SIZE);
+      FileUtils.setMaxBatchSize(FileUtils.MAX_BATCH_SIZE);
+    }
+
+    verifyFile(file2);
+
+    file1.delete();
+    file2.delete();
+  }
+
   @Test
   public void testCompareFiles() throws IOException {
     initializBuffer();
@@ -197,6 +313,237 @@ public class FileUtilsTest {
    * 
    * @throws Exception
    */
+  /**
+   * Rebuild a file from a delta of a copy with bytes inserted at the start so every block has
+   * moved.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testDelta() throws Exception {
+    initializBuffer();
+    File file1 = createFile();
+    writeFile(file1, false);
+
+    byte[] inserted = new byte[100];
+    rand.nextBytes(inserted);
+    File file2 = createFile();
+    try (OutputStream out = new FileOutputStream(file2)) {
+      out.write(inserted);
+      out.write(data);
+    }
+
+    SignatureRequest signatureRequest = new SignatureRequest();
+    signatureRequest.setBaseDir(file1.getParentFile());
+    signatureRequest.setFileName(file1.getName());
+    signatureRequest.setBlockSize(BUFFER_SIZE);
+    SignatureResponse signatureResponse = FileUtils.readSignature(signatureRequest);
+
+    DeltaRequest readRequest = new DeltaRequest();
+    readRequest.setBaseDir(file2.getParentFile());
+    readRequest.setFileName(file2.getName());
+    readRequest.setBlockSize(BUFFER_SIZE);
+    readRequest.setSignature(signatureResponse.getSignature());
+
+    DeltaRequest writeRequest = new DeltaRequest();
+    writeRequest.setBaseDir(file1.getParentFile());
+    writeRequest.setFileName(file1.getName());
+    writeRequest.setBlockSize(BUFFER_SIZE);
+
+    InputStream in = FileUtils.readDelta(readRequest);
+    try {
+      DeltaResponse response = FileUtils.writeDelta(writeRequest, in);
+      assertTrue("Delta not successful", response.isSuccess());
+      assertEquals("Delta wrong length", inserted.length + data.length, response.getLength());
+      assertEquals("Delta wrong literal", inserted.length, response.getLiteral());
+      assertEquals("Delta wrong matched", data.length, response.getMatched());
+    } finally {
+      in.close();
+    }
+
+    assertTrue("Files do not match", FileUtils.compareFiles(file1, file2));
+
+    file1.delete();
+    file2.delete();
+  }
+
+  /**
+   * Blocks read or written in order are hashed on the way through. Blocks out of order are not and
+   * a write that does not match the hash sent with the EOF request fails.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testHashOnWrite() throws Exception {
+    initializBuffer();
+    String hash = Base64Utils.encodeAsString(MessageDigest.getInstance(HashProcessor.getHashType()).digest(data));
+
+    File file = createFile();
+    WriteResponse writeResponse = writeInOrder(file, hash);
+    assertEquals("Wrong hash after write", hash, writeResponse.getHash());
+    assertEquals("Wrong hash type after write", HashProcessor.getHashType(), writeResponse.getHashType());
+
+    ReadRequest readRequest = new ReadRequest();
+    readRequest.setBaseDir(file.getParentFile());
+    readRequest.setFileName(file.getName());
+    readRequest.setBlockSize(BUFFER_SIZE);
+    ReadResponse readResponse = null;
+    for (int offset = 0; offset < data.length; offset += BUFFER_SIZE) {
+      readRequest.setOffset(offset);
+      readResponse = FileUtils.readBlock(readRequest);
+      FileUtils.releaseBlock(readResponse);
+      if (offset + BUFFER_SIZE < data.length) {
+        assertNull("Hash before last block", readResponse.getHash());
+      }
+    }
+    assertEquals("Wrong hash after read", hash, readResponse.getHash());
+
+    File mismatch = createFile();
+    try {
+      writeInOrder(mismatch, Base64Utils.encodeAsString(new byte[20]));
+      fail("Write with wrong hash did not fail");
+    } catch (InvalidFileHashException ee) {
+      logger.info(String.format("Expected: %s", ee.getMessage()));
+    }
+
+    File outOfOrder = createFile();
+    WriteRequest writeRequest = new WriteRequest();
+    writeRequest.setBaseDir(outOfOrder.getParentFile());
+    writeRequest.setFileName(outOfOrder.getName());
+    for (int offset = data.length - BUFFER_SIZE; offset >= 0; offset -= BUFFER_SIZE) {
+      writeRequest.setData(Arrays.copyOfRange(data, offset, offset + BUFFER_SIZE));
+      writeRequest.setOffset(offset);
+      writeRequest.setLength(BUFFER_SIZE);
+      FileUtils.writeBlock(writeRequest);
+    }
+    writeRequest.setData(new byte[0]);
+    writeRequest.setOffset(data.length);
+    writeRequest.setLength(0);
+    writeRequest.setEof(true);
+    writeRequest.setHash(hash);
+    writeResponse = FileUtils.writeBlock(writeRequest);
+    assertNull("Hash after writing out of order", writeResponse.getHash());
+    assertTrue("Files do not match", FileUtils.compareFiles(file, outOfOrder));
+
+    file.delete();
+    mismatch.delete();
+    outOfOrder.delete();
+  }
+
+  /**
+   * Read every block into the same buffer, including the short last block.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testReadIntoBuffer() throws Exception {
+    initializBuffer();
+    File file = createFile();
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(data, 0, data.length - 100);
+    }
+
+    byte[] buffer = new byte[BUFFER_SIZE];
+    CRC32 crc = new CRC32();
+    for (int xx = 0; xx < BUFFER_COUNT; xx++) {
+      ReadRequest request = new ReadRequest();
+      request.setBaseDir(file.getParentFile());
+      request.setFileName(file.getName());
+      request.setOffset((long) xx * BUFFER_SIZE);
+      request.setBlockSize(BUFFER_SIZE);
+
+      ReadResponse response = FileUtils.readBlock(request, buffer);
+      int length = xx < BUFFER_COUNT - 1 ? BUFFER_SIZE : BUFFER_SIZE - 100;
+      assertTrue("Read not successful", response.isSuccess());
+      assertTrue("Not read into buffer", response.getData() == buffer);
+      assertEquals("Read wrong length", length, response.getLength());
+      assertTrue("Invalid data", Compare.equals(data, xx * BUFFER_SIZE, buffer, 0, length));
+      crc.reset();
+      crc.update(data, xx * BUFFER_SIZE, length);
+      assertEquals("Invalid CRC32", crc.getValue(), response.getCrc32());
+    }
+
+    file.delete();
+  }
+
+  @Test
+  public void testReadMapped() throws Exception {
+    initializBuffer();
+    File file = createFile();
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(data, 0, data.length - 100);
+    }
+
+    // Windows smaller than the blocks so blocks span windows.
+    FileUtils.setMappedWindows(2, BUFFER_SIZE * 3);
+    FileUtils.setMapSize(BUFFER_SIZE);
+    try {
+      int blockSize = BUFFER_SIZE * 2;
+      CRC32 crc = new CRC32();
+      for (int xx = 0; xx < BUFFER_COUNT / 2; xx++) {
+        ReadRequest request = new ReadRequest();
+        request.setBaseDir(file.getParentFile());
+        request.setFileName(file.getName());
+        request.setOffset((long) xx * blockSize);
+        request.setBlockSize(blockSize);
+
+        ReadResponse response = FileUtils.readBlock(request);
+        int length = xx < BUFFER_COUNT / 2 - 1 ? blockSize : blockSize - 100;
+        assertTrue("Read not successful", response.isSuccess());
+        assertEquals("Read wrong length", length, response.getLength());
+        assertEquals("Wrong EOF", length < blockSize, response.isEof());
+        assertTrue("Invalid data", Compare.equals(data, xx * blockSize, response.getData(), 0, length));
+        crc.reset();
+        crc.update(data, xx * blockSize, length);
+        assertEquals("Invalid CRC32", crc.getValue(), response.getCrc32());
+        FileUtils.releaseBlock(response);
+      }
+      assertEquals("Windows not limited", 2, FileUtils.getMappedWindows().size());
+
+      FileUtils.evictChannels(file.getParentFile());
+      assertEquals("Windows not evicted", 0, FileUtils.getMappedWindows().size());
+    } finally {
+      FileUtils.setMapSize(0L);
+      FileUtils.setMappedWindows(MappedWindows.DEFAULT_MAX_WINDOWS, MappedWindows.DEFAULT_WINDOW_SIZE);
+      file.delete();
+    }
+  }
+
+  @Test
+  public void testReadPooled() throws Exception {
+    initializBuffer();
+    File file = createFile();
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(data, 0, data.length - 100);
+    }
+
+    FileUtils.setBufferPoolSize(BufferPool.DEFAULT_MAX_BYTES);
+    byte[] last = null;
+    for (int xx = 0; xx < BUFFER_COUNT; xx++) {
+      ReadRequest request = new ReadRequest();
+      request.setBaseDir(file.getParentFile());
+      request.setFileName(file.getName());
+      request.setOffset((long) xx * BUFFER_SIZE);
+      request.setBlockSize(BUFFER_SIZE);
+
+      ReadResponse response = FileUtils.readBlock(request);
+      int length = xx < BUFFER_COUNT - 1 ? BUFFER_SIZE : BUFFER_SIZE - 100;
+      assertEquals("Read wrong length", length, response.getData().length);
+      assertTrue("Invalid data", Compare.equals(data, xx * BUFFER_SIZE, response.getData(), 0, length));
+      assertEquals("Short block pooled", length == BUFFER_SIZE, response.isPooled());
+      if (last != null && response.isPooled()) {
+        assertTrue("Buffer not reused", response.getData() == last);
+      }
+      last = response.isPooled() ? response.getData() : null;
+
+      FileUtils.releaseBlock(response);
+      assertTrue("Released data kept", last == null || response.getData() == null);
+    }
+    assertEquals("Buffers not reused", 1L, FileUtils.getBufferPool().getMisses());
+
+    file.delete();
+  }
+
   @Test
   public void testReadWrite() throws Exception {
     initializBuffer();
@@ -212,6 +559,201 @@ public class FileUtilsTest {
     file.delete();
   }
 
+  /**
+   * Sign a file and compare the blocks and file hash with the data written.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testSignature() throws Exception {
+    initializBuffer();
+    File file = createFile();
+    writeFile(file, false);
+
+    SignatureRequest request = new SignatureRequest();
+    request.setBaseDir(file.getParentFile());
+    request.setFileName(file.getName());
+    request.setBlockSize(BUFFER_SIZE);
+
+    SignatureResponse response = FileUtils.readSignature(request);
+    assertTrue("Signature not successful", response.isSuccess());
+    assertEquals("Signed wrong length", data.length, response.getSignature().getLength());
+    assertEquals("Signed wrong number of blocks", BUFFER_COUNT, response.getSignature().getBlocks().size());
+    for (int xx = 0; xx < BUFFER_COUNT; xx++) {
+      assertEquals("Invalid offset", (long) xx * BUFFER_SIZE, response.getSignature().getBlocks().get(xx).getOffset());
+      assertEquals("Invalid CRC32", crc32s[xx], response.getSignature().getBlocks().get(xx).getCrc32());
+    }
+
+    MessageDigest digester = MessageDigest.getInstance(response.getSignature().getHashType());
+    String hash = Base64Utils.encodeAsString(digester.digest(data));
+    assertEquals("Invalid file hash", hash, response.getSignature().getHash());
+
+    request.setHashOnly(true);
+    response = FileUtils.readSignature(request);
+    assertTrue("Signature not successful", response.isSuccess());
+    assertTrue("Hash only has blocks", response.getSignature().getBlocks().isEmpty());
+    assertEquals("Invalid file hash", hash, response.getSignature().getHash());
+
+    file.delete();
+  }
+
+  /**
+   * Stream one file into another with a checkpoint every three blocks.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testStream() throws Exception {
+    initializBuffer();
+    File file1 = createFile();
+    writeFile(file1, false);
+
+    File file2 = createFile();
+
+    StreamRequest readRequest = new StreamRequest();
+    readRequest.setBaseDir(file1.getParentFile());
+    readRequest.setFileName(file1.getName());
+    readRequest.setBlockSize(BUFFER_SIZE);
+    readRequest.setChunkSize(3);
+
+    StreamRequest writeRequest = new StreamRequest();
+    writeRequest.setBaseDir(file2.getParentFile());
+    writeRequest.setFileName(file2.getName());
+    writeRequest.setBlockSize(BUFFER_SIZE);
+    writeRequest.setEof(true);
+
+    final List<Long> checkpoints = new ArrayList<>();
+    StreamResponse response;
+    InputStream in = FileUtils.readStream(readRequest);
+    try {
+      response = FileUtils.writeStream(writeRequest, in, new StreamListener() {
+
+        @Override
+        public void checkpoint(long offset) {
+          checkpoints.add(offset);
+        }
+      });
+    } finally {
+      in.close();
+    }
+
+    assertTrue("Stream not successful", response.isSuccess());
+    assertEquals("Streamed wrong length", data.length, response.getLength());
+    assertEquals("Wrong checkpoints",
+        Arrays.asList(3L * BUFFER_SIZE, 6L * BUFFER_SIZE, (long) BUFFER_SIZE * BUFFER_COUNT), checkpoints);
+
+    verifyFile(file2);
+
+    file1.delete();
+    file2.delete();
+  }
+
+  /**
+   * Stream a text file deflated as one stream. The stream is smaller than the file and still
+   * matches every checkpoint.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testStreamDeflated() throws Exception {
+    StringBuilder builder = new StringBuilder();
+    while (builder.length() < data.length) {
+      builder.append(String.format("Line %d of a file that repeats itself %d\n", rand.nextInt(100), rand.nextInt(10)));
+    }
+    data = builder.substring(0, data.length).getBytes(StandardCharsets.US_ASCII);
+
+    File file1 = createFile();
+    writeFile(file1, false);
+
+    File file2 = createFile();
+
+    StreamRequest readRequest = new StreamRequest();
+    readRequest.setBaseDir(file1.getParentFile());
+    readRequest.setFileName(file1.getName());
+    readRequest.setBlockSize(BUFFER_SIZE);
+    readRequest.setChunkSize(3);
+    readRequest.setLevel(CompressionUtils.DEFAULT_LEVEL);
+
+    ByteArrayOutputStream stream = new ByteArrayOutputStream();
+    InputStream in = FileUtils.readStream(readRequest);
+    try {
+      byte[] buf = new byte[1000];
+      int len;
+      while ((len = in.read(buf)) >= 0) {
+        stream.write(buf, 0, len);
+      }
+    } finally {
+      in.close();
+    }
+    assertTrue("Stream not deflated", stream.size() < data.length / 2);
+
+    StreamRequest writeRequest = new StreamRequest();
+    writeRequest.setBaseDir(file2.getParentFile());
+    writeRequest.setFileName(file2.getName());
+    writeRequest.setBlockSize(BUFFER_SIZE);
+    writeRequest.setEof(true);
+
+    StreamResponse response = FileUtils.writeStream(writeRequest, new ByteArrayInputStream(stream.toByteArray()), null);
+    assertTrue("Stream not successful", response.isSuccess());
+    assertEquals("Streamed wrong length", data.length, response.getLength());
+
+    verifyFile(file2);
+
+    file1.delete();
+    file2.delete();
+  }
+
+  /**
+   * Read the trees of a file and a copy with two blocks changed and find the changed chunks.
+   * 
+   * @throws Exception
+   */
+  @Test
+  public void testTree() throws Exception {
+    initializBuffer();
+    File file1 = createFile();
+    writeFile(file1, false);
+
+    data[3 * BUFFER_SIZE + 10]++;
+    data[6 * BUFFER_SIZE]++;
+    File file2 = createFile();
+    writeFile(file2, false);
+
+    TreeRequest request = new TreeRequest();
+    request.setBaseDir(file1.getParentFile());
+    request.setFileName(file1.getName());
+    request.setBlockSize(BUFFER_SIZE);
+    request.setChunkSize(1);
+
+    TreeResponse response = FileUtils.readTree(request);
+    assertTrue("Tree not successful", response.isSuccess());
+    HashTree tree1 = response.getTree();
+    assertEquals("Wrong number of chunks", BUFFER_COUNT + 1, tree1.getNumChunks());
+    assertTrue("Tree not complete", tree1.isComplete());
+
+    MessageDigest digester = MessageDigest.getInstance(tree1.getHashType());
+    assertTrue("Invalid last leaf", Arrays.equals(digester.digest(), tree1.getLeaf(BUFFER_COUNT)));
+    digester.update(data, 0, BUFFER_SIZE);
+    assertTrue("Invalid first leaf", Arrays.equals(digester.digest(), tree1.getLeaf(0)));
+
+    request.setFileName(file2.getName());
+    HashTree tree2 = FileUtils.readTree(request).getTree();
+    assertEquals("Wrong chunks changed", Arrays.asList(3, 6), HashTreeUtils.diff(tree1, tree2));
+    assertTrue("Trees match", !Arrays.equals(HashTreeUtils.root(tree1), HashTreeUtils.root(tree2)));
+
+    request.setFirst(2);
+    request.setCount(3);
+    HashTree subtree = FileUtils.readTree(request).getTree();
+    assertEquals("Wrong first leaf", 2, subtree.getFirst());
+    assertEquals("Wrong number of leaves", 3, subtree.getCount());
+    assertTrue("Invalid subtree leaf", Arrays.equals(tree2.getLeaf(4), subtree.getLeaf(4)));
+    assertEquals("Wrong chunks outside subtree", Arrays.asList(0, 1, 3, 5, 6, 7, 8), HashTreeUtils.diff(tree1, subtree));
+    assertTrue("Subtree differs", HashTreeUtils.diff(tree2.subtree(2, 3), subtree).isEmpty());
+
+    file1.delete();
+    file2.delete();
+  }
+
   /**
    * Test with an empty file.
    * 
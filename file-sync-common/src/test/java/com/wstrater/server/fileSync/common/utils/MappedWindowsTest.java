@@ -0,0 +1,83 @@
+package com.wstrater.server.fileSync.common.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MappedWindowsTest {
+
+  private final static int WINDOW_SIZE = 16 * 1024;
+
+  private Random           rand        = new Random();
+
+  private File createFile() throws IOException {
+    File ret = File.createTempFile(getClass().getSimpleName() + "_", ".dat");
+
+    ret.deleteOnExit();
+
+    return FileUtils.canonicalFile(ret);
+  }
+
+  private byte[] read(MappedWindows windows, File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer slice = windows.slice(file, channel, 0L, WINDOW_SIZE);
+      byte[] ret = new byte[slice.remaining()];
+      slice.get(ret);
+
+      return ret;
+    }
+  }
+
+  /**
+   * A file replaced by a rename with a file of the same size and last modified is mapped again
+   * instead of being served from the mapping of the file it replaced.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testReplaced() throws Exception {
+    MappedWindows windows = new MappedWindows(4, WINDOW_SIZE);
+    File file = createFile();
+    File replacement = createFile();
+    try {
+      byte[] original = write(file, WINDOW_SIZE);
+      assertTrue("Original not read", Compare.equals(original, read(windows, file)));
+      assertTrue("Window not reused", Compare.equals(original, read(windows, file)));
+      assertEquals(1, windows.size());
+
+      byte[] replaced = write(replacement, WINDOW_SIZE);
+      replacement.setLastModified(file.lastModified());
+      Files.move(replacement.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      assertEquals("Same size", original.length, file.length());
+
+      assertTrue("Stale window served", Compare.equals(replaced, read(windows, file)));
+      assertEquals(1, windows.size());
+    } finally {
+      file.delete();
+      replacement.delete();
+    }
+  }
+
+  private byte[] write(File file, int length) throws IOException {
+    byte[] ret = new byte[length];
+    rand.nextBytes(ret);
+    try (OutputStream out = new FileOutputStream(file)) {
+      out.write(ret);
+    }
+
+    return ret;
+  }
+
+}
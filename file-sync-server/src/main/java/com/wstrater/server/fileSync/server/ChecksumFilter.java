@@ -0,0 +1,71 @@
+package com.wstrater.server.fileSync.server;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.wstrater.server.fileSync.common.exceptions.InvalidChecksumTypeException;
+import com.wstrater.server.fileSync.common.hash.Checksums;
+import com.wstrater.server.fileSync.common.utils.Constants;
+import com.wstrater.server.fileSync.common.utils.FileUtils;
+
+/**
+ * Negotiates the block checksum type for each request. The client sends the type it wants and the
+ * server uses it for the request if it is registered. The server's own type is used when the client
+ * does not send one. The type used is sent back so the client can tell that the server understood.
+ * 
+ * @author wstrater
+ *
+ */
+public class ChecksumFilter implements Filter {
+
+  protected final static Logger logger = LoggerFactory.getLogger(ChecksumFilter.class);
+
+  @Override
+  public void destroy() {
+  }
+
+  @Override
+  public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException,
+      ServletException {
+    HttpServletRequest httpRequest = (HttpServletRequest) request;
+    HttpServletResponse httpResponse = (HttpServletResponse) response;
+
+    String checksumType = httpRequest.getHeader(Constants.CHECKSUM_TYPE_HEADER);
+    if (checksumType == null || checksumType.trim().isEmpty()) {
+      checksumType = FileUtils.getChecksumType();
+    }
+
+    if (Checksums.isChecksumType(checksumType)) {
+      checksumType = checksumType.toUpperCase();
+      httpResponse.setHeader(Constants.CHECKSUM_TYPE_HEADER, checksumType);
+      FileUtils.setThreadChecksumType(checksumType);
+      try {
+        chain.doFilter(request, response);
+      } finally {
+        FileUtils.setThreadChecksumType(null);
+      }
+    } else {
+      String message = String.format("Unknown checksum type: %s", checksumType);
+      logger.warn(message);
+      httpResponse.setHeader(Constants.EXCEPT_CLASS_HEADER, InvalidChecksumTypeException.class.getName());
+      httpResponse.setHeader(Constants.EXCEPT_MSG_HEADER, message);
+      httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, message);
+    }
+  }
+
+  @Override
+  public void init(FilterConfig config) throws ServletException {
+  }
+
+}
\ No newline at end of file
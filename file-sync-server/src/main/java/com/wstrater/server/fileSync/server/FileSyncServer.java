@@ -8,6 +8,9 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.util.EnumSet;
+
+import javax.servlet.DispatcherType;
 
 import org.eclipse.jetty.security.ConstraintMapping;
 import org.eclipse.jetty.security.ConstraintSecurityHandler;
@@ -19,6 +22,7 @@ import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.nio.SelectChannelConnector;
 import org.eclipse.jetty.server.ssl.SslSocketConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.security.Constraint;
@@ -141,11 +145,22 @@ public class FileSyncServer {
       } else {
         ChunkUtils.setBlockSize(cli.getBlockSize());
         DirectoryUtils.setBaseDir(cli.getBaseDir());
+        FileUtils.setChecksumType(cli.getChecksumType());
+        FileUtils.setDeferHashing(true);
         FileUtils.getPermissions().setLocalDelete(cli.isAllowDelete());
         FileUtils.getPermissions().setLocalWrite(cli.isAllowWrite());
+        FileUtils.setMapSize(cli.getMapSize());
+        FileUtils.setMaxBatchSize(cli.getMaxBatch());
         FileUtils.setMaxBlockSize(cli.getMaxBlock());
         FileUtils.setMaxOffset(cli.getMaxOffset());
+        FileUtils.setMaxOpenFiles(cli.getMaxOpen());
+        FileUtils.setBufferPoolSize(cli.getMaxPool());
+        HashProcessor.setBudget(cli.getHashBudget());
+        HashProcessor.setBusyBudget(cli.getHashBusy());
         HashProcessor.setHashType(cli.getHashType());
+        HashProcessor.setProgressBytes(cli.getHashBytes());
+        HashProcessor.setProgressMillis(cli.getHashProgress());
+        HashProcessor.setThreads(cli.getHashThreads());
         TimeUtils.setTimeZone(cli.getTimeZone());
 
         startServer(cli);
@@ -192,6 +207,7 @@ public class FileSyncServer {
     servletHolder.setInitParameter("com.sun.jersey.api.json.POJOMappingFeature", "true");
 
     ServletContextHandler servletContext = new ServletContextHandler(server, "/", ServletContextHandler.NO_SESSIONS);
+    servletContext.addFilter(new FilterHolder(new ChecksumFilter()), "/*", EnumSet.of(DispatcherType.REQUEST));
     servletContext.addServlet(servletHolder, "/*");
 
     if (cli.hasUserFile()) {
@@ -204,6 +220,8 @@ public class FileSyncServer {
       server.join();
     } finally {
       logger.info("Stopping Server: {}:{}", getLocalHost(), cli.getPort());
+      logger.info("Buffers: {}", FileUtils.getBufferPool());
+      logger.info("Compression: {}", FileUtils.getCompressionAdvisor());
       server.destroy();
     }
 
@@ -216,6 +234,8 @@ public class FileSyncServer {
       server.join();
     } finally {
       logger.info("Stopping Server: {}:{}", getLocalHost(), cli.getPort());
+      logger.info("Buffers: {}", FileUtils.getBufferPool());
+      logger.info("Compression: {}", FileUtils.getCompressionAdvisor());
       server.destroy();
     }
   }
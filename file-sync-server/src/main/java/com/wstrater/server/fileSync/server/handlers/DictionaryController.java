@@ -0,0 +1,79 @@
+package com.wstrater.server.fileSync.server.handlers;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.PUT;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.wstrater.server.fileSync.common.codec.Dictionaries;
+import com.wstrater.server.fileSync.common.codec.Dictionary;
+import com.wstrater.server.fileSync.common.exceptions.FileSyncException;
+import com.wstrater.server.fileSync.common.exceptions.InvalidDataLengthException;
+import com.wstrater.server.fileSync.common.utils.Constants;
+
+/**
+ * Receives the preset dictionaries clients deflate small blocks with. The dictionaries are only
+ * kept in memory so a client sends its dictionary again when it is no longer known.
+ *
+ * @author wstrater
+ *
+ */
+@Path(Constants.DICTIONARY_PATH)
+public class DictionaryController {
+
+  protected final Logger logger = LoggerFactory.getLogger(getClass());
+
+  private ResponseBuilder addException(ResponseBuilder builder, Throwable ee) {
+    logger.error(ee.getMessage());
+
+    if (ee instanceof FileSyncException) {
+      builder.header(Constants.EXCEPT_CLASS_HEADER, ee.getClass().getName());
+    } else {
+      builder.header(Constants.EXCEPT_CLASS_HEADER, FileSyncException.class.getName());
+    }
+    builder.header(Constants.EXCEPT_MSG_HEADER, ee.getMessage());
+
+    return builder;
+  }
+
+  /**
+   * Register a dictionary. The key, which includes the version taken from the content, is returned
+   * so the client can check the dictionary arrived intact.
+   *
+   * @param id
+   * @param data
+   * @return
+   */
+  @PUT
+  @Path(Constants.ID_REST)
+  @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+  public Response register(@PathParam(Constants.ID_PARAM) String id, byte[] data) {
+    Response ret;
+
+    try {
+      if (data == null || data.length == 0 || data.length > Dictionaries.MAX_SIZE) {
+        throw new InvalidDataLengthException(String.format("Dictionary must be between %d and %d bytes: %d", 1,
+            Dictionaries.MAX_SIZE, data == null ? 0 : data.length));
+      }
+
+      Dictionary dictionary = new Dictionary(id, data);
+      Dictionaries.register(dictionary);
+      logger.info(String.format("Registered %s", dictionary));
+
+      ret = Response.noContent().header(Constants.DICTIONARY_HEADER, dictionary.getKey())
+          .header(Constants.SUCCESS_HEADER, String.valueOf(true)).build();
+    } catch (FileSyncException ee) {
+      ret = addException(Response.status(Status.BAD_REQUEST), ee).build();
+    }
+
+    return ret;
+  }
+
+}
\ No newline at end of file
@@ -18,6 +18,8 @@ import org.slf4j.LoggerFactory;
 
 import com.wstrater.server.fileSync.common.data.DirectoryDeleteRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryDeleteResponse;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestRequest;
+import com.wstrater.server.fileSync.common.data.DirectoryDigestResponse;
 import com.wstrater.server.fileSync.common.data.DirectoryListRequest;
 import com.wstrater.server.fileSync.common.data.DirectoryListResponse;
 import com.wstrater.server.fileSync.common.data.DirectoryMakeRequest;
@@ -78,6 +80,49 @@ public class DirectoryController {
     return ret;
   }
 
+  /**
+   * The lastModified of the files is digested in the time zone of the server. The client digests
+   * in its own time zone so the digests match when the files would be listed with the same
+   * lastModified.
+   * 
+   * @param path
+   * @param levels The number of levels of sub-directories to return digests for. Negative for every
+   *          level.
+   * @param hiddenDirectories
+   * @param hiddenFiles
+   * @return
+   */
+  @GET
+  @Path(Constants.PATH_REST)
+  @Produces(Constants.DIGEST_MEDIA_TYPE)
+  public Response digest(@PathParam(Constants.PATH_PARAM) String path,
+      @QueryParam(Constants.LEVELS_PARAM) @DefaultValue("0") int levels,
+      @QueryParam(Constants.HIDDEN_DIRS_PARAM) @DefaultValue("false") boolean hiddenDirectories,
+      @QueryParam(Constants.HIDDEN_FILES_PARAM) @DefaultValue("false") boolean hiddenFiles) {
+    Response ret = null;
+
+    try {
+      DirectoryDigestRequest request = new DirectoryDigestRequest();
+      request.setBaseDir(DirectoryUtils.getBaseDir());
+      request.setPath(path);
+      request.setLevels(levels);
+      request.setHiddenDirectories(hiddenDirectories);
+      request.setHiddenFiles(hiddenFiles);
+
+      DirectoryDigestResponse response = lister.digestDirectory(request);
+      ret = Response.ok(response.getDirectoryDigest(), Constants.DIGEST_MEDIA_TYPE)
+          .header(Constants.SUCCESS_HEADER, String.valueOf(response.isSuccess())).build();
+    } catch (InvalidFileLocationException ee) {
+      ret = addException(Response.status(Status.FORBIDDEN), ee).build();
+    } catch (FileNotFoundException ee) {
+      ret = addException(Response.status(Status.NOT_FOUND), ee).build();
+    } catch (FileSyncException ee) {
+      ret = addException(Response.status(Status.BAD_REQUEST), ee).build();
+    }
+
+    return ret;
+  }
+
   /**
    * @param path
    * @param recursive
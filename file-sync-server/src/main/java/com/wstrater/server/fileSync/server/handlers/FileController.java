@@ -1,28 +1,54 @@
 package com.wstrater.server.fileSync.server.handlers;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.wstrater.server.fileSync.common.codec.Codec;
+import com.wstrater.server.fileSync.common.codec.Codecs;
+import com.wstrater.server.fileSync.common.codec.Dictionaries;
+import com.wstrater.server.fileSync.common.codec.DictionaryCodec;
 import com.wstrater.server.fileSync.common.data.DeleteRequest;
 import com.wstrater.server.fileSync.common.data.DeleteResponse;
+import com.wstrater.server.fileSync.common.data.DeltaRequest;
+import com.wstrater.server.fileSync.common.data.DeltaResponse;
+import com.wstrater.server.fileSync.common.data.FileSignature;
 import com.wstrater.server.fileSync.common.data.ReadRequest;
 import com.wstrater.server.fileSync.common.data.ReadResponse;
+import com.wstrater.server.fileSync.common.data.SignatureRequest;
+import com.wstrater.server.fileSync.common.data.SignatureResponse;
+import com.wstrater.server.fileSync.common.data.StreamRequest;
+import com.wstrater.server.fileSync.common.data.StreamResponse;
+import com.wstrater.server.fileSync.common.data.TreeRequest;
+import com.wstrater.server.fileSync.common.data.TreeResponse;
 import com.wstrater.server.fileSync.common.data.WriteRequest;
 import com.wstrater.server.fileSync.common.data.WriteResponse;
+import com.wstrater.server.fileSync.common.exceptions.DictionaryNotFoundException;
 import com.wstrater.server.fileSync.common.exceptions.ErrorDeflatingBlockException;
 import com.wstrater.server.fileSync.common.exceptions.ErrorInflatingBlockException;
 import com.wstrater.server.fileSync.common.exceptions.FileNotFoundException;
@@ -32,20 +58,31 @@ import com.wstrater.server.fileSync.common.file.BlockReader;
 import com.wstrater.server.fileSync.common.file.BlockReaderLocalImpl;
 import com.wstrater.server.fileSync.common.file.BlockWriter;
 import com.wstrater.server.fileSync.common.file.BlockWriterLocalImpl;
+import com.wstrater.server.fileSync.common.file.StreamListener;
+import com.wstrater.server.fileSync.common.utils.BatchUtils;
+import com.wstrater.server.fileSync.common.utils.Compare;
+import com.wstrater.server.fileSync.common.utils.CompressionAdvisor;
 import com.wstrater.server.fileSync.common.utils.CompressionUtils;
 import com.wstrater.server.fileSync.common.utils.CompressionUtils.Deflated;
 import com.wstrater.server.fileSync.common.utils.CompressionUtils.Inflated;
 import com.wstrater.server.fileSync.common.utils.Constants;
 import com.wstrater.server.fileSync.common.utils.DirectoryUtils;
+import com.wstrater.server.fileSync.common.utils.FileUtils;
 import com.wstrater.server.fileSync.common.utils.TimeUtils;
 
 @Path(Constants.FILE_PATH)
 public class FileController {
 
-  protected final Logger logger = LoggerFactory.getLogger(getClass());
+  /**
+   * Uncompressed blocks are read into a buffer kept by each request thread and written straight
+   * from it rather than a new array for every block.
+   */
+  private final static ThreadLocal<byte[]> blockBuffers = new ThreadLocal<>();
 
-  private BlockReader    reader = new BlockReaderLocalImpl();
-  private BlockWriter    writer = new BlockWriterLocalImpl();
+  protected final Logger                   logger       = LoggerFactory.getLogger(getClass());
+
+  private BlockReader                      reader       = new BlockReaderLocalImpl();
+  private BlockWriter                      writer       = new BlockWriterLocalImpl();
 
   private ResponseBuilder addException(ResponseBuilder builder, Throwable ee) {
     logger.error(ee.getMessage());
@@ -60,6 +97,75 @@ public class FileController {
     return builder;
   }
 
+  /**
+   * The codec the client asked for blocks to be compressed with. Clients that do not ask, or ask for
+   * a codec this server does not have, get deflate. The codec used is returned in a header.
+   * 
+   * @param codecName
+   * @return
+   */
+  private Codec compressCodec(String codecName) {
+    Codec ret;
+
+    if (Codecs.isCodec(codecName)) {
+      ret = Codecs.getCodec(codecName);
+    } else {
+      if (codecName != null) {
+        logger.debug(String.format("Invalid %s: %s", Constants.CODEC_HEADER, codecName));
+      }
+      ret = Codecs.getCodec(Codecs.DEFLATE);
+    }
+
+    return ret;
+  }
+
+  /**
+   * The codec the client compressed blocks with. Blocks deflated with a preset dictionary name the
+   * dictionary instead.
+   * 
+   * @param codecName Deflate if missing.
+   * @param dictionaryKey Optional
+   * @return
+   * @throws DictionaryNotFoundException If the dictionary is not registered so the client can send
+   *           it again.
+   */
+  private Codec decompressCodec(String codecName, String dictionaryKey) {
+    Codec ret;
+
+    if (dictionaryKey == null) {
+      ret = Codecs.getCodec(codecName);
+    } else {
+      ret = new DictionaryCodec(Dictionaries.getDictionary(dictionaryKey));
+    }
+
+    return ret;
+  }
+
+  /**
+   * The level the client asked for blocks to be deflated at. Clients that do not ask get the
+   * highest compression.
+   * 
+   * @param acceptEncoding
+   * @param deflateLevel
+   * @return Zero if the client does not accept deflated blocks.
+   */
+  private int deflateLevel(String acceptEncoding, String deflateLevel) {
+    int ret = 0;
+
+    if (acceptEncoding != null && acceptEncoding.toLowerCase().contains(Constants.DEFLATE)) {
+      ret = CompressionUtils.DEFAULT_LEVEL;
+      if (Compare.isNotBlank(deflateLevel)) {
+        try {
+          ret = Math.max(0, Math.min(Deflater.BEST_COMPRESSION, Integer.parseInt(deflateLevel.trim())));
+        } catch (NumberFormatException ee) {
+          logger.debug(String.format("Invalid %s: %s", Constants.DEFLATE_LEVEL_HEADER, deflateLevel));
+        }
+      }
+    }
+
+    return ret;
+  }
+
   @DELETE
   // @Path("{fileName : ([\\w\\.][\\w\\. \\-]*[/\\\\])*[\\w\\.][\\w\\. \\-]*}")
   @Path("{fileName : .* }")
@@ -84,13 +190,50 @@ public class FileController {
     return ret;
   }
 
+  /**
+   * The buffer of this thread grown to the block size if needed. Nothing is allocated for a block
+   * size that will be rejected, {@link FileUtils#readBlock(ReadRequest, byte[])} rejects it first.
+   * 
+   * @param blockSize
+   * @return Null if the block size is not valid.
+   */
+  private byte[] getBlockBuffer(int blockSize) {
+    byte[] ret = null;
+
+    if (blockSize >= FileUtils.MIN_BLOCK_SIZE && blockSize <= FileUtils.getMaxBlockSize()) {
+      ret = blockBuffers.get();
+      if (ret == null || ret.length < blockSize) {
+        ret = new byte[blockSize];
+        blockBuffers.set(ret);
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Read a block. A block that may be compressed is read into an array from the buffer pool and
+   * deflated into another that is released once written. Otherwise the block is read into the buffer
+   * of the request thread and written from it once the headers, including the CRC, are sent.
+   * 
+   * @param fileName
+   * @param offset
+   * @param blockSize
+   * @param accept
+   * @param acceptEncoding
+   * @param deflateLevel
+   * @param codecName Optional
+   * @return
+   */
   @GET
   @Path(Constants.FILE_NAME_REST)
   @Produces(MediaType.APPLICATION_OCTET_STREAM)
   public Response read(@PathParam(Constants.FILE_NAME_PARAM) String fileName,
       @QueryParam(Constants.OFFSET_PARAM) @DefaultValue("-1") long offset,
       @QueryParam(Constants.BLOCK_SIZE_PARAM) @DefaultValue("-1") int blockSize, @HeaderParam("Accept") String accept,
-      @HeaderParam("Accept-Encoding") String acceptEncoding) {
+      @HeaderParam("Accept-Encoding") String acceptEncoding,
+      @HeaderParam(Constants.DEFLATE_LEVEL_HEADER) String deflateLevel,
+      @HeaderParam(Constants.CODEC_HEADER) String codecName) {
     Response ret;
 
     try {
@@ -100,32 +243,59 @@ public class FileController {
       request.setBlockSize(blockSize);
       request.setOffset(offset);
 
-      ReadResponse response = reader.readBlock(request);
+      ReadResponse response;
+      BlockOutput entity;
+      Deflated deflated = null;
+      int level = deflateLevel(acceptEncoding, deflateLevel);
+      Codec codec = compressCodec(codecName);
+      boolean compress = false;
+      if (level > 0) {
+        response = reader.readBlock(request);
 
-      byte[] block = response.getData();
+        try {
+          CompressionAdvisor advisor = FileUtils.getCompressionAdvisor();
+          compress = advisor.shouldCompress(request.getBaseDir(), fileName, response.getData(), 0, response.getLength());
+          if (compress) {
+            deflated = advisor.compress(fileName, response.getData(), 0, response.getLength(), codec, level,
+                FileUtils.getBufferPool());
+          }
+        } catch (ErrorDeflatingBlockException ee) {
+          FileUtils.releaseBlock(response);
+          throw ee;
+        }
 
-      Deflated deflated = null;
-      if (response.getLength() >= Constants.MINIMUM_FOR_COMPRESSION && acceptEncoding != null
-          && acceptEncoding.toLowerCase().contains(Constants.DEFLATE)) {
-        deflated = CompressionUtils.deflate(block);
         if (deflated == null) {
-          throw new ErrorDeflatingBlockException("Error deflating read response");
-        }
-        if (deflated.getLength() >= response.getLength()) {
-          deflated = null;
+          entity = new BlockOutput(response.getData(), response.getLength(), response.isPooled());
         } else {
-          block = deflated.getData();
+          FileUtils.releaseBlock(response);
+          entity = new BlockOutput(deflated.getData(), deflated.getLength(), true);
         }
+      } else {
+        // Always local so read straight into the buffer of this thread.
+        response = FileUtils.readBlock(request, getBlockBuffer(request.getBlockSize()));
+        entity = new BlockOutput(response.getData(), response.getLength(), false);
       }
 
-      ResponseBuilder builder = Response.ok(block).header(Constants.LENGTH_HEADER, String.valueOf(response.getLength()))
+      ResponseBuilder builder = Response.ok(entity).header(Constants.LENGTH_HEADER, String.valueOf(response.getLength()))
           .header(Constants.CRC_HEADER, String.valueOf(response.getCrc32()))
           .header(Constants.EOF_HEADER, String.valueOf(response.isEof()))
           .header(Constants.SUCCESS_HEADER, String.valueOf(response.isSuccess()));
+      if (response.getHash() != null) {
+        builder.header(Constants.HASH_HEADER, response.getHash()).header(Constants.HASH_TYPE_HEADER, response.getHashType());
+      }
+      if (compress) {
+        // Tell the client the level was tried even if the block did not get smaller.
+        builder.header(Constants.DEFLATE_LEVEL_HEADER, String.valueOf(level));
+      }
       if (deflated != null) {
         builder.header(Constants.COMPRESSED_HEADER, String.valueOf(deflated.getLength()));
-        builder.header(Constants.CONTENT_ENCODED_HEADER, Constants.DEFLATE);
+        builder.header(Constants.CODEC_HEADER, codec.getName());
+        if (Codecs.DEFLATE.equals(codec.getName())) {
+          builder.header(Constants.CONTENT_ENCODED_HEADER, Constants.DEFLATE);
+        }
       }
+      // The length of a streamed entity is not known to Jersey so it would be chunked.
+      builder.header("Content-Length", String.valueOf(entity.length));
       ret = builder.build();
     } catch (InvalidFileLocationException ee) {
       ret = addException(Response.status(Status.FORBIDDEN), ee).build();
@@ -138,6 +308,243 @@ public class FileController {
     return ret;
   }
 
+  /**
+   * Read a batch of blocks, one for each offset, with a single request. This is chosen over
+   * {@link #read} by the Accept header. Only the blocks that fit in the maximum batch size are
+   * returned. The maximum is returned so the client can size the next batch.
+   * 
+   * @param fileName
+   * @param offsets
+   * @param blockSize
+   * @param acceptEncoding
+   * @param deflateLevel
+   * @param codecName Optional
+   * @return
+   */
+  @GET
+  @Path(Constants.FILE_NAME_REST)
+  @Produces(Constants.BATCH_MEDIA_TYPE)
+  public Response readBatch(@PathParam(Constants.FILE_NAME_PARAM) String fileName,
+      @QueryParam(Constants.OFFSET_PARAM) List<Long> offsets,
+      @QueryParam(Constants.BLOCK_SIZE_PARAM) @DefaultValue("-1") int blockSize,
+      @HeaderParam("Accept-Encoding") String acceptEncoding,
+      @HeaderParam(Constants.DEFLATE_LEVEL_HEADER) String deflateLevel,
+      @HeaderParam(Constants.CODEC_HEADER) String codecName) {
+    Response ret;
+
+    try {
+      List<ReadRequest> requests = new ArrayList<>();
+      for (Long offset : offsets) {
+        ReadRequest request = new ReadRequest();
+        request.setBaseDir(DirectoryUtils.getBaseDir());
+        request.setFileName(fileName);
+        request.setBlockSize(blockSize);
+        request.setOffset(offset);
+        requests.add(request);
+      }
+
+      List<ReadResponse> responses = reader.readBlocks(requests);
+
+      int level = deflateLevel(acceptEncoding, deflateLevel);
+      Codec codec = compressCodec(codecName);
+      byte[] batch = BatchUtils.writeReadResponses(responses, codec, level);
+      for (ReadResponse response : responses) {
+        FileUtils.releaseBlock(response);
+      }
+      ResponseBuilder builder = Response.ok(batch, Constants.BATCH_MEDIA_TYPE).header(Constants.MAX_BATCH_HEADER,
+          String.valueOf(FileUtils.getMaxBatchSize()));
+      if (level > 0) {
+        builder.header(Constants.DEFLATE_LEVEL_HEADER, String.valueOf(level));
+        builder.header(Constants.CODEC_HEADER, codec.getName());
+      }
+      ret = builder.build();
+    } catch (InvalidFileLocationException ee) {
+      ret = addException(Response.status(Status.FORBIDDEN), ee).build();
+    } catch (FileNotFoundException ee) {
+      ret = addException(Response.status(Status.NOT_FOUND), ee).build();
+    } catch (FileSyncException ee) {
+      ret = addException(Response.status(Status.BAD_REQUEST), ee).build();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Return the delta that rebuilds a file from the blocks of the older copy described by the
+   * signature posted. The delta is written as the file is read as one chunked response.
+   * 
+   * @param fileName
+   * @param signature
+   * @return
+   */
+  @POST
+  @Path(Constants.FILE_NAME_REST)
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(Constants.DELTA_MEDIA_TYPE)
+  public Response readDelta(@PathParam(Constants.FILE_NAME_PARAM) String fileName, FileSignature signature) {
+    Response ret;
+
+    try {
+      DeltaRequest request = new DeltaRequest();
+      request.setBaseDir(DirectoryUtils.getBaseDir());
+      request.setFileName(fileName);
+      request.setSignature(signature);
+      if (signature != null) {
+        request.setBlockSize(signature.getBlockSize());
+        request.setHashType(signature.getHashType());
+      }
+
+      // Jersey closes the stream once it has been written.
+      InputStream in = reader.readDelta(request);
+      ret = Response.ok(in, Constants.DELTA_MEDIA_TYPE).build();
+    } catch (InvalidFileLocationException ee) {
+      ret = addException(Response.status(Status.FORBIDDEN), ee).build();
+    } catch (FileNotFoundException ee) {
+      ret = addException(Response.status(Status.NOT_FOUND), ee).build();
+    } catch (FileSyncException ee) {
+      ret = addException(Response.status(Status.BAD_REQUEST), ee).build();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Return the CRC32 and hash of every block of a file along with the hash of the whole file. This
+   * is chosen over {@link #read} by the Accept header. Only the hash of the whole file is returned
+   * when hashOnly.
+   * 
+   * @param fileName
+   * @param blockSize
+   * @param hashType Optional
+   * @param hashOnly
+   * @return
+   */
+  @GET
+  @Path(Constants.FILE_NAME_REST)
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response readSignature(@PathParam(Constants.FILE_NAME_PARAM) String fileName,
+      @QueryParam(Constants.BLOCK_SIZE_PARAM) @DefaultValue("-1") int blockSize,
+      @QueryParam(Constants.HASH_TYPE_PARAM) String hashType, @QueryParam(Constants.HASH_ONLY_PARAM) boolean hashOnly) {
+    Response ret;
+
+    try {
+      SignatureRequest request = new SignatureRequest();
+      request.setBaseDir(DirectoryUtils.getBaseDir());
+      request.setFileName(fileName);
+      request.setBlockSize(blockSize);
+      request.setHashOnly(hashOnly);
+      request.setHashType(hashType);
+
+      SignatureResponse response = reader.readSignature(request);
+      ret = Response.ok(response.getSignature()).header(Constants.SUCCESS_HEADER, String.valueOf(response.isSuccess())).build();
+    } catch (InvalidFileLocationException ee) {
+      ret = addException(Response.status(Status.FORBIDDEN), ee).build();
+    } catch (FileNotFoundException ee) {
+      ret = addException(Response.status(Status.NOT_FOUND), ee).build();
+    } catch (FileSyncException ee) {
+      ret = addException(Response.status(Status.BAD_REQUEST), ee).build();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Stream the blocks of a file starting at the offset as one chunked response with a checkpoint
+   * after every <code>chunkSize</code> blocks. This is chosen over {@link #read} by the Accept
+   * header. The blocks are deflated as one stream when the client accepts it.
+   * 
+   * @param fileName
+   * @param offset
+   * @param length Negative streams to the end of the file.
+   * @param blockSize
+   * @param chunkSize
+   * @param acceptEncoding
+   * @param deflateLevel
+   * @return
+   */
+  @GET
+  @Path(Constants.FILE_NAME_REST)
+  @Produces(Constants.STREAM_MEDIA_TYPE)
+  public Response readStream(@PathParam(Constants.FILE_NAME_PARAM) String fileName,
+      @QueryParam(Constants.OFFSET_PARAM) @DefaultValue("-1") long offset,
+      @QueryParam(Constants.LENGTH_PARAM) @DefaultValue("-1") long length,
+      @QueryParam(Constants.BLOCK_SIZE_PARAM) @DefaultValue("-1") int blockSize,
+      @QueryParam(Constants.CHUNK_SIZE_PARAM) @DefaultValue("-1") int chunkSize,
+      @HeaderParam("Accept-Encoding") String acceptEncoding,
+      @HeaderParam(Constants.DEFLATE_LEVEL_HEADER) String deflateLevel) {
+    Response ret;
+
+    try {
+      StreamRequest request = new StreamRequest();
+      request.setBaseDir(DirectoryUtils.getBaseDir());
+      request.setFileName(fileName);
+      request.setBlockSize(blockSize);
+      request.setChunkSize(chunkSize);
+      request.setLength(length);
+      request.setLevel(deflateLevel(acceptEncoding, deflateLevel));
+      request.setOffset(offset);
+
+      // Jersey closes the stream once it has been written.
+      InputStream in = reader.readStream(request);
+      ret = Response.ok(in, Constants.STREAM_MEDIA_TYPE).build();
+    } catch (InvalidFileLocationException ee) {
+      ret = addException(Response.status(Status.FORBIDDEN), ee).build();
+    } catch (FileNotFoundException ee) {
+      ret = addException(Response.status(Status.NOT_FOUND), ee).build();
+    } catch (FileSyncException ee) {
+      ret = addException(Response.status(Status.BAD_REQUEST), ee).build();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Return the hashes of the chunks of a file so the client can compare its copy chunk by chunk.
+   * This is chosen over {@link #readSignature} by the Accept header. Only the chunks from
+   * <code>first</code> are returned when <code>count</code> is positive.
+   * 
+   * @param fileName
+   * @param blockSize
+   * @param chunkSize The blocks in a chunk. Chosen for the length of the file if not positive.
+   * @param first
+   * @param count
+   * @param hashType Optional
+   * @return
+   */
+  @GET
+  @Path(Constants.FILE_NAME_REST)
+  @Produces(Constants.TREE_MEDIA_TYPE)
+  public Response readTree(@PathParam(Constants.FILE_NAME_PARAM) String fileName,
+      @QueryParam(Constants.BLOCK_SIZE_PARAM) @DefaultValue("-1") int blockSize,
+      @QueryParam(Constants.CHUNK_SIZE_PARAM) @DefaultValue("0") int chunkSize,
+      @QueryParam(Constants.FIRST_PARAM) @DefaultValue("0") int first,
+      @QueryParam(Constants.COUNT_PARAM) @DefaultValue("0") int count, @QueryParam(Constants.HASH_TYPE_PARAM) String hashType) {
+    Response ret;
+
+    try {
+      TreeRequest request = new TreeRequest();
+      request.setBaseDir(DirectoryUtils.getBaseDir());
+      request.setFileName(fileName);
+      request.setBlockSize(blockSize);
+      request.setChunkSize(chunkSize);
+      request.setFirst(first);
+      request.setCount(count);
+      request.setHashType(hashType);
+
+      TreeResponse response = reader.readTree(request);
+      ret = Response.ok(response.getTree(), Constants.TREE_MEDIA_TYPE)
+          .header(Constants.SUCCESS_HEADER, String.valueOf(response.isSuccess())).build();
+    } catch (InvalidFileLocationException ee) {
+      ret = addException(Response.status(Status.FORBIDDEN), ee).build();
+    } catch (FileNotFoundException ee) {
+      ret = addException(Response.status(Status.NOT_FOUND), ee).build();
+    } catch (FileSyncException ee) {
+      ret = addException(Response.status(Status.BAD_REQUEST), ee).build();
+    }
+
+    return ret;
+  }
+
   /**
    * @param fileName
    * @param offset
@@ -145,6 +552,10 @@ public class FileController {
    * @param compressed
    * @param eof
    * @param timeStamp Time is expected to be UTC.
+   * @param hash The hash of the whole file checked once the EOF request is written. Optional.
+   * @param hashType
+   * @param codecName The codec a compressed block was compressed with. Deflate if missing.
+   * @param dictionaryKey The preset dictionary a compressed block was deflated with. Optional.
    * @param data
    * @return
    */
@@ -155,33 +566,45 @@ public class FileController {
       @QueryParam(Constants.OFFSET_PARAM) @DefaultValue("-1") long offset,
       @QueryParam(Constants.LENGTH_PARAM) @DefaultValue("-1") int length,
       @QueryParam(Constants.COMPRESSED_PARAM) @DefaultValue("-1") int compressed, @QueryParam(Constants.EOF_PARAM) boolean eof,
-      @QueryParam(Constants.TIME_STAMP_PARAM) @DefaultValue("0") long timeStamp, byte[] data) {
+      @QueryParam(Constants.TIME_STAMP_PARAM) @DefaultValue("0") long timeStamp,
+      @QueryParam(Constants.HASH_PARAM) String hash, @QueryParam(Constants.HASH_TYPE_PARAM) String hashType,
+      @HeaderParam(Constants.CODEC_HEADER) String codecName,
+      @HeaderParam(Constants.DICTIONARY_HEADER) String dictionaryKey, byte[] data) {
     Response ret;
 
-    byte[] block = data;
+    WriteRequest request = new WriteRequest();
 
     try {
-      if (compressed > 0) {
-        Inflated inflated = CompressionUtils.inflate(block, length);
-        if (inflated == null || inflated.getLength() != length) {
-          throw new ErrorInflatingBlockException("Error inflating compressed write request");
-        }
-        block = inflated.getData();
-      }
-
-      WriteRequest request = new WriteRequest();
       request.setBaseDir(DirectoryUtils.getBaseDir());
       request.setFileName(fileName);
-      request.setData(block);
+      request.setData(data);
       request.setEof(eof);
       request.setLength(length);
       request.setOffset(offset);
       request.setTimeStamp(TimeUtils.fromUTC(timeStamp));
+      request.setHash(hash);
+      request.setHashType(hashType);
+
+      if (compressed > 0) {
+        Inflated inflated = decompressCodec(codecName, dictionaryKey).decompress(data, 0, data.length, length,
+            FileUtils.getBufferPool());
+        request.setData(inflated.getData());
+        request.setPooled(true);
+        if (inflated.getLength() != length) {
+          throw new ErrorInflatingBlockException("Error inflating compressed write request");
+        }
+      }
 
       WriteResponse response = writer.writeBlock(request);
-      ret = Response.noContent().header(Constants.LENGTH_HEADER, String.valueOf(response.getLength()))
+      ResponseBuilder builder = Response.noContent().header(Constants.LENGTH_HEADER, String.valueOf(response.getLength()))
           .header(Constants.CRC_HEADER, String.valueOf(response.getCrc32()))
-          .header(Constants.SUCCESS_HEADER, String.valueOf(response.isSuccess())).build();
+          .header(Constants.SUCCESS_HEADER, String.valueOf(response.isSuccess()));
+      if (response.getHash() != null) {
+        builder.header(Constants.HASH_HEADER, response.getHash()).header(Constants.HASH_TYPE_HEADER, response.getHashType());
+      }
+      ret = builder.build();
+    } catch (DictionaryNotFoundException ee) {
+      ret = addException(Response.status(Status.PRECONDITION_FAILED), ee).build();
     } catch (InvalidFileLocationException ee) {
       logger.error(ee.getMessage());
       ret = Response.status(Status.FORBIDDEN).build();
@@ -191,9 +614,187 @@ public class FileController {
     } catch (FileSyncException ee) {
       logger.error(ee.getMessage());
       ret = Response.status(Status.BAD_REQUEST).build();
+    } finally {
+      FileUtils.releaseBlock(request);
     }
 
     return ret;
   }
 
+  /**
+   * Write a batch of blocks sent with a single request. This is chosen over {@link #write} by the
+   * Content-Type. Only the blocks that fit in the maximum batch size are written. The maximum is
+   * returned so the client can send the rest in batches that fit.
+   * 
+   * @param fileName
+   * @param codecName The codec the blocks were compressed with. Deflate if missing.
+   * @param dictionaryKey The preset dictionary the blocks were deflated with. Optional.
+   * @param in
+   * @return
+   */
+  @PUT
+  @Path(Constants.FILE_NAME_REST)
+  @Consumes(Constants.BATCH_MEDIA_TYPE)
+  @Produces(Constants.BATCH_MEDIA_TYPE)
+  public Response writeBatch(@PathParam(Constants.FILE_NAME_PARAM) String fileName,
+      @HeaderParam(Constants.CODEC_HEADER) String codecName,
+      @HeaderParam(Constants.DICTIONARY_HEADER) String dictionaryKey, InputStream in) {
+    Response ret;
+
+    try {
+      List<WriteRequest> requests = BatchUtils.readWriteRequests(in, DirectoryUtils.getBaseDir(), fileName,
+          decompressCodec(codecName, dictionaryKey));
+
+      List<WriteResponse> responses;
+      try {
+        responses = writer.writeBlocks(requests);
+      } finally {
+        for (WriteRequest request : requests) {
+          FileUtils.releaseBlock(request);
+        }
+      }
+      ret = Response.ok(BatchUtils.writeWriteResponses(responses), Constants.BATCH_MEDIA_TYPE)
+          .header(Constants.MAX_BATCH_HEADER, String.valueOf(FileUtils.getMaxBatchSize())).build();
+    } catch (DictionaryNotFoundException ee) {
+      ret = addException(Response.status(Status.PRECONDITION_FAILED), ee).build();
+    } catch (InvalidFileLocationException ee) {
+      ret = addException(Response.status(Status.FORBIDDEN), ee).build();
+    } catch (FileNotFoundException ee) {
+      ret = addException(Response.status(Status.NOT_FOUND), ee).build();
+    } catch (FileSyncException ee) {
+      ret = addException(Response.status(Status.BAD_REQUEST), ee).build();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Rebuild a file from a delta sent as one chunked request. This is chosen over {@link #write} by
+   * the Content-Type. The file is left as it was if the delta fails.
+   * 
+   * @param fileName
+   * @param blockSize
+   * @param hashType Optional
+   * @param timeStamp Time is expected to be UTC.
+   * @param in
+   * @return
+   */
+  @PUT
+  @Path(Constants.FILE_NAME_REST)
+  @Consumes(Constants.DELTA_MEDIA_TYPE)
+  public Response writeDelta(@PathParam(Constants.FILE_NAME_PARAM) String fileName,
+      @QueryParam(Constants.BLOCK_SIZE_PARAM) @DefaultValue("-1") int blockSize,
+      @QueryParam(Constants.HASH_TYPE_PARAM) String hashType,
+      @QueryParam(Constants.TIME_STAMP_PARAM) @DefaultValue("0") long timeStamp, InputStream in) {
+    Response ret;
+
+    try {
+      DeltaRequest request = new DeltaRequest();
+      request.setBaseDir(DirectoryUtils.getBaseDir());
+      request.setFileName(fileName);
+      request.setBlockSize(blockSize);
+      request.setHashType(hashType);
+      request.setTimeStamp(TimeUtils.fromUTC(timeStamp));
+
+      DeltaResponse response = writer.writeDelta(request, in);
+      ret = Response.noContent().header(Constants.LENGTH_HEADER, String.valueOf(response.getLength()))
+          .header(Constants.LITERAL_HEADER, String.valueOf(response.getLiteral()))
+          .header(Constants.MATCHED_HEADER, String.valueOf(response.getMatched()))
+          .header(Constants.SUCCESS_HEADER, String.valueOf(response.isSuccess())).build();
+    } catch (InvalidFileLocationException ee) {
+      ret = addException(Response.status(Status.FORBIDDEN), ee).build();
+    } catch (FileNotFoundException ee) {
+      ret = addException(Response.status(Status.NOT_FOUND), ee).build();
+    } catch (FileSyncException ee) {
+      ret = addException(Response.status(Status.BAD_REQUEST), ee).build();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Write a stream of blocks sent as one chunked request. This is chosen over {@link #write} by the
+   * Content-Type. The last checkpoint verified is returned even when the write fails so the client
+   * can resume from it.
+   * 
+   * @param fileName
+   * @param offset
+   * @param blockSize
+   * @param eof
+   * @param timeStamp Time is expected to be UTC.
+   * @param in
+   * @return
+   */
+  @PUT
+  @Path(Constants.FILE_NAME_REST)
+  @Consumes(Constants.STREAM_MEDIA_TYPE)
+  public Response writeStream(@PathParam(Constants.FILE_NAME_PARAM) String fileName,
+      @QueryParam(Constants.OFFSET_PARAM) @DefaultValue("-1") long offset,
+      @QueryParam(Constants.BLOCK_SIZE_PARAM) @DefaultValue("-1") int blockSize, @QueryParam(Constants.EOF_PARAM) boolean eof,
+      @QueryParam(Constants.TIME_STAMP_PARAM) @DefaultValue("0") long timeStamp, InputStream in) {
+    Response ret;
+
+    final AtomicLong checkpoint = new AtomicLong(offset);
+
+    try {
+      StreamRequest request = new StreamRequest();
+      request.setBaseDir(DirectoryUtils.getBaseDir());
+      request.setFileName(fileName);
+      request.setBlockSize(blockSize);
+      request.setEof(eof);
+      request.setOffset(offset);
+      request.setTimeStamp(TimeUtils.fromUTC(timeStamp));
+
+      StreamResponse response = writer.writeStream(request, in, new StreamListener() {
+
+        @Override
+        public void checkpoint(long offset) {
+          checkpoint.set(offset);
+        }
+      });
+      ret = Response.noContent().header(Constants.LENGTH_HEADER, String.valueOf(response.getLength()))
+          .header(Constants.CHECKPOINT_HEADER, String.valueOf(response.getCheckpoint()))
+          .header(Constants.SUCCESS_HEADER, String.valueOf(response.isSuccess())).build();
+    } catch (InvalidFileLocationException ee) {
+      ret = addException(Response.status(Status.FORBIDDEN), ee).header(Constants.CHECKPOINT_HEADER, String.valueOf(checkpoint.get())).build();
+    } catch (FileNotFoundException ee) {
+      ret = addException(Response.status(Status.NOT_FOUND), ee).header(Constants.CHECKPOINT_HEADER, String.valueOf(checkpoint.get())).build();
+    } catch (FileSyncException ee) {
+      ret = addException(Response.status(Status.BAD_REQUEST), ee).header(Constants.CHECKPOINT_HEADER, String.valueOf(checkpoint.get())).build();
+    }
+
+    return ret;
+  }
+
+  /**
+   * Writes a block read into a thread buffer or the buffer pool. Jersey writes the entity on the
+   * request thread before the thread reads another block. A pooled block is released once written.
+   */
+  private static class BlockOutput implements StreamingOutput {
+
+    private final byte[]  data;
+    private final int     length;
+    private final boolean pooled;
+
+    private BlockOutput(byte[] data, int length, boolean pooled) {
+      this.data = data;
+      this.length = length;
+      this.pooled = pooled;
+    }
+
+    @Override
+    public void write(OutputStream out) throws IOException, WebApplicationException {
+      try {
+        if (data != null && length > 0) {
+          out.write(data, 0, length);
+        }
+      } finally {
+        if (pooled) {
+          FileUtils.getBufferPool().release(data);
+        }
+      }
+    }
+
+  }
+
 }
\ No newline at end of file
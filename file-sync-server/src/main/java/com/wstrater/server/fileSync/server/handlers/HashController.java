@@ -54,6 +54,7 @@ public class HashController {
       @QueryParam(Constants.HASH_TYPE_PARAM) @DefaultValue(HashProcessor.DEFAULT_HASH_TYPE) String hashType,
       @QueryParam(Constants.HIDDEN_DIRS_PARAM) @DefaultValue("false") boolean hiddenDirectories,
       @QueryParam(Constants.HIDDEN_FILES_PARAM) @DefaultValue("false") boolean hiddenFiles,
+      @QueryParam(Constants.PRIORITY_PARAM) @DefaultValue("0") int priority,
       @QueryParam(Constants.RECURSIVE_PARAM) @DefaultValue("false") boolean recursive,
       @QueryParam(Constants.REHASH_PARAM) @DefaultValue("false") boolean reHashExisting) {
     Response ret = null;
@@ -66,6 +67,7 @@ public class HashController {
       request.setHiddenDirectories(hiddenDirectories);
       request.setHiddenFiles(hiddenFiles);
       request.setId(id);
+      request.setPriority(priority);
       request.setRecursive(recursive);
       request.setReHashExisting(reHashExisting);
 
@@ -82,14 +84,21 @@ public class HashController {
     return ret;
   }
 
+  /**
+   * Get the status of a request. Given the version of the last status seen and a wait, the request
+   * is held until the status changes so the client does not have to poll on a timer.
+   */
   @GET
   @Path(Constants.ID_REST)
   @Produces(MediaType.APPLICATION_JSON)
-  public Response status(@PathParam(Constants.ID_PARAM) String id) {
+  public Response status(@PathParam(Constants.ID_PARAM) String id,
+      @QueryParam(Constants.VERSION_PARAM) @DefaultValue("-1") long version,
+      @QueryParam(Constants.WAIT_PARAM) @DefaultValue("0") long waitMillis) {
     Response ret = null;
 
     try {
-      HashStatus status = hasher.getHashStatus(id);
+      HashStatus status = version < 0L || waitMillis <= 0L ? hasher.getHashStatus(id) : hasher.awaitHashStatus(id,
+          version, waitMillis);
       if (status == null) {
         throw new FileNotFoundException(String.format("HashRequest %s not found", id));
       }